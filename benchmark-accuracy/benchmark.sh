@@ -34,8 +34,8 @@ do
 
 echo "$alg, $dataset, file: $f"
 # compute image
-echo "java -jar $BM_ROOT/jeniffer2-cli.jar $f -a REORDER -i $alg -p RGGB -l NOP -o $BM_ROOT/results/$alg/$dataset/$f"
-java -jar $BM_ROOT/jeniffer2-cli.jar $f -a REORDER -i $alg -p RGGB -l NOP -o $BM_ROOT/results/$alg/$dataset/$f
+echo "java --add-modules jdk.incubator.vector -jar $BM_ROOT/jeniffer2-cli.jar $f -a REORDER -i $alg -p RGGB -l NOP -o $BM_ROOT/results/$alg/$dataset/$f"
+java --add-modules jdk.incubator.vector -jar $BM_ROOT/jeniffer2-cli.jar $f -a REORDER -i $alg -p RGGB -l NOP -o $BM_ROOT/results/$alg/$dataset/$f
 
 echo "MARGIN=$(java -jar $BM_ROOT/jeniffer2-cli.jar -i $alg -m)"
 MARGIN=$(java -jar $BM_ROOT/jeniffer2-cli.jar -i $alg -m)
@@ -51,7 +51,7 @@ for acc in CPU_MT_TILING CPU_MT_TILING_MT # CPU_TILING CPU_TILING_MT
 do
 for size in 512 256 128 64 32
 do
-TILE_SIZE=$size java -Xmx4g -jar jeniffer2-cli.jar -a $acc -i $alg pier.dng
+TILE_SIZE=$size java -Xmx4g --add-modules jdk.incubator.vector -jar jeniffer2-cli.jar -a $acc -i $alg pier.dng
 
 done # /for size in ...
 done # /for acc in ...
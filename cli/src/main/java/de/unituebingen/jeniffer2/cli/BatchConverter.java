@@ -0,0 +1,399 @@
+package de.unituebingen.jeniffer2.cli;
+
+import de.unituebingen.dng.DNGProcessor;
+import de.unituebingen.dng.processor.demosaicingprocessor.DemosaicingProcessor.InterpolationMethod;
+import de.unituebingen.dng.processor.util.PostProcessingPrecision;
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.imageprocessor.ImageExporter;
+import de.unituebingen.imageprocessor.PNGEncoder;
+import de.unituebingen.imageprocessor.ParallelImageEncoder;
+import de.unituebingen.imageprocessor.TIFFEncoder;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Converts many DNG files into TIFF or PNG files within one JVM, so JVM startup, class loading, system probing and JIT
+ * warm-up are paid once instead of once per file. <br/>
+ * Every image passes three stages: the raw image is decoded on an I/O thread, processed on a CPU thread and encoded on
+ * an I/O thread again. With separate pools, one image can be read and another one written while a third one is
+ * demosaiced. The amount of images in flight is limited by a memory budget. Outputs which are newer than their input
+ * are skipped, so an interrupted batch can simply be started again.
+ */
+public class BatchConverter {
+
+    // bytes per pixel of an image in flight: raw image, demosaiced image, output image and the working arrays of the
+    // demosaicing algorithms
+    private static final long BYTES_PER_PIXEL = 40;
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private final InterpolationMethod interpolationMethod;
+    private final AccelerationStrategy accelerationStrategy;
+    private File outputDirectory;
+    private int ioThreads = 2;
+    private int cpuThreads;
+    private long memoryBudget;
+    private boolean force = false;
+    private int colorLookupTableSize;
+    private PostProcessingPrecision postProcessingPrecision = PostProcessingPrecision.DOUBLE;
+    private boolean dithering;
+    private boolean png = false;
+    private int outputBitDepth = 8;
+    private TIFFEncoder.Compression compression = TIFFEncoder.Compression.NONE;
+    private int compressionLevel = -1;
+    private int rowsPerStrip = ParallelImageEncoder.DEFAULT_ROWS_PER_STRIP;
+
+    private final AtomicInteger converted = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong pixels = new AtomicLong();
+
+    public BatchConverter(InterpolationMethod interpolationMethod, AccelerationStrategy accelerationStrategy) {
+        this.interpolationMethod = interpolationMethod;
+        this.accelerationStrategy = accelerationStrategy;
+        // the GPU strategies share one graphics card, the others are multithreaded within an image already, so a
+        // second image only fills the gaps of the first one
+        boolean singleThreaded = accelerationStrategy == AccelerationStrategy.NONE
+                || accelerationStrategy == AccelerationStrategy.CPU_TILING;
+        boolean gpu = accelerationStrategy == AccelerationStrategy.GPU_OPERATION_WISE
+                || accelerationStrategy == AccelerationStrategy.GPU_TILE_WISE;
+        this.cpuThreads = gpu ? 1 : singleThreaded ? Runtime.getRuntime().availableProcessors() : 2;
+        this.memoryBudget = Runtime.getRuntime().maxMemory() / 4 * 3;
+    }
+
+    /**
+     * Sets the directory to which the output files are written, or {@code null} to write them next to the DNG files
+     * (default).
+     */
+    public void setOutputDirectory(File outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Sets the amount of threads which decode and encode images.
+     */
+    public void setIOThreads(int ioThreads) {
+        this.ioThreads = Math.max(1, ioThreads);
+    }
+
+    /**
+     * Sets the amount of images which are processed at the same time. The GPU acceleration strategies always process
+     * one image at a time.
+     */
+    public void setCPUThreads(int cpuThreads) {
+        boolean gpu = accelerationStrategy == AccelerationStrategy.GPU_OPERATION_WISE
+                || accelerationStrategy == AccelerationStrategy.GPU_TILE_WISE;
+        this.cpuThreads = gpu ? 1 : Math.max(1, cpuThreads);
+    }
+
+    /**
+     * Sets the memory which the images in flight may take, in bytes. An image which needs more than the budget is
+     * processed on its own. Default: three quarters of the maximum heap size.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = Math.max(MEGABYTE, memoryBudget);
+    }
+
+    /**
+     * Sets whether outputs are written again even if they are newer than their input.
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    /**
+     * Sets the size of the color lookup tables of the images, see {@link DNGProcessor#setColorLookupTableSize(int)}.
+     */
+    public void setColorLookupTableSize(int colorLookupTableSize) {
+        this.colorLookupTableSize = colorLookupTableSize;
+    }
+
+    /**
+     * Sets the arithmetic of the post-processing, see {@link DNGProcessor#setPostProcessingPrecision}.
+     */
+    public void setPostProcessingPrecision(PostProcessingPrecision postProcessingPrecision) {
+        this.postProcessingPrecision = postProcessingPrecision;
+    }
+
+    /**
+     * Sets whether the 8 bit samples of the output files are dithered, see {@link DNGProcessor#setDithering(boolean)}.
+     */
+    public void setDithering(boolean dithering) {
+        this.dithering = dithering;
+    }
+
+    /**
+     * Sets whether the images are written as PNG instead of TIFF files (default).
+     */
+    public void setPNG(boolean png) {
+        this.png = png;
+    }
+
+    /**
+     * Sets the bits per sample of the output files, 8 (default) or 16, see {@link DNGProcessor#setOutputBitDepth(int)}.
+     */
+    public void setOutputBitDepth(int outputBitDepth) {
+        this.outputBitDepth = outputBitDepth;
+    }
+
+    /**
+     * Sets the compression of the TIFF files, see {@link TIFFEncoder#setCompression(TIFFEncoder.Compression)}.
+     */
+    public void setCompression(TIFFEncoder.Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Sets the level of the Deflate compression, see {@link ParallelImageEncoder#setCompressionLevel(int)}.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Sets the amount of rows which are compressed together, see {@link ParallelImageEncoder#setRowsPerStrip(int)}.
+     */
+    public void setRowsPerStrip(int rowsPerStrip) {
+        this.rowsPerStrip = Math.max(1, rowsPerStrip);
+    }
+
+    /**
+     * A DNG file to convert.
+     * @param file The DNG file
+     * @param relativePath The path of the file relative to the directory or glob pattern it was found with, which is
+     *                     kept below the output directory, so files of the same name in different directories do not
+     *                     overwrite each other
+     */
+    public record Input(File file, Path relativePath) {
+    }
+
+    /**
+     * Collects the DNG files given by paths, which can be files, directories, glob patterns or files listing one path
+     * per line when prefixed with {@code @}. Directories are searched recursively for files ending in {@code .dng}.
+     *
+     * @return The DNG files in the given order, without duplicates
+     * @throws IOException If a directory or list cannot be read
+     */
+    public static List<Input> collectInputs(List<String> paths) throws IOException {
+        Map<File, Input> inputs = new LinkedHashMap<>();
+        for (String path : paths) {
+            if (path.startsWith("@")) {
+                List<String> listed = new ArrayList<>();
+                for (String line : Files.readAllLines(Paths.get(path.substring(1)))) {
+                    if (!line.isBlank() && !line.startsWith("#")) {
+                        listed.add(line.trim());
+                    }
+                }
+                for (Input input : collectInputs(listed)) {
+                    inputs.putIfAbsent(input.file(), input);
+                }
+            } else if (path.contains("*") || path.contains("?") || path.contains("[") || path.contains("{")) {
+                for (Input input : glob(path)) {
+                    inputs.putIfAbsent(input.file(), input);
+                }
+            } else if (new File(path).isDirectory()) {
+                Path directory = Paths.get(path);
+                try (Stream<Path> files = Files.walk(directory)) {
+                    files.filter(file -> Files.isRegularFile(file) && isDNG(file))
+                            .sorted()
+                            .forEach(file -> inputs.putIfAbsent(file.toFile(),
+                                    new Input(file.toFile(), directory.relativize(file))));
+                }
+            } else {
+                File file = new File(path);
+                inputs.putIfAbsent(file, new Input(file, Paths.get(file.getName())));
+            }
+        }
+        return new ArrayList<>(inputs.values());
+    }
+
+    private static List<Input> glob(String pattern) throws IOException {
+        // walk from the longest directory without wildcards
+        String separator = File.separator.equals("\\") ? "[/\\\\]" : "/";
+        String[] parts = pattern.split(separator);
+        Path root = pattern.startsWith("/") ? Paths.get("/") : Paths.get("");
+        for (String part : parts) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            if (part.contains("*") || part.contains("?") || part.contains("[") || part.contains("{")) {
+                break;
+            }
+            root = root.resolve(part);
+        }
+        boolean relative = root.toString().isEmpty();
+        Path start = relative ? Paths.get(".") : root;
+        if (!Files.isDirectory(start)) {
+            return Collections.emptyList();
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        List<Input> inputs = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(start)) {
+            paths.filter(Files::isRegularFile)
+                    .filter(path -> matcher.matches(relative ? start.relativize(path) : path))
+                    .sorted()
+                    .forEach(path -> inputs.add(new Input(path.toFile(), start.relativize(path))));
+        }
+        return inputs;
+    }
+
+    private static boolean isDNG(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".dng");
+    }
+
+    /**
+     * @return The TIFF or PNG file which the given DNG file is converted to
+     */
+    public File getOutputFile(Input input) {
+        String name = input.file().getName();
+        int extension = name.lastIndexOf('.');
+        name = (extension > 0 ? name.substring(0, extension) : name) + (png ? ".png" : ".tiff");
+        if (outputDirectory == null) {
+            return new File(input.file().getAbsoluteFile().getParentFile(), name);
+        }
+        Path directory = input.relativePath().getParent();
+        return new File(directory != null ? new File(outputDirectory, directory.toString()) : outputDirectory, name);
+    }
+
+    /**
+     * Converts the given files and prints the throughput of each file and of the whole batch.
+     *
+     * @return Whether all files were converted or skipped
+     */
+    public boolean convert(List<Input> inputs) {
+        long budget = memoryBudget / MEGABYTE;
+        System.out.println("Converting " + inputs.size() + " files with " + ioThreads + " I/O and " + cpuThreads
+                + " CPU threads and a memory budget of " + budget + " MB");
+        ExecutorService ioPool = Executors.newFixedThreadPool(ioThreads);
+        ExecutorService cpuPool = Executors.newFixedThreadPool(cpuThreads);
+        int totalPermits = (int) Math.min(Integer.MAX_VALUE, budget);
+        Semaphore memory = new Semaphore(totalPermits);
+        List<CompletableFuture<Void>> conversions = new ArrayList<>();
+        long start = System.nanoTime();
+        int index = 0;
+        for (Input next : inputs) {
+            index++;
+            File input = next.file();
+            String name = "[" + index + "/" + inputs.size() + "] " + input.getPath();
+            File output = getOutputFile(next);
+            if (!force && output.isFile() && output.lastModified() >= input.lastModified()) {
+                skipped.incrementAndGet();
+                System.out.println(name + ": up to date");
+                continue;
+            }
+            DNGProcessor processor;
+            try {
+                // only the header is read here, the raw image is decoded on an I/O thread
+                processor = new DNGProcessor(input);
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                System.out.println(name + ": failed, " + e);
+                continue;
+            }
+            processor.setInterpolationMethod(interpolationMethod);
+            processor.setAccelerationStrategy(accelerationStrategy);
+            processor.setColorLookupTableSize(colorLookupTableSize);
+            processor.setPostProcessingPrecision(postProcessingPrecision);
+            // the post-processing writes the samples of the output file directly
+            processor.setOutputBitDepth(outputBitDepth);
+            processor.setDithering(dithering);
+            long imagePixels = (long) processor.getImageWidth() * processor.getImageLength();
+            int permits = (int) Math.max(1, Math.min(totalPermits, imagePixels * BYTES_PER_PIXEL / MEGABYTE));
+            // wait until the images in flight leave enough memory, so the heap never holds more than the budget
+            memory.acquireUninterruptibly(permits);
+            long[] times = new long[4];
+            times[0] = System.nanoTime();
+            conversions.add(CompletableFuture
+                    .supplyAsync(() -> {
+                        try {
+                            BufferedImage rawImage = processor.readRawImage();
+                            times[1] = System.nanoTime();
+                            return rawImage;
+                        } catch (Exception e) {
+                            throw new CompletionException(e);
+                        }
+                    }, ioPool)
+                    .thenApplyAsync(rawImage -> {
+                        long processStart = System.nanoTime();
+                        BufferedImage image = processor.process(rawImage);
+                        times[2] = System.nanoTime() - processStart;
+                        return image;
+                    }, cpuPool)
+                    .thenAcceptAsync(image -> {
+                        long encodeStart = System.nanoTime();
+                        try {
+                            output.getAbsoluteFile().getParentFile().mkdirs();
+                            if (ParallelImageEncoder.isSupported(image)) {
+                                // the strips are compressed in the common pool, so the I/O thread mostly writes
+                                ParallelImageEncoder<?> encoder;
+                                if (png) {
+                                    encoder = new PNGEncoder(output);
+                                } else {
+                                    TIFFEncoder tiffEncoder = new TIFFEncoder(output);
+                                    tiffEncoder.setCompression(compression);
+                                    encoder = tiffEncoder;
+                                }
+                                encoder.setCompressionLevel(compressionLevel);
+                                encoder.setRowsPerStrip(rowsPerStrip);
+                                encoder.encode(image);
+                            } else if (png) {
+                                ImageExporter.saveAsPNG(image, output);
+                            } else {
+                                ImageExporter.saveAsTIFF(image, output);
+                            }
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                        times[3] = System.nanoTime() - encodeStart;
+                    }, ioPool)
+                    .whenComplete((result, e) -> {
+                        memory.release(permits);
+                        if (e != null) {
+                            failed.incrementAndGet();
+                            output.delete();
+                            Throwable cause = e instanceof CompletionException && e.getCause() != null
+                                    ? e.getCause() : e;
+                            System.out.println(name + ": failed, " + cause);
+                            return;
+                        }
+                        converted.incrementAndGet();
+                        pixels.addAndGet(imagePixels);
+                        double seconds = (System.nanoTime() - times[0]) / 1e9;
+                        System.out.printf(Locale.ROOT,
+                                "%s -> %s: %.1f MP in %.2f s (decode %.2f s, process %.2f s, encode %.2f s), %.1f MP/s%n",
+                                name, output.getPath(), imagePixels / 1e6, seconds, (times[1] - times[0]) / 1e9,
+                                times[2] / 1e9, times[3] / 1e9, imagePixels / 1e6 / seconds);
+                    }));
+        }
+        CompletableFuture.allOf(conversions.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+        ioPool.shutdown();
+        cpuPool.shutdown();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT,
+                "Converted %d, skipped %d, failed %d files in %.2f s: %.2f files/s, %.1f MP/s%n",
+                converted.get(), skipped.get(), failed.get(), seconds, converted.get() / seconds,
+                pixels.get() / 1e6 / seconds);
+        return failed.get() == 0;
+    }
+}
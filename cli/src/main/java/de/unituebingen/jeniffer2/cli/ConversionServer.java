@@ -0,0 +1,445 @@
+package de.unituebingen.jeniffer2.cli;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.unituebingen.dng.DNGProcessor;
+import de.unituebingen.dng.DNGProcessor.LoggingMethod;
+import de.unituebingen.dng.processor.demosaicingprocessor.DemosaicingProcessor.InterpolationMethod;
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.dng.util.CFAPattern;
+import de.unituebingen.imageprocessor.ImageExporter;
+import de.unituebingen.imageprocessor.PNGEncoder;
+import de.unituebingen.imageprocessor.ParallelImageEncoder;
+import de.unituebingen.imageprocessor.TIFFEncoder;
+
+import java.awt.Point;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a warmed-up DNG processing engine resident and converts DNG files on request, so other programs can submit
+ * conversions without starting a JVM for each of them. <br/>
+ * The server listens on the loopback interface only and accepts these requests:
+ * <ul>
+ *     <li>{@code POST /jobs} with the form parameters {@code input} and optionally {@code output},
+ *     {@code interpolation}, {@code acceleration}, {@code format} ({@code tiff}, {@code png} or {@code jpg}) and
+ *     {@code dither} ({@code true} for ordered dithering of the 8 bit samples) in the body or the query. Answers {@code 202} with the id of the job, or {@code 503} if the queue is full.</li>
+ *     <li>{@code GET /jobs/<id>}: the state of a job, {@code queued}, {@code running}, {@code done} or
+ *     {@code failed}, and its wait and processing times</li>
+ *     <li>{@code GET /metrics}: the queue depth, job counts and latencies in the Prometheus text format</li>
+ * </ul>
+ * Jobs are processed in the order they arrive by a fixed amount of workers. The queue is bounded, so a client which
+ * submits faster than the jobs are processed is told to retry later instead of filling the heap.
+ */
+public class ConversionServer {
+
+    // the latencies of this many of the last jobs are kept for the quantiles
+    private static final int LATENCY_WINDOW = 1024;
+    // this many of the last jobs can be looked up by their id
+    private static final int JOB_HISTORY = 10000;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final int port;
+    private final int workers;
+    private final int queueCapacity;
+    private final InterpolationMethod interpolationMethod;
+    private final AccelerationStrategy accelerationStrategy;
+
+    private HttpServer server;
+    private ThreadPoolExecutor executor;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final Map<Long, Job> jobs = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Job> eldest) {
+            return size() > JOB_HISTORY;
+        }
+    };
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final Latencies waitTimes = new Latencies();
+    private final Latencies processingTimes = new Latencies();
+
+    /**
+     * @param port The port on the loopback interface, 0 for any free port
+     * @param workers The amount of jobs which are processed at the same time
+     * @param queueCapacity The amount of jobs which may wait for a worker
+     * @param interpolationMethod The interpolation method of jobs which do not name one
+     * @param accelerationStrategy The acceleration strategy of jobs which do not name one
+     */
+    public ConversionServer(int port, int workers, int queueCapacity, InterpolationMethod interpolationMethod,
+                            AccelerationStrategy accelerationStrategy) {
+        this.port = port;
+        this.workers = Math.max(1, workers);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.interpolationMethod = interpolationMethod;
+        this.accelerationStrategy = accelerationStrategy;
+    }
+
+    /**
+     * Warms up the default interpolation method and acceleration strategy and starts listening.
+     *
+     * @param warmUp Whether the JIT compiler is warmed up on a synthetic image before the first job is accepted
+     * @throws IOException If the port cannot be bound
+     */
+    public void start(boolean warmUp) throws IOException {
+        if (warmUp) {
+            warmUp();
+        }
+        executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity));
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/jobs", this::handleJobs);
+        server.createContext("/metrics", this::handleMetrics);
+        // the handlers only enqueue and look up jobs, so they do not need more than a few threads
+        ExecutorService handlers = Executors.newFixedThreadPool(2);
+        server.setExecutor(handlers);
+        server.start();
+        System.out.println("Listening on http://" + server.getAddress().getHostString() + ":" + getPort()
+                + " with " + workers + " workers and room for " + queueCapacity + " queued jobs");
+    }
+
+    /**
+     * @return The port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting jobs and waits for the queued ones to finish.
+     */
+    public void stop() throws InterruptedException {
+        server.stop(0);
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        ((ExecutorService) server.getExecutor()).shutdown();
+    }
+
+    private void warmUp() {
+        long start = System.nanoTime();
+        int width = 1024;
+        int height = 1024;
+        Random random = new Random(42);
+        short[] samples = new short[width * height];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (4096 + random.nextInt(1024));
+        }
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferUShort(samples, samples.length),
+                width, height, width, 1, new int[]{0}, new Point(0, 0));
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false,
+                ColorModel.OPAQUE, DataBuffer.TYPE_USHORT);
+        BufferedImage image = new BufferedImage(colorModel, raster, false, null);
+        try {
+            for (int i = 0; i < 5; i++) {
+                DNGProcessor.performDemosaicing(image, interpolationMethod, accelerationStrategy, CFAPattern.RGGB,
+                        LoggingMethod.NOP);
+            }
+        } catch (Exception | Error e) {
+            // e.g. no OpenGL context for the GPU strategies, the jobs will report it
+            System.out.println("Warm-up failed: " + e);
+            return;
+        }
+        System.out.printf(Locale.ROOT, "Warmed up %s with %s in %.2f s%n", interpolationMethod, accelerationStrategy,
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    private void handleJobs(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/jobs") || path.equals("/jobs/")) {
+                if (!exchange.getRequestMethod().equals("POST")) {
+                    respond(exchange, 405, "{\"error\":\"use POST to submit a job\"}");
+                    return;
+                }
+                submit(exchange);
+            } else {
+                if (!exchange.getRequestMethod().equals("GET")) {
+                    respond(exchange, 405, "{\"error\":\"use GET to query a job\"}");
+                    return;
+                }
+                Job job;
+                try {
+                    long id = Long.parseLong(path.substring("/jobs/".length()));
+                    synchronized (jobs) {
+                        job = jobs.get(id);
+                    }
+                } catch (NumberFormatException e) {
+                    job = null;
+                }
+                if (job == null) {
+                    respond(exchange, 404, "{\"error\":\"no such job\"}");
+                } else {
+                    respond(exchange, 200, job.toJSON());
+                }
+            }
+        } catch (RuntimeException e) {
+            respond(exchange, 500, "{\"error\":" + quote(String.valueOf(e)) + "}");
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        Job job;
+        try {
+            // malformed escapes are bad input as well
+            Map<String, String> parameters = parseForm(exchange.getRequestURI().getRawQuery());
+            parameters.putAll(parseForm(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)));
+            job = new Job(nextId.getAndIncrement(), parameters);
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, "{\"error\":" + quote(e.getMessage()) + "}");
+            return;
+        }
+        try {
+            synchronized (jobs) {
+                jobs.put(job.id, job);
+            }
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            synchronized (jobs) {
+                jobs.remove(job.id);
+            }
+            rejected.incrementAndGet();
+            int queueDepth = executor.getQueue().size();
+            exchange.getResponseHeaders().set("Retry-After",
+                    Long.toString(getRetryAfter(processingTimes.mean(), queueDepth, workers)));
+            respond(exchange, 503, "{\"error\":\"queue is full\",\"queueDepth\":" + queueDepth + "}");
+            return;
+        }
+        respond(exchange, 202, "{\"id\":" + job.id + ",\"output\":" + quote(job.output.getPath()) + "}");
+    }
+
+    /**
+     * @param meanProcessingTime The mean processing time of a job in seconds
+     * @param queueDepth         The amount of jobs waiting for a worker
+     * @param workers            The amount of workers
+     * @return Roughly the seconds until the workers have taken all jobs which are queued now, at least one second
+     */
+    static long getRetryAfter(double meanProcessingTime, int queueDepth, int workers) {
+        return Math.max(1, Math.round(meanProcessingTime * queueDepth / workers));
+    }
+
+    /**
+     * @return The executor of the workers, for tests which need to occupy them
+     */
+    ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        StringBuilder metrics = new StringBuilder();
+        metrics.append("# HELP jeniffer2_queue_depth Jobs waiting for a worker\n");
+        metrics.append("# TYPE jeniffer2_queue_depth gauge\n");
+        metrics.append("jeniffer2_queue_depth ").append(executor.getQueue().size()).append('\n');
+        metrics.append("# HELP jeniffer2_queue_capacity Jobs which may wait for a worker\n");
+        metrics.append("# TYPE jeniffer2_queue_capacity gauge\n");
+        metrics.append("jeniffer2_queue_capacity ").append(queueCapacity).append('\n');
+        metrics.append("# HELP jeniffer2_jobs_running Jobs being processed\n");
+        metrics.append("# TYPE jeniffer2_jobs_running gauge\n");
+        metrics.append("jeniffer2_jobs_running ").append(executor.getActiveCount()).append('\n');
+        metrics.append("# HELP jeniffer2_jobs_total Jobs by outcome\n");
+        metrics.append("# TYPE jeniffer2_jobs_total counter\n");
+        metrics.append("jeniffer2_jobs_total{status=\"completed\"} ").append(completed.get()).append('\n');
+        metrics.append("jeniffer2_jobs_total{status=\"failed\"} ").append(failed.get()).append('\n');
+        metrics.append("jeniffer2_jobs_total{status=\"rejected\"} ").append(rejected.get()).append('\n');
+        waitTimes.append(metrics, "jeniffer2_job_wait_seconds", "Time from submission until a worker takes the job");
+        processingTimes.append(metrics, "jeniffer2_job_processing_seconds", "Time to decode, process and encode");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+        respond(exchange, 200, metrics.toString());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (!exchange.getResponseHeaders().containsKey("Content-Type")) {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseForm(String form) {
+        Map<String, String> parameters = new HashMap<>();
+        if (form == null || form.isBlank()) {
+            return parameters;
+        }
+        for (String pair : form.trim().split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * A conversion job and its state.
+     */
+    private class Job implements Runnable {
+        private final long id;
+        private final File input;
+        private final File output;
+        private final InterpolationMethod interpolationMethod;
+        private final AccelerationStrategy accelerationStrategy;
+        private final String format;
+        private final boolean dithering;
+        private final long submitted = System.nanoTime();
+        private volatile String state = "queued";
+        private volatile String error;
+        private volatile double waitTime;
+        private volatile double processingTime;
+
+        Job(long id, Map<String, String> parameters) {
+            this.id = id;
+            String inputPath = parameters.get("input");
+            if (inputPath == null || inputPath.isBlank()) {
+                throw new IllegalArgumentException("missing parameter input");
+            }
+            this.input = new File(inputPath);
+            this.format = parameters.getOrDefault("format", "tiff").toLowerCase(Locale.ROOT);
+            if (!format.equals("tiff") && !format.equals("png") && !format.equals("jpg")) {
+                throw new IllegalArgumentException(format + " is no valid format, use tiff, png or jpg");
+            }
+            this.dithering = Boolean.parseBoolean(parameters.get("dither"));
+            String outputPath = parameters.get("output");
+            if (outputPath == null || outputPath.isBlank()) {
+                String name = input.getName();
+                int extension = name.lastIndexOf('.');
+                outputPath = new File(input.getAbsoluteFile().getParentFile(),
+                        (extension > 0 ? name.substring(0, extension) : name) + "." + format).getPath();
+            }
+            this.output = new File(outputPath);
+            this.interpolationMethod = parameters.containsKey("interpolation")
+                    ? parse(InterpolationMethod.class, parameters.get("interpolation"), "interpolation method")
+                    : ConversionServer.this.interpolationMethod;
+            this.accelerationStrategy = parameters.containsKey("acceleration")
+                    ? parse(AccelerationStrategy.class, parameters.get("acceleration"), "acceleration strategy")
+                    : ConversionServer.this.accelerationStrategy;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            waitTime = (start - submitted) / 1e9;
+            waitTimes.add(waitTime);
+            state = "running";
+            try {
+                DNGProcessor processor = new DNGProcessor(input);
+                processor.setInterpolationMethod(interpolationMethod);
+                processor.setAccelerationStrategy(accelerationStrategy);
+                processor.setOutputBitDepth(8);
+                processor.setDithering(dithering);
+                BufferedImage image = processor.process(processor.readRawImage());
+                if (format.equals("jpg")) {
+                    // there is no parallel JPEG encoder
+                    ImageExporter.saveAsJPEG(image, output, 0.9f);
+                } else if (ParallelImageEncoder.isSupported(image)) {
+                    // the strips are compressed in the common pool, like the ones of the batch converter
+                    ParallelImageEncoder<?> encoder = format.equals("png") ? new PNGEncoder(output)
+                            : new TIFFEncoder(output);
+                    encoder.encode(image);
+                } else if (format.equals("png")) {
+                    ImageExporter.saveAsPNG(image, output);
+                } else {
+                    ImageExporter.saveAsTIFF(image, output);
+                }
+                state = "done";
+                completed.incrementAndGet();
+            } catch (Exception | OutOfMemoryError e) {
+                error = String.valueOf(e);
+                state = "failed";
+                failed.incrementAndGet();
+                System.out.println("Job " + id + " (" + input + ") failed: " + e);
+            } finally {
+                processingTime = (System.nanoTime() - start) / 1e9;
+                processingTimes.add(processingTime);
+            }
+        }
+
+        String toJSON() {
+            return "{\"id\":" + id + ",\"state\":\"" + state + "\",\"input\":" + quote(input.getPath())
+                    + ",\"output\":" + quote(output.getPath()) + ",\"interpolation\":\"" + interpolationMethod
+                    + "\",\"acceleration\":\"" + accelerationStrategy + "\",\"format\":\"" + format + "\""
+                    + String.format(Locale.ROOT, ",\"waitSeconds\":%.3f,\"processingSeconds\":%.3f",
+                    waitTime, processingTime)
+                    + (error != null ? ",\"error\":" + quote(error) : "") + "}";
+        }
+    }
+
+    private static <E extends Enum<E>> E parse(Class<E> type, String value, String description) {
+        try {
+            return Enum.valueOf(type, value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(value + " is no valid " + description);
+        }
+    }
+
+    /**
+     * The count and sum of all latencies, and the last {@link #LATENCY_WINDOW} latencies for the quantiles.
+     */
+    private static final class Latencies {
+        private final double[] window = new double[LATENCY_WINDOW];
+        private long count;
+        private double sum;
+
+        synchronized void add(double seconds) {
+            window[(int) (count % LATENCY_WINDOW)] = seconds;
+            count++;
+            sum += seconds;
+        }
+
+        synchronized double mean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        synchronized void append(StringBuilder metrics, String name, String help) {
+            metrics.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            metrics.append("# TYPE ").append(name).append(" summary\n");
+            double[] sorted = Arrays.copyOf(window, (int) Math.min(count, LATENCY_WINDOW));
+            Arrays.sort(sorted);
+            for (double quantile : QUANTILES) {
+                double value = sorted.length == 0 ? Double.NaN
+                        : sorted[Math.min(sorted.length - 1, (int) (quantile * sorted.length))];
+                metrics.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(String.format(Locale.ROOT, "%.6f", value)).append('\n');
+            }
+            metrics.append(name).append("_sum ").append(String.format(Locale.ROOT, "%.6f", sum)).append('\n');
+            metrics.append(name).append("_count ").append(count).append('\n');
+        }
+    }
+}
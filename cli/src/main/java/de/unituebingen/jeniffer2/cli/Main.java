@@ -9,12 +9,18 @@ import de.unituebingen.dng.reader.DNGReadException;
 import de.unituebingen.dng.reader.compression.CompressionDecoderException;
 import de.unituebingen.dng.reader.dng.util.CFAPattern;
 import de.unituebingen.imageprocessor.ImageExporter;
+import de.unituebingen.imageprocessor.PNGEncoder;
+import de.unituebingen.imageprocessor.ParallelImageEncoder;
+import de.unituebingen.imageprocessor.TIFFEncoder;
 import de.unituebingen.dng.processor.demosaicingprocessor.DemosaicingProcessor.InterpolationMethod;
+import de.unituebingen.dng.processor.util.PostProcessingPrecision;
 import de.unituebingen.dng.processor.util.AccelerationStrategy;
 
 import java.awt.image.*;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import javax.imageio.ImageIO;
@@ -35,6 +41,23 @@ public class Main {
         String subStep = "";
         CFAPattern pattern = null;
         boolean printMargin = false;
+        boolean batch = false;
+        boolean force = false;
+        boolean dithering = false;
+        boolean streaming = false;
+        String format = "tiff";
+        int bitDepth = 8;
+        List<String> inputs = new ArrayList<>();
+        int ioThreads = 0;
+        int cpuThreads = 0;
+        long memoryBudget = 0;
+        int port = -1;
+        int queueCapacity = 64;
+        int lookupTableSize = 0;
+        PostProcessingPrecision precision = PostProcessingPrecision.DOUBLE;
+        TIFFEncoder.Compression compression = TIFFEncoder.Compression.NONE;
+        int compressionLevel = -1;
+        int rowsPerStrip = 0;
         for (int i = 0; i < args.length; i++) {
             switch (args[i]) {
                 case "--help":
@@ -68,10 +91,84 @@ public class Main {
                 case "-m":
                     printMargin = true;
                     continue;
+                case "--batch":
+                case "-b":
+                    batch = true;
+                    continue;
+                case "--force":
+                case "-f":
+                    force = true;
+                    continue;
+                case "--dither":
+                    dithering = true;
+                    continue;
+                case "--stream":
+                    streaming = true;
+                    continue;
+                case "--io-threads":
+                    receiving = "io-threads";
+                    continue;
+                case "--cpu-threads":
+                    receiving = "cpu-threads";
+                    continue;
+                case "--memory":
+                    receiving = "memory";
+                    continue;
+                case "--serve":
+                    receiving = "serve";
+                    continue;
+                case "--queue":
+                    receiving = "queue";
+                    continue;
+                case "--lut":
+                    receiving = "lut";
+                    continue;
+                case "--precision":
+                    receiving = "precision";
+                    continue;
+                case "--compression":
+                    receiving = "compression";
+                    continue;
+                case "--level":
+                    receiving = "level";
+                    continue;
+                case "--strip-rows":
+                    receiving = "strip-rows";
+                    continue;
+                case "--format":
+                    receiving = "format";
+                    continue;
+                case "--bit-depth":
+                    receiving = "bit-depth";
+                    continue;
             }
             switch (receiving) {
                 case "":
                     filePath = args[i];
+                    inputs.add(args[i]);
+                    continue;
+                case "io-threads":
+                case "cpu-threads":
+                case "memory":
+                case "serve":
+                case "queue":
+                case "lut":
+                case "level":
+                case "strip-rows":
+                    try {
+                        int value = Integer.parseInt(args[i]);
+                        if (receiving.equals("io-threads")) ioThreads = value;
+                        else if (receiving.equals("cpu-threads")) cpuThreads = value;
+                        else if (receiving.equals("serve")) port = value;
+                        else if (receiving.equals("queue")) queueCapacity = value;
+                        else if (receiving.equals("lut")) lookupTableSize = value;
+                        else if (receiving.equals("level")) compressionLevel = Math.max(-1, Math.min(value, 9));
+                        else if (receiving.equals("strip-rows")) rowsPerStrip = value;
+                        else memoryBudget = value * 1024L * 1024L;
+                    } catch (NumberFormatException e) {
+                        System.out.println(args[i] + " is no valid number for --" + receiving + ", using the default");
+                    }
+                    receiving = "";
                     continue;
                 case "output":
                     outputPath = args[i];
@@ -94,6 +191,42 @@ public class Main {
                     }
                     receiving = "";
                     continue;
+                case "precision":
+                    try {
+                        precision = PostProcessingPrecision.valueOf(args[i]);
+                    } catch (IllegalArgumentException e) {
+                        System.out.println(args[i] + " is no valid precision" +
+                                ", staying with previously specified or default " + precision.toString());
+                    }
+                    receiving = "";
+                    continue;
+                case "compression":
+                    try {
+                        compression = TIFFEncoder.Compression.valueOf(args[i]);
+                    } catch (IllegalArgumentException e) {
+                        System.out.println(args[i] + " is no valid compression" +
+                                ", staying with previously specified or default " + compression.toString());
+                    }
+                    receiving = "";
+                    continue;
+                case "format":
+                    if (args[i].equals("tiff") || args[i].equals("png")) {
+                        format = args[i];
+                    } else {
+                        System.out.println(args[i] + " is no valid format" +
+                                ", staying with previously specified or default " + format);
+                    }
+                    receiving = "";
+                    continue;
+                case "bit-depth":
+                    if (args[i].equals("8") || args[i].equals("16")) {
+                        bitDepth = Integer.parseInt(args[i]);
+                    } else {
+                        System.out.println(args[i] + " is no valid bit depth" +
+                                ", staying with previously specified or default " + bitDepth);
+                    }
+                    receiving = "";
+                    continue;
                 case "log":
                     try {
                         loggingMethod = LoggingMethod.valueOf(args[i]);
@@ -130,6 +263,39 @@ public class Main {
             System.out.println(DNGProcessor.getMargin(interpolationMethod));
             System.exit(0);
         }
+        if(port >= 0) {
+            ConversionServer server = new ConversionServer(port, cpuThreads > 0 ? cpuThreads : 2, queueCapacity,
+                    interpolationMethod, accelerationStrategy);
+            server.start(true);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.println("Finishing queued jobs");
+                try {
+                    server.stop();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            // the server threads keep the JVM running
+            return;
+        }
+        if(batch) {
+            BatchConverter converter = new BatchConverter(interpolationMethod, accelerationStrategy);
+            if(outputPath != null) converter.setOutputDirectory(new File(outputPath));
+            if(ioThreads > 0) converter.setIOThreads(ioThreads);
+            if(cpuThreads > 0) converter.setCPUThreads(cpuThreads);
+            if(memoryBudget > 0) converter.setMemoryBudget(memoryBudget);
+            converter.setColorLookupTableSize(lookupTableSize);
+            converter.setPostProcessingPrecision(precision);
+            converter.setDithering(dithering);
+            converter.setPNG(format.equals("png"));
+            converter.setOutputBitDepth(bitDepth);
+            converter.setCompression(compression);
+            converter.setCompressionLevel(compressionLevel);
+            if(rowsPerStrip > 0) converter.setRowsPerStrip(rowsPerStrip);
+            converter.setForce(force);
+            List<BatchConverter.Input> files = BatchConverter.collectInputs(inputs);
+            System.exit(converter.convert(files) ? 0 : 1);
+        }
         if(filePath.endsWith(".png")) {
             // only perform Demosaicing
             File srcFile = new File(filePath);
@@ -162,9 +328,12 @@ public class Main {
         pipeline.setInterpolationMethod(interpolationMethod);
         pipeline.setAccelerationStrategy(accelerationStrategy);
         pipeline.setLoggingMethod(loggingMethod);
+        pipeline.setColorLookupTableSize(lookupTableSize);
+        pipeline.setPostProcessingPrecision(precision);
+        // the post-processing writes the samples of the output file directly
+        pipeline.setOutputBitDepth(bitDepth);
+        pipeline.setDithering(dithering);
         if(subStep != "") pipeline.setSubstep(subStep);
-        System.out.println("Processing Image");
-        BufferedImage image = pipeline.process();
         // construct suitable output path if not given
         if (outputPath == null) {
             outputPath = "";
@@ -173,13 +342,43 @@ public class Main {
                 outputPath += parts[i];
                 outputPath += ".";
             }
-            outputPath += "tiff";
+            outputPath += format;
         }
-        if (!outputPath.endsWith(".tiff")) {
+        boolean png = outputPath.endsWith(".png");
+        if (!png && !outputPath.endsWith(".tiff")) {
             outputPath += ".tiff";
         }
-        System.out.println("Saving result to " + outputPath);
-        ImageExporter.saveAsTIFF(ImageExporter.create8BitBufferedImage(image), new File(outputPath));
+        ParallelImageEncoder<?> encoder;
+        if (png) {
+            encoder = new PNGEncoder(new File(outputPath));
+        } else {
+            TIFFEncoder tiffEncoder = new TIFFEncoder(new File(outputPath));
+            tiffEncoder.setCompression(compression);
+            encoder = tiffEncoder;
+        }
+        encoder.setCompressionLevel(compressionLevel);
+        if(rowsPerStrip > 0) encoder.setRowsPerStrip(rowsPerStrip);
+        if(streaming && !subStep.isEmpty()) {
+            System.out.println("Substeps cannot be streamed, processing the whole image");
+        } else if(streaming && !pipeline.isStreamingSupported()) {
+            System.out.println("Streaming is not supported for this image or acceleration strategy, processing the whole image");
+        }
+        if(streaming && subStep.isEmpty() && pipeline.isStreamingSupported()) {
+            // the bands are compressed while the next ones are processed, the image is never held as a whole
+            System.out.println("Processing Image and saving result to " + outputPath);
+            pipeline.processStreaming(encoder);
+        } else {
+            System.out.println("Processing Image");
+            BufferedImage image = pipeline.process();
+            System.out.println("Saving result to " + outputPath);
+            if (ParallelImageEncoder.isSupported(image)) {
+                encoder.encode(image);
+            } else if (png) {
+                ImageExporter.saveAsPNG(image, new File(outputPath));
+            } else {
+                ImageExporter.saveAsTIFF(image, new File(outputPath));
+            }
+        }
 
         System.out.println("--- Done");
     }
@@ -215,18 +414,34 @@ public class Main {
         String patternsString = "";
         for(int p = 0; p < patterns.length; p++) patternsString += patterns[p].toString() + " ";
         System.out.println("""
-            Process a DNG raw image file into a TIFF file or
-            Demosaic a monochrome PNG file into an RGB PNG file
+            Process a DNG raw image file into a TIFF or PNG file or
+            Demosaic a monochrome PNG file into an RGB PNG file or
+            Process many DNG raw image files into TIFF or PNG files
             Usage: CMD [<path-to-file>] [OPTIONS]
+                   CMD --batch <input>... [OPTIONS]
+                   CMD --serve PORT [OPTIONS]
             CMD:
-                - Linux and Windows: java -jar Jeniffer2-Cli-1.1-jar-with-Dependencies.jar
-                - MacOS: java -XStartOnFirstThread -jar Jeniffer2-Cli-1.1-jar-with-Dependencies.jar
+                - Linux and Windows: java --add-modules jdk.incubator.vector -jar Jeniffer2-Cli-1.1-jar-with-Dependencies.jar
+                - MacOS: java -XStartOnFirstThread --add-modules jdk.incubator.vector -jar Jeniffer2-Cli-1.1-jar-with-Dependencies.jar
+                  (--add-modules enables the *_SIMD interpolation methods, they fall back to the scalar ones otherwise)
             <path-to-dng-file>:
                 Default is 'test.dng'
+            <input>:
+                A DNG file, a directory which is searched for DNG files recursively, a glob pattern
+                like 'raw/**/*.dng' (quoted, so the shell does not expand it) or @FILE with one of
+                these per line
             OPTIONS:
                 --output FILEPATH
                 -o FILEPATH
-                    default: Dng File path with extension changed to .tiff or PNG file path with -<METHOD> added to file name
+                    default: Dng File path with extension changed to the one of --format or PNG file path with -<METHOD> added to file name
+                    A DNG file is written as PNG if FILEPATH ends with .png, as TIFF otherwise
+
+                --format FORMAT
+                    The format of the DNG outputs without --output and of all batch outputs,
+                    tiff (default) or png
+
+                --bit-depth N
+                    The bits per sample of the DNG outputs, 8 (default) or 16
                 --interpolation METHOD
                 -i METHOD
                     Where METHOD is one of:
@@ -257,6 +472,66 @@ public class Main {
                 -p PATTERN
                     CFA pattern to be used for demosaicing a PNG file
                     """ + patternsString + """
+
+                --lut N
+                    Bake the hue/saturation map and look table of the camera profile into 3D
+                    lookup tables with N samples per axis, e.g. 33 or 65, instead of mapping
+                    every pixel exactly. Faster, with a mean delta E of about 0.2 for 33.
+
+                --precision PRECISION
+                    The arithmetic of the post-processing, DOUBLE (default) or FIXED_POINT,
+                    which is faster and within a few 16 bit steps of DOUBLE
+
+                --dither
+                    Dither the 8 bit samples of the output with an 8x8 Bayer matrix instead of
+                    truncating them, which avoids banding in smooth gradients
+
+                --compression COMPRESSION
+                    The compression of the TIFF files, NONE (default), DEFLATE or LZW. The
+                    strips of the image are compressed in parallel.
+
+                --level N
+                    The Deflate level of TIFF files with DEFLATE compression and of PNG files,
+                    from 0 (fastest) to 9 (smallest), default 6
+
+                --strip-rows N
+                    The amount of rows which are compressed together, default 64
+
+                --stream
+                    Process and write the image in bands, so it is never held as a whole. Not
+                    available for the GPU strategies, LinearRaw images and images with opcode
+                    lists. The stages are only logged as a whole, so do not use it for benchmarks.
+
+                --batch
+                -b
+                    Convert all inputs in one JVM. Images are decoded and encoded by I/O threads
+                    and processed by CPU threads at the same time. --output gives the directory
+                    for the TIFF or PNG files, default is the directory of each DNG file. Outputs which
+                    are newer than their input are skipped. --log is ignored.
+
+                --force
+                -f
+                    In batch mode, also convert files whose output is up to date
+
+                --io-threads N
+                    In batch mode, the amount of threads which decode and encode images, default 2
+
+                --cpu-threads N
+                    In batch mode, the amount of images which are processed at the same time,
+                    default 2 or the amount of cores for NONE and CPU_TILING
+
+                --memory MB
+                    In batch mode, the memory which the images in flight may take, default
+                    three quarters of the maximum heap size
+
+                --serve PORT
+                    Keep running and convert the jobs posted to http://127.0.0.1:PORT/jobs, see the
+                    README. --interpolation and --acceleration are the defaults of the jobs,
+                    --cpu-threads the amount of jobs processed at the same time (default 2).
+
+                --queue N
+                    In server mode, the amount of jobs which may wait, default 64. Further jobs
+                    are rejected with 503 until there is room again.
             """);
 
     }
@@ -0,0 +1,117 @@
+package de.unituebingen.jeniffer2.cli;
+
+import de.unituebingen.dng.processor.demosaicingprocessor.DemosaicingProcessor.InterpolationMethod;
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+public class ConversionServerTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ConversionServerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ConversionServerTest.class );
+    }
+
+    public void testRetryAfter()
+    {
+        assertEquals(3, ConversionServer.getRetryAfter(2, 3, 2));
+        assertEquals(50, ConversionServer.getRetryAfter(10, 5, 1));
+        // never asks to retry immediately
+        assertEquals(1, ConversionServer.getRetryAfter(0, 4, 1));
+        assertEquals(1, ConversionServer.getRetryAfter(10, 0, 1));
+    }
+
+    public void testFullQueueIsRejected() throws IOException, InterruptedException
+    {
+        ConversionServer server = new ConversionServer(0, 1, 1, InterpolationMethod.BILINEAR_MEAN,
+                AccelerationStrategy.NONE);
+        server.start(false);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // occupy the only worker and the only place in the queue
+            for (int i = 0; i < 2; i++) {
+                server.getExecutor().execute(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            assertEquals(1, server.getExecutor().getQueue().size());
+
+            HttpURLConnection connection = open(server, "/jobs");
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write("input=image.dng".getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(503, connection.getResponseCode());
+            // no job has been processed yet, so the minimum is asked for
+            assertEquals("1", connection.getHeaderField("Retry-After"));
+            assertTrue(read(connection.getErrorStream()).contains("\"queueDepth\":1"));
+
+            connection = open(server, "/metrics");
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(read(connection.getInputStream()).contains("jeniffer2_jobs_total{status=\"rejected\"} 1\n"));
+        } finally {
+            release.countDown();
+            server.stop();
+        }
+    }
+
+    public void testMalformedEscapeIsRejected() throws IOException, InterruptedException
+    {
+        ConversionServer server = new ConversionServer(0, 1, 1, InterpolationMethod.BILINEAR_MEAN,
+                AccelerationStrategy.NONE);
+        server.start(false);
+        try {
+            HttpURLConnection connection = open(server, "/jobs");
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write("input=image%zz.dng".getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(400, connection.getResponseCode());
+            assertTrue(read(connection.getErrorStream()).contains("\"error\""));
+            assertEquals(0, server.getExecutor().getTaskCount());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static HttpURLConnection open(ConversionServer server, String path) throws IOException
+    {
+        return (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+    }
+
+    private static String read(InputStream in) throws IOException
+    {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
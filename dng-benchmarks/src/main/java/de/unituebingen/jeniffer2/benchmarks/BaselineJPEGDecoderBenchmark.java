@@ -0,0 +1,74 @@
+package de.unituebingen.jeniffer2.benchmarks;
+
+import de.unituebingen.dng.reader.compression.BaselineJPEGDecoder;
+import de.unituebingen.dng.reader.compression.CompressionDecoderException;
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes a synthetic 1024x768 baseline JPEG image (the size of a typical DNG preview) with the
+ * {@link BaselineJPEGDecoder} at the full size and at 1/2, 1/4 and 1/8 of its size, and with the Java image I/O JPEG
+ * reader as reference.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BaselineJPEGDecoderBenchmark {
+
+    private static final int WIDTH = 1024;
+    private static final int HEIGHT = 768;
+
+    @Param({"1", "2", "4", "8"})
+    public int scale;
+
+    private byte[] jpeg;
+    private BaselineJPEGDecoder decoder;
+    private short[] raster;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int noise = random.nextInt(32);
+                int r = x * 200 / WIDTH + noise;
+                int g = y * 200 / HEIGHT + noise;
+                int b = ((x / 64 + y / 64) & 1) * 200 + noise;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        jpeg = out.toByteArray();
+
+        decoder = new BaselineJPEGDecoder(scale);
+        int width = (WIDTH + scale - 1) / scale;
+        int height = (HEIGHT + scale - 1) / scale;
+        raster = new short[width * height * 3];
+    }
+
+    @Benchmark
+    public short[] decode() throws CompressionDecoderException {
+        int width = (WIDTH + scale - 1) / scale;
+        int height = (HEIGHT + scale - 1) / scale;
+        decoder.decodeInto(ByteBuffer.wrap(jpeg), raster, 0, width * 3, width * 3, width * 3, height);
+        return raster;
+    }
+
+    @Benchmark
+    public BufferedImage imageIO() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(jpeg));
+    }
+}
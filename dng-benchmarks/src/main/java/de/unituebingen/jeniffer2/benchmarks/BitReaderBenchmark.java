@@ -0,0 +1,106 @@
+package de.unituebingen.jeniffer2.benchmarks;
+
+import de.unituebingen.dng.reader.io.BitReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.EOFException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link BitReader} with its 64 bit buffer against the previous byte-wise implementation
+ * ({@link ByteWiseBitReader}). {@code packedSamples} reads bit packed samples like an uncompressed 10/12/14 bit raw,
+ * {@code jpegScan} reads variable length fields from byte stuffed data like the lossless JPEG decoder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitReaderBenchmark {
+
+    private static final int DATA_SIZE = 1 << 20;
+
+    @Param({"10", "12", "14"})
+    public int bitsPerSample;
+
+    private byte[] packedData;
+    private byte[] stuffedData;
+    private int[] fieldLengths;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        packedData = new byte[DATA_SIZE];
+        random.nextBytes(packedData);
+
+        //random bytes with a stuffed zero byte after every 0xFF
+        byte[] stuffed = new byte[DATA_SIZE * 2];
+        int length = 0;
+        for (int i = 0; i < DATA_SIZE; i++) {
+            byte b = (byte) random.nextInt(256);
+            stuffed[length++] = b;
+            if (b == (byte) 0xFF) {
+                stuffed[length++] = 0;
+            }
+        }
+        stuffedData = Arrays.copyOf(stuffed, length);
+
+        //lengths of a huffman code (2 - 9 bits) followed by its additional bits (0 - 12 bits)
+        fieldLengths = new int[4096];
+        for (int i = 0; i < fieldLengths.length; i += 2) {
+            fieldLengths[i] = 2 + random.nextInt(8);
+            fieldLengths[i + 1] = random.nextInt(13);
+        }
+    }
+
+    @Benchmark
+    public long packedSamples() throws EOFException {
+        BitReader bitReader = new BitReader(packedData);
+        long sum = 0;
+        for (int i = (int) (DATA_SIZE * 8L / bitsPerSample); i > 0; i--) {
+            sum += bitReader.readUnsignedBits(bitsPerSample);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long packedSamplesByteWise() throws EOFException {
+        ByteWiseBitReader bitReader = new ByteWiseBitReader(packedData);
+        long sum = 0;
+        for (int i = (int) (DATA_SIZE * 8L / bitsPerSample); i > 0; i--) {
+            sum += bitReader.readUnsignedBits(bitsPerSample);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long jpegScan() throws EOFException {
+        BitReader bitReader = new BitReader(stuffedData, true);
+        long sum = 0;
+        long remainingBits = DATA_SIZE * 8L - 32;
+        for (int i = 0; remainingBits > 0; i = (i + 1) & (fieldLengths.length - 1)) {
+            int n = fieldLengths[i];
+            sum += bitReader.peekBits(16) >>> (16 - n);
+            bitReader.skipBits(n);
+            remainingBits -= n;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long jpegScanByteWise() throws EOFException {
+        ByteWiseBitReader bitReader = new ByteWiseBitReader(stuffedData, true);
+        long sum = 0;
+        long remainingBits = DATA_SIZE * 8L - 32;
+        for (int i = 0; remainingBits > 0; i = (i + 1) & (fieldLengths.length - 1)) {
+            int n = fieldLengths[i];
+            sum += bitReader.peekBits(16) >>> (16 - n);
+            bitReader.skipBits(n);
+            remainingBits -= n;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,153 @@
+package de.unituebingen.jeniffer2.benchmarks;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * The previous implementation of {@link de.unituebingen.dng.reader.io.BitReader} which refills its bit buffer one
+ * byte at a time. It is only kept as a baseline for {@link BitReaderBenchmark}.
+ */
+class ByteWiseBitReader {
+
+    /**
+     * The maximum amount of bits which can be peeked at or read at once.
+     */
+    public static final int MAX_BITS = 32;
+
+    private ByteBuffer buffer;
+
+    //the lowest bitCount bits of bitBuffer are valid, the oldest bit is the most significant one
+    private long bitBuffer;
+    private int bitCount;
+    //amount of zero bits at the end of the bit buffer which have been added after the end of the data
+    private int paddingBits;
+    private boolean endOfData;
+
+    private boolean skipZeroBytes;
+
+    public ByteWiseBitReader(ByteBuffer byteBuffer) {
+        this(byteBuffer, false);
+    }
+
+    public ByteWiseBitReader(ByteBuffer byteBuffer, boolean skipZeroBytes) {
+        this.buffer = Objects.requireNonNull(byteBuffer);
+        this.skipZeroBytes = skipZeroBytes;
+    }
+
+    public ByteWiseBitReader(byte[] byteBuffer) {
+        this(ByteBuffer.wrap(byteBuffer), false);
+    }
+
+    public ByteWiseBitReader(byte[] byteBuffer, boolean skipZeroBytes) {
+        this(ByteBuffer.wrap(Objects.requireNonNull(byteBuffer)), skipZeroBytes);
+    }
+
+    /**
+     * If set, a zero byte following a 0xFF byte is skipped (byte stuffing, see JPEG specification page 91) and a
+     * 0xFF byte followed by any other byte is treated as a marker which ends the data.
+     *
+     * @param skip {@code true} if zero bytes should be skipped
+     */
+    public void skipZeroBytes(boolean skip) {
+        this.skipZeroBytes = skip;
+    }
+
+    /**
+     * Returns the next n bits without consuming them. If the end of the data has been reached, the missing bits are
+     * zero.
+     *
+     * @param n The amount of bits, at most {@link #MAX_BITS}
+     * @return The next n bits as unsigned decimal representation
+     */
+    public int peekBits(int n) {
+        if (bitCount < n) {
+            fill(n);
+        }
+        return (int) ((bitBuffer >>> (bitCount - n)) & ((1L << n) - 1));
+    }
+
+    /**
+     * Consumes n bits.
+     *
+     * @param n The amount of bits, at most {@link #MAX_BITS}
+     * @throws EOFException If less than n bits are remaining
+     */
+    public void skipBits(int n) throws EOFException {
+        if (bitCount < n) {
+            fill(n);
+        }
+        if (bitCount - paddingBits < n) {
+            throw new EOFException();
+        }
+        bitCount -= n;
+    }
+
+    /**
+     * Reads a single bit. <br/>
+     *
+     * @return The read bit
+     * @throws EOFException If the end of file has been reached unexpectedly
+     */
+    public int readBit() throws EOFException {
+        return readUnsignedBits(1);
+    }
+
+    /**
+     * Reads n bits at once and returns the unsigned decimal representation.
+     *
+     * @param n The amount of bits which should be read, at most {@link #MAX_BITS}
+     * @return The read bits as unsigned decimal representation
+     * @throws EOFException If the end of file has been reached unexpectedly
+     */
+    public int readUnsignedBits(int n) throws EOFException {
+        if (n == 0) {
+            return 0;
+        }
+        int bits = peekBits(n);
+        skipBits(n);
+        return bits;
+    }
+
+    /**
+     * Reads n bits at once and returns the signed decimal representation.
+     *
+     * @param n The amount of bits which should be read
+     * @return The read bits as signed decimal representation
+     * @throws EOFException If the end of file has been reached unexpectedly
+     */
+    public int readSignedBits(int n) throws EOFException {
+        int bits = readUnsignedBits(n);
+        if ((bits & (1 << (n - 1))) == 0) {
+            bits -= (1 << n) - 1;
+        }
+
+        return bits;
+    }
+
+    private void fill(int n) {
+        while (bitCount < n) {
+            int nextByte = 0;
+            if (!endOfData && buffer.hasRemaining()) {
+                nextByte = buffer.get() & 0xFF;
+                if (skipZeroBytes && nextByte == 0xFF) {
+                    if (buffer.hasRemaining() && buffer.get(buffer.position()) == 0) {
+                        buffer.position(buffer.position() + 1);
+                    } else {
+                        //a marker, leave it in the buffer
+                        buffer.position(buffer.position() - 1);
+                        nextByte = 0;
+                        endOfData = true;
+                    }
+                }
+            } else {
+                endOfData = true;
+            }
+            if (endOfData) {
+                paddingBits += 8;
+            }
+            bitBuffer = (bitBuffer << 8) | nextByte;
+            bitCount += 8;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package de.unituebingen.jeniffer2.benchmarks;
+
+import de.unituebingen.dng.reader.DNGFile;
+import de.unituebingen.dng.reader.DNGReadException;
+import de.unituebingen.dng.reader.ImageFileDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the memory mapped and the buffered reader backend of {@link DNGFile}. <br/>
+ * {@code readImageFileDirectories} measures the header scan, {@code readRawImage} additionally reads and decodes
+ * all strips/tiles of the RAW image. {@code readRawImageIntoRaster} decodes into a preallocated raster instead. <br/>
+ * By default a {@link SyntheticDNG} of the given size is used, either uncompressed or lossless JPEG compressed.
+ * Another file can be passed with {@code -p file=...}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DNGReaderBenchmark {
+
+    @Param(SyntheticDNG.SYNTHETIC)
+    public String file;
+
+    @Param("3000")
+    public int width;
+
+    @Param("2000")
+    public int height;
+
+    @Param({"true", "false"})
+    public boolean losslessJPEG;
+
+    @Param({"true", "false"})
+    public boolean memoryMapped;
+
+    private File inputFile;
+    private short[] raster;
+
+    @Setup
+    public void setup() throws Exception {
+        inputFile = SyntheticDNG.resolve(file, width, height, losslessJPEG);
+        DNGFile dngFile = open();
+        ImageFileDirectory rawIFD = dngFile.getRAWImageFileDirectory();
+        raster = new short[(int) (rawIFD.getImageWidth() * rawIFD.getImageLength() * rawIFD.getSamplesPerPixel())];
+        dngFile.close();
+    }
+
+    @Benchmark
+    public List<ImageFileDirectory> readImageFileDirectories() throws Exception {
+        DNGFile dngFile = open();
+        try {
+            return dngFile.getImageFileDirectories();
+        } finally {
+            dngFile.close();
+        }
+    }
+
+    @Benchmark
+    public int[] readRawImage() throws Exception {
+        DNGFile dngFile = open();
+        try {
+            return dngFile.getRAWImage();
+        } finally {
+            dngFile.close();
+        }
+    }
+
+    @Benchmark
+    public short[] readRawImageIntoRaster() throws Exception {
+        DNGFile dngFile = open();
+        try {
+            ImageFileDirectory rawIFD = dngFile.getRAWImageFileDirectory();
+            dngFile.parseRasterOfImageFileDirectory(rawIFD, raster, 0,
+                    (int) rawIFD.getImageWidth() * rawIFD.getSamplesPerPixel());
+            return raster;
+        } finally {
+            dngFile.close();
+        }
+    }
+
+    private DNGFile open() throws IOException, DNGReadException {
+        return new DNGFile(inputFile, memoryMapped);
+    }
+}
@@ -0,0 +1,121 @@
+package de.unituebingen.jeniffer2.benchmarks;
+
+import de.unituebingen.dng.reader.DNGTagConstants;
+import de.unituebingen.dng.reader.compression.CompressionDecoderException;
+import de.unituebingen.dng.reader.compression.DeflateDecoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Decodes synthetic Deflate compressed 256x256 tiles of a smooth gradient with noise, either as 16 bit integers with
+ * horizontal differencing or as 32 bit floats with the floating point predictor. {@code decodeTiles} reuses one
+ * decoder (and its {@link java.util.zip.Inflater}) for all tiles like a decoding thread of the DNG reader,
+ * {@code decodeTilesNewDecoder} creates a decoder per tile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeflateDecoderBenchmark {
+
+    private static final int TILE_SIZE = 256;
+    private static final int TILES = 16;
+
+    @Param({"integer", "float"})
+    public String sampleFormat;
+
+    private ByteBuffer[] tiles;
+    private short[] raster;
+    private int bitsPerSample;
+    private int format;
+    private int predictor;
+
+    @Setup
+    public void setup() {
+        boolean floatingPoint = sampleFormat.equals("float");
+        bitsPerSample = floatingPoint ? 32 : 16;
+        format = floatingPoint ? DNGTagConstants.SAMPLE_FORMAT__IEEE_FLOATING_POINT
+                : DNGTagConstants.SAMPLE_FORMAT__UNSIGNED_INTEGER;
+        predictor = floatingPoint ? DNGTagConstants.PREDICTOR__FLOATING_POINT
+                : DNGTagConstants.PREDICTOR__HORIZONTAL_DIFFERENCING;
+
+        Random random = new Random(42);
+        tiles = new ByteBuffer[TILES];
+        for (int t = 0; t < TILES; t++) {
+            int bytesPerSample = bitsPerSample / 8;
+            byte[] data = new byte[TILE_SIZE * TILE_SIZE * bytesPerSample];
+            for (int y = 0; y < TILE_SIZE; y++) {
+                byte[] row = new byte[TILE_SIZE * bytesPerSample];
+                int previous = 0;
+                for (int x = 0; x < TILE_SIZE; x++) {
+                    float value = (x + y + t * 8) / 1024f + random.nextFloat() / 256;
+                    if (floatingPoint) {
+                        int bits = Float.floatToIntBits(value);
+                        for (int b = 0; b < 4; b++) {
+                            row[b * TILE_SIZE + x] = (byte) (bits >>> (24 - 8 * b));
+                        }
+                    } else {
+                        int sample = (int) (value * 65535) & 0xFFFF;
+                        int difference = sample - previous;
+                        previous = sample;
+                        row[2 * x] = (byte) (difference >>> 8);
+                        row[2 * x + 1] = (byte) difference;
+                    }
+                }
+                if (floatingPoint) {
+                    for (int i = row.length - 1; i > 0; i--) {
+                        row[i] -= row[i - 1];
+                    }
+                }
+                System.arraycopy(row, 0, data, y * row.length, row.length);
+            }
+            tiles[t] = ByteBuffer.wrap(deflate(data));
+        }
+        raster = new short[TILE_SIZE * TILE_SIZE];
+    }
+
+    @Benchmark
+    public short[] decodeTiles() throws CompressionDecoderException {
+        DeflateDecoder decoder = newDecoder();
+        for (ByteBuffer tile : tiles) {
+            decoder.decodeInto(tile, raster, 0, TILE_SIZE, TILE_SIZE, TILE_SIZE, TILE_SIZE);
+        }
+        decoder.close();
+        return raster;
+    }
+
+    @Benchmark
+    public short[] decodeTilesNewDecoder() throws CompressionDecoderException {
+        for (ByteBuffer tile : tiles) {
+            DeflateDecoder decoder = newDecoder();
+            decoder.decodeInto(tile, raster, 0, TILE_SIZE, TILE_SIZE, TILE_SIZE, TILE_SIZE);
+            decoder.close();
+        }
+        return raster;
+    }
+
+    private DeflateDecoder newDecoder() {
+        return new DeflateDecoder(bitsPerSample, format, predictor, 1, ByteOrder.BIG_ENDIAN);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,73 @@
+package de.unituebingen.jeniffer2.benchmarks;
+
+import de.unituebingen.dng.processor.demosaicingprocessor.DemosaicingProcessor;
+import de.unituebingen.dng.processor.demosaicingprocessor.DemosaicingProcessor.InterpolationMethod;
+import de.unituebingen.dng.processor.log.NopLogger;
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.dng.util.CFAPattern;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Demosaics a synthetic CFA image with every interpolation method and every acceleration strategy which runs on the
+ * CPU. Select a subset with {@code -p interpolationMethod=...} or {@code -p accelerationStrategy=...}. <br/>
+ * With {@code -p pooled=true,false} the tiled strategies are run once with the working arrays of the algorithm reused
+ * from one tile to the next and once with them allocated for every tile. Run with {@code -prof gc} to compare the
+ * allocation rates. The SIMD algorithms can be compared with their scalar counterparts, as the forked JVM gets the
+ * Vector API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class DemosaicingBenchmark {
+
+    // all values of the enum
+    @Param
+    public InterpolationMethod interpolationMethod;
+
+    @Param("true")
+    public boolean pooled;
+
+    @Param({"NONE", "MULTITHREADING", "CPU_TILING", "CPU_TILING_MT", "CPU_MT_TILING", "CPU_MT_TILING_MT"})
+    public AccelerationStrategy accelerationStrategy;
+
+    @Param("3000")
+    public int width;
+
+    @Param("2000")
+    public int height;
+
+    private DemosaicingProcessor demosaicingProcessor;
+    private BufferedImage image;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        short[] samples = new short[width * height];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) random.nextInt(65536);
+        }
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false,
+                ColorModel.OPAQUE, DataBuffer.TYPE_USHORT);
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferUShort(samples, samples.length),
+                width, height, width, 1, new int[]{0}, new Point(0, 0));
+        image = new BufferedImage(colorModel, raster, false, null);
+
+        demosaicingProcessor = new DemosaicingProcessor(interpolationMethod, CFAPattern.RGGB, accelerationStrategy,
+                new NopLogger());
+        demosaicingProcessor.setPooledBuffers(pooled);
+    }
+
+    @Benchmark
+    public BufferedImage process() {
+        return demosaicingProcessor.process(image);
+    }
+}
@@ -0,0 +1,51 @@
+package de.unituebingen.jeniffer2.benchmarks;
+
+import de.unituebingen.dng.reader.DNGFile;
+import de.unituebingen.dng.reader.ImageFileDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many files per second can be scanned for basic metadata (size and orientation of the RAW image),
+ * with and without lazy loading of the image file directory entry values. By default a {@link SyntheticDNG} is
+ * scanned, another file can be passed with {@code -p file=...}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeaderScanBenchmark {
+
+    @Param(SyntheticDNG.SYNTHETIC)
+    public String file;
+
+    @Param({"true", "false"})
+    public boolean lazyValueLoading;
+
+    @Param({"true", "false"})
+    public boolean memoryMapped;
+
+    private File inputFile;
+
+    @Setup
+    public void setup() throws Exception {
+        inputFile = SyntheticDNG.resolve(file, 3000, 2000, true);
+    }
+
+    @Benchmark
+    public long scanHeader() throws Exception {
+        DNGFile dngFile = new DNGFile(inputFile, memoryMapped);
+        try {
+            dngFile.setLazyValueLoading(lazyValueLoading);
+            ImageFileDirectory rawIFD = dngFile.getRAWImageFileDirectory();
+            int orientation = dngFile.get0thImageFileDirectory().getOrientation();
+            return rawIFD.getImageWidth() * rawIFD.getImageLength() + orientation;
+        } finally {
+            dngFile.close();
+        }
+    }
+}
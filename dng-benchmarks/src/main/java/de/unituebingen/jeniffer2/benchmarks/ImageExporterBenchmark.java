@@ -0,0 +1,86 @@
+package de.unituebingen.jeniffer2.benchmarks;
+
+import de.unituebingen.imageprocessor.ImageExporter;
+import de.unituebingen.imageprocessor.TIFFEncoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports a synthetic 16 bit RGB image like the frontends do: TIFF and PNG with 16 bits per sample like the user
+ * interface, JPEG and {@code tiff8} after the conversion to 8 bits like the user interface and the CLI.
+ * {@code tiff8-deflate} and {@code tiff8-lzw} compress the strips of the 8 bit TIFF file in parallel. The files are
+ * written to a temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageExporterBenchmark {
+
+    @Param({"tiff", "tiff8", "tiff8-deflate", "tiff8-lzw", "png", "jpg"})
+    public String format;
+
+    @Param("3000")
+    public int width;
+
+    @Param("2000")
+    public int height;
+
+    private BufferedImage image;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        // a smooth gradient with noise compresses like a photo, unlike pure noise
+        int[] cfa = SyntheticDNG.createCFAImage(width, height);
+        short[] samples = new short[width * height * 3];
+        for (int i = 0; i < cfa.length; i++) {
+            int value = cfa[i] << (16 - SyntheticDNG.BITS_PER_SAMPLE);
+            samples[3 * i] = (short) value;
+            samples[3 * i + 1] = (short) (value * 3 / 4);
+            samples[3 * i + 2] = (short) (value / 2);
+        }
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+                ColorModel.OPAQUE, DataBuffer.TYPE_USHORT);
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferUShort(samples, samples.length),
+                width, height, width * 3, 3, new int[]{0, 1, 2}, new Point(0, 0));
+        // the pipeline exports the cropped subimage of the processed image
+        image = new BufferedImage(colorModel, raster, false, null).getSubimage(0, 0, width, height);
+
+        file = File.createTempFile("export", "." + (format.startsWith("tiff") ? "tiff" : format));
+        file.deleteOnExit();
+    }
+
+    @Benchmark
+    public File export() throws IOException {
+        switch (format) {
+            case "tiff":
+                ImageExporter.saveAsTIFF(image, file);
+                break;
+            case "tiff8":
+                ImageExporter.saveAsTIFF(ImageExporter.create8BitBufferedImage(image), file);
+                break;
+            case "tiff8-deflate":
+            case "tiff8-lzw":
+                TIFFEncoder encoder = new TIFFEncoder(file);
+                encoder.setCompression(format.endsWith("lzw")
+                        ? TIFFEncoder.Compression.LZW : TIFFEncoder.Compression.DEFLATE);
+                encoder.encode(ImageExporter.create8BitBufferedImage(image));
+                break;
+            case "png":
+                ImageExporter.saveAsPNG(image, file);
+                break;
+            default:
+                ImageExporter.saveAsJPEG(ImageExporter.create8BitBufferedImage(image), file, 0.9f);
+        }
+        return file;
+    }
+}
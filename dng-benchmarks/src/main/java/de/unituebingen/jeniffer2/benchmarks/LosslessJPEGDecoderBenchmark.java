@@ -0,0 +1,57 @@
+package de.unituebingen.jeniffer2.benchmarks;
+
+import de.unituebingen.dng.reader.compression.LosslessJPEGDecoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes the lossless JPEG compressed 256x256 tiles of a synthetic raw image of the given size into a raster, like
+ * a single decoding thread of the DNG reader. The tiles are encoded by {@link SyntheticDNG} with two interleaved
+ * components per line, as written by the Adobe DNG converter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LosslessJPEGDecoderBenchmark {
+
+    private static final int TILE_SIZE = SyntheticDNG.TILE_SIZE;
+
+    @Param("3000")
+    public int width;
+
+    @Param("2000")
+    public int height;
+
+    private ByteBuffer[] tiles;
+    private short[] raster;
+
+    @Setup
+    public void setup() {
+        List<byte[]> encodedTiles = SyntheticDNG.encodeTiles(SyntheticDNG.createCFAImage(width, height), width,
+                height);
+        tiles = new ByteBuffer[encodedTiles.size()];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = ByteBuffer.wrap(encodedTiles.get(i));
+        }
+        raster = new short[width * height];
+    }
+
+    @Benchmark
+    public short[] decodeTiles() throws Exception {
+        LosslessJPEGDecoder decoder = new LosslessJPEGDecoder();
+        int tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+        for (int i = 0; i < tiles.length; i++) {
+            int tileX = (i % tilesAcross) * TILE_SIZE;
+            int tileY = (i / tilesAcross) * TILE_SIZE;
+            decoder.decodeInto(tiles[i], raster, tileY * width + tileX, width, TILE_SIZE,
+                    Math.min(TILE_SIZE, width - tileX), Math.min(TILE_SIZE, height - tileY));
+        }
+        return raster;
+    }
+}
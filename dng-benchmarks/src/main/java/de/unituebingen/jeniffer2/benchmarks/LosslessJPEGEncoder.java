@@ -0,0 +1,138 @@
+package de.unituebingen.jeniffer2.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A minimal lossless JPEG encoder (SOF3, predictor 1, one Huffman table for all components) which produces input for
+ * {@link de.unituebingen.dng.reader.compression.LosslessJPEGDecoder}. It is only used to create synthetic test data
+ * for the benchmarks.
+ */
+class LosslessJPEGEncoder {
+
+    // code lengths 1 to 16 of the difference categories 0 to 15, like the DC table of the JPEG specification,
+    // extended to 15 categories
+    private static final byte[] BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0};
+    private static final byte[] HUFF_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+
+    private final int[] codes = new int[HUFF_VALUES.length];
+    private final int[] codeLengths = new int[HUFF_VALUES.length];
+
+    private ByteArrayOutputStream out;
+    private long bitBuffer;
+    private int bitCount;
+
+    LosslessJPEGEncoder() {
+        // canonical Huffman codes, see JPEG specification, Annex C
+        int code = 0;
+        int k = 0;
+        for (int length = 1; length <= BITS.length; length++) {
+            for (int i = 0; i < BITS[length - 1]; i++, k++) {
+                codes[HUFF_VALUES[k]] = code++;
+                codeLengths[HUFF_VALUES[k]] = length;
+            }
+            code <<= 1;
+        }
+    }
+
+    /**
+     * Encodes an image whose lines consist of {@code samplesPerLine} pixels with {@code components} interleaved
+     * samples each.
+     *
+     * @param samples   The samples, at least {@code lines * samplesPerLine * components}
+     * @param precision The bits per sample, at most 15 so that no difference needs category 16
+     * @return The encoded image, from the SOI to the EOI marker
+     */
+    byte[] encode(int[] samples, int lines, int samplesPerLine, int components, int precision) {
+        out = new ByteArrayOutputStream(lines * samplesPerLine * components);
+        bitBuffer = 0;
+        bitCount = 0;
+
+        writeMarker(0xFFD8);
+        // frame header
+        writeMarker(0xFFC3);
+        writeShort(8 + 3 * components);
+        out.write(precision);
+        writeShort(lines);
+        writeShort(samplesPerLine);
+        out.write(components);
+        for (int c = 0; c < components; c++) {
+            out.write(c);
+            out.write(0x11);
+            out.write(0);
+        }
+        // Huffman table
+        writeMarker(0xFFC4);
+        writeShort(2 + 1 + BITS.length + HUFF_VALUES.length);
+        out.write(0);
+        out.write(BITS, 0, BITS.length);
+        out.write(HUFF_VALUES, 0, HUFF_VALUES.length);
+        // scan header
+        writeMarker(0xFFDA);
+        writeShort(6 + 2 * components);
+        out.write(components);
+        for (int c = 0; c < components; c++) {
+            out.write(c);
+            out.write(0);
+        }
+        out.write(1); // predictor
+        out.write(0);
+        out.write(0);
+
+        int[] lineStart = new int[components];
+        java.util.Arrays.fill(lineStart, 1 << (precision - 1));
+        int lineWidth = samplesPerLine * components;
+        for (int line = 0; line < lines; line++) {
+            int row = line * lineWidth;
+            for (int sample = 0; sample < samplesPerLine; sample++) {
+                for (int c = 0; c < components; c++) {
+                    int i = row + sample * components + c;
+                    int prediction;
+                    if (sample == 0) {
+                        prediction = lineStart[c];
+                        lineStart[c] = samples[i];
+                    } else {
+                        prediction = samples[i - components];
+                    }
+                    writeDifference(samples[i] - prediction);
+                }
+            }
+        }
+        // pad the last byte with ones
+        if (bitCount % 8 != 0) {
+            writeBits((1 << (8 - bitCount % 8)) - 1, 8 - bitCount % 8);
+        }
+        writeMarker(0xFFD9);
+        return out.toByteArray();
+    }
+
+    private void writeDifference(int difference) {
+        int category = 32 - Integer.numberOfLeadingZeros(Math.abs(difference));
+        writeBits(codes[category], codeLengths[category]);
+        if (category > 0) {
+            writeBits(difference < 0 ? difference + (1 << category) - 1 : difference, category);
+        }
+    }
+
+    private void writeBits(int bits, int n) {
+        bitBuffer = (bitBuffer << n) | (bits & ((1L << n) - 1));
+        bitCount += n;
+        while (bitCount >= 8) {
+            int b = (int) (bitBuffer >>> (bitCount - 8)) & 0xFF;
+            out.write(b);
+            if (b == 0xFF) {
+                // byte stuffing
+                out.write(0);
+            }
+            bitCount -= 8;
+        }
+    }
+
+    private void writeMarker(int marker) {
+        writeShort(marker);
+    }
+
+    private void writeShort(int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+}
@@ -0,0 +1,98 @@
+package de.unituebingen.jeniffer2.benchmarks;
+
+import de.unituebingen.dng.processor.log.NopLogger;
+import de.unituebingen.dng.processor.opcodeprocessor.OpcodeStage;
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.dng.opcode.Opcode;
+import de.unituebingen.dng.reader.dng.opcode.OpcodeFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies a gain map, as used for lens shading correction in the OpcodeList2, and a rectilinear warp, as used for
+ * distortion correction in the OpcodeList3, to a synthetic RGB image. The raster is refilled before each invocation,
+ * since the opcodes work in place.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OpcodeBenchmark {
+
+    @Param({"GainMap", "WarpRectilinear"})
+    public String opcode;
+
+    @Param({"NONE", "MULTITHREADING"})
+    public AccelerationStrategy accelerationStrategy;
+
+    @Param("3000")
+    public int width;
+
+    @Param("2000")
+    public int height;
+
+    private OpcodeStage stage;
+    private short[] input;
+    private short[] samples;
+    private BufferedImage image;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        input = new short[width * height * 3];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (short) random.nextInt(65536);
+        }
+        samples = new short[input.length];
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+                ColorModel.OPAQUE, DataBuffer.TYPE_USHORT);
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferUShort(samples, samples.length),
+                width, height, width * 3, 3, new int[]{0, 1, 2}, new Point(0, 0));
+        image = new BufferedImage(colorModel, raster, false, null);
+
+        Opcode[] opcodes = {opcode.equals("GainMap") ? createGainMap() : createWarpRectilinear()};
+        stage = OpcodeStage.create("OpcodeList", opcodes, new Rectangle(0, 0, width, height), accelerationStrategy,
+                new NopLogger());
+    }
+
+    @Setup(Level.Invocation)
+    public void refill() {
+        System.arraycopy(input, 0, samples, 0, input.length);
+    }
+
+    @Benchmark
+    public BufferedImage process() {
+        return stage.process(image);
+    }
+
+    /**
+     * A map of 17x17 points per plane, like the lens shading maps of many cameras.
+     */
+    private Opcode createGainMap() {
+        int points = 17;
+        ByteBuffer data = ByteBuffer.allocate(10 * 4 + 4 * 8 + 4 + points * points * 3 * 4);
+        data.putInt(0).putInt(0).putInt(height).putInt(width).putInt(0).putInt(3).putInt(1).putInt(1)
+                .putInt(points).putInt(points);
+        data.putDouble(1.0 / (points - 1)).putDouble(1.0 / (points - 1)).putDouble(0).putDouble(0).putInt(3);
+        Random random = new Random(7);
+        for (int i = 0; i < points * points * 3; i++) {
+            data.putFloat(1 + random.nextFloat());
+        }
+        return OpcodeFactory.getOpcodeByID(9, 0x01030000, 0, data.capacity(), data.array());
+    }
+
+    private Opcode createWarpRectilinear() {
+        ByteBuffer data = ByteBuffer.allocate(4 + 8 * 8);
+        data.putInt(1).putDouble(0.98).putDouble(0.03).putDouble(-0.01).putDouble(0.002).putDouble(0.001)
+                .putDouble(-0.002).putDouble(0.5).putDouble(0.5);
+        return OpcodeFactory.getOpcodeByID(1, 0x01030000, 0, data.capacity(), data.array());
+    }
+}
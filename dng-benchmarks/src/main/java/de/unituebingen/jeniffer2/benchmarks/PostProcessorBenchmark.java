@@ -0,0 +1,82 @@
+package de.unituebingen.jeniffer2.benchmarks;
+
+import de.unituebingen.dng.processor.log.NopLogger;
+import de.unituebingen.dng.processor.postprocessor.*;
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.DNGFile;
+import de.unituebingen.dng.reader.ImageFileDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Post-processes a synthetic 16 bit RGB image with the color space transformation, exposure correction and sRGB
+ * mapping of a DNG file, once with the fused {@link PostProcessorKernel} and once with the operations applied one after
+ * another. The raster is refilled before each invocation, since the post-processor works in place. <br/>
+ * By default the color tags of a {@link SyntheticDNG} are used, another file can be passed with {@code -p file=...}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PostProcessorBenchmark {
+
+    @Param(SyntheticDNG.SYNTHETIC)
+    public String file;
+
+    @Param("2048")
+    public int width;
+
+    @Param("1536")
+    public int height;
+
+    @Param({"true", "false"})
+    public boolean fused;
+
+    @Param({"NONE", "CPU_TILING_MT"})
+    public AccelerationStrategy accelerationStrategy;
+
+    private PostProcessor postProcessor;
+    private short[] input;
+    private short[] samples;
+    private BufferedImage image;
+
+    @Setup
+    public void setup() throws Exception {
+        DNGFile dngFile = new DNGFile(SyntheticDNG.resolve(file, width, height, false));
+        ImageFileDirectory ifd0 = dngFile.get0thImageFileDirectory();
+        postProcessor = new PostProcessor(new NopLogger(), new ColorSpaceTransformation(width, height, ifd0),
+                new ExposureCorrection(width, height, ifd0), new XYZD50ToSRGBMapping(width, height));
+        postProcessor.setFusedKernel(fused);
+        postProcessor.setAccelerationStrategy(accelerationStrategy);
+        dngFile.close();
+
+        Random random = new Random(42);
+        input = new short[width * height * 3];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (short) random.nextInt(65536);
+        }
+        samples = new short[input.length];
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+                ColorModel.OPAQUE, DataBuffer.TYPE_USHORT);
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferUShort(samples, samples.length),
+                width, height, width * 3, 3, new int[]{0, 1, 2}, new Point(0, 0));
+        image = new BufferedImage(colorModel, raster, false, null);
+    }
+
+    @Setup(Level.Invocation)
+    public void refill() {
+        System.arraycopy(input, 0, samples, 0, input.length);
+    }
+
+    @Benchmark
+    public BufferedImage process() {
+        return postProcessor.process(image);
+    }
+}
@@ -0,0 +1,83 @@
+package de.unituebingen.jeniffer2.benchmarks;
+
+import de.unituebingen.dng.processor.log.NopLogger;
+import de.unituebingen.dng.processor.preprocessor.PreProcessor;
+import de.unituebingen.dng.processor.preprocessor.RawMapping;
+import de.unituebingen.dng.processor.preprocessor.WhiteBalancing;
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.DNGFile;
+import de.unituebingen.dng.reader.ImageFileDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the raw mapping and the white balancing of a DNG file to its raw image, once with the per CFA phase lookup
+ * tables of the compiled pre-processor and once with the operations applied to each sample. The raster is refilled
+ * before each invocation, since the pre-processor works in place. <br/>
+ * By default a {@link SyntheticDNG} of the given size is used, another file can be passed with {@code -p file=...}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PreProcessorBenchmark {
+
+    @Param(SyntheticDNG.SYNTHETIC)
+    public String file;
+
+    @Param("3000")
+    public int width;
+
+    @Param("2000")
+    public int height;
+
+    @Param({"true", "false"})
+    public boolean compiled;
+
+    @Param({"NONE", "CPU_TILING_MT"})
+    public AccelerationStrategy accelerationStrategy;
+
+    private PreProcessor preProcessor;
+    private short[] input;
+    private short[] samples;
+    private BufferedImage image;
+
+    @Setup
+    public void setup() throws Exception {
+        DNGFile dngFile = new DNGFile(SyntheticDNG.resolve(file, width, height, false));
+        ImageFileDirectory ifd0 = dngFile.get0thImageFileDirectory();
+        ImageFileDirectory rawIFD = dngFile.getRAWImageFileDirectory();
+        int width = (int) rawIFD.getImageWidth();
+        int height = (int) rawIFD.getImageLength();
+        input = new short[width * height];
+        dngFile.parseRasterOfImageFileDirectory(rawIFD, input, 0, width);
+
+        preProcessor = new PreProcessor(new NopLogger(), new RawMapping(ifd0, rawIFD), new WhiteBalancing(ifd0, rawIFD));
+        preProcessor.setCompiledKernel(compiled);
+        preProcessor.setAccelerationStrategy(accelerationStrategy);
+        dngFile.close();
+
+        samples = new short[input.length];
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false,
+                ColorModel.OPAQUE, DataBuffer.TYPE_USHORT);
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferUShort(samples, samples.length),
+                width, height, width, 1, new int[]{0}, new Point(0, 0));
+        image = new BufferedImage(colorModel, raster, false, null);
+    }
+
+    @Setup(Level.Invocation)
+    public void refill() {
+        System.arraycopy(input, 0, samples, 0, input.length);
+    }
+
+    @Benchmark
+    public BufferedImage process() {
+        return preProcessor.process(image);
+    }
+}
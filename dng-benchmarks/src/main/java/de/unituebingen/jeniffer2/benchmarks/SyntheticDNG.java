@@ -0,0 +1,237 @@
+package de.unituebingen.jeniffer2.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes DNG files with a synthetic RGGB raw image of any size, so the benchmarks do not depend on sample images.
+ * The raw image is a smooth gradient with noise, 14 bits per sample, either uncompressed in strips or lossless JPEG
+ * compressed in 256x256 tiles like the raw images of most DNG converters. The raw image is stored in the 0th image file
+ * directory together with the color tags of a real camera, which are all that the pre- and post-processing need.
+ */
+class SyntheticDNG {
+
+    /**
+     * The value of a file parameter which selects a synthetic DNG file instead of a file on disk.
+     */
+    static final String SYNTHETIC = "synthetic";
+
+    static final int BITS_PER_SAMPLE = 14;
+    static final int TILE_SIZE = 256;
+    private static final int ROWS_PER_STRIP = 256;
+
+    private static final int BYTE = 1;
+    private static final int ASCII = 2;
+    private static final int SHORT = 3;
+    private static final int LONG = 4;
+    private static final int RATIONAL = 5;
+    private static final int SRATIONAL = 10;
+
+    private SyntheticDNG() {
+    }
+
+    /**
+     * @return The given file, or a synthetic DNG file of the given size if the file is {@link #SYNTHETIC}
+     */
+    static File resolve(String file, int width, int height, boolean losslessJPEG) throws IOException {
+        return SYNTHETIC.equals(file) ? write(width, height, losslessJPEG) : new File(file);
+    }
+
+    /**
+     * Writes a synthetic DNG file into a temporary file which is deleted when the JVM exits.
+     */
+    static File write(int width, int height, boolean losslessJPEG) throws IOException {
+        File file = File.createTempFile("synthetic", ".dng");
+        file.deleteOnExit();
+        Files.write(file.toPath(), create(width, height, losslessJPEG));
+        return file;
+    }
+
+    /**
+     * @return A synthetic CFA image in row-major order with {@link #BITS_PER_SAMPLE} bits per sample
+     */
+    static int[] createCFAImage(int width, int height) {
+        // the green pixels are brighter than the red and blue ones, like in a white balanced raw image
+        float[] gains = {0.5f, 1f, 1f, 0.7f};
+        int whiteLevel = (1 << BITS_PER_SAMPLE) - 1;
+        Random random = new Random(42);
+        int[] samples = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float value = (x + y) / (float) (width + height) * gains[(x & 1) + 2 * (y & 1)];
+                int sample = 512 + (int) (value * (whiteLevel - 1024)) + random.nextInt(64);
+                samples[y * width + x] = Math.min(whiteLevel, sample);
+            }
+        }
+        return samples;
+    }
+
+    private static byte[] create(int width, int height, boolean losslessJPEG) {
+        int[] samples = createCFAImage(width, height);
+        List<byte[]> segments = losslessJPEG ? encodeTiles(samples, width, height) : packStrips(samples, width, height);
+
+        List<Entry> entries = new ArrayList<>();
+        entries.add(new Entry(254, LONG, 0));
+        entries.add(new Entry(256, LONG, width));
+        entries.add(new Entry(257, LONG, height));
+        entries.add(new Entry(258, SHORT, 16));
+        entries.add(new Entry(259, SHORT, losslessJPEG ? 7 : 1));
+        entries.add(new Entry(262, SHORT, 32803));
+        entries.add(new Entry(271, ASCII, "Synthetic\0".getBytes()));
+        entries.add(new Entry(274, SHORT, 1));
+        entries.add(new Entry(277, SHORT, 1));
+        if (!losslessJPEG) {
+            entries.add(new Entry(278, LONG, ROWS_PER_STRIP));
+        }
+        entries.add(new Entry(284, SHORT, 1));
+        if (losslessJPEG) {
+            entries.add(new Entry(322, LONG, TILE_SIZE));
+            entries.add(new Entry(323, LONG, TILE_SIZE));
+        }
+        // the offsets are filled in once the layout is known
+        Entry offsets = new Entry(losslessJPEG ? 324 : 273, LONG, new int[segments.size()]);
+        int[] byteCounts = new int[segments.size()];
+        for (int i = 0; i < byteCounts.length; i++) {
+            byteCounts[i] = segments.get(i).length;
+        }
+        entries.add(offsets);
+        entries.add(new Entry(losslessJPEG ? 325 : 279, LONG, byteCounts));
+        entries.add(new Entry(33421, SHORT, new int[]{2, 2}));
+        entries.add(new Entry(33422, BYTE, new byte[]{0, 1, 1, 2}));
+        entries.add(new Entry(50706, BYTE, new byte[]{1, 4, 0, 0}));
+        entries.add(new Entry(50708, ASCII, "Synthetic Camera\0".getBytes()));
+        entries.add(new Entry(50713, SHORT, new int[]{2, 2}));
+        entries.add(new Entry(50714, RATIONAL, new int[]{512, 1, 512, 1, 512, 1, 512, 1}));
+        entries.add(new Entry(50717, SHORT, (1 << BITS_PER_SAMPLE) - 1));
+        entries.add(new Entry(50719, RATIONAL, new int[]{0, 1, 0, 1}));
+        entries.add(new Entry(50720, RATIONAL, new int[]{width, 1, height, 1}));
+        // the color matrix of the Canon PowerShot S30
+        entries.add(new Entry(50721, SRATIONAL, new int[]{10744, 10000, -3813, 10000, -1142, 10000, -7962, 10000,
+                15966, 10000, 2075, 10000, -2492, 10000, 2805, 10000, 7744, 10000}));
+        entries.add(new Entry(50727, RATIONAL, new int[]{1, 1, 1, 1, 1, 1}));
+        entries.add(new Entry(50728, RATIONAL, new int[]{600225, 1000000, 1, 1, 732646, 1000000}));
+        entries.add(new Entry(50730, SRATIONAL, new int[]{0, 100}));
+        entries.add(new Entry(50778, SHORT, 21));
+        entries.add(new Entry(50829, LONG, new int[]{0, 0, height, width}));
+
+        // header, image file directory, values which do not fit into an entry, segments
+        int ifdSize = 2 + 12 * entries.size() + 4;
+        int position = 8 + ifdSize;
+        for (Entry entry : entries) {
+            if (entry.data.length > 4) {
+                entry.offset = position;
+                position += entry.data.length + (entry.data.length & 1);
+            }
+        }
+        int[] segmentOffsets = new int[segments.size()];
+        for (int i = 0; i < segmentOffsets.length; i++) {
+            segmentOffsets[i] = position;
+            position += segments.get(i).length;
+        }
+        offsets.setValues(segmentOffsets);
+
+        ByteBuffer buffer = ByteBuffer.allocate(position).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        buffer.putShort((short) entries.size());
+        for (Entry entry : entries) {
+            buffer.putShort((short) entry.tag).putShort((short) entry.type).putInt(entry.count);
+            if (entry.data.length > 4) {
+                buffer.putInt(entry.offset);
+            } else {
+                buffer.put(entry.data).position(buffer.position() + 4 - entry.data.length);
+            }
+        }
+        buffer.putInt(0);
+        for (Entry entry : entries) {
+            if (entry.data.length > 4) {
+                buffer.put(entry.offset, entry.data);
+            }
+        }
+        for (int i = 0; i < segmentOffsets.length; i++) {
+            buffer.put(segmentOffsets[i], segments.get(i));
+        }
+        return buffer.array();
+    }
+
+    private static List<byte[]> packStrips(int[] samples, int width, int height) {
+        List<byte[]> strips = new ArrayList<>();
+        for (int y = 0; y < height; y += ROWS_PER_STRIP) {
+            int rows = Math.min(ROWS_PER_STRIP, height - y);
+            ByteBuffer strip = ByteBuffer.allocate(rows * width * 2).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = y * width; i < (y + rows) * width; i++) {
+                strip.putShort((short) samples[i]);
+            }
+            strips.add(strip.array());
+        }
+        return strips;
+    }
+
+    /**
+     * @return The lossless JPEG compressed tiles of the image, row by row
+     */
+    static List<byte[]> encodeTiles(int[] samples, int width, int height) {
+        LosslessJPEGEncoder encoder = new LosslessJPEGEncoder();
+        List<byte[]> tiles = new ArrayList<>();
+        int[] tile = new int[TILE_SIZE * TILE_SIZE];
+        for (int tileY = 0; tileY < height; tileY += TILE_SIZE) {
+            for (int tileX = 0; tileX < width; tileX += TILE_SIZE) {
+                // the tiles at the right and bottom border are padded by repeating the last row and column
+                for (int y = 0; y < TILE_SIZE; y++) {
+                    int row = Math.min(height - 1, tileY + y) * width;
+                    for (int x = 0; x < TILE_SIZE; x++) {
+                        tile[y * TILE_SIZE + x] = samples[row + Math.min(width - 1, tileX + x)];
+                    }
+                }
+                // two interleaved components per line, as written by the Adobe DNG converter
+                tiles.add(encoder.encode(tile, TILE_SIZE, TILE_SIZE / 2, 2, BITS_PER_SAMPLE));
+            }
+        }
+        return tiles;
+    }
+
+    private static final class Entry {
+        private final int tag;
+        private final int type;
+        private int count;
+        private byte[] data;
+        private int offset;
+
+        Entry(int tag, int type, int value) {
+            this(tag, type, new int[]{value});
+        }
+
+        Entry(int tag, int type, byte[] data) {
+            this.tag = tag;
+            this.type = type;
+            this.count = data.length;
+            this.data = data;
+        }
+
+        Entry(int tag, int type, int[] values) {
+            this.tag = tag;
+            this.type = type;
+            setValues(values);
+        }
+
+        void setValues(int[] values) {
+            boolean rational = type == RATIONAL || type == SRATIONAL;
+            int size = type == SHORT ? 2 : 4;
+            ByteBuffer buffer = ByteBuffer.allocate(values.length * size).order(ByteOrder.LITTLE_ENDIAN);
+            for (int value : values) {
+                if (size == 2) {
+                    buffer.putShort((short) value);
+                } else {
+                    buffer.putInt(value);
+                }
+            }
+            count = rational ? values.length / 2 : values.length;
+            data = buffer.array();
+        }
+    }
+}
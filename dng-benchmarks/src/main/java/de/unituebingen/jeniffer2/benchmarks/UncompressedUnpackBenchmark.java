@@ -0,0 +1,64 @@
+package de.unituebingen.jeniffer2.benchmarks;
+
+import de.unituebingen.dng.reader.compression.CompressionDecoderException;
+import de.unituebingen.dng.reader.compression.UncompressedDecoder;
+import de.unituebingen.dng.reader.io.BitReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unpacks a single strip of a 12 MP uncompressed raw image with 10, 12 or 14 bits per sample.
+ * {@code unpack} uses the {@link UncompressedDecoder} with its group wise unpackers, {@code unpackBitReader} reads
+ * every sample with the {@link BitReader} like the previous implementation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UncompressedUnpackBenchmark {
+
+    private static final int WIDTH = 4000;
+    private static final int HEIGHT = 3000;
+
+    @Param({"10", "12", "14"})
+    public int bitsPerSample;
+
+    @Param({"true", "false"})
+    public boolean msbFirst;
+
+    private ByteBuffer strip;
+    private short[] raster;
+    private UncompressedDecoder decoder;
+
+    @Setup
+    public void setup() {
+        byte[] data = new byte[(int) ((long) WIDTH * HEIGHT * bitsPerSample / 8)];
+        new Random(42).nextBytes(data);
+        strip = ByteBuffer.wrap(data);
+        raster = new short[WIDTH * HEIGHT];
+        decoder = new UncompressedDecoder(bitsPerSample, ByteOrder.BIG_ENDIAN,
+                msbFirst ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Benchmark
+    public short[] unpack() throws CompressionDecoderException {
+        decoder.decodeInto(strip, raster, 0, WIDTH, WIDTH, WIDTH, HEIGHT);
+        return raster;
+    }
+
+    @Benchmark
+    public short[] unpackBitReader() throws EOFException {
+        BitReader bitReader = new BitReader(strip);
+        for (int i = 0; i < raster.length; i++) {
+            raster[i] = (short) bitReader.readUnsignedBits(bitsPerSample);
+        }
+        return raster;
+    }
+}
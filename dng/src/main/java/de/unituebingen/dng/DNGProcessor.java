@@ -1,5 +1,6 @@
 package de.unituebingen.dng;
 
+import de.unituebingen.dng.processor.BandSink;
 import de.unituebingen.dng.processor.Pipeline;
 import de.unituebingen.dng.processor.Processor;
 import de.unituebingen.dng.processor.demosaicingprocessor.*;
@@ -11,18 +12,24 @@ import de.unituebingen.dng.processor.log.CsvAndConsoleLogger;
 import de.unituebingen.dng.processor.log.CsvLogger;
 import de.unituebingen.dng.processor.log.NopLogger;
 import de.unituebingen.dng.processor.log.Timer;
+import de.unituebingen.dng.processor.opcodeprocessor.OpcodeStage;
 import de.unituebingen.dng.processor.postprocessor.*;
 import de.unituebingen.dng.processor.otherprocessor.ImageCroppingProcessor;
 import de.unituebingen.dng.processor.preprocessor.PreProcessor;
 import de.unituebingen.dng.processor.preprocessor.RawMapping;
 import de.unituebingen.dng.processor.preprocessor.WhiteBalancing;
 import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.processor.util.PostProcessingPrecision;
 import de.unituebingen.dng.reader.ImageFileDirectory;
 import de.unituebingen.dng.reader.DNGReadException;
 import de.unituebingen.dng.reader.DNGFile;
 import de.unituebingen.dng.reader.DNGTag;
+import de.unituebingen.dng.reader.DNGTagConstants;
+import de.unituebingen.dng.reader.RasterRowReader;
 import de.unituebingen.dng.reader.compression.CompressionDecoderException;
+import de.unituebingen.dng.reader.dng.opcode.Opcode;
 import de.unituebingen.dng.reader.dng.util.CFAPattern;
+import de.unituebingen.imageprocessor.ImageExporter;
 import de.unituebingen.opengl.GPUImage;
 import de.unituebingen.opengl.OpenGLContext;
 import de.unituebingen.opengl.TransformableOnGPU;
@@ -43,6 +50,11 @@ import java.util.Properties;
  */
 public class DNGProcessor {
 
+    /**
+     * The default amount of rows of a band of {@link #processStreaming(BandSink)}.
+     */
+    public static final int DEFAULT_BAND_HEIGHT = 256;
+
     private boolean performWhiteBalance = true;
     private InterpolationMethod interpolationMethod = InterpolationMethod.NONE;
     private AccelerationStrategy accelerationStrategy = AccelerationStrategy.NONE;
@@ -55,8 +67,17 @@ public class DNGProcessor {
     private boolean performExposureCorrection;
     private boolean performProfileToneCurveMapping;
     private boolean performProfileLookTableMapping;
+    private int colorLookupTableSize;
+    private PostProcessingPrecision postProcessingPrecision = PostProcessingPrecision.DOUBLE;
+    private int outputBitDepth = 16;
+    private boolean dithering;
     private String subStep;
 
+    // the opcode lists of the raw image, null if absent
+    private Opcode[] opcodeList1;
+    private Opcode[] opcodeList2;
+    private Opcode[] opcodeList3;
+
     private Pipeline<BufferedImage> cpuPipeline;
     private Pipeline<TransformableOnGPU> gpuPipeline;
     private int demosaicingOverlap = 0;
@@ -93,6 +114,9 @@ public class DNGProcessor {
         if (ifd0.hasEntry(DNGTag.PROFILE_TONE_CURVE)) {
             performProfileToneCurveMapping = true;
         }
+        opcodeList1 = hrIFD.getOpcodeList1();
+        opcodeList2 = hrIFD.getOpcodeList2();
+        opcodeList3 = hrIFD.getOpcodeList3();
     }
 
 
@@ -100,19 +124,34 @@ public class DNGProcessor {
         cpuPipeline = new Pipeline<BufferedImage>(pTimer);
         gpuPipeline = new Pipeline<TransformableOnGPU>(pTimer);
 
-        Processor<BufferedImage> preProcessor = new PreProcessor(pTimer, new RawMapping(ifd0, hrIFD));
-        if (performWhiteBalance) {
-            ((PreProcessor) preProcessor).addOperation(new WhiteBalancing(ifd0, hrIFD));
+        int width = (int) hrIFD.getImageWidth();
+        int height = (int) hrIFD.getImageLength();
+        // see DNG Specification 1.5.0.0, chapter 6
+        if (opcodeList1 != null) {
+            cpuPipeline.add(OpcodeStage.create("OpcodeList1", opcodeList1, new Rectangle(0, 0, width, height),
+                    accelerationStrategy, pTimer));
+        }
+        if (opcodeList2 != null) {
+            // OpcodeList2 is applied after the mapping to linear values and before the white balance
+            PreProcessor rawMapping = new PreProcessor(pTimer, new RawMapping(ifd0, hrIFD));
+            rawMapping.setAccelerationStrategy(accelerationStrategy);
+            cpuPipeline.add(rawMapping);
+            cpuPipeline.add(OpcodeStage.create("OpcodeList2", opcodeList2, getActiveArea(), accelerationStrategy,
+                    pTimer));
+            if (performWhiteBalance) {
+                PreProcessor whiteBalancing = new PreProcessor(pTimer, new WhiteBalancing(ifd0, hrIFD));
+                whiteBalancing.setAccelerationStrategy(accelerationStrategy);
+                cpuPipeline.add(whiteBalancing);
+            }
+        } else {
+            cpuPipeline.add(createPreProcessor(pTimer));
         }
-        ((PreProcessor) preProcessor).setAccelerationStrategy(accelerationStrategy);
-        cpuPipeline.add(preProcessor);
 
         gpuSwitchBeforeDemosaicing = false;
         demosaicingOverlap = 0;
-        int width = (int) hrIFD.getImageWidth();
-        int height = (int) hrIFD.getImageLength();
         CFAPattern cfaPattern = hrIFD.getCFAPattern();
-        switch(accelerationStrategy) {
+        // LinearRaw images have three samples per pixel already, so they are not demosaiced, not even on GPU
+        switch(cfaPattern != null ? accelerationStrategy : AccelerationStrategy.NONE) {
             case GPU_OPERATION_WISE:
             case GPU_TILE_WISE:
                 switch(interpolationMethod) {
@@ -130,7 +169,18 @@ public class DNGProcessor {
                 }
                 if(gpuSwitchBeforeDemosaicing) break;
             default:
-                cpuPipeline.add(new DemosaicingProcessor(interpolationMethod, cfaPattern, accelerationStrategy, pTimer));
+                if (cfaPattern != null) {
+                    cpuPipeline.add(new DemosaicingProcessor(interpolationMethod, cfaPattern, accelerationStrategy,
+                            pTimer));
+                }
+                if (opcodeList3 != null) {
+                    cpuPipeline.add(OpcodeStage.create("OpcodeList3", opcodeList3, getActiveArea(),
+                            accelerationStrategy, pTimer));
+                }
+        }
+        if (gpuSwitchBeforeDemosaicing && opcodeList3 != null) {
+            // the post-processing follows the demosaicing on GPU, so there is no CPU stage in between
+            throw new IllegalArgumentException("OpcodeList3 not yet implemented on GPU");
         }
         
         ImageCroppingProcessor cropper = new ImageCroppingProcessor(hrIFD);
@@ -148,7 +198,7 @@ public class DNGProcessor {
             cpuPipeline.add(cropper);
         }
 
-        if (subStep != null && subStep != "") {
+        if (isSubStepSelected()) {
             // no postprocessing!
             return;
         } else if(accelerationStrategy == AccelerationStrategy.GPU_OPERATION_WISE ||
@@ -171,25 +221,62 @@ public class DNGProcessor {
             gpuPipeline.add(new XYZD50ToSRGBMapping(width, height));     
         } else {
             // postprocessing on CPU
-            Processor<BufferedImage> postProcessor = new PostProcessor(pTimer, new ColorSpaceTransformation(width, height, ifd0));
+            cpuPipeline.add(createPostProcessor(pTimer, width, height));
+        }
 
-            if (performHSVMapping) {
-                ((PostProcessor) postProcessor).addOperation(new HSVMapping(width, height, ifd0));
-            }
-            if (performExposureCorrection) {
-                ((PostProcessor) postProcessor).addOperation(new ExposureCorrection(width, height, ifd0));
-            }
-            if (performProfileLookTableMapping) {
-                ((PostProcessor) postProcessor).addOperation(new ProfileLookTableMapping(width, height, ifd0));
-            }
-            if (performProfileToneCurveMapping) {
-                ((PostProcessor) postProcessor).addOperation(new ProfileToneCurveMapping(width, height, ifd0));
-            }
-            ((PostProcessor) postProcessor).addOperation(new XYZD50ToSRGBMapping(width, height));
-            ((PostProcessor) postProcessor).setAccelerationStrategy(accelerationStrategy);
-            cpuPipeline.add(postProcessor);
+    }
+
+    /**
+     * @return The active area of the raw image, which is the image of the processing stages of OpcodeList2 and
+     * OpcodeList3
+     */
+    private Rectangle getActiveArea() {
+        long[] activeArea = hrIFD.getActiveArea();
+        if (activeArea == null) {
+            return new Rectangle(0, 0, (int) hrIFD.getImageWidth(), (int) hrIFD.getImageLength());
         }
+        return new Rectangle((int) activeArea[1], (int) activeArea[0], (int) (activeArea[3] - activeArea[1]),
+                (int) (activeArea[2] - activeArea[0]));
+    }
 
+    private PreProcessor createPreProcessor(Timer timer) {
+        PreProcessor preProcessor = new PreProcessor(timer, new RawMapping(ifd0, hrIFD));
+        if (performWhiteBalance) {
+            preProcessor.addOperation(new WhiteBalancing(ifd0, hrIFD));
+        }
+        preProcessor.setAccelerationStrategy(accelerationStrategy);
+        return preProcessor;
+    }
+
+    private PostProcessor createPostProcessor(Timer timer, int width, int height) {
+        PostProcessor postProcessor = new PostProcessor(timer, new ColorSpaceTransformation(width, height, ifd0));
+
+        if (performHSVMapping) {
+            HSVMapping hsvMapping = new HSVMapping(width, height, ifd0);
+            hsvMapping.setLookupTableSize(colorLookupTableSize);
+            postProcessor.addOperation(hsvMapping);
+        }
+        if (performExposureCorrection) {
+            postProcessor.addOperation(new ExposureCorrection(width, height, ifd0));
+        }
+        if (performProfileLookTableMapping) {
+            ProfileLookTableMapping profileLookTableMapping = new ProfileLookTableMapping(width, height, ifd0);
+            profileLookTableMapping.setLookupTableSize(colorLookupTableSize);
+            postProcessor.addOperation(profileLookTableMapping);
+        }
+        if (performProfileToneCurveMapping) {
+            postProcessor.addOperation(new ProfileToneCurveMapping(width, height, ifd0));
+        }
+        postProcessor.addOperation(new XYZD50ToSRGBMapping(width, height));
+        postProcessor.setAccelerationStrategy(accelerationStrategy);
+        postProcessor.setPrecision(postProcessingPrecision);
+        postProcessor.setOutputBitDepth(outputBitDepth);
+        postProcessor.setDithering(dithering);
+        return postProcessor;
+    }
+
+    private boolean isSubStepSelected() {
+        return subStep != null && !subStep.isEmpty();
     }
 
     public BufferedImage process() throws CompressionDecoderException, DNGReadException, EOFException {
@@ -199,16 +286,47 @@ public class DNGProcessor {
         System.out.println("Acceleration Strategy: " + accelerationStrategy.getLabel());
 
         System.gc();
-        int[] imageData = DNGFile.parseRasterOfImageFileDirectory(hrIFD);
+        return process(readRawImage());
+    }
+
+    /**
+     * Decodes the raw image, which is the first half of {@link #process()}. Together with
+     * {@link #process(BufferedImage)}, this allows decoding one image while another one is processed.
+     *
+     * @return The undemosaiced raw image with one 16 bit sample per pixel, or three for LinearRaw images with three
+     * samples per pixel
+     * @throws CompressionDecoderException If something goes wrong during image decoding
+     * @throws DNGReadException            If something goes wrong during tiff parsing
+     * @throws EOFException                If the end of file has been reached
+     */
+    public BufferedImage readRawImage() throws CompressionDecoderException, DNGReadException, EOFException {
         int imageWidth = (int) hrIFD.getImageWidth();
         int imageLength = (int) hrIFD.getImageLength();
-        pTimer.startRun(DNGFile.getFile().getName(),imageWidth,imageLength,accelerationStrategy.getLabel());
+        int samplesPerPixel = Math.max(1, hrIFD.getSamplesPerPixel());
+        if (samplesPerPixel != 1 && samplesPerPixel != 3) {
+            throw new DNGReadException(samplesPerPixel + " samples per pixel are currently not supported");
+        }
 
-        ColorSpace colorSpace = ColorSpace.getInstance(ColorSpace.CS_GRAY);
+        ColorSpace colorSpace = ColorSpace.getInstance(samplesPerPixel == 3 ? ColorSpace.CS_LINEAR_RGB : ColorSpace.CS_GRAY);
         ColorModel colorModel = new ComponentColorModel(colorSpace, false, false, ColorModel.OPAQUE, DataBuffer.TYPE_USHORT);
-        WritableRaster writableRaster = Raster.createInterleavedRaster(DataBuffer.TYPE_USHORT, imageWidth, imageLength, 1, new Point(0, 0));
+        WritableRaster writableRaster = Raster.createInterleavedRaster(DataBuffer.TYPE_USHORT, imageWidth, imageLength,
+                samplesPerPixel, new Point(0, 0));
         BufferedImage rawImage = new BufferedImage(colorModel, writableRaster, false, new Properties());
-        writableRaster.setPixels(0, 0, imageWidth, imageLength, imageData);
+        // decode directly into the raster, so the raw image is not copied
+        DNGFile.parseRasterOfImageFileDirectory(hrIFD, (DataBufferUShort) writableRaster.getDataBuffer(),
+                imageWidth * samplesPerPixel);
+        return rawImage;
+    }
+
+    /**
+     * Processes a raw image read by {@link #readRawImage()}, which is the second half of {@link #process()}.
+     *
+     * @param rawImage The raw image, which is processed in place as far as possible
+     * @return The processed image
+     */
+    public BufferedImage process(BufferedImage rawImage) {
+        pTimer.startRun(DNGFile.getFile().getName(), rawImage.getWidth(), rawImage.getHeight(),
+                accelerationStrategy.getLabel());
 
         BufferedImage result = cpuPipeline.process(rawImage);
         if(accelerationStrategy == AccelerationStrategy.GPU_OPERATION_WISE) {
@@ -243,10 +361,176 @@ public class DNGProcessor {
                 pTimer.endTask(cropTaskName);
             }
         }
+        if (outputBitDepth == 8 && result.getRaster().getTransferType() == DataBuffer.TYPE_USHORT) {
+            // post-processed on GPU or not at all
+            result = ImageExporter.create8BitBufferedImage(result);
+        }
         pTimer.endRun();
         return result;
     }
 
+    /**
+     * Processes the image in bands of {@link #DEFAULT_BAND_HEIGHT} rows, see {@link #processStreaming(BandSink, int)}.
+     */
+    public void processStreaming(BandSink sink) throws CompressionDecoderException, DNGReadException, IOException {
+        processStreaming(sink, DEFAULT_BAND_HEIGHT);
+    }
+
+    /**
+     * Processes the image band by band and writes the finished bands to the given sink. <br/>
+     * Each band is decoded, pre-processed, demosaiced, cropped and post-processed before the next band is read. The
+     * demosaicing needs some rows above and below each band (see {@link #getStreamingHalo(InterpolationMethod)}), these
+     * halo rows are kept from the previous band. The raw and the demosaiced samples of a band are kept in buffers which
+     * are reused for all bands, so the memory which is needed is bounded by the band height and the height of the
+     * strips or tiles of the raw image (see {@link RasterRowReader}) instead of the image size. <br/>
+     * The result is the same as the one of {@link #process()} for all interpolation methods. Streaming is not available
+     * for the GPU acceleration strategies, for LinearRaw images and for images with opcode lists, since opcodes like
+     * warps may depend on any row of the image.
+     *
+     * @param sink       The sink to which the processed bands are written
+     * @param bandHeight The amount of rows of a band, rounded up to a multiple of the CFA pattern height
+     * @throws CompressionDecoderException If something goes wrong during image decoding
+     * @throws DNGReadException            If something goes wrong during tiff parsing
+     * @throws IOException                 If the end of file has been reached or the sink cannot write a band
+     */
+    public void processStreaming(BandSink sink, int bandHeight)
+            throws CompressionDecoderException, DNGReadException, IOException {
+        if (isGPUStrategy()) {
+            throw new IllegalArgumentException("Streaming is not yet implemented on GPU");
+        }
+        if (hasOpcodeLists()) {
+            throw new IllegalArgumentException("Streaming is not yet implemented for images with opcode lists");
+        }
+        if (isLinearRaw()) {
+            throw new IllegalArgumentException("Streaming is not yet implemented for LinearRaw images");
+        }
+        if (bandHeight < 1) {
+            throw new IllegalArgumentException("A band needs at least one row.");
+        }
+        int imageWidth = (int) hrIFD.getImageWidth();
+        int imageLength = (int) hrIFD.getImageLength();
+        // all bands have to start at the same phase of the 2x2 CFA pattern
+        bandHeight += bandHeight & 1;
+        int halo = getStreamingHalo(interpolationMethod);
+        halo += halo & 1;
+
+        // the stages log per band otherwise
+        Timer stageTimer = new NopLogger();
+        PreProcessor preProcessor = createPreProcessor(stageTimer);
+        DemosaicingProcessor demosaicingProcessor = new DemosaicingProcessor(interpolationMethod,
+                hrIFD.getCFAPattern(), accelerationStrategy, stageTimer);
+        PostProcessor postProcessor = isSubStepSelected() ? null
+                : createPostProcessor(stageTimer, imageWidth, imageLength);
+        Rectangle cropArea = new ImageCroppingProcessor(hrIFD).getCropArea();
+        int cropEnd = cropArea.y + cropArea.height;
+        int firstBandRow = cropArea.y - cropArea.y % 2;
+
+        RasterRowReader rowReader = DNGFile.openRasterRowReader(hrIFD);
+        // rows [rawFirstRow, rawFirstRow + rawRows) of the raw image, already pre-processed
+        short[] raw = new short[(bandHeight + 2 * halo) * imageWidth];
+        short[] demosaicedSamples = new short[raw.length * 3];
+        int rawFirstRow = 0;
+        int rawRows = 0;
+        BufferedImage band = null;
+
+        String taskName = "Streaming";
+        pTimer.startRun(DNGFile.getFile().getName(), imageWidth, imageLength, accelerationStrategy.getLabel());
+        pTimer.startTask(taskName, ((cropEnd - firstBandRow + bandHeight - 1) / bandHeight) + " bands of "
+                + bandHeight + " rows");
+        sink.start(cropArea.width, cropArea.height);
+        for (int y = firstBandRow; y < cropEnd; y += bandHeight) {
+            int bandEnd = Math.min(y + bandHeight, imageLength);
+            int firstRow = Math.max(0, y - halo);
+            int endRow = Math.min(imageLength, bandEnd + halo);
+
+            // keep the halo rows of the previous band and read the remaining rows
+            if (rawRows == 0) {
+                rowReader.skipRows(firstRow - rowReader.getNextRow());
+            } else {
+                int droppedRows = firstRow - rawFirstRow;
+                System.arraycopy(raw, droppedRows * imageWidth, raw, 0, (rawRows - droppedRows) * imageWidth);
+                rawRows -= droppedRows;
+            }
+            rawFirstRow = firstRow;
+            int newRows = endRow - (rawFirstRow + rawRows);
+            rowReader.readRows(raw, rawRows * imageWidth, imageWidth, newRows);
+            preProcessor.process(raw, rawRows * imageWidth, (rawRows + newRows) * imageWidth, rawFirstRow * imageWidth);
+            rawRows += newRows;
+
+            demosaicingProcessor.demosaic(raw, imageWidth, rawRows, demosaicedSamples);
+
+            // crop the band
+            int outputFirstRow = Math.max(y, cropArea.y);
+            int outputRows = Math.min(bandEnd, cropEnd) - outputFirstRow;
+            if (band == null || band.getHeight() != outputRows) {
+                band = createRGBImage(cropArea.width, outputRows);
+            }
+            short[] bandSamples = ((DataBufferUShort) band.getRaster().getDataBuffer()).getData();
+            for (int row = 0; row < outputRows; row++) {
+                System.arraycopy(demosaicedSamples, ((outputFirstRow - rawFirstRow + row) * imageWidth + cropArea.x) * 3,
+                        bandSamples, row * cropArea.width * 3, cropArea.width * 3);
+            }
+
+            sink.writeBand(postProcessor != null ? postProcessor.process(band) : band, outputFirstRow - cropArea.y);
+        }
+        sink.finish();
+        pTimer.endTask(taskName);
+        pTimer.endRun();
+    }
+
+    /**
+     * @return The rows above and below a band which the demosaicing of the band depends on. This is the margin of the
+     * interpolation method, except for DLMMSE+RCD, whose margin (the overlap of its tiles) is two rows short of its
+     * support, so bands would differ from the whole image at their seams.
+     */
+    private static int getStreamingHalo(InterpolationMethod interpolationMethod) {
+        switch (interpolationMethod) {
+            case DLMMSE_RCD_CODE:
+            case DLMMSE_RCD_PAPER:
+                return 16;
+            default:
+                return getMargin(interpolationMethod);
+        }
+    }
+
+    /**
+     * The streaming result is the same as the one of {@link #process()}, so callers may stream whenever this is true.
+     * This relies on the halo of each interpolation method covering the rows it depends on, see
+     * {@link #getStreamingHalo(InterpolationMethod)}.
+     *
+     * @return Whether {@link #processStreaming(BandSink)} is available for this image and the acceleration strategy
+     */
+    public boolean isStreamingSupported() {
+        return !isGPUStrategy() && !hasOpcodeLists() && !isLinearRaw();
+    }
+
+    private boolean isGPUStrategy() {
+        return accelerationStrategy == AccelerationStrategy.GPU_OPERATION_WISE
+                || accelerationStrategy == AccelerationStrategy.GPU_TILE_WISE;
+    }
+
+    private boolean isLinearRaw() {
+        return hrIFD.getPhotometricInterpretation() == DNGTagConstants.PHOTOMETRIC_INTERPRETATION__LINEAR_RAW;
+    }
+
+    private boolean hasOpcodeLists() {
+        return opcodeList1 != null || opcodeList2 != null || opcodeList3 != null;
+    }
+
+    /**
+     * @return The width of the raw image, before cropping
+     */
+    public int getImageWidth() {
+        return (int) hrIFD.getImageWidth();
+    }
+
+    /**
+     * @return The height of the raw image, before cropping
+     */
+    public int getImageLength() {
+        return (int) hrIFD.getImageLength();
+    }
+
     public void setPerformWhiteBalance(boolean performWhiteBalance) {
         this.performWhiteBalance = performWhiteBalance;
     }
@@ -262,6 +546,51 @@ public class DNGProcessor {
         buildProcessor();
     }
 
+    /**
+     * Sets the amount of samples per axis of the 3D lookup tables which the hue/saturation map and the look table of
+     * the camera profile are baked into, e.g. {@link ColorLookupTable3D#DEFAULT_SIZE} or 65, or 0 to map every pixel
+     * exactly (default). The tables are interpolated tetrahedrally and cached across images of the same camera. With
+     * 33 samples, the mean CIE76 delta E to the exact mapping is about 0.2 and 99% of the colors stay within 1.5; with 65
+     * samples, about 0.1 and 0.8.
+     */
+    public void setColorLookupTableSize(int colorLookupTableSize) {
+        this.colorLookupTableSize = colorLookupTableSize;
+        buildProcessor();
+    }
+
+    /**
+     * Sets the arithmetic of the post-processing, {@link PostProcessingPrecision#DOUBLE} by default.
+     * {@link PostProcessingPrecision#FIXED_POINT} is faster and stays within a few 16 bit steps.
+     */
+    public void setPostProcessingPrecision(PostProcessingPrecision postProcessingPrecision) {
+        this.postProcessingPrecision = postProcessingPrecision;
+        buildProcessor();
+    }
+
+    /**
+     * Sets the bit depth of the processed image, 16 (default) or 8. With 8 bits, the post-processing writes the
+     * samples straight into an 8 bit image for JPEG, PNG or TIFF export, so no 16 bit image has to be converted with
+     * {@link ImageExporter#create8BitBufferedImage(BufferedImage)} afterwards. The bands of
+     * {@link #processStreaming(BandSink)} have the same bit depth. Without post-processing on the CPU, i.e. for a
+     * substep or the GPU acceleration strategies, the result is converted after processing.
+     */
+    public void setOutputBitDepth(int outputBitDepth) {
+        if (outputBitDepth != 8 && outputBitDepth != 16) {
+            throw new IllegalArgumentException("Only 8 or 16 bit output is supported, not " + outputBitDepth);
+        }
+        this.outputBitDepth = outputBitDepth;
+        buildProcessor();
+    }
+
+    /**
+     * Sets whether the samples of an 8 bit output are dithered with an 8x8 Bayer matrix instead of truncated (default),
+     * which avoids banding in smooth gradients like skies. Only available for post-processing on the CPU.
+     */
+    public void setDithering(boolean dithering) {
+        this.dithering = dithering;
+        buildProcessor();
+    }
+
     public void setLoggingMethod(DNGProcessor.LoggingMethod method) {
         switch (method) {
             case CONSOLE:
@@ -418,12 +747,14 @@ public class DNGProcessor {
             case NEAREST_NEIGHBOR:
                 return NearestNeighbor.getOverlap();
             case BILINEAR_MEAN:
+            case BILINEAR_MEAN_SIMD:
                 return BilinearMean.getOverlap();
             case BILINEAR_MEDIAN:
                 return BilinearMedian.getOverlap();
             case BICUBIC:
                 return BiCubic.getOverlap();
             case MALVAR_HE_CUTLER:
+            case MALVAR_HE_CUTLER_SIMD:
                 return MalvarHeCutler.getOverlap();
             case HAMILTON_ADAMS:
                 return HamiltonAdams.getOverlap();
@@ -431,6 +762,7 @@ public class DNGProcessor {
                 return PatternedPixelGrouping.getOverlap();
             /* rewrite and original differ */
             case RCD:
+            case RCD_SIMD:
                 return RatioCorrectedDemosaicing.getOverlap();
             case DLMMSE_CODE:
             case DLMMSE_PAPER:
@@ -0,0 +1,36 @@
+package de.unituebingen.dng.processor;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Receives the processed image of the streaming pipeline band by band, see
+ * {@link de.unituebingen.dng.DNGProcessor#processStreaming(BandSink)}. <br/>
+ * The bands are horizontal stripes of the image with the full image width which are passed from top to bottom.
+ * A sink must not keep a reference to a band after {@link #writeBand(BufferedImage, int)} returned, since the
+ * pipeline may reuse its raster for the next band.
+ */
+public interface BandSink {
+
+    /**
+     * Called once before the first band is written.
+     *
+     * @param width  The width of the image
+     * @param height The height of the image
+     */
+    void start(int width, int height) throws IOException;
+
+    /**
+     * Called for each band of the image.
+     *
+     * @param band The processed band, an RGB image with the width of the image and 16 or 8 bits per sample, see
+     *             {@link de.unituebingen.dng.DNGProcessor#setOutputBitDepth(int)}
+     * @param y    The row of the image at which the band starts
+     */
+    void writeBand(BufferedImage band, int y) throws IOException;
+
+    /**
+     * Called once after the last band has been written.
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,49 @@
+package de.unituebingen.dng.processor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Properties;
+
+/**
+ * A {@link BandSink} which assembles the bands to a single RGB {@link BufferedImage} with the bit depth of the bands,
+ * e.g. to display the result of the streaming pipeline.
+ */
+public class BufferedImageBandSink implements BandSink {
+
+    private int width;
+    private int height;
+    private BufferedImage image;
+
+    /**
+     * Creates a sink without an image, which is created with the first band.
+     */
+    public BufferedImageBandSink() {
+    }
+
+    @Override
+    public void start(int width, int height) {
+        this.width = width;
+        this.height = height;
+        image = null;
+    }
+
+    @Override
+    public void writeBand(BufferedImage band, int y) {
+        if (image == null) {
+            WritableRaster writableRaster = band.getRaster().createCompatibleWritableRaster(width, height);
+            image = new BufferedImage(band.getColorModel(), writableRaster, false, new Properties());
+        }
+        image.getRaster().setDataElements(0, y, band.getRaster());
+    }
+
+    @Override
+    public void finish() {
+    }
+
+    /**
+     * @return The assembled image or {@code null} if no band has been written yet
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+}
@@ -0,0 +1,242 @@
+package de.unituebingen.dng.processor.demosaicingprocessor;
+
+import de.unituebingen.dng.processor.demosaicingprocessor.DemosaicingProcessor.InterpolationMethod;
+import de.unituebingen.dng.processor.log.NopLogger;
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.dng.util.CFAPattern;
+import oshi.SystemInfo;
+import oshi.hardware.CentralProcessor;
+
+import java.awt.Point;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Finds the fastest acceleration strategy and tile size of every demosaicing algorithm on this machine, for
+ * {@link AccelerationStrategy#AUTO}. <br/>
+ * The first time an algorithm is used on a machine, it is timed on a synthetic image with every candidate strategy and
+ * tile size. The fastest configuration is saved to a profile, {@code ~/.jeniffer2/autotuner.properties} or the file
+ * given by the environment variable {@code AUTOTUNER_PROFILE}, and read from there from then on. The entries of the
+ * profile are keyed by the CPU and its core count, so one profile can be shared by different machines, e.g. in a
+ * network home directory. Delete the entries of a machine to tune it again.
+ */
+public class Autotuner {
+
+    /**
+     * The fastest configuration of a demosaicing algorithm.
+     * @param accelerationStrategy A strategy other than the AUTO and GPU strategies
+     * @param tileSize The size of the tiles including their overlap, like the environment variable {@code TILE_SIZE},
+     *                 or 0 if the strategy does not use tiles
+     */
+    public record Configuration(AccelerationStrategy accelerationStrategy, int tileSize) {
+    }
+
+    private static final AccelerationStrategy[] UNTILED_STRATEGIES = {
+            AccelerationStrategy.NONE,
+            AccelerationStrategy.MULTITHREADING
+    };
+    private static final AccelerationStrategy[] TILED_STRATEGIES = {
+            AccelerationStrategy.CPU_TILING,
+            AccelerationStrategy.CPU_TILING_MT,
+            AccelerationStrategy.CPU_MT_TILING,
+            AccelerationStrategy.CPU_MT_TILING_MT
+    };
+    private static final int[] TILE_SIZES = {128, 256, 512, 1024, 2048};
+    // a tile size is only tried if the next smaller one was at most this much slower than the fastest smaller one
+    private static final double TOLERANCE = 1.1;
+    private static final int RUNS = 3;
+
+    private static Autotuner instance;
+
+    private final File profile;
+    private final String machine;
+    private final int width;
+    private final int height;
+
+    /**
+     * @return The autotuner of this machine with the default profile
+     */
+    public static synchronized Autotuner getInstance() {
+        if (instance == null) {
+            String path = System.getenv("AUTOTUNER_PROFILE");
+            File profile = path != null && !path.isEmpty() ? new File(path)
+                    : new File(System.getProperty("user.home"), ".jeniffer2" + File.separator + "autotuner.properties");
+            instance = new Autotuner(profile, getMachine(), 2048, 1536);
+        }
+        return instance;
+    }
+
+    /**
+     * @param profile The file which the configurations are read from and saved to
+     * @param machine The key of the machine within the profile
+     * @param width The width of the image which the algorithms are timed on
+     * @param height The height of the image which the algorithms are timed on
+     */
+    Autotuner(File profile, String machine, int width, int height) {
+        this.profile = profile;
+        this.machine = machine;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return The CPU and its core count, as collected by OSHI
+     */
+    public static String getMachine() {
+        CentralProcessor processor = new SystemInfo().getHardware().getProcessor();
+        return processor.getProcessorIdentifier().getName().trim() + " (" + processor.getPhysicalProcessorCount()
+                + " cores, " + processor.getLogicalProcessorCount() + " threads)";
+    }
+
+    /**
+     * @return The configuration of the given algorithm saved in the profile. If there is none for this machine, the
+     *         algorithm is tuned first, which takes a while.
+     */
+    public synchronized Configuration getConfiguration(InterpolationMethod interpolationMethod) {
+        String key = machine + "." + interpolationMethod;
+        Properties properties = load();
+        String value = properties.getProperty(key);
+        if (value != null) {
+            try {
+                String[] parts = value.trim().split("\\s+");
+                return new Configuration(AccelerationStrategy.valueOf(parts[0]), Integer.parseInt(parts[1]));
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                System.out.println("Invalid autotuner profile entry " + key + "=" + value + ", tuning again");
+            }
+        }
+        System.out.println("Autotuning " + interpolationMethod + " on " + machine + ", this may take a while");
+        Configuration configuration = tune(interpolationMethod);
+        System.out.println("Autotuned " + interpolationMethod + ": " + configuration.accelerationStrategy()
+                + (configuration.tileSize() > 0 ? " with tiles of size " + configuration.tileSize() : ""));
+        // other processes may have tuned other algorithms in the meantime
+        properties = load();
+        properties.setProperty(key, configuration.accelerationStrategy() + " " + configuration.tileSize());
+        save(properties);
+        return configuration;
+    }
+
+    /**
+     * Times the given algorithm with every candidate strategy and tile size, without consulting the profile.
+     * @return The fastest configuration
+     */
+    public Configuration tune(InterpolationMethod interpolationMethod) {
+        BufferedImage image = createImage(width, height);
+        Configuration best = null;
+        long bestTime = Long.MAX_VALUE;
+        for (AccelerationStrategy strategy : UNTILED_STRATEGIES) {
+            long time = time(interpolationMethod, strategy, 0, image);
+            if (time < bestTime) {
+                best = new Configuration(strategy, 0);
+                bestTime = time;
+            }
+        }
+        for (AccelerationStrategy strategy : TILED_STRATEGIES) {
+            // the time is assumed to have a single minimum over the tile size, so the search stops once it gets slower
+            long strategyTime = Long.MAX_VALUE;
+            for (int tileSize : TILE_SIZES) {
+                if (tileSize > Math.max(width, height)) {
+                    break;
+                }
+                long time = time(interpolationMethod, strategy, tileSize, image);
+                if (time == Long.MAX_VALUE) {
+                    // the tiles are too small for the overlap of the algorithm
+                    continue;
+                }
+                if (time < bestTime) {
+                    best = new Configuration(strategy, tileSize);
+                    bestTime = time;
+                }
+                if (time > strategyTime * TOLERANCE) {
+                    break;
+                }
+                strategyTime = Math.min(strategyTime, time);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return The shortest time of a few runs in nanoseconds, or {@link Long#MAX_VALUE} if the tile size is too small
+     */
+    private static long time(InterpolationMethod interpolationMethod, AccelerationStrategy strategy, int tileSize,
+                             BufferedImage image) {
+        DemosaicingProcessor processor;
+        try {
+            processor = new DemosaicingProcessor(interpolationMethod, CFAPattern.RGGB, strategy, tileSize,
+                    new NopLogger());
+        } catch (IllegalArgumentException e) {
+            return Long.MAX_VALUE;
+        }
+        // the first run warms up the JIT compiler
+        processor.process(image);
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            processor.process(image);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * @return A raw image with a smooth gradient and noise, like a white balanced raw image with 14 bits per sample
+     */
+    private static BufferedImage createImage(int width, int height) {
+        float[] gains = {0.5f, 1f, 1f, 0.7f};
+        Random random = new Random(42);
+        short[] samples = new short[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float value = (x + y) / (float) (width + height) * gains[(x & 1) + 2 * (y & 1)];
+                samples[y * width + x] = (short) Math.min(16383, 512 + (int) (value * 15360) + random.nextInt(64));
+            }
+        }
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferUShort(samples, samples.length),
+                width, height, width, 1, new int[]{0}, new Point(0, 0));
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false,
+                ColorModel.OPAQUE, DataBuffer.TYPE_USHORT);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    private Properties load() {
+        Properties properties = new Properties();
+        if (profile.isFile()) {
+            try (InputStream in = new FileInputStream(profile)) {
+                properties.load(in);
+            } catch (IOException e) {
+                System.out.println("Could not read autotuner profile " + profile + ": " + e.getMessage());
+            }
+        }
+        return properties;
+    }
+
+    private void save(Properties properties) {
+        try {
+            File directory = profile.getAbsoluteFile().getParentFile();
+            directory.mkdirs();
+            // replace the profile at once, so that other processes never read half of it
+            File temporary = File.createTempFile("autotuner", ".properties", directory);
+            try {
+                try (OutputStream out = new FileOutputStream(temporary)) {
+                    properties.store(out, "Fastest acceleration strategy and tile size per machine and demosaicing algorithm");
+                }
+                Files.move(temporary.toPath(), profile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary.toPath());
+            }
+        } catch (IOException e) {
+            System.out.println("Could not save autotuner profile " + profile + ": " + e.getMessage());
+        }
+    }
+}
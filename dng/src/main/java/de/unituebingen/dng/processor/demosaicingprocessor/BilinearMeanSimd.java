@@ -0,0 +1,88 @@
+package de.unituebingen.dng.processor.demosaicingprocessor;
+
+import static de.unituebingen.dng.processor.demosaicingprocessor.VectorSupport.FLOATS;
+import static de.unituebingen.dng.processor.demosaicingprocessor.VectorSupport.LANES;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+
+/**
+ * Bilinear mean demosaicing with the Vector API. Computes the same values as {@link BilinearMean}. <br/>
+ * Every lane computes all averages, and the averages of its CFA color are selected per column parity, so the loop has
+ * no branches. The border is handled by the padding of {@link VectorSupport}.
+ */
+public class BilinearMeanSimd {
+
+    private BilinearMeanSimd() {
+    }
+
+    /**
+     * Demosaic with bilinear mean, see {@link BilinearMean#process(int[], int, int, int, int, int, int)}.
+     * @return demosaiced image in row-major order, rgb values interleaved ([r g b r g b ...])
+     */
+    public static float[] process(int[] samples, int width, int height, int redIdx, int greenRedRowIdx, int greenBlueRowIdx, int blueIdx) {
+        return process(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx, new ScratchBuffers(), false);
+    }
+
+    /**
+     * Demosaic with bilinear mean, processing the rows in parallel.
+     * @see #process(int[], int, int, int, int, int, int)
+     */
+    public static float[] processMT(int[] samples, int width, int height, int redIdx, int greenRedRowIdx, int greenBlueRowIdx, int blueIdx) {
+        return process(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx, new ScratchBuffers(), true);
+    }
+
+    /**
+     * Demosaic with bilinear mean, with the working arrays taken from the given buffers.
+     * @param buffers the buffers of the calling thread. The result is one of them, so it is only valid until the
+     *                buffers are used again.
+     * @param parallel whether the rows are processed in parallel
+     * @see #process(int[], int, int, int, int, int, int)
+     */
+    public static float[] process(int[] samples, int width, int height, int redIdx, int greenRedRowIdx, int greenBlueRowIdx, int blueIdx,
+                                  ScratchBuffers buffers, boolean parallel) {
+        int stride = VectorSupport.getStride(width);
+        int planeSize = VectorSupport.getPlaneSize(width, height);
+        float[] src = buffers.getFloats(0, planeSize);
+        float[] red = buffers.getFloats(1, planeSize);
+        float[] green = buffers.getFloats(2, planeSize);
+        float[] blue = buffers.getFloats(3, planeSize);
+        VectorSupport.pad(samples, width, height, src);
+
+        VectorSupport.forEachRow(height, parallel, y -> {
+            int rowPhase = 2 * (y % 2);
+            boolean redRow = redIdx / 2 == y % 2;
+            VectorMask<Float> greens = VectorSupport.columns(rowPhase == greenRedRowIdx || rowPhase == greenBlueRowIdx);
+            int row = VectorSupport.getRowOffset(y, stride);
+            for (int x = 0; x < width; x += LANES) {
+                int i = row + x;
+                FloatVector center = FloatVector.fromArray(FLOATS, src, i);
+                FloatVector west = FloatVector.fromArray(FLOATS, src, i - 1);
+                FloatVector east = FloatVector.fromArray(FLOATS, src, i + 1);
+                FloatVector north = FloatVector.fromArray(FLOATS, src, i - stride);
+                FloatVector south = FloatVector.fromArray(FLOATS, src, i + stride);
+                // the samples are integers below 2^24, so the sums are exact in any order
+                FloatVector horizontal = west.add(east).mul(0.5f);
+                FloatVector vertical = north.add(south).mul(0.5f);
+                FloatVector axial = north.add(east).add(south).add(west).div(4.f);
+                FloatVector diagonal = FloatVector.fromArray(FLOATS, src, i - stride - 1)
+                        .add(FloatVector.fromArray(FLOATS, src, i + stride - 1))
+                        .add(FloatVector.fromArray(FLOATS, src, i - stride + 1))
+                        .add(FloatVector.fromArray(FLOATS, src, i + stride + 1))
+                        .div(4.f);
+                if (redRow) {
+                    center.blend(horizontal, greens).intoArray(red, i);
+                    diagonal.blend(vertical, greens).intoArray(blue, i);
+                } else {
+                    diagonal.blend(vertical, greens).intoArray(red, i);
+                    center.blend(horizontal, greens).intoArray(blue, i);
+                }
+                axial.blend(center, greens).intoArray(green, i);
+            }
+        });
+
+        float[] result = buffers.getFloats(4, width * height * 3);
+        VectorSupport.interleave(red, green, blue, width, height, result);
+        return result;
+    }
+}
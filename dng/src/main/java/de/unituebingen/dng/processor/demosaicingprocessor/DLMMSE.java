@@ -68,6 +68,18 @@ public class DLMMSE {
      * @param useZhangCodeEst see comment at top of file
      */
     public static float[] process(int[] samples, int width, int height, boolean useZhangCodeEst, int green1Idx, int green2Idx, int redIdx, int blueIdx) {
+        return process(samples, width, height, useZhangCodeEst, green1Idx, green2Idx, redIdx, blueIdx, new ScratchBuffers());
+    }
+
+    /**
+     * Demosaic image with DLMMSE, with the working arrays taken from the given buffers.
+     * @param buffers the buffers of the calling thread. The result is one of them, so it is only valid until the
+     *                buffers are used again.
+     * @see #process(int[], int, int, boolean, int, int, int, int)
+     */
+    public static float[] process(int[] samples, int width, int height, boolean useZhangCodeEst, int green1Idx, int green2Idx, int redIdx, int blueIdx,
+                                  ScratchBuffers buffers) {
+        int pixels = width * height;
         /* Window size for estimating LMMSE statistics */
         int M = 4;
         /* Small value added in denominators to avoid divide-by-zero */
@@ -79,12 +91,12 @@ public class DLMMSE {
             0.1796875f, 0.203125f, 0.1796875f, 0.1171875f, 0.0703125f, 0.03125f};   
         
         /* Horizontal and vertical 1D interpolations */
-        float[] filteredH = conv1D(samples, width, height, interpCoeff, false);        
-        float[] filteredV = conv1D(samples, width, height, interpCoeff, true);
+        float[] filteredH = conv1D(samples, width, height, interpCoeff, false, buffers.getFloats(0, pixels));        
+        float[] filteredV = conv1D(samples, width, height, interpCoeff, true, buffers.getFloats(1, pixels));
 
         /* Local noise estimation for LMMSE */
-        float[] diffH = new float[samples.length];
-        float[] diffV = new float[samples.length];
+        float[] diffH = buffers.getFloats(2, pixels);
+        float[] diffV = buffers.getFloats(3, pixels);
 
         for(int y = 0, i = 0; y < height; y++) {
             for(int x = 0; x < width; x++, i++) {
@@ -99,12 +111,12 @@ public class DLMMSE {
             }
         }
 
-        /* Compute the smoothed signals for LMMSE */
-        filteredH = conv1D(diffH, width, height, smoothCoeff, false);
-        filteredV = conv1D(diffV, width, height, smoothCoeff, true);
+        /* Compute the smoothed signals for LMMSE, the interpolations are no longer needed */
+        filteredH = conv1D(diffH, width, height, smoothCoeff, false, filteredH);
+        filteredV = conv1D(diffV, width, height, smoothCoeff, true, filteredV);
 
         /* LMMSE interpolation of the green channel */
-        float[] greens = new float[samples.length];
+        float[] greens = buffers.getFloats(4, pixels);
         for(int y = 0, i = 0; y < height; y++) {
             for(int x = 0; x < width; x++, i++) {
                 int patternIdx = (x % 2) + 2 * (y % 2);
@@ -231,7 +243,7 @@ public class DLMMSE {
             }
         }
         /* Obtain the red and blue channel interpolations */
-        float[] endresult = new float[greens.length * 3];
+        float[] endresult = buffers.getFloats(5, pixels * 3);
         // for(int i = 0; i < greens.length; i++) {
         //     endresult[i * 3] = greens[i] - diffGR[i];
         //     endresult[i * 3 + 1] = greens[i];
@@ -257,7 +269,16 @@ public class DLMMSE {
      * @return The filtered image
      */
     public static float[] conv1D(int[] samples, int width, int height, float[] filter, boolean isVertical) {
-        float[] acc = new float[samples.length];
+        return conv1D(samples, width, height, filter, isVertical, new float[samples.length]);
+    }
+
+    /**
+     * Line or columnwise 1D Convolution into the given array.
+     * @param acc the array of at least width * height elements to write the filtered image to
+     * @return acc
+     * @see #conv1D(int[], int, int, float[], boolean)
+     */
+    public static float[] conv1D(int[] samples, int width, int height, float[] filter, boolean isVertical, float[] acc) {
         int offset = filter.length / 2;
         if(isVertical) {
             for(int c = 0; c < width; c++) {
@@ -291,7 +312,16 @@ public class DLMMSE {
      * @return The filtered image
      */
     public static float[] conv1D(float[] samples, int width, int height, float[] filter, boolean isVertical) {
-        float[] acc = new float[samples.length];
+        return conv1D(samples, width, height, filter, isVertical, new float[samples.length]);
+    }
+
+    /**
+     * Line or columnwise 1D Convolution into the given array.
+     * @param acc the array of at least width * height elements to write the filtered image to
+     * @return acc
+     * @see #conv1D(float[], int, int, float[], boolean)
+     */
+    public static float[] conv1D(float[] samples, int width, int height, float[] filter, boolean isVertical, float[] acc) {
         int offset = filter.length / 2;
         if(isVertical) {
             for(int c = 0; c < width; c++) {
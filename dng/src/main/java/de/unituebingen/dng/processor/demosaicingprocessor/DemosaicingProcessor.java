@@ -3,6 +3,7 @@ package de.unituebingen.dng.processor.demosaicingprocessor;
 import de.unituebingen.dng.processor.Processor;
 import de.unituebingen.dng.processor.log.Timer;
 import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.processor.util.TileScheduler;
 import de.unituebingen.dng.reader.dng.util.CFAPattern;
 
 import java.awt.Point;
@@ -10,9 +11,11 @@ import java.awt.color.ColorSpace;
 import java.awt.image.*;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.IntStream;
 
-public class DemosaicingProcessor implements Processor<BufferedImage> {
+public class DemosaicingProcessor implements Processor<BufferedImage>, AutoCloseable {
 
     private AccelerationStrategy accelerationStrategy;
     //  assume square CFA pattern of side length 2. Positions are indexed as follows:
@@ -41,7 +44,10 @@ public class DemosaicingProcessor implements Processor<BufferedImage> {
         DLMMSE_CODE("DLMMSE (Code-Est)"),
         DLMMSE_PAPER("DLMMSE (Paper-Est)"),
         DLMMSE_RCD_CODE("DLMMSE+RCD (Code-Est)"),
-        DLMMSE_RCD_PAPER("DLMMSE+RCD (Paper-Est)");
+        DLMMSE_RCD_PAPER("DLMMSE+RCD (Paper-Est)"),
+        BILINEAR_MEAN_SIMD("Bilinear Mean (SIMD)"),
+        MALVAR_HE_CUTLER_SIMD("MalvarHeCutler (SIMD)"),
+        RCD_SIMD("RCD (SIMD)");
 
         private String label;
 
@@ -52,14 +58,65 @@ public class DemosaicingProcessor implements Processor<BufferedImage> {
         public String getLabel() {
             return label;
         }
+
+        /**
+         * @return The scalar algorithm which computes the same values as this one, or this one if it is scalar
+         */
+        public InterpolationMethod getScalarMethod() {
+            switch (this) {
+                case BILINEAR_MEAN_SIMD:
+                    return BILINEAR_MEAN;
+                case MALVAR_HE_CUTLER_SIMD:
+                    return MALVAR_HE_CUTLER;
+                case RCD_SIMD:
+                    return RCD;
+                default:
+                    return this;
+            }
+        }
     }
 
+    // the SIMD algorithms need the incubating Vector API, which is only there if the JVM was started with
+    // --add-modules jdk.incubator.vector
+    private static final boolean VECTOR_API_AVAILABLE =
+            ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    private static final System.Logger LOGGER = System.getLogger(DemosaicingProcessor.class.getName());
+    // the fallback is reported once, not for every image
+    private static final AtomicBoolean FALLBACK_REPORTED = new AtomicBoolean();
+
     // parameters for tiling
     private final int OVERLAP;
     private int TILE_SIZE;
+    private final TileScheduler tileScheduler;
+    private boolean pooledBuffers = true;
     private Timer pTimer;
 
+    /**
+     * @param accelerationStrategy With {@link AccelerationStrategy#AUTO}, the strategy and tile size are taken from the
+     *                             profile of the {@link Autotuner}, which tunes the algorithm first if it has not been
+     *                             tuned on this machine yet. The environment variable {@code TILE_SIZE} is then ignored.
+     */
     public DemosaicingProcessor(InterpolationMethod interpolationMethod, CFAPattern cfaPattern, AccelerationStrategy accelerationStrategy, Timer timer) {
+        this(interpolationMethod, cfaPattern, accelerationStrategy, 0, timer);
+    }
+
+    /**
+     * @param tileSize The size of the tiles including their overlap, or 0 for the size tuned for the algorithm or
+     *                 given by the environment variable {@code TILE_SIZE}
+     */
+    DemosaicingProcessor(InterpolationMethod interpolationMethod, CFAPattern cfaPattern, AccelerationStrategy accelerationStrategy, int tileSize, Timer timer) {
+        if (interpolationMethod.getScalarMethod() != interpolationMethod && !VECTOR_API_AVAILABLE) {
+            if (!FALLBACK_REPORTED.getAndSet(true)) {
+                LOGGER.log(System.Logger.Level.WARNING, "Vector API not available (start the JVM with --add-modules "
+                        + "jdk.incubator.vector), using the scalar algorithms instead of the SIMD ones");
+            }
+            interpolationMethod = interpolationMethod.getScalarMethod();
+        }
+        if (accelerationStrategy == AccelerationStrategy.AUTO) {
+            Autotuner.Configuration configuration = Autotuner.getInstance().getConfiguration(interpolationMethod);
+            accelerationStrategy = configuration.accelerationStrategy();
+            tileSize = configuration.tileSize();
+        }
         this.interpolationMethod = interpolationMethod;
         this.accelerationStrategy = accelerationStrategy;
         this.pTimer = timer;
@@ -93,6 +150,7 @@ public class DemosaicingProcessor implements Processor<BufferedImage> {
                 this.TILE_SIZE = DLMMSE_RCD.getTileSize(accelerationStrategy);
                 break;
             case BILINEAR_MEAN:
+            case BILINEAR_MEAN_SIMD:
                 this.OVERLAP = BilinearMean.getOverlap();
                 this.TILE_SIZE = BilinearMean.getTileSize(accelerationStrategy);
                 break;
@@ -113,10 +171,12 @@ public class DemosaicingProcessor implements Processor<BufferedImage> {
                 this.TILE_SIZE = NearestNeighbor.getTileSize(accelerationStrategy);
                 break;
             case RCD:
+            case RCD_SIMD:
                 this.OVERLAP = RatioCorrectedDemosaicing.getOverlap();
                 this.TILE_SIZE = RatioCorrectedDemosaicing.getTileSize(accelerationStrategy);
                 break;
             case MALVAR_HE_CUTLER:
+            case MALVAR_HE_CUTLER_SIMD:
                 this.OVERLAP = MalvarHeCutler.getOverlap();
                 this.TILE_SIZE = MalvarHeCutler.getTileSize(accelerationStrategy);
                 break;
@@ -141,9 +201,12 @@ public class DemosaicingProcessor implements Processor<BufferedImage> {
                 case MALVAR_HE_CUTLER:
                 case PPG:
                 case HAMILTON_ADAMS:
+                case BILINEAR_MEAN_SIMD:
+                case MALVAR_HE_CUTLER_SIMD:
                     this.accelerationStrategy = AccelerationStrategy.MULTITHREADING;
                     break;
                 case RCD:
+                case RCD_SIMD:
                 case DLMMSE_CODE:
                 case DLMMSE_PAPER:
                 case DLMMSE_RCD_CODE:
@@ -163,25 +226,37 @@ public class DemosaicingProcessor implements Processor<BufferedImage> {
                 case HAMILTON_ADAMS:
                 case DLMMSE_CODE:
                 case DLMMSE_PAPER:
+                case BILINEAR_MEAN_SIMD:
+                case MALVAR_HE_CUTLER_SIMD:
                     this.accelerationStrategy = AccelerationStrategy.CPU_TILING_MT;
                     break;
                 case RCD:
+                case RCD_SIMD:
                 case DLMMSE_RCD_CODE:
                 case DLMMSE_RCD_PAPER:
                     this.accelerationStrategy = AccelerationStrategy.CPU_MT_TILING_MT;
                     break;
             }
         }
-        try {
-            this.TILE_SIZE = Integer.parseInt(System.getenv("TILE_SIZE")) - 2 * this.OVERLAP;
-        } catch(java.lang.NumberFormatException e) {
+        if (tileSize > 0) {
+            this.TILE_SIZE = tileSize - 2 * this.OVERLAP;
+        } else {
+            try {
+                this.TILE_SIZE = Integer.parseInt(System.getenv("TILE_SIZE")) - 2 * this.OVERLAP;
+            } catch(java.lang.NumberFormatException e) {
 
+            }
         }
         if(this.TILE_SIZE < this.OVERLAP) {
             throw new IllegalArgumentException(
                 "Computed tile size " + this.TILE_SIZE + " is smaller than overlap " + this.OVERLAP + 
                 "\n This would result in an overhead of more than 800% and require performance-degrading checks for special cases.");
         }
+        // all tiles have to start at the same phase of the 2x2 CFA pattern
+        this.TILE_SIZE += this.TILE_SIZE & 1;
+        this.tileScheduler = new TileScheduler(TILE_SIZE, TILE_SIZE, OVERLAP);
+        tileScheduler.setParallel(this.accelerationStrategy != AccelerationStrategy.CPU_TILING
+                && this.accelerationStrategy != AccelerationStrategy.CPU_MT_TILING);
         
 
     }
@@ -200,28 +275,43 @@ public class DemosaicingProcessor implements Processor<BufferedImage> {
         BufferedImage demosaicedImage = new BufferedImage(colorModel, writableRaster, false, new Properties());
         short[] demosaicedSamples = ((DataBufferUShort) demosaicedImage.getRaster().getDataBuffer()).getData();
 
+        demosaic(samplesIn, width, height, demosaicedSamples);
+        return demosaicedImage;
+    }
+
+    /**
+     * Demosaics a raw image into the given array, which allows to reuse the array for several images, e.g. for the
+     * bands of {@link de.unituebingen.dng.DNGProcessor#processStreaming(de.unituebingen.dng.processor.BandSink)}.
+     *
+     * @param samplesIn         The raw image with one sample per pixel, the array may be longer than the image
+     * @param width             The width of the image
+     * @param height            The height of the image
+     * @param demosaicedSamples The array to write the interleaved RGB samples of the image to
+     */
+    public void demosaic(short[] samplesIn, int width, int height, short[] demosaicedSamples) {
+        int pixels = width * height;
         String taskName = interpolationMethod.toString();
         pTimer.startTask(taskName, (TILE_SIZE + 2 * OVERLAP) + "");
 
         switch(accelerationStrategy) {
             case NONE:
-                int[] samples = new int[samplesIn.length];
+                int[] samples = new int[pixels];
                 for(int i = 0; i < samples.length; i++) {
                     samples[i] = (int) samplesIn[i] & 0xFFFF;
                 }
-                float[] result = demosaic(samples, width, height);
-                for(int i = 0; i < result.length; i++) {
+                float[] result = demosaic(samples, width, height, new ScratchBuffers());
+                for(int i = 0; i < 3 * pixels; i++) {
                     demosaicedSamples[i] = (short)(Math.min(65535, Math.max(0, (int)result[i])));
                 }
                 break;
             case AUTO_SMALL:
             case MULTITHREADING:
-                samples = new int[samplesIn.length];
+                samples = new int[pixels];
                 IntStream.range(0, samples.length).parallel().forEach(i -> {
                     samples[i] = (int) samplesIn[i] & 0xFFFF;
                 });
                 result = demosaicMT(samples, width, height);
-                IntStream.range(0, result.length).parallel().forEach(i -> {
+                IntStream.range(0, 3 * pixels).parallel().forEach(i -> {
                     demosaicedSamples[i] = (short)(Math.min(65535, Math.max(0, (int)result[i])));
                 });
                 break;
@@ -231,207 +321,86 @@ public class DemosaicingProcessor implements Processor<BufferedImage> {
                 System.out.println("Should not reach this code, because implemented on GPU, anyway doing CPU_TILING_MT");
             case AUTO_BIG:
             case CPU_TILING_MT:
-                int widthInTiles = (int)Math.ceil((float)width / TILE_SIZE);
-                int heightInTiles = (int)Math.ceil((float)height / TILE_SIZE);
-                // special case:
-                // tile borders:           |   |   | 
-                // image border:                    |
-                // width-2 tile + overlap:  |--i---i--|
-                int clipRight = (widthInTiles - 1) * TILE_SIZE + OVERLAP > width ? widthInTiles - 2 : widthInTiles - 1;
-                int clipBottom = (heightInTiles - 1) * TILE_SIZE + OVERLAP > height ? heightInTiles - 2 : heightInTiles - 1;
-
-                IntStream.range(0, widthInTiles * heightInTiles).parallel().forEach( i -> {
-                    int tileX = i % widthInTiles;
-                    int tileY = i / widthInTiles;
-
-                    // position in Image
-                    int originX = tileX * TILE_SIZE;
-                    int originY = tileY * TILE_SIZE;
-
-                    // overlaps
-                    int marginLeft = tileX == 0 ? 0 : OVERLAP;
-                    int marginRight = tileX >= clipRight ? width - widthInTiles * TILE_SIZE : OVERLAP;
-                    int marginTop = tileY == 0 ? 0 : OVERLAP;
-                    int marginBottom = tileY >= clipBottom ? height - heightInTiles * TILE_SIZE : OVERLAP;
-
-                    // extract tile with margins from databuffer
-                    int effectiveWidth = TILE_SIZE + marginLeft + marginRight;
-                    int effectiveHeight = TILE_SIZE + marginTop + marginBottom;
-                    int effectiveOriginX = originX - marginLeft;
-                    int effectiveOriginY = originY - marginTop;
-                    int[] samplesR = new int[effectiveWidth * effectiveHeight];
-                    for(int x = effectiveOriginX, tgtx = 0; x < effectiveOriginX + effectiveWidth; x++, tgtx++) {
-                        for(int y = effectiveOriginY, tgty = 0; y < effectiveOriginY + effectiveHeight; y++, tgty++) {
-                            samplesR[tgtx + tgty * effectiveWidth] = (int) samplesIn[x + y * width] & 0xFFFF;
-                        }
-                    }
-                    // process
-                    float[] resultR = demosaic(samplesR, effectiveWidth, effectiveHeight);
-                    // write back only data
-                    int dataEndX = marginRight <= 0 ? effectiveWidth : effectiveWidth - marginRight;
-                    int dataEndY = marginBottom <= 0 ? effectiveHeight : effectiveHeight - marginBottom;
-                    for(int srcx = marginLeft, tgtx = originX; srcx < dataEndX; srcx++, tgtx++) {
-                        for(int srcy = marginTop, tgty = originY; srcy < dataEndY; srcy++, tgty++) {
-                            int srcIdx = srcx + effectiveWidth * srcy;
-                            int tgtIdx = tgtx + width * tgty;
-                            demosaicedSamples[tgtIdx * 3] = (short)(Math.min(65535, Math.max(0, (int)resultR[srcIdx * 3])));
-                            demosaicedSamples[tgtIdx * 3 + 1] = (short)(Math.min(65535, Math.max(0, (int)resultR[srcIdx * 3 + 1])));
-                            demosaicedSamples[tgtIdx * 3 + 2] = (short)(Math.min(65535, Math.max(0, (int)resultR[srcIdx * 3 + 2])));
-                        }
-                    }
-                });
-                break;
             case CPU_TILING:
-                widthInTiles = (int)Math.ceil((float)width / TILE_SIZE);
-                heightInTiles = (int)Math.ceil((float)height / TILE_SIZE);
-                // special case:
-                // tile borders:           |   |   | 
-                // image border:                    |
-                // width-2 tile + overlap:  |--i---i--|
-                clipRight = (widthInTiles - 1) * TILE_SIZE + OVERLAP > width ? widthInTiles - 2 : widthInTiles - 1;
-                clipBottom = (heightInTiles - 1) * TILE_SIZE + OVERLAP > height ? heightInTiles - 2 : heightInTiles - 1;
-
-                for(int tileX = 0; tileX < widthInTiles; tileX++) {
-                    for(int tileY = 0; tileY < heightInTiles; tileY++) {
-                        int originX = tileX * TILE_SIZE;
-                        int originY = tileY * TILE_SIZE;
-                        int marginLeft = tileX == 0 ? 0 : OVERLAP;
-                        int marginRight = tileX >= clipRight ? width - widthInTiles * TILE_SIZE : OVERLAP;
-                        int marginTop = tileY == 0 ? 0 : OVERLAP;
-                        int marginBottom = tileY >= clipBottom ? height - heightInTiles * TILE_SIZE : OVERLAP;
-                        // extract tile from databuffer
-                        int effectiveWidth = TILE_SIZE + marginLeft + marginRight;
-                        int effectiveHeight = TILE_SIZE + marginTop + marginBottom;
-                        int effectiveOriginX = originX - marginLeft;
-                        int effectiveOriginY = originY - marginTop;
-                        int[] samples3 = new int[effectiveWidth * effectiveHeight];
-                        for(int x = effectiveOriginX, tgtx = 0; x < effectiveOriginX + effectiveWidth; x++, tgtx++) {
-                            for(int y = effectiveOriginY, tgty = 0; y < effectiveOriginY + effectiveHeight; y++, tgty++) {
-                                samples3[tgtx + tgty * effectiveWidth] = (int) samplesIn[x + y * width] & 0xFFFF;
-                            }
-                        }
-                        // process
-                        float[] result3 = demosaic(samples3, effectiveWidth, effectiveHeight);
-                        // write back only data
-                        int dataEndX = marginRight <= 0 ? effectiveWidth : effectiveWidth - marginRight;
-                        int dataEndY = marginBottom <= 0 ? effectiveHeight : effectiveHeight - marginBottom;
-                        for(int srcx = marginLeft, tgtx = originX; srcx < dataEndX; srcx++, tgtx++) {
-                            for(int srcy = marginTop, tgty = originY; srcy < dataEndY; srcy++, tgty++) {
-                                int srcIdx = srcx + effectiveWidth * srcy;
-                                int tgtIdx = tgtx + width * tgty;
-                                demosaicedSamples[tgtIdx * 3] = (short)(Math.min(65535, Math.max(0, (int)result3[srcIdx * 3])));
-                                demosaicedSamples[tgtIdx * 3 + 1] = (short)(Math.min(65535, Math.max(0, (int)result3[srcIdx * 3 + 1])));
-                                demosaicedSamples[tgtIdx * 3 + 2] = (short)(Math.min(65535, Math.max(0, (int)result3[srcIdx * 3 + 2])));
-                            }
-                        }
-                    }
-                }
+                processTiles(samplesIn, demosaicedSamples, width, height, false);
                 break;
             case CPU_MT_TILING:
-                widthInTiles = (int)Math.ceil((float)width / TILE_SIZE);
-                heightInTiles = (int)Math.ceil((float)height / TILE_SIZE);
-                // special case:
-                // tile borders:           |   |   | 
-                // image border:                    |
-                // width-2 tile + overlap:  |--i---i--|
-                clipRight = (widthInTiles - 1) * TILE_SIZE + OVERLAP > width ? widthInTiles - 2 : widthInTiles - 1;
-                clipBottom = (heightInTiles - 1) * TILE_SIZE + OVERLAP > height ? heightInTiles - 2 : heightInTiles - 1;
-
-                for(int tileX = 0; tileX < widthInTiles; tileX++) {
-                    for(int tileY = 0; tileY < heightInTiles; tileY++) {
-                        int originX = tileX * TILE_SIZE;
-                        int originY = tileY * TILE_SIZE;
-                        int marginLeft = tileX == 0 ? 0 : OVERLAP;
-                        int marginRight = tileX >= clipRight ? width - widthInTiles * TILE_SIZE : OVERLAP;
-                        int marginTop = tileY == 0 ? 0 : OVERLAP;
-                        int marginBottom = tileY >= clipBottom ? height - heightInTiles * TILE_SIZE : OVERLAP;
-                        // extract tile from databuffer
-                        int effectiveWidth = TILE_SIZE + marginLeft + marginRight;
-                        int effectiveHeight = TILE_SIZE + marginTop + marginBottom;
-                        int effectiveOriginX = originX - marginLeft;
-                        int effectiveOriginY = originY - marginTop;
-                        int[] samples3 = new int[effectiveWidth * effectiveHeight];
-                        IntStream.range(0, effectiveWidth * effectiveHeight).parallel().forEach(i -> {
-                            int x = (i % effectiveWidth) + effectiveOriginX;
-                            int y = (i / effectiveWidth) + effectiveOriginY;
-                            samples3[i] = (int) samplesIn[x + y * width] & 0xFFFF;
-                        });
-                        // process
-                        float[] result3 = demosaicMT(samples3, effectiveWidth, effectiveHeight);
-                        // write back only data
-                        int dataEndX = marginRight <= 0 ? effectiveWidth : effectiveWidth - marginRight;
-                        int dataEndY = marginBottom <= 0 ? effectiveHeight : effectiveHeight - marginBottom;
-                        int wData = dataEndX - marginLeft;
-                        int hData = dataEndY - marginTop;
-                        IntStream.range(0, wData * hData).parallel().forEach(i -> {
-                            int srcx = (i % wData) + marginLeft;
-                            int srcy = (i / wData) + marginTop;
-                            int srcIdx = srcx + effectiveWidth * srcy;
-                            int tgtx = (i % wData) + originX;
-                            int tgty = (i / wData) + originY;
-                            int tgtIdx = tgtx + width * tgty;
-                            demosaicedSamples[tgtIdx * 3] = (short)(Math.min(65535, Math.max(0, (int)result3[srcIdx * 3])));
-                            demosaicedSamples[tgtIdx * 3 + 1] = (short)(Math.min(65535, Math.max(0, (int)result3[srcIdx * 3 + 1])));
-                            demosaicedSamples[tgtIdx * 3 + 2] = (short)(Math.min(65535, Math.max(0, (int)result3[srcIdx * 3 + 2])));                            
-                        });
-                    }
-                }
-                break;
             case CPU_MT_TILING_MT:
-                widthInTiles = (int)Math.ceil((float)width / TILE_SIZE);
-                heightInTiles = (int)Math.ceil((float)height / TILE_SIZE);
-                // special case:
-                // tile borders:           |   |   | 
-                // image border:                    |
-                // width-2 tile + overlap:  |--i---i--|
-                clipRight = (widthInTiles - 1) * TILE_SIZE + OVERLAP > width ? widthInTiles - 2 : widthInTiles - 1;
-                clipBottom = (heightInTiles - 1) * TILE_SIZE + OVERLAP > height ? heightInTiles - 2 : heightInTiles - 1;
-
-                IntStream.range(0, widthInTiles * heightInTiles).parallel().forEach( t -> {
-                    int tileX = t % widthInTiles;
-                    int tileY = t / widthInTiles;
-                        int originX = tileX * TILE_SIZE;
-                        int originY = tileY * TILE_SIZE;
-                        int marginLeft = tileX == 0 ? 0 : OVERLAP;
-                        int marginRight = tileX >= clipRight ? width - widthInTiles * TILE_SIZE : OVERLAP;
-                        int marginTop = tileY == 0 ? 0 : OVERLAP;
-                        int marginBottom = tileY >= clipBottom ? height - heightInTiles * TILE_SIZE : OVERLAP;
-                        // extract tile from databuffer
-                        int effectiveWidth = TILE_SIZE + marginLeft + marginRight;
-                        int effectiveHeight = TILE_SIZE + marginTop + marginBottom;
-                        int effectiveOriginX = originX - marginLeft;
-                        int effectiveOriginY = originY - marginTop;
-                        int[] samples3 = new int[effectiveWidth * effectiveHeight];
-                        IntStream.range(0, effectiveWidth * effectiveHeight).parallel().forEach(i -> {
-                            int x = (i % effectiveWidth) + effectiveOriginX;
-                            int y = (i / effectiveWidth) + effectiveOriginY;
-                            samples3[i] = (int) samplesIn[x + y * width] & 0xFFFF;
-                        });
-                        // process
-                        float[] result3 = demosaicMT(samples3, effectiveWidth, effectiveHeight);
-                        // write back only data
-                        int dataEndX = marginRight <= 0 ? effectiveWidth : effectiveWidth - marginRight;
-                        int dataEndY = marginBottom <= 0 ? effectiveHeight : effectiveHeight - marginBottom;
-                        int wData = dataEndX - marginLeft;
-                        int hData = dataEndY - marginTop;
-                        IntStream.range(0, wData * hData).parallel().forEach(i -> {
-                            int srcx = (i % wData) + marginLeft;
-                            int srcy = (i / wData) + marginTop;
-                            int srcIdx = srcx + effectiveWidth * srcy;
-                            int tgtx = (i % wData) + originX;
-                            int tgty = (i / wData) + originY;
-                            int tgtIdx = tgtx + width * tgty;
-                            demosaicedSamples[tgtIdx * 3] = (short)(Math.min(65535, Math.max(0, (int)result3[srcIdx * 3])));
-                            demosaicedSamples[tgtIdx * 3 + 1] = (short)(Math.min(65535, Math.max(0, (int)result3[srcIdx * 3 + 1])));
-                            demosaicedSamples[tgtIdx * 3 + 2] = (short)(Math.min(65535, Math.max(0, (int)result3[srcIdx * 3 + 2])));                            
-                        });
-                    
-                });
+                processTiles(samplesIn, demosaicedSamples, width, height, true);
                 break;
         }
         pTimer.endTask(taskName);
-        
-        return demosaicedImage;
+    }
+
+    /**
+     * Demosaics the image tile by tile. The tiles are processed in parallel unless the acceleration strategy is
+     * {@link AccelerationStrategy#CPU_TILING} or {@link AccelerationStrategy#CPU_MT_TILING}.
+     * @param multithreaded Whether each tile is demosaiced with {@link #demosaicMT(int[], int, int)}, which allocates
+     *                      its working arrays per tile, as its loops are parallel anyway
+     */
+    private void processTiles(short[] samplesIn, short[] demosaicedSamples, int width, int height, boolean multithreaded) {
+        tileScheduler.forEachTile(width, height, TileBuffer::new, (tile, buffer) -> {
+            int effectiveWidth = tile.getHaloWidth();
+            int effectiveHeight = tile.getHaloHeight();
+            int[] samples = buffer.get(effectiveWidth * effectiveHeight);
+            tile.extract(samplesIn, width, samples);
+            float[] result = multithreaded ? demosaicMT(samples, effectiveWidth, effectiveHeight)
+                    : demosaic(samples, effectiveWidth, effectiveHeight,
+                            pooledBuffers ? buffer.scratchBuffers : new ScratchBuffers());
+            // write back only data
+            for (int row = 0; row < tile.getHeight(); row++) {
+                int srcIdx = ((row + tile.getMarginTop()) * effectiveWidth + tile.getMarginLeft()) * 3;
+                int tgtIdx = ((row + tile.getY()) * width + tile.getX()) * 3;
+                for (int i = 0; i < tile.getWidth() * 3; i++) {
+                    demosaicedSamples[tgtIdx + i] = (short)(Math.min(65535, Math.max(0, (int)result[srcIdx + i])));
+                }
+            }
+        });
+    }
+
+    /**
+     * The samples of a tile and the working arrays of the demosaicing algorithm. The samples are reused as long as the
+     * tiles have the same size, which all tiles apart from those at the border of the image have.
+     */
+    private static final class TileBuffer {
+        private final ScratchBuffers scratchBuffers = new ScratchBuffers();
+        private int[] samples;
+
+        int[] get(int length) {
+            if (samples == null || samples.length != length) {
+                samples = new int[length];
+            }
+            return samples;
+        }
+    }
+
+    /**
+     * Sets whether the working arrays of the demosaicing algorithms are reused from one tile to the next (default) or
+     * allocated for every tile. Only RCD, DLMMSE, DLMMSE+RCD and the SIMD algorithms take their working arrays from
+     * {@link ScratchBuffers}.
+     */
+    public void setPooledBuffers(boolean pooledBuffers) {
+        this.pooledBuffers = pooledBuffers;
+    }
+
+    /**
+     * Sets the pool which demosaics the tiles in parallel, or {@code null} for the common pool (default).
+     */
+    public void setPool(ForkJoinPool pool) {
+        tileScheduler.setPool(pool);
+    }
+
+    /**
+     * Demosaics the tiles in parallel with a pool of its own with the given amount of threads, or with the common pool
+     * if the parallelism is not positive. The pool is shut down when it is replaced or the processor is closed.
+     */
+    public void setParallelism(int parallelism) {
+        tileScheduler.setParallelism(parallelism);
+    }
+
+    @Override
+    public void close() {
+        tileScheduler.close();
     }
 
     /**
@@ -439,18 +408,19 @@ public class DemosaicingProcessor implements Processor<BufferedImage> {
      * @param samples Undemosaiced image in row-major order
      * @param width
      * @param height
+     * @param buffers Working arrays for the algorithms which support them
      * @return a float array containing the demosaiced image in row-major order, with interleaved color components ([r, g, b, r, g, b...])
      */
-    private float[] demosaic(int[] samples, int width, int height) {
+    private float[] demosaic(int[] samples, int width, int height, ScratchBuffers buffers) {
         switch(interpolationMethod) {
             case DLMMSE_CODE:
-                return DLMMSE.process(samples, width, height, true, greenBlueRowIdx, greenRedRowIdx, redIdx, blueIdx);
+                return DLMMSE.process(samples, width, height, true, greenBlueRowIdx, greenRedRowIdx, redIdx, blueIdx, buffers);
             case DLMMSE_PAPER:
-                return DLMMSE.process(samples, width, height, false, greenBlueRowIdx, greenRedRowIdx, redIdx, blueIdx);
+                return DLMMSE.process(samples, width, height, false, greenBlueRowIdx, greenRedRowIdx, redIdx, blueIdx, buffers);
             case DLMMSE_RCD_CODE:
-                return DLMMSE_RCD.process(samples, width, height, true, greenBlueRowIdx, greenRedRowIdx, redIdx, blueIdx);
+                return DLMMSE_RCD.process(samples, width, height, true, greenBlueRowIdx, greenRedRowIdx, redIdx, blueIdx, buffers);
             case DLMMSE_RCD_PAPER:
-                return DLMMSE_RCD.process(samples, width, height, false, greenBlueRowIdx, greenRedRowIdx, redIdx, blueIdx);
+                return DLMMSE_RCD.process(samples, width, height, false, greenBlueRowIdx, greenRedRowIdx, redIdx, blueIdx, buffers);
             case BILINEAR_MEAN:
                 return BilinearMean.process(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx);
             case BILINEAR_MEDIAN:
@@ -462,13 +432,19 @@ public class DemosaicingProcessor implements Processor<BufferedImage> {
             case NEAREST_NEIGHBOR:
                 return NearestNeighbor.process(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx);
             case RCD:
-                return RatioCorrectedDemosaicing.process(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx);
+                return RatioCorrectedDemosaicing.process(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx, buffers);
             case MALVAR_HE_CUTLER:
                 return MalvarHeCutler.process(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx);
             case HAMILTON_ADAMS:
                 return HamiltonAdams.process(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx);
             case PPG:
                 return PatternedPixelGrouping.process(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx);
+            case BILINEAR_MEAN_SIMD:
+                return BilinearMeanSimd.process(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx, buffers, false);
+            case MALVAR_HE_CUTLER_SIMD:
+                return MalvarHeCutlerSimd.process(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx, buffers, false);
+            case RCD_SIMD:
+                return RatioCorrectedDemosaicingSimd.process(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx, buffers, false);
         }
         throw new IllegalStateException("Reached unreachable code. This statement is only here so IDE does not complain");
     }
@@ -508,6 +484,12 @@ public class DemosaicingProcessor implements Processor<BufferedImage> {
                 return HamiltonAdams.processMT(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx);
             case PPG:
                 return PatternedPixelGrouping.processMT(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx);
+            case BILINEAR_MEAN_SIMD:
+                return BilinearMeanSimd.processMT(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx);
+            case MALVAR_HE_CUTLER_SIMD:
+                return MalvarHeCutlerSimd.processMT(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx);
+            case RCD_SIMD:
+                return RatioCorrectedDemosaicingSimd.processMT(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx);
         }
         throw new IllegalStateException("Reached unreachable code. This statement is only here so IDE does not complain");
     }
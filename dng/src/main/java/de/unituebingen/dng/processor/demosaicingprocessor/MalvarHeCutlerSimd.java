@@ -0,0 +1,122 @@
+package de.unituebingen.dng.processor.demosaicingprocessor;
+
+import static de.unituebingen.dng.processor.demosaicingprocessor.VectorSupport.INTS;
+import static de.unituebingen.dng.processor.demosaicingprocessor.VectorSupport.LANES;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+
+/**
+ * Malvar-He-Cutler demosaicing with the Vector API. Computes the same values as {@link MalvarHeCutler}. <br/>
+ * Every lane applies all four filters in integer arithmetic, and the filters of its CFA color are selected per column
+ * parity, so the loop has no branches. The border is handled by the padding of {@link VectorSupport}.
+ */
+public class MalvarHeCutlerSimd {
+
+    private MalvarHeCutlerSimd() {
+    }
+
+    /**
+     * Demosaic with Malvar He Cutler Algorithm, see {@link MalvarHeCutler#process(int[], int, int, int, int, int, int)}.
+     * @return demosaiced image in row-major order, rgb values interleaved ([r g b r g b ...])
+     */
+    public static float[] process(int[] samples, int width, int height, int redIdx, int greenRedRowIdx, int greenBlueRowIdx, int blueIdx) {
+        return process(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx, new ScratchBuffers(), false);
+    }
+
+    /**
+     * Demosaic with Malvar He Cutler Algorithm, processing the rows in parallel.
+     * @see #process(int[], int, int, int, int, int, int)
+     */
+    public static float[] processMT(int[] samples, int width, int height, int redIdx, int greenRedRowIdx, int greenBlueRowIdx, int blueIdx) {
+        return process(samples, width, height, redIdx, greenRedRowIdx, greenBlueRowIdx, blueIdx, new ScratchBuffers(), true);
+    }
+
+    /**
+     * Demosaic with Malvar He Cutler Algorithm, with the working arrays taken from the given buffers.
+     * @param buffers the buffers of the calling thread. The result is one of them, so it is only valid until the
+     *                buffers are used again.
+     * @param parallel whether the rows are processed in parallel
+     * @see #process(int[], int, int, int, int, int, int)
+     */
+    public static float[] process(int[] samples, int width, int height, int redIdx, int greenRedRowIdx, int greenBlueRowIdx, int blueIdx,
+                                  ScratchBuffers buffers, boolean parallel) {
+        int stride = VectorSupport.getStride(width);
+        int planeSize = VectorSupport.getPlaneSize(width, height);
+        int[] src = buffers.getInts(0, planeSize);
+        float[] red = buffers.getFloats(1, planeSize);
+        float[] green = buffers.getFloats(2, planeSize);
+        float[] blue = buffers.getFloats(3, planeSize);
+        VectorSupport.pad(samples, width, height, src);
+
+        VectorSupport.forEachRow(height, parallel, y -> {
+            int rowPhase = 2 * (y % 2);
+            boolean redRow = redIdx / 2 == y % 2;
+            VectorMask<Integer> greens = VectorSupport.columns(rowPhase == greenRedRowIdx || rowPhase == greenBlueRowIdx)
+                    .cast(INTS);
+            int row = VectorSupport.getRowOffset(y, stride);
+            for (int x = 0; x < width; x += LANES) {
+                int i = row + x;
+                IntVector center = IntVector.fromArray(INTS, src, i);
+                IntVector north2 = IntVector.fromArray(INTS, src, i - 2 * stride);
+                IntVector north1 = IntVector.fromArray(INTS, src, i - stride);
+                IntVector south1 = IntVector.fromArray(INTS, src, i + stride);
+                IntVector south2 = IntVector.fromArray(INTS, src, i + 2 * stride);
+                IntVector west2 = IntVector.fromArray(INTS, src, i - 2);
+                IntVector west1 = IntVector.fromArray(INTS, src, i - 1);
+                IntVector east1 = IntVector.fromArray(INTS, src, i + 1);
+                IntVector east2 = IntVector.fromArray(INTS, src, i + 2);
+                IntVector northWest = IntVector.fromArray(INTS, src, i - stride - 1);
+                IntVector northEast = IntVector.fromArray(INTS, src, i - stride + 1);
+                IntVector southWest = IntVector.fromArray(INTS, src, i + stride - 1);
+                IntVector southEast = IntVector.fromArray(INTS, src, i + stride + 1);
+
+                // the sums of the filters do not overflow, so they are exact in any order
+                IntVector axial = north1.add(west1).add(east1).add(south1);
+                IntVector corners = northWest.add(northEast).add(southWest).add(southEast);
+                IntVector axial2 = north2.add(west2).add(east2).add(south2);
+
+                // -1 2 4 2 -1 / 8
+                IntVector interpolatedGreen = divide(axial.mul(2).add(center.mul(4)).sub(axial2), 3);
+                // 1/2 above and below, -1 at the corners, -1 4 5 4 -1 in the row, / 8
+                IntVector horizontal = divide(north2.add(south2).sub(corners.mul(2)).sub(west2.add(east2).mul(2))
+                        .add(west1.add(east1).mul(8)).add(center.mul(10)), 4);
+                IntVector vertical = divide(west2.add(east2).sub(corners.mul(2)).sub(north2.add(south2).mul(2))
+                        .add(north1.add(south1).mul(8)).add(center.mul(10)), 4);
+                // -3 at distance 2, 4 at the corners, 12 in the center, / 16
+                IntVector diagonal = divide(corners.mul(4).add(center.mul(12)).sub(axial2.mul(3)), 4);
+
+                IntVector r;
+                IntVector b;
+                if (redRow) {
+                    r = center.blend(horizontal, greens);
+                    b = diagonal.blend(vertical, greens);
+                } else {
+                    r = diagonal.blend(vertical, greens);
+                    b = center.blend(horizontal, greens);
+                }
+                toFloats(r).intoArray(red, i);
+                toFloats(interpolatedGreen.blend(center, greens)).intoArray(green, i);
+                toFloats(b).intoArray(blue, i);
+            }
+        });
+
+        float[] result = buffers.getFloats(4, width * height * 3);
+        VectorSupport.interleave(red, green, blue, width, height, result);
+        return result;
+    }
+
+    /**
+     * Divides by 2^shift and rounds towards zero, like the integer division of the scalar algorithm.
+     */
+    private static IntVector divide(IntVector dividend, int shift) {
+        IntVector bias = dividend.lanewise(VectorOperators.ASHR, 31).lanewise(VectorOperators.LSHR, 32 - shift);
+        return dividend.add(bias).lanewise(VectorOperators.ASHR, shift);
+    }
+
+    private static FloatVector toFloats(IntVector vector) {
+        return (FloatVector) vector.convert(VectorOperators.I2F, 0);
+    }
+}
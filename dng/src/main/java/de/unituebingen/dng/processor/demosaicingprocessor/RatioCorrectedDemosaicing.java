@@ -67,8 +67,21 @@ public class RatioCorrectedDemosaicing {
      */
     public static float[] process(
         int[] samples, int width, int height, int redIdx, int green1Idx, int green2Idx, int blueIdx) {
+        return process(samples, width, height, redIdx, green1Idx, green2Idx, blueIdx, new ScratchBuffers());
+    }
 
-        float[] xyGradient = new float[samples.length];
+    /**
+     * Perform Ratio Corrected Demosaicing with the working arrays taken from the given buffers.
+     * @param buffers the buffers of the calling thread. The result is one of them, so it is only valid until the
+     *                buffers are used again.
+     * @see #process(int[], int, int, int, int, int, int)
+     */
+    public static float[] process(
+        int[] samples, int width, int height, int redIdx, int green1Idx, int green2Idx, int blueIdx,
+        ScratchBuffers buffers) {
+
+        int pixels = width * height;
+        float[] xyGradient = buffers.getFloats(0, pixels);
         
         calcXYGradient(samples, xyGradient, width, height);
         // if (stopAt == RCDStep.XY_GRADIENT) {
@@ -77,7 +90,7 @@ public class RatioCorrectedDemosaicing {
         // }
 
         // calculate low pass at RB
-        float[] lowPassAtRB = new float[samples.length];
+        float[] lowPassAtRB = buffers.getFloats(1, pixels);
         calcLowpassAtRB(samples, lowPassAtRB, width, height, green1Idx, green2Idx);
         // if (stopAt == RCDStep.LOW_PASS) {
         //     abort(lowPassAtRB, demosaicedSamples);
@@ -85,7 +98,7 @@ public class RatioCorrectedDemosaicing {
         // }
 
         // calculate greens
-        float[] greens = new float[samples.length];
+        float[] greens = buffers.getFloats(2, pixels);
         calcGreens(samples, xyGradient, lowPassAtRB, greens, width, height, green1Idx, green2Idx);
         // if (stopAt == RCDStep.GREENS) {
         //     abort(greens, demosaicedSamples);
@@ -93,7 +106,7 @@ public class RatioCorrectedDemosaicing {
         // }
         // ## pq-Gradient
         // needs only samples
-        float[] pqAtRB = new float[samples.length]; //lowPassAtRB; // lowPassAtRB no longer needed
+        float[] pqAtRB = buffers.getFloats(3, pixels); //lowPassAtRB; // lowPassAtRB no longer needed
         calcPQGradient(samples, pqAtRB, width, height, green1Idx, green2Idx);
         // if (stopAt == RCDStep.PQ_GRADIENT) {
         //     abort(pqAtRB, demosaicedSamples);
@@ -101,7 +114,7 @@ public class RatioCorrectedDemosaicing {
         // }
         // ## calculate red at blue pixels and vice versa
         // needs pqAtRB, samples and greens
-        float[] endresult = new float[samples.length * 3];
+        float[] endresult = buffers.getFloats(4, pixels * 3);
         calcRBAtG(samples, pqAtRB, greens, endresult, width, height, green1Idx, green2Idx, redIdx, blueIdx);
         // if (stopAt == RCDStep.RB_AT_BR) {
         //     abort(endresult, demosaicedSamples);
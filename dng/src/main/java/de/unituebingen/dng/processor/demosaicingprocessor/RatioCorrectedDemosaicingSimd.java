@@ -0,0 +1,432 @@
+package de.unituebingen.dng.processor.demosaicingprocessor;
+
+import static de.unituebingen.dng.processor.demosaicingprocessor.VectorSupport.FLOATS;
+import static de.unituebingen.dng.processor.demosaicingprocessor.VectorSupport.LANES;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+
+/**
+ * Ratio Corrected Demosaicing with the Vector API. Computes the same values as {@link RatioCorrectedDemosaicing}, as
+ * every lane performs the float operations of the scalar algorithm in the same order. <br/>
+ * Each step writes a padded plane of its own, see {@link VectorSupport}, whose padding is refilled before the next step
+ * reads it. Within a row, the red or blue pixels lie on one column parity and the green pixels on the other, so the
+ * values of the two colors are selected per lane instead of branching. <br/>
+ * The last step updates red and blue at the green pixels in place. At the border of the image, the scalar algorithm
+ * reads pixels which it has already updated, so the border of this step is computed in a separate scalar pass in the
+ * order of the scalar algorithm.
+ */
+public class RatioCorrectedDemosaicingSimd {
+
+    private static final float EPS = 0.1f / (255 * 255);
+    // the distance to the border below which the last step is computed by the scalar pass
+    private static final int BORDER = 3;
+
+    private RatioCorrectedDemosaicingSimd() {
+    }
+
+    /**
+     * Perform Ratio Corrected Demosaicing, see {@link RatioCorrectedDemosaicing#process(int[], int, int, int, int, int, int)}.
+     * @return demosaiced image in row-major order, rgb values interleaved ([r g b r g b ...])
+     */
+    public static float[] process(
+        int[] samples, int width, int height, int redIdx, int green1Idx, int green2Idx, int blueIdx) {
+        return process(samples, width, height, redIdx, green1Idx, green2Idx, blueIdx, new ScratchBuffers(), false);
+    }
+
+    /**
+     * Perform Ratio Corrected Demosaicing, processing the rows of each step in parallel.
+     * @see #process(int[], int, int, int, int, int, int)
+     */
+    public static float[] processMT(
+        int[] samples, int width, int height, int redIdx, int green1Idx, int green2Idx, int blueIdx) {
+        return process(samples, width, height, redIdx, green1Idx, green2Idx, blueIdx, new ScratchBuffers(), true);
+    }
+
+    /**
+     * Perform Ratio Corrected Demosaicing with the working arrays taken from the given buffers.
+     * @param buffers the buffers of the calling thread. The result is one of them, so it is only valid until the
+     *                buffers are used again.
+     * @param parallel whether the rows of each step are processed in parallel
+     * @see #process(int[], int, int, int, int, int, int)
+     */
+    public static float[] process(
+        int[] samples, int width, int height, int redIdx, int green1Idx, int green2Idx, int blueIdx,
+        ScratchBuffers buffers, boolean parallel) {
+
+        int stride = VectorSupport.getStride(width);
+        int planeSize = VectorSupport.getPlaneSize(width, height);
+        float[] src = buffers.getFloats(0, planeSize);
+        float[] xyGradient = buffers.getFloats(1, planeSize);
+        float[] lowPassAtRB = buffers.getFloats(2, planeSize);
+        float[] greens = buffers.getFloats(3, planeSize);
+        float[] pqAtRB = buffers.getFloats(4, planeSize);
+        float[] red = buffers.getFloats(5, planeSize);
+        float[] blue = buffers.getFloats(6, planeSize);
+        VectorSupport.pad(samples, width, height, src);
+
+        VectorSupport.forEachRow(height, parallel, y -> calcXYGradient(src, xyGradient, width, stride, y));
+        VectorSupport.replicateBorder(xyGradient, width, height);
+
+        VectorSupport.forEachRow(height, parallel, y -> calcLowpassAtRB(src, lowPassAtRB, width, stride, y,
+                greenLanes(y, green1Idx, green2Idx)));
+        VectorSupport.replicateBorder(lowPassAtRB, width, height);
+
+        VectorSupport.forEachRow(height, parallel, y -> calcGreens(src, xyGradient, lowPassAtRB, greens, width, stride,
+                y, greenLanes(y, green1Idx, green2Idx)));
+        VectorSupport.replicateBorder(greens, width, height);
+
+        VectorSupport.forEachRow(height, parallel, y -> calcPQGradient(src, pqAtRB, width, stride, y,
+                greenLanes(y, green1Idx, green2Idx)));
+        VectorSupport.replicateBorder(pqAtRB, width, height);
+
+        // the green plane is the green channel of the result, and only the last step reads red and blue
+        VectorSupport.forEachRow(height, parallel, y -> calcRBAtRB(src, pqAtRB, greens, red, blue, width, stride, y,
+                greenLanes(y, green1Idx, green2Idx), redIdx / 2 == y % 2));
+
+        VectorSupport.forEachRow(height, parallel, y -> calcRBAtG(xyGradient, greens, red, blue, width, height,
+                stride, y, greenLanes(y, green1Idx, green2Idx)));
+        calcRBAtGBorder(xyGradient, greens, red, blue, width, height, stride, green1Idx, green2Idx);
+
+        float[] result = buffers.getFloats(7, width * height * 3);
+        VectorSupport.interleave(red, greens, blue, width, height, result);
+        return result;
+    }
+
+    private static VectorMask<Float> greenLanes(int y, int green1Idx, int green2Idx) {
+        int rowPhase = 2 * (y % 2);
+        return VectorSupport.columns(rowPhase == green1Idx || rowPhase == green2Idx);
+    }
+
+    private static void calcXYGradient(float[] src, float[] xyGradient, int width, int stride, int y) {
+        FloatVector epssq = FloatVector.broadcast(FLOATS, EPS);
+        int row = VectorSupport.getRowOffset(y, stride);
+        for (int x = 0; x < width; x += LANES) {
+            int i = row + x;
+            FloatVector deltaY = statistic(src, i, stride, epssq);
+            FloatVector deltaX = statistic(src, i, 1, epssq);
+            deltaY.div(deltaY.add(deltaX)).intoArray(xyGradient, i);
+        }
+    }
+
+    private static void calcLowpassAtRB(float[] src, float[] lowPassAtRB, int width, int stride, int y,
+                                        VectorMask<Float> green) {
+        FloatVector zero = FloatVector.zero(FLOATS);
+        int row = VectorSupport.getRowOffset(y, stride);
+        for (int x = 0; x < width; x += LANES) {
+            int i = row + x;
+            // 3x3 low-pass filter, the sums of integer samples are exact
+            FloatVector axial = load(src, i - stride).add(load(src, i + stride)).add(load(src, i - 1))
+                    .add(load(src, i + 1));
+            FloatVector diagonal = load(src, i - stride - 1).add(load(src, i - stride + 1))
+                    .add(load(src, i + stride - 1)).add(load(src, i + stride + 1));
+            load(src, i).mul(0.25f).add(axial.mul(0.125f)).add(diagonal.mul(0.0625f))
+                    .blend(zero, green).intoArray(lowPassAtRB, i);
+        }
+    }
+
+    private static void calcGreens(float[] src, float[] xyGradient, float[] lowPassAtRB, float[] greens, int width,
+                                   int stride, int y, VectorMask<Float> green) {
+        FloatVector eps = FloatVector.broadcast(FLOATS, EPS);
+        FloatVector one = FloatVector.broadcast(FLOATS, 1.0f);
+        int row = VectorSupport.getRowOffset(y, stride);
+        for (int x = 0; x < width; x += LANES) {
+            int i = row + x;
+            FloatVector vhDisc = discrimination(xyGradient, i, stride);
+
+            // cardinal gradients
+            FloatVector vM4 = load(src, i - 4 * stride);
+            FloatVector vM3 = load(src, i - 3 * stride);
+            FloatVector vM2 = load(src, i - 2 * stride);
+            FloatVector vM1 = load(src, i - stride);
+            FloatVector cur = load(src, i);
+            FloatVector vP1 = load(src, i + stride);
+            FloatVector vP2 = load(src, i + 2 * stride);
+            FloatVector vP3 = load(src, i + 3 * stride);
+            FloatVector vP4 = load(src, i + 4 * stride);
+
+            FloatVector hM4 = load(src, i - 4);
+            FloatVector hM3 = load(src, i - 3);
+            FloatVector hM2 = load(src, i - 2);
+            FloatVector hM1 = load(src, i - 1);
+            FloatVector hP1 = load(src, i + 1);
+            FloatVector hP2 = load(src, i + 2);
+            FloatVector hP3 = load(src, i + 3);
+            FloatVector hP4 = load(src, i + 4);
+
+            FloatVector nGrad = eps.add(vM1.sub(vP1).abs()).add(cur.sub(vM2).abs()).add(vM1.sub(vM3).abs())
+                    .add(vM2.sub(vM4).abs());
+            FloatVector sGrad = eps.add(vP1.sub(vM1).abs()).add(cur.sub(vP2).abs()).add(vP1.sub(vP3).abs())
+                    .add(vP2.sub(vP4).abs());
+            FloatVector wGrad = eps.add(hM1.sub(hP1).abs()).add(cur.sub(hM2).abs()).add(hM1.sub(hM3).abs())
+                    .add(hM2.sub(hM4).abs());
+            FloatVector eGrad = eps.add(hP1.sub(hM1).abs()).add(cur.sub(hP2).abs()).add(hP1.sub(hP3).abs())
+                    .add(hP2.sub(hP4).abs());
+
+            FloatVector lpfCur = load(lowPassAtRB, i);
+            FloatVector nEst = estimate(vM1, lpfCur, load(lowPassAtRB, i - 2 * stride), eps, one);
+            FloatVector sEst = estimate(vP1, lpfCur, load(lowPassAtRB, i + 2 * stride), eps, one);
+            FloatVector wEst = estimate(hM1, lpfCur, load(lowPassAtRB, i - 2), eps, one);
+            FloatVector eEst = estimate(hP1, lpfCur, load(lowPassAtRB, i + 2), eps, one);
+
+            // vertical and horizontal estimations
+            FloatVector vEst = sGrad.mul(nEst).add(nGrad.mul(sEst)).div(nGrad.add(sGrad));
+            FloatVector hEst = wGrad.mul(eEst).add(eGrad.mul(wEst)).div(eGrad.add(wGrad));
+
+            vhDisc.mul(hEst).add(one.sub(vhDisc).mul(vEst)).blend(cur, green).intoArray(greens, i);
+        }
+    }
+
+    /**
+     * @return {@code pixel * (1 + (lpfCur - lpf) / (eps + lpfCur + lpf))}
+     */
+    private static FloatVector estimate(FloatVector pixel, FloatVector lpfCur, FloatVector lpf, FloatVector eps,
+                                        FloatVector one) {
+        return pixel.mul(one.add(lpfCur.sub(lpf).div(eps.add(lpfCur).add(lpf))));
+    }
+
+    private static void calcPQGradient(float[] src, float[] pqAtRB, int width, int stride, int y,
+                                       VectorMask<Float> green) {
+        FloatVector epssq = FloatVector.broadcast(FLOATS, EPS);
+        FloatVector zero = FloatVector.zero(FLOATS);
+        int row = VectorSupport.getRowOffset(y, stride);
+        for (int x = 0; x < width; x += LANES) {
+            int i = row + x;
+            // from the top left to the bottom right and from the bottom left to the top right
+            FloatVector pStat = statistic(src, i, stride + 1, epssq);
+            FloatVector qStat = statistic(src, i, 1 - stride, epssq);
+            pStat.div(pStat.add(qStat)).blend(zero, green).intoArray(pqAtRB, i);
+        }
+    }
+
+    private static void calcRBAtRB(float[] src, float[] pqAtRB, float[] greens, float[] red, float[] blue, int width,
+                                   int stride, int y, VectorMask<Float> green, boolean redRow) {
+        FloatVector eps = FloatVector.broadcast(FLOATS, EPS);
+        FloatVector one = FloatVector.broadcast(FLOATS, 1.0f);
+        FloatVector zero = FloatVector.zero(FLOATS);
+        int row = VectorSupport.getRowOffset(y, stride);
+        for (int x = 0; x < width; x += LANES) {
+            int i = row + x;
+            FloatVector pqDisc = discrimination(pqAtRB, i, stride);
+
+            // diagonal gradients
+            FloatVector center = load(greens, i);
+            FloatVector northWest1 = load(src, i - stride - 1);
+            FloatVector northWest2 = load(greens, i - 2 * stride - 2);
+            FloatVector northWest3 = load(src, i - 3 * stride - 3);
+
+            FloatVector southEast1 = load(src, i + stride + 1);
+            FloatVector southEast2 = load(greens, i + 2 * stride + 2);
+            FloatVector southEast3 = load(src, i + 3 * stride + 3);
+
+            FloatVector southWest1 = load(src, i + stride - 1);
+            FloatVector southWest2 = load(greens, i + 2 * stride - 2);
+            FloatVector southWest3 = load(src, i + 3 * stride - 3);
+
+            FloatVector northEast1 = load(src, i - stride + 1);
+            FloatVector northEast2 = load(greens, i - 2 * stride + 2);
+            FloatVector northEast3 = load(src, i - 3 * stride + 3);
+
+            FloatVector nwGrad = eps.add(northWest1.sub(southEast1).abs()).add(northWest1.sub(northWest3).abs())
+                    .add(center.sub(northWest2).abs());
+            FloatVector neGrad = eps.add(northEast1.sub(southWest1).abs()).add(northEast1.sub(northEast3).abs())
+                    .add(center.sub(northEast2).abs());
+            FloatVector swGrad = eps.add(southWest1.sub(northEast1).abs()).add(southWest1.sub(southWest3).abs())
+                    .add(center.sub(southWest2).abs());
+            FloatVector seGrad = eps.add(southEast1.sub(northWest1).abs()).add(southEast1.sub(southEast3).abs())
+                    .add(center.sub(southEast2).abs());
+
+            // diagonal color differences
+            FloatVector nwEst = northWest1.sub(load(greens, i - stride - 1));
+            FloatVector neEst = northEast1.sub(load(greens, i - stride + 1));
+            FloatVector swEst = southWest1.sub(load(greens, i + stride - 1));
+            FloatVector seEst = southEast1.sub(load(greens, i + stride + 1));
+
+            // p and q estimations
+            FloatVector pEst = nwGrad.mul(seEst).add(seGrad.mul(nwEst)).div(nwGrad.add(seGrad));
+            FloatVector qEst = neGrad.mul(swEst).add(swGrad.mul(neEst)).div(neGrad.add(swGrad));
+
+            FloatVector interp = center.add(one.sub(pqDisc).mul(pEst)).add(pqDisc.mul(qEst));
+            FloatVector cur = load(src, i);
+            (redRow ? cur : interp).blend(zero, green).intoArray(red, i);
+            (redRow ? interp : cur).blend(zero, green).intoArray(blue, i);
+        }
+    }
+
+    private static void calcRBAtG(float[] xyGradient, float[] greens, float[] red, float[] blue, int width,
+                                  int height, int stride, int y, VectorMask<Float> green) {
+        if (y < BORDER || y >= height - BORDER) {
+            return;
+        }
+        FloatVector eps = FloatVector.broadcast(FLOATS, EPS);
+        FloatVector one = FloatVector.broadcast(FLOATS, 1.0f);
+        int row = VectorSupport.getRowOffset(y, stride);
+        for (int x = 0; x < width; x += LANES) {
+            // only the green pixels away from the border, the others keep their values
+            VectorMask<Float> update = green.and(FLOATS.indexInRange(x - BORDER, width - 2 * BORDER));
+            if (!update.anyTrue()) {
+                continue;
+            }
+            int i = row + x;
+            FloatVector vhDisc = discrimination(xyGradient, i, stride);
+            FloatVector center = load(greens, i);
+            FloatVector vEstR = cardinalEstimate(red, greens, center, i, stride, eps);
+            FloatVector hEstR = cardinalEstimate(red, greens, center, i, 1, eps);
+            FloatVector vEstB = cardinalEstimate(blue, greens, center, i, stride, eps);
+            FloatVector hEstB = cardinalEstimate(blue, greens, center, i, 1, eps);
+            FloatVector vWeight = one.sub(vhDisc);
+            center.add(vWeight.mul(vEstR)).add(vhDisc.mul(hEstR)).intoArray(red, i, update);
+            center.add(vWeight.mul(vEstB)).add(vhDisc.mul(hEstB)).intoArray(blue, i, update);
+        }
+    }
+
+    /**
+     * The estimation of a red or blue value at green pixels from the pixels above and below, or left and right.
+     * @param step the distance between two vertically or horizontally neighbouring pixels
+     */
+    private static FloatVector cardinalEstimate(float[] color, float[] greens, FloatVector center, int i, int step,
+                                                FloatVector eps) {
+        FloatVector before1 = load(color, i - step);
+        FloatVector after1 = load(color, i + step);
+        FloatVector beforeGrad = eps.add(center.sub(load(greens, i - 2 * step)).abs()).add(before1.sub(after1).abs())
+                .add(before1.sub(load(color, i - 3 * step)).abs());
+        FloatVector afterGrad = eps.add(center.sub(load(greens, i + 2 * step)).abs()).add(after1.sub(before1).abs())
+                .add(after1.sub(load(color, i + 3 * step)).abs());
+        FloatVector beforeEst = before1.sub(load(greens, i - step));
+        FloatVector afterEst = after1.sub(load(greens, i + step));
+        if (step == 1) {
+            // horizontal: (eGrad * wEst + wGrad * eEst) / (eGrad + wGrad)
+            return afterGrad.mul(beforeEst).add(beforeGrad.mul(afterEst)).div(afterGrad.add(beforeGrad));
+        }
+        // vertical: (nGrad * sEst + sGrad * nEst) / (nGrad + sGrad)
+        return beforeGrad.mul(afterEst).add(afterGrad.mul(beforeEst)).div(beforeGrad.add(afterGrad));
+    }
+
+    /**
+     * Scalar pass for the green pixels near the border, in the order of
+     * {@link RatioCorrectedDemosaicing#calcEndresult(float[], float[], int, int, int, int)}.
+     */
+    private static void calcRBAtGBorder(float[] xyGradient, float[] greens, float[] red, float[] blue, int width,
+                                        int height, int stride, int green1Idx, int green2Idx) {
+        for (int x = 0; x < width; x++) {
+            boolean borderColumn = x < BORDER || x >= width - BORDER;
+            for (int y = 0; y < height; y++) {
+                if (!borderColumn && y >= BORDER && y < height - BORDER) {
+                    y = height - BORDER - 1;
+                    continue;
+                }
+                int patternIdx = (x % 2) + 2 * (y % 2);
+                if (patternIdx != green1Idx && patternIdx != green2Idx) {
+                    continue;
+                }
+                float centerGradient = xyGradient[at(x, y, width, height, stride)];
+                float neighbourhoodGradient = 0.25f * (xyGradient[at(x - 1, y - 1, width, height, stride)] +
+                        xyGradient[at(x + 1, y - 1, width, height, stride)] +
+                        xyGradient[at(x - 1, y + 1, width, height, stride)] +
+                        xyGradient[at(x + 1, y + 1, width, height, stride)]);
+                float vhDisc = Math.abs(centerGradient - 0.5f) < Math.abs(neighbourhoodGradient - 0.5f)
+                        ? neighbourhoodGradient
+                        : centerGradient;
+
+                int center = at(x, y, width, height, stride);
+                int north1 = at(x, y - 1, width, height, stride);
+                int north2 = at(x, y - 2, width, height, stride);
+                int north3 = at(x, y - 3, width, height, stride);
+                int south1 = at(x, y + 1, width, height, stride);
+                int south2 = at(x, y + 2, width, height, stride);
+                int south3 = at(x, y + 3, width, height, stride);
+                int west1 = at(x - 1, y, width, height, stride);
+                int west2 = at(x - 2, y, width, height, stride);
+                int west3 = at(x - 3, y, width, height, stride);
+                int east1 = at(x + 1, y, width, height, stride);
+                int east2 = at(x + 2, y, width, height, stride);
+                int east3 = at(x + 3, y, width, height, stride);
+
+                float g = greens[center];
+                float vEstR = cardinalEstimate(red, greens, g, north1, north2, north3, south1, south2, south3);
+                float hEstR = cardinalEstimate(red, greens, g, east1, east2, east3, west1, west2, west3);
+                float vEstB = cardinalEstimate(blue, greens, g, north1, north2, north3, south1, south2, south3);
+                float hEstB = cardinalEstimate(blue, greens, g, east1, east2, east3, west1, west2, west3);
+                red[center] = g + (1.0f - vhDisc) * vEstR + vhDisc * hEstR;
+                blue[center] = g + (1.0f - vhDisc) * vEstB + vhDisc * hEstB;
+            }
+        }
+    }
+
+    /**
+     * Scalar version of {@link #cardinalEstimate(float[], float[], FloatVector, int, int, FloatVector)}, with the
+     * pixels on the first side (north or east) given first.
+     */
+    private static float cardinalEstimate(float[] color, float[] greens, float center, int a1, int a2, int a3, int b1,
+                                          int b2, int b3) {
+        float aGrad = EPS + Math.abs(center - greens[a2]) + Math.abs(color[a1] - color[b1])
+                + Math.abs(color[a1] - color[a3]);
+        float bGrad = EPS + Math.abs(center - greens[b2]) + Math.abs(color[b1] - color[a1])
+                + Math.abs(color[b1] - color[b3]);
+        float aEst = color[a1] - greens[a1];
+        float bEst = color[b1] - greens[b1];
+        return (aGrad * bEst + bGrad * aEst) / (aGrad + bGrad);
+    }
+
+    /**
+     * @return The index of the given pixel within a padded plane, clamped to the image
+     */
+    private static int at(int x, int y, int width, int height, int stride) {
+        return VectorSupport.getRowOffset(Math.max(0, Math.min(height - 1, y)), stride)
+                + Math.max(0, Math.min(width - 1, x));
+    }
+
+    /**
+     * Refined local discrimination: the gradient at a pixel or the mean of its diagonal neighbours, whichever is
+     * further away from 0.5.
+     */
+    private static FloatVector discrimination(float[] gradient, int i, int stride) {
+        FloatVector centerGradient = load(gradient, i);
+        FloatVector neighbourhoodGradient = load(gradient, i - stride - 1).add(load(gradient, i - stride + 1))
+                .add(load(gradient, i + stride - 1)).add(load(gradient, i + stride + 1)).mul(0.25f);
+        VectorMask<Float> neighbourhood = centerGradient.sub(0.5f).abs()
+                .compare(VectorOperators.LT, neighbourhoodGradient.sub(0.5f).abs());
+        return centerGradient.blend(neighbourhoodGradient, neighbourhood);
+    }
+
+    /**
+     * The gradient statistic of the RCD paper along a line through a pixel, from the 9 samples around it.
+     * @param step the distance between two neighbouring samples on the line
+     * @return the statistic, at least epssq
+     */
+    private static FloatVector statistic(float[] src, int i, int step, FloatVector epssq) {
+        FloatVector m4 = load(src, i - 4 * step);
+        FloatVector m3 = load(src, i - 3 * step);
+        FloatVector m2 = load(src, i - 2 * step);
+        FloatVector m1 = load(src, i - step);
+        FloatVector cur = load(src, i);
+        FloatVector p1 = load(src, i + step);
+        FloatVector p2 = load(src, i + 2 * step);
+        FloatVector p3 = load(src, i + 3 * step);
+        FloatVector p4 = load(src, i + 4 * step);
+        // the terms in the order of the scalar algorithm, so the rounding is the same
+        FloatVector sum = m4.mul(1.f).mul(m4);
+        sum = sum.add(m4.mul(-6.f).mul(m3)).add(m3.mul(10.f).mul(m3));
+        sum = sum.add(m4.mul(-2.f).mul(m2)).add(m2.mul(11.f).mul(m2));
+        sum = sum.add(m4.mul(12.f).mul(m1)).add(m3.mul(-38.f).mul(m1)).add(m2.mul(-12.f).mul(m1))
+                .add(m1.mul(46.f).mul(m1));
+        sum = sum.add(m4.mul(-2.f).mul(cur)).add(m3.mul(18.f).mul(cur)).add(m2.mul(-36.f).mul(cur))
+                .add(m1.mul(-18.f).mul(cur)).add(cur.mul(38.f).mul(cur));
+        sum = sum.add(m4.mul(-6.f).mul(p1)).add(m3.mul(16.f).mul(p1)).add(m2.mul(24.f).mul(p1))
+                .add(m1.mul(-70.f).mul(p1)).add(cur.mul(-18.f).mul(p1)).add(p1.mul(46.f).mul(p1));
+        sum = sum.add(m4.mul(2.f).mul(p2)).add(m3.mul(-12.f).mul(p2)).add(m2.mul(14.f).mul(p2))
+                .add(m1.mul(24.f).mul(p2)).add(cur.mul(-36.f).mul(p2)).add(p1.mul(-12.f).mul(p2))
+                .add(p2.mul(11.f).mul(p2));
+        sum = sum.add(m3.mul(2.f).mul(p3)).add(m2.mul(-12.f).mul(p3)).add(m1.mul(16.f).mul(p3))
+                .add(cur.mul(18.f).mul(p3)).add(p1.mul(-38.f).mul(p3)).add(p3.mul(10.f).mul(p3));
+        sum = sum.add(m2.mul(2.f).mul(p4)).add(m1.mul(-6.f).mul(p4)).add(cur.mul(-2.f).mul(p4))
+                .add(p1.mul(12.f).mul(p4)).add(p2.mul(-2.f).mul(p4)).add(p3.mul(-6.f).mul(p4))
+                .add(p4.mul(1.f).mul(p4));
+        return sum.max(epssq);
+    }
+
+    private static FloatVector load(float[] plane, int i) {
+        return FloatVector.fromArray(FLOATS, plane, i);
+    }
+}
@@ -0,0 +1,57 @@
+package de.unituebingen.dng.processor.demosaicingprocessor;
+
+/**
+ * The working arrays of a demosaicing algorithm, which are reused from one tile to the next instead of being allocated
+ * for every tile. <br/>
+ * Each array is identified by a slot, which the algorithm numbers as it likes. An array is only reallocated if a longer
+ * one is requested, so once a tile of the full tile size has been processed, the smaller tiles at the border of the
+ * image reuse its arrays. Therefore an array may be longer than requested, and it contains whatever the previous tile
+ * left there, so the algorithms have to index by width and height and write every element before reading it. <br/>
+ * The buffers are not thread-safe. Each worker needs buffers of its own, as handed out by
+ * {@link de.unituebingen.dng.processor.util.TileScheduler}.
+ */
+public final class ScratchBuffers {
+
+    private float[][] floats = new float[0][];
+    private int[][] ints = new int[0][];
+
+    /**
+     * Creates empty buffers, whose arrays are allocated on first request.
+     */
+    public ScratchBuffers() {
+    }
+
+    /**
+     * @param slot   The index of the array
+     * @param length The minimum length of the array
+     * @return An array of at least the given length with undefined content
+     */
+    public float[] getFloats(int slot, int length) {
+        if (slot >= floats.length) {
+            float[][] grown = new float[slot + 1][];
+            System.arraycopy(floats, 0, grown, 0, floats.length);
+            floats = grown;
+        }
+        if (floats[slot] == null || floats[slot].length < length) {
+            floats[slot] = new float[length];
+        }
+        return floats[slot];
+    }
+
+    /**
+     * @param slot   The index of the array, independent of the slots of {@link #getFloats(int, int)}
+     * @param length The minimum length of the array
+     * @return An array of at least the given length with undefined content
+     */
+    public int[] getInts(int slot, int length) {
+        if (slot >= ints.length) {
+            int[][] grown = new int[slot + 1][];
+            System.arraycopy(ints, 0, grown, 0, ints.length);
+            ints = grown;
+        }
+        if (ints[slot] == null || ints[slot].length < length) {
+            ints[slot] = new int[length];
+        }
+        return ints[slot];
+    }
+}
@@ -0,0 +1,154 @@
+package de.unituebingen.dng.processor.demosaicingprocessor;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Common parts of the demosaicing algorithms which use the Vector API. <br/>
+ * The algorithms work on planes which are padded by {@link #PADDING} pixels on each side. The padding repeats the
+ * outermost pixels of the image, like the {@code Math.max}/{@code Math.min} clamping of the scalar algorithms, so the
+ * vector loops need no border checks. The width of a plane is rounded up to whole vectors. A vector always starts at an
+ * even column, so the even lanes lie on one column of the CFA pattern and the odd lanes on the other.
+ */
+final class VectorSupport {
+
+    /**
+     * The maximum distance in pixels at which a vector kernel reads its neighbours.
+     */
+    static final int PADDING = 4;
+
+    static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    static final int LANES = FLOATS.length();
+
+    static final VectorMask<Float> EVEN_LANES = VectorMask.fromLong(FLOATS, 0x5555555555555555L);
+    static final VectorMask<Float> ODD_LANES = EVEN_LANES.not();
+
+    private VectorSupport() {
+    }
+
+    /**
+     * @return The row stride of a padded plane of an image with the given width
+     */
+    static int getStride(int width) {
+        return (width + LANES - 1) / LANES * LANES + 2 * PADDING;
+    }
+
+    /**
+     * @return The amount of elements of a padded plane of an image with the given size
+     */
+    static int getPlaneSize(int width, int height) {
+        return getStride(width) * (height + 2 * PADDING);
+    }
+
+    /**
+     * @return The index of the first pixel of the given row within a padded plane
+     */
+    static int getRowOffset(int y, int stride) {
+        return (y + PADDING) * stride + PADDING;
+    }
+
+    /**
+     * @param even whether the even lanes are wanted
+     * @return The lanes on even or odd columns
+     */
+    static VectorMask<Float> columns(boolean even) {
+        return even ? EVEN_LANES : ODD_LANES;
+    }
+
+    /**
+     * Copies an image into a padded plane and repeats its outermost pixels in the padding.
+     */
+    static void pad(int[] samples, int width, int height, int[] plane) {
+        int stride = getStride(width);
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(samples, y * width, plane, getRowOffset(y, stride), width);
+        }
+        replicateBorder(plane, width, height);
+    }
+
+    /**
+     * Copies an image into a padded plane of floats and repeats its outermost pixels in the padding.
+     */
+    static void pad(int[] samples, int width, int height, float[] plane) {
+        int stride = getStride(width);
+        for (int y = 0; y < height; y++) {
+            int from = y * width;
+            int to = getRowOffset(y, stride);
+            for (int x = 0; x < width; x++) {
+                plane[to + x] = samples[from + x];
+            }
+        }
+        replicateBorder(plane, width, height);
+    }
+
+    /**
+     * Repeats the outermost pixels of the image within a padded plane in its padding, which overwrites whatever a
+     * vector loop wrote right of the image.
+     */
+    static void replicateBorder(int[] plane, int width, int height) {
+        int stride = getStride(width);
+        for (int y = 0; y < height; y++) {
+            int row = getRowOffset(y, stride);
+            Arrays.fill(plane, row - PADDING, row, plane[row]);
+            Arrays.fill(plane, row + width, row - PADDING + stride, plane[row + width - 1]);
+        }
+        replicateRows(plane, height, stride);
+    }
+
+    /**
+     * @see #replicateBorder(int[], int, int)
+     */
+    static void replicateBorder(float[] plane, int width, int height) {
+        int stride = getStride(width);
+        for (int y = 0; y < height; y++) {
+            int row = getRowOffset(y, stride);
+            Arrays.fill(plane, row - PADDING, row, plane[row]);
+            Arrays.fill(plane, row + width, row - PADDING + stride, plane[row + width - 1]);
+        }
+        replicateRows(plane, height, stride);
+    }
+
+    private static void replicateRows(Object plane, int height, int stride) {
+        int first = PADDING * stride;
+        int last = (PADDING + height - 1) * stride;
+        for (int y = 0; y < PADDING; y++) {
+            System.arraycopy(plane, first, plane, y * stride, stride);
+            System.arraycopy(plane, last, plane, last + (y + 1) * stride, stride);
+        }
+    }
+
+    /**
+     * Interleaves three padded planes into an image with rgb values ([r g b r g b ...]).
+     */
+    static void interleave(float[] red, float[] green, float[] blue, int width, int height, float[] result) {
+        int stride = getStride(width);
+        for (int y = 0, i = 0; y < height; y++) {
+            int row = getRowOffset(y, stride);
+            for (int x = 0; x < width; x++, i += 3) {
+                result[i] = red[row + x];
+                result[i + 1] = green[row + x];
+                result[i + 2] = blue[row + x];
+            }
+        }
+    }
+
+    /**
+     * Calls the row kernel for the rows {@code [0, height)}, either one after another or in parallel.
+     */
+    static void forEachRow(int height, boolean parallel, IntConsumer rowKernel) {
+        if (parallel) {
+            IntStream.range(0, height).parallel().forEach(rowKernel);
+        } else {
+            for (int y = 0; y < height; y++) {
+                rowKernel.accept(y);
+            }
+        }
+    }
+}
@@ -2,6 +2,9 @@ package de.unituebingen.dng.processor.log;
 
 public class NopLogger implements Timer {
 
+    public NopLogger() {
+    }
+
     public void startRun(String filename, int width, int length, String accelerationStrategy) {  
     }
 
@@ -0,0 +1,106 @@
+package de.unituebingen.dng.processor.opcodeprocessor;
+
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Base class of the opcodes which process the samples of an area of the image, e.g. {@code GainMap} or
+ * {@code MapTable}. <br/>
+ * The area is given by its bounds, the first plane and the amount of planes, and the row and column pitch. Only every
+ * {@code rowPitch}-th row and {@code colPitch}-th column, starting at the top left corner, is processed, so an opcode
+ * can be restricted to a single color of the CFA pattern.
+ */
+public abstract class AreaOpcodeProcessor extends OpcodeProcessor {
+
+    private final long top;
+    private final long left;
+    private final long bottom;
+    private final long right;
+    private final long plane;
+    private final long planes;
+    private final int rowPitch;
+    private final int colPitch;
+
+    //the area clipped to the stage image, set at the start of process()
+    protected int firstRow;
+    protected int endRow;
+    protected int firstColumn;
+    protected int endColumn;
+    protected int firstPlane;
+    protected int endPlane;
+
+    protected AreaOpcodeProcessor(Rectangle imageBounds, AccelerationStrategy accelerationStrategy, long top, long left,
+                                  long bottom, long right, long plane, long planes, long rowPitch, long colPitch) {
+        super(imageBounds, accelerationStrategy);
+        this.top = top;
+        this.left = left;
+        this.bottom = bottom;
+        this.right = right;
+        this.plane = plane;
+        this.planes = planes;
+        this.rowPitch = (int) java.lang.Math.max(1, rowPitch);
+        this.colPitch = (int) java.lang.Math.max(1, colPitch);
+    }
+
+    @Override
+    public BufferedImage process(BufferedImage image) {
+        int bands = image.getRaster().getNumBands();
+        firstRow = (int) java.lang.Math.min(top, imageBounds.height);
+        endRow = (int) java.lang.Math.min(bottom, imageBounds.height);
+        firstColumn = (int) java.lang.Math.min(left, imageBounds.width);
+        endColumn = (int) java.lang.Math.min(right, imageBounds.width);
+        firstPlane = (int) java.lang.Math.min(plane, bands);
+        endPlane = (int) java.lang.Math.min(plane + planes, bands);
+        if (firstRow >= endRow || firstColumn >= endColumn || firstPlane >= endPlane) {
+            return image;
+        }
+        prepare();
+
+        short[] samples = getSamples(image);
+        processTiles(firstRow, endRow, (tileFirstRow, tileEndRow) -> {
+            //the first row of the tile which lies on the row pitch
+            int row = firstRow + (tileFirstRow - firstRow + rowPitch - 1) / rowPitch * rowPitch;
+            for (; row < tileEndRow; row += rowPitch) {
+                processRow(samples, getRowOffset(image, row), row, bands);
+            }
+        });
+        return image;
+    }
+
+    /**
+     * Called once per image before the rows are processed, after the area has been clipped to the stage image.
+     */
+    protected void prepare() {
+        //empty on purpose
+    }
+
+    /**
+     * Processes the samples of the area within the given row.
+     *
+     * @param samples   The samples of the image
+     * @param rowOffset The index of the first sample of the row of the stage image
+     * @param row       The row within the stage image
+     * @param bands     The amount of samples per pixel
+     */
+    protected abstract void processRow(short[] samples, int rowOffset, int row, int bands);
+
+    /**
+     * @return The index of the given row among the processed rows
+     */
+    protected int getRowIndex(int row) {
+        return (int) ((row - top) / rowPitch);
+    }
+
+    /**
+     * @return The index of the given column among the processed columns
+     */
+    protected int getColumnIndex(int column) {
+        return (int) ((column - left) / colPitch);
+    }
+
+    protected int getColPitch() {
+        return colPitch;
+    }
+}
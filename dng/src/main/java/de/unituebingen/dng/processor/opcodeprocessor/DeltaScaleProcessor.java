@@ -0,0 +1,54 @@
+package de.unituebingen.dng.processor.opcodeprocessor;
+
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.dng.opcode.DeltaPerColumn;
+import de.unituebingen.dng.reader.dng.opcode.DeltaPerRow;
+import de.unituebingen.dng.reader.dng.opcode.ScaleDeltaPer;
+import de.unituebingen.dng.reader.dng.opcode.ScalesPerColumn;
+import de.unituebingen.dng.reader.dng.opcode.ScalesPerRow;
+
+import java.awt.Rectangle;
+
+/**
+ * Adds a delta to or multiplies a scale with the samples of an area, with one value per row or per column. This
+ * covers the {@code DeltaPerRow}, {@code DeltaPerColumn}, {@code ScalePerRow} and {@code ScalePerColumn} opcodes. See
+ * DNG Specification 1.5.0.0, pages 96 and 97. The deltas refer to samples in [0, 1], so they are scaled to 16 bit.
+ */
+public class DeltaScaleProcessor extends AreaOpcodeProcessor {
+
+    private final float[] values;
+    private final boolean perRow;
+    private final boolean scale;
+
+    public DeltaScaleProcessor(ScaleDeltaPer opcode, Rectangle imageBounds, AccelerationStrategy accelerationStrategy) {
+        super(imageBounds, accelerationStrategy, opcode.getTop(), opcode.getLeft(), opcode.getBottom(),
+                opcode.getRight(), opcode.getPlane(), opcode.getPlanes(), opcode.getRowPitch(), opcode.getColPitch());
+        this.perRow = opcode instanceof DeltaPerRow || opcode instanceof ScalesPerRow;
+        this.scale = opcode instanceof ScalesPerRow || opcode instanceof ScalesPerColumn;
+        if (opcode instanceof DeltaPerRow) {
+            values = ((DeltaPerRow) opcode).getDeltas();
+        } else if (opcode instanceof DeltaPerColumn) {
+            values = ((DeltaPerColumn) opcode).getDeltas();
+        } else if (opcode instanceof ScalesPerRow) {
+            values = ((ScalesPerRow) opcode).getScales();
+        } else {
+            values = ((ScalesPerColumn) opcode).getScales();
+        }
+    }
+
+    @Override
+    protected void processRow(short[] samples, int rowOffset, int row, int bands) {
+        if (values.length == 0) {
+            return;
+        }
+        int rowIndex = java.lang.Math.min(getRowIndex(row), values.length - 1);
+        for (int column = firstColumn; column < endColumn; column += getColPitch()) {
+            int index = rowOffset + column * bands;
+            double value = perRow ? values[rowIndex] : values[java.lang.Math.min(getColumnIndex(column), values.length - 1)];
+            for (int plane = firstPlane; plane < endPlane; plane++) {
+                int sample = samples[index + plane] & 0xFFFF;
+                samples[index + plane] = toSample(scale ? sample * value : sample + value * 65535);
+            }
+        }
+    }
+}
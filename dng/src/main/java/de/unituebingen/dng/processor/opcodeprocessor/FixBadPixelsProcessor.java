@@ -0,0 +1,129 @@
+package de.unituebingen.dng.processor.opcodeprocessor;
+
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.dng.opcode.FixBadPixelsConstant;
+import de.unituebingen.dng.reader.dng.opcode.FixBadPixelsList;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.BitSet;
+
+/**
+ * Replaces bad pixels by the mean of their nearest good neighbours of the same color. This covers the
+ * {@code FixBadPixelsConstant} opcode, which marks all pixels with a given value as bad, and the
+ * {@code FixBadPixelsList} opcode, which lists bad points and rectangles. See DNG Specification 1.5.0.0, page 92.
+ * <br/>
+ * In a 2x2 CFA pattern, the pixels two rows or columns apart have the same color, so the Bayer phase of the opcodes is
+ * not needed. In an image with more than one sample per pixel, the direct neighbours are used.
+ */
+public class FixBadPixelsProcessor extends OpcodeProcessor {
+
+    private final long constant;
+    private final long[][] badPoints;
+    private final long[][] badRects;
+
+    public FixBadPixelsProcessor(FixBadPixelsConstant fixBadPixelsConstant, Rectangle imageBounds,
+                                 AccelerationStrategy accelerationStrategy) {
+        super(imageBounds, accelerationStrategy);
+        this.constant = fixBadPixelsConstant.getConstant();
+        this.badPoints = null;
+        this.badRects = null;
+    }
+
+    public FixBadPixelsProcessor(FixBadPixelsList fixBadPixelsList, Rectangle imageBounds,
+                                 AccelerationStrategy accelerationStrategy) {
+        super(imageBounds, accelerationStrategy);
+        this.constant = -1;
+        this.badPoints = fixBadPixelsList.getBadPoints();
+        this.badRects = fixBadPixelsList.getBadRects();
+    }
+
+    @Override
+    public BufferedImage process(BufferedImage image) {
+        int bands = image.getRaster().getNumBands();
+        short[] samples = getSamples(image);
+        BitSet badPixels = findBadPixels(image, samples, bands);
+        if (badPixels.isEmpty()) {
+            return image;
+        }
+
+        int distance = bands == 1 ? 2 : 1;
+        int width = imageBounds.width;
+        processTiles(0, imageBounds.height, (firstRow, endRow) -> {
+            // the indices of the good neighbours of a bad pixel, reused for all bad pixels of the tile
+            int[] neighbours = new int[4];
+            for (int pixel = badPixels.nextSetBit(firstRow * width); pixel >= 0 && pixel < endRow * width;
+                 pixel = badPixels.nextSetBit(pixel + 1)) {
+                int row = pixel / width;
+                int column = pixel % width;
+                int index = getRowOffset(image, row) + column * bands;
+                int count = 0;
+                count = addNeighbour(image, badPixels, row - distance, column, neighbours, count);
+                count = addNeighbour(image, badPixels, row + distance, column, neighbours, count);
+                count = addNeighbour(image, badPixels, row, column - distance, neighbours, count);
+                count = addNeighbour(image, badPixels, row, column + distance, neighbours, count);
+                if (count == 0) {
+                    continue;
+                }
+                for (int plane = 0; plane < bands; plane++) {
+                    int sum = 0;
+                    for (int i = 0; i < count; i++) {
+                        sum += samples[neighbours[i] + plane] & 0xFFFF;
+                    }
+                    samples[index + plane] = (short) ((sum + count / 2) / count);
+                }
+            }
+        });
+        return image;
+    }
+
+    /**
+     * Adds the index of the first sample of the given pixel to the neighbours if it lies within the stage image and is
+     * not bad.
+     *
+     * @return The amount of neighbours after adding the pixel
+     */
+    private int addNeighbour(BufferedImage image, BitSet badPixels, int row, int column, int[] neighbours, int count) {
+        int width = imageBounds.width;
+        if (row < 0 || row >= imageBounds.height || column < 0 || column >= width
+                || badPixels.get(row * width + column)) {
+            return count;
+        }
+        neighbours[count] = getRowOffset(image, row) + column * image.getRaster().getNumBands();
+        return count + 1;
+    }
+
+    /**
+     * @return The bad pixels, indexed by {@code row * width + column} of the stage image
+     */
+    private BitSet findBadPixels(BufferedImage image, short[] samples, int bands) {
+        int width = imageBounds.width;
+        int height = imageBounds.height;
+        BitSet badPixels = new BitSet(width * height);
+        if (badPoints == null) {
+            for (int row = 0; row < height; row++) {
+                int index = getRowOffset(image, row);
+                for (int column = 0; column < width; column++, index += bands) {
+                    if ((samples[index] & 0xFFFF) == constant) {
+                        badPixels.set(row * width + column);
+                    }
+                }
+            }
+            return badPixels;
+        }
+        for (long[] badPoint : badPoints) {
+            if (badPoint[0] < height && badPoint[1] < width) {
+                badPixels.set((int) (badPoint[0] * width + badPoint[1]));
+            }
+        }
+        for (long[] badRect : badRects) {
+            for (long row = badRect[0]; row < java.lang.Math.min(badRect[2], height); row++) {
+                long right = java.lang.Math.min(badRect[3], width);
+                if (badRect[1] < right) {
+                    badPixels.set((int) (row * width + badRect[1]), (int) (row * width + right));
+                }
+            }
+        }
+        return badPixels;
+    }
+}
@@ -0,0 +1,61 @@
+package de.unituebingen.dng.processor.opcodeprocessor;
+
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.dng.opcode.FixVignetteRadial;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Corrects a radial vignetting by multiplying all samples with {@code 1 + k0 r^2 + k1 r^4 + k2 r^6 + k3 r^8 + k4 r^10},
+ * where {@code r} is the distance of the pixel to the optical center, normalized to 1 at the farthest corner of the
+ * stage image. See DNG Specification 1.5.0.0, page 93. <br/>
+ * The squared horizontal distances are computed once per image and the squared vertical distance once per row.
+ */
+public class FixVignetteRadialProcessor extends OpcodeProcessor {
+
+    private final double[] ks;
+    private final double cx;
+    private final double cy;
+
+    public FixVignetteRadialProcessor(FixVignetteRadial fixVignetteRadial, Rectangle imageBounds,
+                                      AccelerationStrategy accelerationStrategy) {
+        super(imageBounds, accelerationStrategy);
+        this.ks = fixVignetteRadial.getKs();
+        this.cx = fixVignetteRadial.getCx() * imageBounds.width;
+        this.cy = fixVignetteRadial.getCy() * imageBounds.height;
+    }
+
+    @Override
+    public BufferedImage process(BufferedImage image) {
+        int bands = image.getRaster().getNumBands();
+        double mx = java.lang.Math.max(cx, imageBounds.width - cx);
+        double my = java.lang.Math.max(cy, imageBounds.height - cy);
+        double maxDistance = java.lang.Math.sqrt(mx * mx + my * my);
+        if (maxDistance == 0) {
+            return image;
+        }
+        double[] dx2 = new double[imageBounds.width];
+        for (int column = 0; column < imageBounds.width; column++) {
+            double dx = (column + 0.5 - cx) / maxDistance;
+            dx2[column] = dx * dx;
+        }
+
+        short[] samples = getSamples(image);
+        processTiles(0, imageBounds.height, (firstRow, endRow) -> {
+            for (int row = firstRow; row < endRow; row++) {
+                double dy = (row + 0.5 - cy) / maxDistance;
+                double dy2 = dy * dy;
+                int index = getRowOffset(image, row);
+                for (int column = 0; column < imageBounds.width; column++) {
+                    double r2 = dx2[column] + dy2;
+                    double gain = 1 + r2 * (ks[0] + r2 * (ks[1] + r2 * (ks[2] + r2 * (ks[3] + r2 * ks[4]))));
+                    for (int plane = 0; plane < bands; plane++, index++) {
+                        samples[index] = toSample((samples[index] & 0xFFFF) * gain);
+                    }
+                }
+            }
+        });
+        return image;
+    }
+}
@@ -0,0 +1,87 @@
+package de.unituebingen.dng.processor.opcodeprocessor;
+
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.dng.opcode.GainMap;
+
+import java.awt.Rectangle;
+
+/**
+ * Multiplies the samples of an area with gains which are bilinearly interpolated from a grid of map points, e.g. to
+ * correct lens shading. See DNG Specification 1.5.0.0, page 95. <br/>
+ * The position of a pixel within the map is given relative to the stage image, measured at the pixel center. The
+ * interpolation weights of the columns are computed once per image. For each row, the two map rows around it are
+ * interpolated once, so only the horizontal interpolation is left per sample.
+ */
+public class GainMapProcessor extends AreaOpcodeProcessor {
+
+    private final GainMap gainMap;
+    private final int mapPointsV;
+    private final int mapPointsH;
+    private final int mapPlanes;
+
+    //per processed column: the left map point and the weight of the right map point
+    private int[] columnMapPoints;
+    private double[] columnWeights;
+
+    public GainMapProcessor(GainMap gainMap, Rectangle imageBounds, AccelerationStrategy accelerationStrategy) {
+        super(imageBounds, accelerationStrategy, gainMap.getTop(), gainMap.getLeft(), gainMap.getBottom(),
+                gainMap.getRight(), gainMap.getPlane(), gainMap.getPlanes(), gainMap.getRowPitch(),
+                gainMap.getColPitch());
+        this.gainMap = gainMap;
+        this.mapPointsV = (int) gainMap.getMapPointsV();
+        this.mapPointsH = (int) gainMap.getMapPointsH();
+        this.mapPlanes = (int) gainMap.getMapPlanes();
+    }
+
+    @Override
+    protected void prepare() {
+        int columns = (endColumn - firstColumn + getColPitch() - 1) / getColPitch();
+        columnMapPoints = new int[columns];
+        columnWeights = new double[columns];
+        for (int i = 0; i < columns; i++) {
+            int column = firstColumn + i * getColPitch();
+            double mapPoint = mapPosition(column, imageBounds.width, gainMap.getMapOriginH(),
+                    gainMap.getMapSpacingH(), mapPointsH);
+            columnMapPoints[i] = java.lang.Math.min((int) mapPoint, mapPointsH - 1);
+            columnWeights[i] = mapPoint - columnMapPoints[i];
+        }
+    }
+
+    @Override
+    protected void processRow(short[] samples, int rowOffset, int row, int bands) {
+        double mapPoint = mapPosition(row, imageBounds.height, gainMap.getMapOriginV(), gainMap.getMapSpacingV(),
+                mapPointsV);
+        int top = java.lang.Math.min((int) mapPoint, mapPointsV - 1);
+        int bottom = java.lang.Math.min(top + 1, mapPointsV - 1);
+        double weight = mapPoint - top;
+        float[][][] gains = gainMap.getMapGains();
+
+        //the gains of the map row at the position of this row, one extra point so the last point needs no check
+        double[] rowGains = new double[mapPointsH + 1];
+        for (int plane = firstPlane; plane < endPlane; plane++) {
+            int mapPlane = java.lang.Math.min(plane - firstPlane, mapPlanes - 1);
+            for (int h = 0; h < mapPointsH; h++) {
+                rowGains[h] = gains[top][h][mapPlane] * (1 - weight) + gains[bottom][h][mapPlane] * weight;
+            }
+            rowGains[mapPointsH] = rowGains[mapPointsH - 1];
+
+            for (int i = 0, column = firstColumn; column < endColumn; i++, column += getColPitch()) {
+                int index = rowOffset + column * bands + plane;
+                int left = columnMapPoints[i];
+                double gain = rowGains[left] + (rowGains[left + 1] - rowGains[left]) * columnWeights[i];
+                samples[index] = toSample((samples[index] & 0xFFFF) * gain);
+            }
+        }
+    }
+
+    /**
+     * @return The position of the given pixel in map points, clipped to the map
+     */
+    private static double mapPosition(int pixel, int size, double origin, double spacing, int mapPoints) {
+        if (mapPoints < 2 || spacing <= 0) {
+            return 0;
+        }
+        double position = ((pixel + 0.5) / size - origin) / spacing;
+        return java.lang.Math.max(0, java.lang.Math.min(position, mapPoints - 1));
+    }
+}
@@ -0,0 +1,55 @@
+package de.unituebingen.dng.processor.opcodeprocessor;
+
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.dng.opcode.MapPolynomial;
+import de.unituebingen.dng.reader.dng.opcode.MapTable;
+
+import java.awt.Rectangle;
+
+/**
+ * Maps the samples of an area through a lookup table. This covers the {@code MapTable} opcode, whose table is clipped
+ * at its last entry, and the {@code MapPolynomial} opcode, whose polynomial is evaluated into a table once. See DNG
+ * Specification 1.5.0.0, pages 94 and 95.
+ */
+public class MapTableProcessor extends AreaOpcodeProcessor {
+
+    private static final int TABLE_SIZE = 65536;
+
+    private final short[] table = new short[TABLE_SIZE];
+
+    public MapTableProcessor(MapTable mapTable, Rectangle imageBounds, AccelerationStrategy accelerationStrategy) {
+        super(imageBounds, accelerationStrategy, mapTable.getTop(), mapTable.getLeft(), mapTable.getBottom(),
+                mapTable.getRight(), mapTable.getPlane(), mapTable.getPlanes(), mapTable.getRowPitch(),
+                mapTable.getColPitch());
+        int[] tableEntries = mapTable.getTableEntries();
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            table[i] = (short) tableEntries[java.lang.Math.min(i, tableEntries.length - 1)];
+        }
+    }
+
+    public MapTableProcessor(MapPolynomial mapPolynomial, Rectangle imageBounds,
+                             AccelerationStrategy accelerationStrategy) {
+        super(imageBounds, accelerationStrategy, mapPolynomial.getTop(), mapPolynomial.getLeft(),
+                mapPolynomial.getBottom(), mapPolynomial.getRight(), mapPolynomial.getPlane(),
+                mapPolynomial.getPlanes(), mapPolynomial.getRowPitch(), mapPolynomial.getColPitch());
+        double[] coefficients = mapPolynomial.getCoefficients();
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            double x = i / 65535.0;
+            double y = 0;
+            for (int degree = coefficients.length - 1; degree >= 0; degree--) {
+                y = y * x + coefficients[degree];
+            }
+            table[i] = toSample(y * 65535);
+        }
+    }
+
+    @Override
+    protected void processRow(short[] samples, int rowOffset, int row, int bands) {
+        for (int column = firstColumn; column < endColumn; column += getColPitch()) {
+            int index = rowOffset + column * bands;
+            for (int plane = firstPlane; plane < endPlane; plane++) {
+                samples[index + plane] = table[samples[index + plane] & 0xFFFF];
+            }
+        }
+    }
+}
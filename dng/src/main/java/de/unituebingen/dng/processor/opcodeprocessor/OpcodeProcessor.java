@@ -0,0 +1,81 @@
+package de.unituebingen.dng.processor.opcodeprocessor;
+
+import de.unituebingen.dng.processor.Processor;
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.processor.util.TileScheduler;
+import de.unituebingen.dng.reader.util.Math;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferUShort;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Applies a DNG opcode to an image with interleaved 16 bit samples in place. <br/>
+ * The coordinates of an opcode refer to the image of its processing stage, which is the whole raw image for the
+ * OpcodeList1 and the active area for the OpcodeList2 and OpcodeList3 (see DNG Specification 1.5.0.0, chapter 6). The
+ * position of this stage image within the processed image is given by the image bounds. <br/>
+ * The rows are processed in tiles of {@link #TILE_ROWS} rows, which are processed in parallel unless the acceleration
+ * strategy is {@link AccelerationStrategy#NONE} or {@link AccelerationStrategy#CPU_TILING}.
+ */
+public abstract class OpcodeProcessor implements Processor<BufferedImage> {
+
+    protected static final int TILE_ROWS = 64;
+
+    protected final Rectangle imageBounds;
+    private final AccelerationStrategy accelerationStrategy;
+    private ForkJoinPool pool;
+
+    protected OpcodeProcessor(Rectangle imageBounds, AccelerationStrategy accelerationStrategy) {
+        this.imageBounds = imageBounds;
+        this.accelerationStrategy = accelerationStrategy;
+    }
+
+    /**
+     * Splits the rows {@code [firstRow, endRow)} of the stage image into tiles and processes them.
+     *
+     * @param firstRow      The first row to process
+     * @param endRow        The row after the last row to process
+     * @param tileProcessor The processor which is called for every tile
+     */
+    protected void processTiles(int firstRow, int endRow, TileProcessor tileProcessor) {
+        if (endRow <= firstRow) {
+            return;
+        }
+        TileScheduler tileScheduler = new TileScheduler(1, TILE_ROWS, 0);
+        tileScheduler.setParallel(accelerationStrategy != AccelerationStrategy.NONE
+                && accelerationStrategy != AccelerationStrategy.CPU_TILING);
+        tileScheduler.setPool(pool);
+        tileScheduler.forEachTile(1, endRow - firstRow, tile -> tileProcessor.process(firstRow + tile.getY(),
+                firstRow + tile.getY() + tile.getHeight()));
+    }
+
+    /**
+     * Sets the pool which processes the tiles in parallel, or {@code null} for the common pool (default).
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    protected interface TileProcessor {
+        void process(int firstRow, int endRow);
+    }
+
+    protected static short[] getSamples(BufferedImage image) {
+        return ((DataBufferUShort) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * @return The index of the first sample of the given row of the stage image
+     */
+    protected int getRowOffset(BufferedImage image, int row) {
+        return ((row + imageBounds.y) * image.getWidth() + imageBounds.x) * image.getRaster().getNumBands();
+    }
+
+    /**
+     * @return The given sample rounded and clipped to [0, 65535]
+     */
+    protected static short toSample(double sample) {
+        return (short) Math.in(0, sample + 0.5, 65535);
+    }
+}
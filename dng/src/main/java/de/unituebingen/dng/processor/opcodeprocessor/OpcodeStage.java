@@ -0,0 +1,102 @@
+package de.unituebingen.dng.processor.opcodeprocessor;
+
+import de.unituebingen.dng.processor.Processor;
+import de.unituebingen.dng.processor.log.Timer;
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.dng.opcode.*;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Applies the opcodes of an opcode list one after another. See DNG Specification 1.5.0.0, chapter 6. <br/>
+ * The time of each opcode is measured as a task of its own, named after the list and the opcode.
+ */
+public class OpcodeStage implements Processor<BufferedImage> {
+
+    private final String name;
+    private final List<OpcodeProcessor> processors;
+    private final Timer pTimer;
+
+    public OpcodeStage(String name, List<OpcodeProcessor> processors, Timer timer) {
+        this.name = name;
+        this.processors = processors;
+        this.pTimer = timer;
+    }
+
+    /**
+     * Creates the processors of the given opcodes. Opcodes which are not supported are skipped.
+     *
+     * @param name                 The name of the opcode list, e.g. "OpcodeList1"
+     * @param opcodes              The opcodes of the list
+     * @param imageBounds          The position of the image of the processing stage within the processed image
+     * @param accelerationStrategy The acceleration strategy of the processors
+     * @param timer                The timer which measures the time of each opcode
+     */
+    public static OpcodeStage create(String name, Opcode[] opcodes, Rectangle imageBounds,
+                                     AccelerationStrategy accelerationStrategy, Timer timer) {
+        List<OpcodeProcessor> processors = new ArrayList<>();
+        for (Opcode opcode : opcodes) {
+            OpcodeProcessor processor = createProcessor(opcode, imageBounds, accelerationStrategy);
+            if (processor == null) {
+                System.out.println(name + ": " + opcode.getClass().getSimpleName() + " is not supported, skipping it");
+            } else {
+                processors.add(processor);
+            }
+        }
+        return new OpcodeStage(name, processors, timer);
+    }
+
+    private static OpcodeProcessor createProcessor(Opcode opcode, Rectangle imageBounds,
+                                                   AccelerationStrategy accelerationStrategy) {
+        if (opcode instanceof WarpRectilinear) {
+            return new WarpRectilinearProcessor((WarpRectilinear) opcode, imageBounds, accelerationStrategy);
+        } else if (opcode instanceof WarpFisheye) {
+            return new WarpFisheyeProcessor((WarpFisheye) opcode, imageBounds, accelerationStrategy);
+        } else if (opcode instanceof FixVignetteRadial) {
+            return new FixVignetteRadialProcessor((FixVignetteRadial) opcode, imageBounds, accelerationStrategy);
+        } else if (opcode instanceof FixBadPixelsConstant) {
+            return new FixBadPixelsProcessor((FixBadPixelsConstant) opcode, imageBounds, accelerationStrategy);
+        } else if (opcode instanceof FixBadPixelsList) {
+            return new FixBadPixelsProcessor((FixBadPixelsList) opcode, imageBounds, accelerationStrategy);
+        } else if (opcode instanceof MapTable) {
+            return new MapTableProcessor((MapTable) opcode, imageBounds, accelerationStrategy);
+        } else if (opcode instanceof MapPolynomial) {
+            return new MapTableProcessor((MapPolynomial) opcode, imageBounds, accelerationStrategy);
+        } else if (opcode instanceof GainMap) {
+            return new GainMapProcessor((GainMap) opcode, imageBounds, accelerationStrategy);
+        } else if (opcode instanceof ScaleDeltaPer) {
+            return new DeltaScaleProcessor((ScaleDeltaPer) opcode, imageBounds, accelerationStrategy);
+        }
+        //TrimBounds only changes the bounds of the final image
+        return null;
+    }
+
+    @Override
+    public BufferedImage process(BufferedImage image) {
+        BufferedImage processed = image;
+        for (OpcodeProcessor processor : processors) {
+            String task = name + " " + processor.getClass().getSimpleName();
+            pTimer.startTask(task, "");
+            processed = processor.process(processed);
+            pTimer.endTask(task);
+        }
+        return processed;
+    }
+
+    /**
+     * Sets the pool which processes the tiles of all opcodes in parallel, or {@code null} for the common pool (default).
+     */
+    public void setPool(ForkJoinPool pool) {
+        for (OpcodeProcessor processor : processors) {
+            processor.setPool(pool);
+        }
+    }
+
+    public List<OpcodeProcessor> getProcessors() {
+        return processors;
+    }
+}
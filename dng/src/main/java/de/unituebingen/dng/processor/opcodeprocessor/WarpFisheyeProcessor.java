@@ -0,0 +1,30 @@
+package de.unituebingen.dng.processor.opcodeprocessor;
+
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.dng.opcode.WarpFisheye;
+
+import java.awt.Rectangle;
+
+/**
+ * Unwraps the image of a fisheye lens into a rectilinear image. See DNG Specification 1.5.0.0, page 91.
+ */
+public class WarpFisheyeProcessor extends WarpProcessor {
+
+    public WarpFisheyeProcessor(WarpFisheye warpFisheye, Rectangle imageBounds,
+                                AccelerationStrategy accelerationStrategy) {
+        super(warpFisheye.getCoefficientSets(), warpFisheye.getCx(), warpFisheye.getCy(), imageBounds,
+                accelerationStrategy);
+    }
+
+    @Override
+    protected void map(double dx, double dy, double[] coefficients, double[] source) {
+        double r = java.lang.Math.sqrt(dx * dx + dy * dy);
+        double theta = java.lang.Math.atan(r);
+        double theta2 = theta * theta;
+        double f = theta * (coefficients[0] + theta2 * (coefficients[1] + theta2 * (coefficients[2] + theta2 * coefficients[3])));
+        //f / r converges to kr0 at the center
+        double ratio = r > 0 ? f / r : coefficients[0];
+        source[0] = ratio * dx;
+        source[1] = ratio * dy;
+    }
+}
@@ -0,0 +1,142 @@
+package de.unituebingen.dng.processor.opcodeprocessor;
+
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Base class of the opcodes which correct lens distortions by resampling the image. <br/>
+ * The warp maps each pixel of the corrected image to a position in the source image. The position is given relative
+ * to the optical center and normalized by the distance of the center to the farthest corner of the stage image. There
+ * may be one set of coefficients for all planes or one per plane, e.g. to correct lateral chromatic aberration. <br/>
+ * Evaluating the warp for every pixel is expensive, so the source positions are computed for a remap grid with a
+ * spacing of {@link #GRID_SPACING} pixels once per image and bilinearly interpolated in between. The source image is
+ * sampled bilinearly as well.
+ */
+public abstract class WarpProcessor extends OpcodeProcessor {
+
+    protected static final int GRID_SPACING = 16;
+
+    private final double[][] coefficientSets;
+    private final double cx;
+    private final double cy;
+
+    protected WarpProcessor(double[][] coefficientSets, double cx, double cy, Rectangle imageBounds,
+                            AccelerationStrategy accelerationStrategy) {
+        super(imageBounds, accelerationStrategy);
+        this.coefficientSets = coefficientSets;
+        this.cx = cx;
+        this.cy = cy;
+    }
+
+    /**
+     * Maps the normalized position of a pixel of the corrected image to the normalized position in the source image.
+     *
+     * @param dx           The horizontal distance of the pixel to the optical center
+     * @param dy           The vertical distance of the pixel to the optical center
+     * @param coefficients The coefficients of the warp
+     * @param source       The array to write the horizontal and vertical distance of the source position to
+     */
+    protected abstract void map(double dx, double dy, double[] coefficients, double[] source);
+
+    @Override
+    public BufferedImage process(BufferedImage image) {
+        if (coefficientSets.length == 0) {
+            return image;
+        }
+        int bands = image.getRaster().getNumBands();
+        int width = imageBounds.width;
+        int height = imageBounds.height;
+        int sets = coefficientSets.length == 1 ? 1 : java.lang.Math.min(coefficientSets.length, bands);
+        double[][] grids = createRemapGrids(sets);
+        int gridColumns = (width - 1) / GRID_SPACING + 2;
+
+        short[] samples = getSamples(image);
+        short[] source = samples.clone();
+        int rowStride = image.getWidth() * bands;
+        processTiles(0, height, (firstRow, endRow) -> {
+            double[] rowGrid = new double[gridColumns * 2];
+            for (int row = firstRow; row < endRow; row++) {
+                int gridRow = row / GRID_SPACING;
+                double rowWeight = (row - gridRow * GRID_SPACING) / (double) GRID_SPACING;
+                int index = getRowOffset(image, row);
+                for (int set = 0; set < sets; set++) {
+                    double[] grid = grids[set];
+                    for (int i = 0; i < rowGrid.length; i++) {
+                        double top = grid[gridRow * rowGrid.length + i];
+                        rowGrid[i] = top + (grid[(gridRow + 1) * rowGrid.length + i] - top) * rowWeight;
+                    }
+                    int firstPlane = sets == 1 ? 0 : set;
+                    int endPlane = sets == 1 ? bands : set + 1;
+                    for (int column = 0; column < width; column++) {
+                        int gridColumn = column / GRID_SPACING;
+                        double columnWeight = (column - gridColumn * GRID_SPACING) / (double) GRID_SPACING;
+                        double x = rowGrid[gridColumn * 2] + (rowGrid[gridColumn * 2 + 2] - rowGrid[gridColumn * 2]) * columnWeight;
+                        double y = rowGrid[gridColumn * 2 + 1] + (rowGrid[gridColumn * 2 + 3] - rowGrid[gridColumn * 2 + 1]) * columnWeight;
+                        sample(source, x, y, rowStride, bands, samples, index + column * bands, firstPlane, endPlane);
+                    }
+                }
+            }
+        });
+        return image;
+    }
+
+    /**
+     * @return Per set of coefficients, the source positions of the grid points as interleaved x and y pixel coordinates
+     */
+    private double[][] createRemapGrids(int sets) {
+        int width = imageBounds.width;
+        int height = imageBounds.height;
+        int gridColumns = (width - 1) / GRID_SPACING + 2;
+        int gridRows = (height - 1) / GRID_SPACING + 2;
+        double centerX = cx * width;
+        double centerY = cy * height;
+        double mx = java.lang.Math.max(centerX, width - centerX);
+        double my = java.lang.Math.max(centerY, height - centerY);
+        double maxDistance = java.lang.Math.max(1, java.lang.Math.sqrt(mx * mx + my * my));
+
+        double[][] grids = new double[sets][gridRows * gridColumns * 2];
+        double[] position = new double[2];
+        for (int set = 0; set < sets; set++) {
+            for (int gridRow = 0; gridRow < gridRows; gridRow++) {
+                for (int gridColumn = 0; gridColumn < gridColumns; gridColumn++) {
+                    //pixel centers
+                    double dx = (gridColumn * GRID_SPACING + 0.5 - centerX) / maxDistance;
+                    double dy = (gridRow * GRID_SPACING + 0.5 - centerY) / maxDistance;
+                    map(dx, dy, coefficientSets[set], position);
+                    int index = (gridRow * gridColumns + gridColumn) * 2;
+                    grids[set][index] = centerX + position[0] * maxDistance - 0.5;
+                    grids[set][index + 1] = centerY + position[1] * maxDistance - 0.5;
+                }
+            }
+        }
+        return grids;
+    }
+
+    /**
+     * Writes the bilinearly interpolated samples at the given position of the source image, clipped to its borders.
+     */
+    private void sample(short[] source, double x, double y, int rowStride, int bands, short[] samples, int index,
+                        int firstPlane, int endPlane) {
+        x = java.lang.Math.max(0, java.lang.Math.min(x, imageBounds.width - 1));
+        y = java.lang.Math.max(0, java.lang.Math.min(y, imageBounds.height - 1));
+        int left = (int) x;
+        int top = (int) y;
+        int right = java.lang.Math.min(left + 1, imageBounds.width - 1);
+        int bottom = java.lang.Math.min(top + 1, imageBounds.height - 1);
+        double columnWeight = x - left;
+        double rowWeight = y - top;
+        int topLeft = (top + imageBounds.y) * rowStride + (left + imageBounds.x) * bands;
+        int topRight = topLeft + (right - left) * bands;
+        int bottomLeft = topLeft + (bottom - top) * rowStride;
+        int bottomRight = bottomLeft + (right - left) * bands;
+        for (int plane = firstPlane; plane < endPlane; plane++) {
+            double topSample = (source[topLeft + plane] & 0xFFFF) * (1 - columnWeight)
+                    + (source[topRight + plane] & 0xFFFF) * columnWeight;
+            double bottomSample = (source[bottomLeft + plane] & 0xFFFF) * (1 - columnWeight)
+                    + (source[bottomRight + plane] & 0xFFFF) * columnWeight;
+            samples[index + plane] = toSample(topSample * (1 - rowWeight) + bottomSample * rowWeight);
+        }
+    }
+}
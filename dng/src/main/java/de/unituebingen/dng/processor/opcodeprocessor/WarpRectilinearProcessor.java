@@ -0,0 +1,28 @@
+package de.unituebingen.dng.processor.opcodeprocessor;
+
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.dng.opcode.WarpRectilinear;
+
+import java.awt.Rectangle;
+
+/**
+ * Corrects the radial and tangential distortion of a rectilinear lens. See DNG Specification 1.5.0.0, page 90.
+ */
+public class WarpRectilinearProcessor extends WarpProcessor {
+
+    public WarpRectilinearProcessor(WarpRectilinear warpRectilinear, Rectangle imageBounds,
+                                    AccelerationStrategy accelerationStrategy) {
+        super(warpRectilinear.getCoefficientSets(), warpRectilinear.getCx(), warpRectilinear.getCy(), imageBounds,
+                accelerationStrategy);
+    }
+
+    @Override
+    protected void map(double dx, double dy, double[] coefficients, double[] source) {
+        double r2 = dx * dx + dy * dy;
+        double f = coefficients[0] + r2 * (coefficients[1] + r2 * (coefficients[2] + r2 * coefficients[3]));
+        double kt0 = coefficients[4];
+        double kt1 = coefficients[5];
+        source[0] = f * dx + kt0 * 2 * dx * dy + kt1 * (r2 + 2 * dx * dx);
+        source[1] = f * dy + kt1 * 2 * dx * dy + kt0 * (r2 + 2 * dy * dy);
+    }
+}
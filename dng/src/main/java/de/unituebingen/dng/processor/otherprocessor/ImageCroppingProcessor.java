@@ -4,6 +4,7 @@ import de.unituebingen.dng.processor.Processor;
 import de.unituebingen.dng.reader.ImageFileDirectory;
 import de.unituebingen.dng.reader.util.Rational;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
 public class ImageCroppingProcessor implements Processor<BufferedImage> {
@@ -29,10 +30,17 @@ public class ImageCroppingProcessor implements Processor<BufferedImage> {
 
     @Override
     public BufferedImage process(BufferedImage bufferedImage) {
+        Rectangle cropArea = getCropArea();
+        return bufferedImage.getSubimage(cropArea.x, cropArea.y, cropArea.width, cropArea.height);
+    }
+
+    /**
+     * @return The area of the raw image which remains after cropping
+     */
+    public Rectangle getCropArea() {
         int startWidth = (int) (defaultCropOrigin[0].intValue() + activeArea[1]);
         int startLength = (int) (defaultCropOrigin[1].intValue() + activeArea[0]);
-
-        return bufferedImage.getSubimage(startWidth, startLength, width, length);
+        return new Rectangle(startWidth, startLength, width, length);
     }
     
     public boolean isNonPOTCrop() {
@@ -0,0 +1,160 @@
+package de.unituebingen.dng.processor.postprocessor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A kernel stage which approximates a color mapping of RGB samples in [0, 1] by a table of size x size x size samples
+ * of the mapping and tetrahedral interpolation between them. <br/>
+ * It replaces the per-pixel HSV conversions of the {@link HSVMapping} and the {@link ProfileLookTableMapping}. Pixels
+ * outside of the unit cube, e.g. colors outside of the RIMM RGB gamut, are mapped exactly. The tables are kept in a
+ * {@link LookupTableCache}.
+ */
+public final class ColorLookupTable3D implements PostProcessorKernel.Stage {
+
+    /**
+     * The default amount of samples per axis, a common size of 3D lookup tables.
+     */
+    public static final int DEFAULT_SIZE = 33;
+
+    private static final LookupTableCache<ColorLookupTable3D> CACHE = new LookupTableCache<>();
+
+    private final int size;
+    private final float[] table;
+    private final PostProcessorKernel.Stage mapping;
+
+    private ColorLookupTable3D(int size, PostProcessorKernel.Stage mapping) {
+        this.size = size;
+        this.mapping = mapping;
+        this.table = new float[size * size * size * 3];
+        double[] sample = new double[3];
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    sample[0] = decode(r / (size - 1.0));
+                    sample[1] = decode(g / (size - 1.0));
+                    sample[2] = decode(b / (size - 1.0));
+                    mapping.apply(sample);
+                    int index = ((b * size + g) * size + r) * 3;
+                    table[index] = (float) sample[0];
+                    table[index + 1] = (float) sample[1];
+                    table[index + 2] = (float) sample[2];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the table of a hue/saturation map, from the cache if it has been baked before.
+     *
+     * @param operation The name of the operation, which distinguishes tables with the same data but another mapping
+     * @param dimensions The amount of hue, saturation and value divisions of the map
+     * @param data The hue shifts, saturation and value scale factors of the map
+     * @param size The amount of samples per axis, at least 2
+     * @param mapping The exact mapping, which is applied to the pixels outside of the unit cube
+     * @return The table
+     */
+    public static ColorLookupTable3D getInstance(String operation, int[] dimensions, float[][] data, int size,
+                                                 PostProcessorKernel.Stage mapping) {
+        if (size < 2) {
+            throw new IllegalArgumentException("A lookup table needs at least 2 samples per axis, not " + size);
+        }
+        int values = 0;
+        for (float[] entry : data) {
+            values += entry.length;
+        }
+        ByteBuffer key = ByteBuffer.allocate(4 * (dimensions.length + 1 + values));
+        key.putInt(size);
+        for (int dimension : dimensions) {
+            key.putInt(dimension);
+        }
+        for (float[] entry : data) {
+            for (float value : entry) {
+                key.putFloat(value);
+            }
+        }
+        return CACHE.get(operation, key, () -> new ColorLookupTable3D(size, mapping));
+    }
+
+    /**
+     * The samples are spaced quadratically per axis like those of a {@link LookupTable1D}.
+     */
+    private static double decode(double encoded) {
+        return encoded * encoded;
+    }
+
+    /**
+     * @return The amount of samples per axis
+     */
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public void apply(double[] sample) {
+        double r = sample[0];
+        double g = sample[1];
+        double b = sample[2];
+        // also true for NaN
+        if (!(r >= 0 && r <= 1 && g >= 0 && g <= 1 && b >= 0 && b <= 1)) {
+            mapping.apply(sample);
+            return;
+        }
+        int max = size - 1;
+        double fr = Math.sqrt(r) * max;
+        double fg = Math.sqrt(g) * max;
+        double fb = Math.sqrt(b) * max;
+        int ir = Math.min((int) fr, max - 1);
+        int ig = Math.min((int) fg, max - 1);
+        int ib = Math.min((int) fb, max - 1);
+        double dr = fr - ir;
+        double dg = fg - ig;
+        double db = fb - ib;
+
+        // the offsets of the neighbors along each axis
+        int stepR = 3;
+        int stepG = size * 3;
+        int stepB = size * size * 3;
+        int c000 = ((ib * size + ig) * size + ir) * 3;
+        int c111 = c000 + stepR + stepG + stepB;
+
+        // the cube is split into six tetrahedra along its diagonal, the one containing the sample is interpolated
+        int first;
+        int second;
+        double w0;
+        double w1;
+        double w2;
+        double w3;
+        if (dr >= dg) {
+            if (dg >= db) {
+                first = c000 + stepR;
+                second = first + stepG;
+                w0 = 1 - dr; w1 = dr - dg; w2 = dg - db; w3 = db;
+            } else if (dr >= db) {
+                first = c000 + stepR;
+                second = first + stepB;
+                w0 = 1 - dr; w1 = dr - db; w2 = db - dg; w3 = dg;
+            } else {
+                first = c000 + stepB;
+                second = first + stepR;
+                w0 = 1 - db; w1 = db - dr; w2 = dr - dg; w3 = dg;
+            }
+        } else {
+            if (db >= dg) {
+                first = c000 + stepB;
+                second = first + stepG;
+                w0 = 1 - db; w1 = db - dg; w2 = dg - dr; w3 = dr;
+            } else if (db >= dr) {
+                first = c000 + stepG;
+                second = first + stepB;
+                w0 = 1 - dg; w1 = dg - db; w2 = db - dr; w3 = dr;
+            } else {
+                first = c000 + stepG;
+                second = first + stepR;
+                w0 = 1 - dg; w1 = dg - dr; w2 = dr - db; w3 = db;
+            }
+        }
+        for (int c = 0; c < 3; c++) {
+            sample[c] = w0 * table[c000 + c] + w1 * table[first + c] + w2 * table[second + c] + w3 * table[c111 + c];
+        }
+    }
+}
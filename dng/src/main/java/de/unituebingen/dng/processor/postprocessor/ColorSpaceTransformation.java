@@ -17,6 +17,8 @@ import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.SingularValueDecomposition;
 
+import java.util.List;
+
 public class ColorSpaceTransformation extends PostProcessorOperation implements Processor<TransformableOnGPU> {
 
     private CalibrationIlluminant calibrationIlluminant1;
@@ -188,6 +190,11 @@ public class ColorSpaceTransformation extends PostProcessorOperation implements
         return new int[]{processedSampleR, processedSampleG, processedSampleB};
     }
 
+    @Override
+    public List<PostProcessorKernel.Stage> getKernelStages() {
+        return List.of(new PostProcessorKernel.MatrixStage(cameraToXYZD50Data));
+    }
+
     /**
      * Perform colorspace transformation by multiplying with the matrix we calculated from the DNG tags.
      * After this, color channels are no longer independent, each color influences each other channel.
@@ -6,6 +6,8 @@ import de.unituebingen.dng.reader.util.Rational;
 import de.unituebingen.dng.reader.util.SignedRational;
 import de.unituebingen.opengl.TransformableOnGPU;
 
+import java.util.List;
+
 public class ExposureCorrection extends PostProcessorOperation implements Processor<TransformableOnGPU> {
 
     private double defaultExposureValue;
@@ -32,6 +34,11 @@ public class ExposureCorrection extends PostProcessorOperation implements Proces
         return new int[]{(int) (r * 65535), (int) (g * 65535), (int) (b * 65535)};
     }
 
+    @Override
+    public List<PostProcessorKernel.Stage> getKernelStages() {
+        return List.of(PostProcessorKernel.MatrixStage.scale(defaultExposureValue));
+    }
+
     /**
      * Perform exposure correction by multiplying each channel with the same fixed scalar value
      * @param sampleR
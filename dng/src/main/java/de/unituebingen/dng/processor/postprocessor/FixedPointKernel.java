@@ -0,0 +1,193 @@
+package de.unituebingen.dng.processor.postprocessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A fixed-point version of a {@link PostProcessorKernel}, which processes 16 bit samples with integer arithmetic. <br/>
+ * The samples of a chunk of pixels are held in three planar arrays as Q20 fixed-point numbers, i.e. 1.0 is 2^20, and
+ * each stage is a simple loop over these arrays: matrices are multiplied with Q24 coefficients and curves are looked
+ * up in tables of 2^14 + 1 samples which are interpolated linearly. The inputs of a curve are clamped to [0, 1], like
+ * the double precision kernel does for the sRGB encoding and as the tone curves require. Stages which are neither
+ * matrices nor curves, e.g. the hue/saturation mappings, are applied in double precision pixel by pixel.
+ */
+public final class FixedPointKernel {
+
+    private static final int FRACTION_BITS = 20;
+    private static final int ONE = 1 << FRACTION_BITS;
+    private static final int MATRIX_BITS = 24;
+    private static final int TABLE_BITS = 14;
+    private static final int INTERPOLATION_BITS = FRACTION_BITS - TABLE_BITS;
+    // the samples which other stages may return, so that the matrices cannot overflow
+    private static final double LIMIT = 16;
+    private static final int CHUNK_SIZE = 1024;
+
+    /**
+     * A step of the kernel which transforms the samples of a chunk of pixels in place.
+     */
+    private interface FixedPointStage {
+        void apply(int[] r, int[] g, int[] b, int length);
+    }
+
+    private final FixedPointStage[] stages;
+
+    private FixedPointKernel(FixedPointStage[] stages) {
+        this.stages = stages;
+    }
+
+    /**
+     * Compiles the given operations into a fixed-point kernel.
+     *
+     * @param operations The operations in the order in which they are applied
+     * @return The kernel
+     */
+    public static FixedPointKernel compile(List<PostProcessorOperation> operations) {
+        List<FixedPointStage> stages = new ArrayList<>();
+        for (PostProcessorKernel.Stage stage : PostProcessorKernel.compile(operations).getStages()) {
+            if (stage instanceof PostProcessorKernel.MatrixStage) {
+                stages.add(new MatrixStage(((PostProcessorKernel.MatrixStage) stage).getMatrix()));
+            } else if (stage instanceof PostProcessorKernel.CurveStage) {
+                stages.add(new CurveStage(((PostProcessorKernel.CurveStage) stage).getCurve()));
+            } else {
+                stages.add(new DoubleStage(stage));
+            }
+        }
+        return new FixedPointKernel(stages.toArray(new FixedPointStage[0]));
+    }
+
+    /**
+     * Applies the kernel to consecutive pixels of an interleaved 16 bit RGB raster in place.
+     *
+     * @param samples The samples of the raster
+     * @param from    The index of the first pixel
+     * @param to      The index after the last pixel
+     */
+    public void process(short[] samples, int from, int to) {
+        int size = Math.max(0, Math.min(CHUNK_SIZE, to - from));
+        int[] r = new int[size];
+        int[] g = new int[size];
+        int[] b = new int[size];
+        for (int chunk = from; chunk < to; chunk += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, to - chunk);
+            int offset = chunk * 3;
+            // x / 65535 in Q20 is x * 16 + x / 4096, up to rounding
+            for (int i = 0; i < length; i++) {
+                int x = samples[offset + i * 3] & 0xFFFF;
+                int y = samples[offset + i * 3 + 1] & 0xFFFF;
+                int z = samples[offset + i * 3 + 2] & 0xFFFF;
+                r[i] = (x << 4) + (x >> 12);
+                g[i] = (y << 4) + (y >> 12);
+                b[i] = (z << 4) + (z >> 12);
+            }
+            for (FixedPointStage stage : stages) {
+                stage.apply(r, g, b, length);
+            }
+            // truncated like the double precision kernel
+            for (int i = 0; i < length; i++) {
+                samples[offset + i * 3] = (short) ((Math.max(0, Math.min(r[i], ONE)) * 65535L) >> FRACTION_BITS);
+                samples[offset + i * 3 + 1] = (short) ((Math.max(0, Math.min(g[i], ONE)) * 65535L) >> FRACTION_BITS);
+                samples[offset + i * 3 + 2] = (short) ((Math.max(0, Math.min(b[i], ONE)) * 65535L) >> FRACTION_BITS);
+            }
+        }
+    }
+
+    /**
+     * @return The amount of stages
+     */
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    private static final class MatrixStage implements FixedPointStage {
+
+        private final long m00, m01, m02, m10, m11, m12, m20, m21, m22;
+
+        MatrixStage(double[][] matrix) {
+            m00 = toQ24(matrix[0][0]);
+            m01 = toQ24(matrix[0][1]);
+            m02 = toQ24(matrix[0][2]);
+            m10 = toQ24(matrix[1][0]);
+            m11 = toQ24(matrix[1][1]);
+            m12 = toQ24(matrix[1][2]);
+            m20 = toQ24(matrix[2][0]);
+            m21 = toQ24(matrix[2][1]);
+            m22 = toQ24(matrix[2][2]);
+        }
+
+        private static long toQ24(double value) {
+            return Math.round(value * (1 << MATRIX_BITS));
+        }
+
+        @Override
+        public void apply(int[] r, int[] g, int[] b, int length) {
+            long round = 1L << (MATRIX_BITS - 1);
+            for (int i = 0; i < length; i++) {
+                long x = r[i];
+                long y = g[i];
+                long z = b[i];
+                r[i] = (int) ((m00 * x + m01 * y + m02 * z + round) >> MATRIX_BITS);
+                g[i] = (int) ((m10 * x + m11 * y + m12 * z + round) >> MATRIX_BITS);
+                b[i] = (int) ((m20 * x + m21 * y + m22 * z + round) >> MATRIX_BITS);
+            }
+        }
+    }
+
+    private static final class CurveStage implements FixedPointStage {
+
+        // one more sample than the table has intervals, and a copy of the last one, so 1.0 needs no special case
+        private final int[] table = new int[(1 << TABLE_BITS) + 2];
+
+        CurveStage(DoubleUnaryOperator curve) {
+            for (int i = 0; i <= 1 << TABLE_BITS; i++) {
+                table[i] = (int) Math.round(curve.applyAsDouble(i / (double) (1 << TABLE_BITS)) * ONE);
+            }
+            table[table.length - 1] = table[table.length - 2];
+        }
+
+        @Override
+        public void apply(int[] r, int[] g, int[] b, int length) {
+            lookUp(r, length);
+            lookUp(g, length);
+            lookUp(b, length);
+        }
+
+        private void lookUp(int[] samples, int length) {
+            int mask = (1 << INTERPOLATION_BITS) - 1;
+            int round = 1 << (INTERPOLATION_BITS - 1);
+            for (int i = 0; i < length; i++) {
+                int sample = Math.max(0, Math.min(samples[i], ONE));
+                int index = sample >> INTERPOLATION_BITS;
+                int low = table[index];
+                samples[i] = low + (((table[index + 1] - low) * (sample & mask) + round) >> INTERPOLATION_BITS);
+            }
+        }
+    }
+
+    private static final class DoubleStage implements FixedPointStage {
+
+        private final PostProcessorKernel.Stage stage;
+
+        DoubleStage(PostProcessorKernel.Stage stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public void apply(int[] r, int[] g, int[] b, int length) {
+            double[] sample = new double[3];
+            for (int i = 0; i < length; i++) {
+                sample[0] = r[i] / (double) ONE;
+                sample[1] = g[i] / (double) ONE;
+                sample[2] = b[i] / (double) ONE;
+                stage.apply(sample);
+                r[i] = toFixedPoint(sample[0]);
+                g[i] = toFixedPoint(sample[1]);
+                b[i] = toFixedPoint(sample[2]);
+            }
+        }
+
+        private static int toFixedPoint(double sample) {
+            return (int) Math.round(Math.max(-LIMIT, Math.min(sample, LIMIT)) * ONE);
+        }
+    }
+}
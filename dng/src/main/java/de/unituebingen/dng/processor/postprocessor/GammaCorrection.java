@@ -4,6 +4,8 @@ import de.unituebingen.dng.processor.Processor;
 import de.unituebingen.dng.reader.util.Math;
 import de.unituebingen.opengl.TransformableOnGPU;
 
+import java.util.List;
+
 public class GammaCorrection extends PostProcessorOperation implements Processor<TransformableOnGPU> {
 
     private static final double GAMMA = 1 / 2.4;
@@ -21,6 +23,15 @@ public class GammaCorrection extends PostProcessorOperation implements Processor
         return new int[]{(int) (r * 65535), (int) (g * 65535), (int) (b * 65535)};
     }
 
+    @Override
+    public List<PostProcessorKernel.Stage> getKernelStages() {
+        return List.of(sample -> {
+            sample[0] = calcNonlinearValue(sample[0]);
+            sample[1] = calcNonlinearValue(sample[1]);
+            sample[2] = calcNonlinearValue(sample[2]);
+        });
+    }
+
     /**
      * Perform nonlinear Gammacorrection with a fixed GAMMA defined in this class.
      * @param sampleR between 0 and 1
@@ -5,6 +5,8 @@ import de.unituebingen.dng.processor.util.CalibrationIlluminant;
 import de.unituebingen.dng.processor.util.ColorSpaceUtils;
 import de.unituebingen.dng.reader.ImageFileDirectory;
 
+import java.util.List;
+
 public class HSVMapping extends PostProcessorOperation {
 
     private static final double HUE_FACTOR = 1 / 60.0;
@@ -24,10 +26,43 @@ public class HSVMapping extends PostProcessorOperation {
     double[][] XYZD50toRIMMRGB = ColorSpaceUtils.XYZD50toRIMMRGB.getData();
     double[][] RIMMRGBtoXYZD50 = ColorSpaceUtils.RIMMRGBtoXYZD50.getData();
 
+    private int lookupTableSize;
+
     public HSVMapping(int width, int height, ImageFileDirectory baselineIFD) {
+        this(width, height, baselineIFD.getProfileHueSatMapDims(), getProfileHueSatMapData(baselineIFD));
+    }
+
+    /**
+     * @param profileHueSatMapDims The amount of hue, saturation and value divisions of the map
+     * @param profileHueSatMapData The hue shifts, saturation and value scale factors of the map, for the CCT of the
+     *                             image
+     */
+    HSVMapping(int width, int height, long[] profileHueSatMapDims, float[] profileHueSatMapData) {
         super(width, height);
 
-        long[] profileHueSatMapDims = baselineIFD.getProfileHueSatMapDims();
+        this.hDivisions = (int) profileHueSatMapDims[0];
+        this.sDivisions = (int) profileHueSatMapDims[1];
+        this.vDivisions = (int) profileHueSatMapDims[2];
+
+        this.hIndexMax = this.hDivisions - 1;
+        this.sIndexMax = this.sDivisions - 2;
+
+        this.hMappingFactor = this.hDivisions < 2 ? 0.0 : this.hDivisions * (HUE_FACTOR * 10);
+        this.sMappingFactor = this.sDivisions - 1;
+
+        this.profileHueSatMapData = new float[profileHueSatMapData.length / 3][3];
+        for (int i = 0; i < profileHueSatMapData.length / 3; i++) {
+            this.profileHueSatMapData[i][0] = profileHueSatMapData[i * 3];
+            this.profileHueSatMapData[i][1] = profileHueSatMapData[i * 3 + 1];
+            this.profileHueSatMapData[i][2] = profileHueSatMapData[i * 3 + 2];
+        }
+    }
+
+    /**
+     * @return The hue/saturation map of the profile, interpolated between the two calibration illuminants for the CCT
+     *         of the image
+     */
+    private static float[] getProfileHueSatMapData(ImageFileDirectory baselineIFD) {
         float[] profileHueSatMapData1 = baselineIFD.getProfileHueSatMapData1();
         float[] profileHueSatMapData2 = baselineIFD.getProfileHueSatMapData2();
         float[] profileHueSatMapDataTmp = profileHueSatMapData2;
@@ -55,23 +90,15 @@ public class HSVMapping extends PostProcessorOperation {
         } else if (profileHueSatMapData1 != null) {
             profileHueSatMapDataTmp = profileHueSatMapData1;
         }
+        return profileHueSatMapDataTmp;
+    }
 
-        this.hDivisions = (int) profileHueSatMapDims[0];
-        this.sDivisions = (int) profileHueSatMapDims[1];
-        this.vDivisions = (int) profileHueSatMapDims[2];
-
-        this.hIndexMax = this.hDivisions - 1;
-        this.sIndexMax = this.sDivisions - 2;
-
-        this.hMappingFactor = this.hDivisions < 2 ? 0.0 : this.hDivisions * (HUE_FACTOR * 10);
-        this.sMappingFactor = this.sDivisions - 1;
-
-        profileHueSatMapData = new float[profileHueSatMapDataTmp.length / 3][3];
-        for (int i = 0; i < profileHueSatMapDataTmp.length / 3; i++) {
-            profileHueSatMapData[i][0] = profileHueSatMapDataTmp[i * 3];
-            profileHueSatMapData[i][1] = profileHueSatMapDataTmp[i * 3 + 1];
-            profileHueSatMapData[i][2] = profileHueSatMapDataTmp[i * 3 + 2];
-        }
+    /**
+     * Sets the amount of samples per axis of the 3D lookup table which replaces the hue/saturation map in the fused
+     * kernel, e.g. {@link ColorLookupTable3D#DEFAULT_SIZE} or 65, or 0 to map every pixel exactly (default).
+     */
+    public void setLookupTableSize(int lookupTableSize) {
+        this.lookupTableSize = lookupTableSize;
     }
 
     @Override
@@ -104,7 +131,7 @@ public class HSVMapping extends PostProcessorOperation {
             if (hIndex >= hIndexMax) {
                 hIndex = hIndexMax;
             }
-            int hIndex2nd = (hIndex + 1) % hIndexMax;
+            int hIndex2nd = (hIndex + 1) % hDivisions;
 
             double hDiff = hMapped - hIndex;
             double hWeightingFactor = 1 - hDiff;
@@ -136,59 +163,84 @@ public class HSVMapping extends PostProcessorOperation {
 
         return new int[]{(int) (x * 65535), (int) (y * 65535), (int) (z * 65535)};
     }
+    @Override
+    public List<PostProcessorKernel.Stage> getKernelStages() {
+        if (vDivisions >= 2) {
+            return List.of(new PostProcessorKernel.MatrixStage(XYZD50toRIMMRGB),
+                    new PostProcessorKernel.MatrixStage(RIMMRGBtoXYZD50));
+        }
+        PostProcessorKernel.Stage mapping = this::mapHueSat;
+        if (lookupTableSize > 0) {
+            mapping = ColorLookupTable3D.getInstance("HSVMapping", new int[]{hDivisions, sDivisions, vDivisions},
+                    profileHueSatMapData, lookupTableSize, mapping);
+        }
+        return List.of(new PostProcessorKernel.MatrixStage(XYZD50toRIMMRGB), mapping,
+                new PostProcessorKernel.MatrixStage(RIMMRGBtoXYZD50));
+    }
+
     /**
-     * Perform HSV mapping. Correlates color channels, after this, they are no longer independent.
-     * Assumes ColorSpaceConversion is returning the samples in XYZD50 color space.     * 
-     * @param sampleR between 0 and 1
-     * @param sampleG between 0 and 1
-     * @param sampleB between 0 and 1
-     * @return processed samples between 0 and 1
+     * Maps the hue, saturation and value of RIMM RGB samples in place.
      */
-    public double[] process(double x, double y, double z) {
-        double r = XYZD50toRIMMRGB[0][0] * x + XYZD50toRIMMRGB[0][1] * y + XYZD50toRIMMRGB[0][2] * z;
-        double g = XYZD50toRIMMRGB[1][0] * x + XYZD50toRIMMRGB[1][1] * y + XYZD50toRIMMRGB[1][2] * z;
-        double b = XYZD50toRIMMRGB[2][0] * x + XYZD50toRIMMRGB[2][1] * y + XYZD50toRIMMRGB[2][2] * z;
+    private void mapHueSat(double[] rgb) {
+        ColorSpaceUtils.rgbToHSV(rgb, rgb);
+        double h = rgb[0] / 60.0;
+        double s = rgb[1];
+        double v = rgb[2];
 
-        double[] hsv = ColorSpaceUtils.rgbToHSV(new double[]{r, g, b});
-        double h = hsv[0] / 60.0;
-        double s = hsv[1];
-        double v = hsv[2];
+        double hShift;
+        double sScaleFactor;
+        double vScaleFactor;
 
-        if (vDivisions < 2) {
-            double hShift;
-            double sScaleFactor;
-            double vScaleFactor;
+        double hMapped = hMappingFactor * h;
+        double sMapped = sMappingFactor * s;
 
-            double hMapped = hMappingFactor * h;
-            double sMapped = sMappingFactor * s;
+        int hIndex = (int) hMapped;
+        int sIndex = Math.min((int) sMapped, sIndexMax);
 
-            int hIndex = (int) hMapped;
-            int sIndex = Math.min((int) sMapped, sIndexMax);
+        if (hIndex >= hIndexMax) {
+            hIndex = hIndexMax;
+        }
+        int hIndex2nd = (hIndex + 1) % hDivisions;
 
-            if (hIndex >= hIndexMax) {
-                hIndex = hIndexMax;
-            }
-            int hIndex2nd = (hIndex + 1) % hIndexMax;
+        double hDiff = hMapped - hIndex;
+        double hWeightingFactor = 1 - hDiff;
+        double hWeightingFactor2nd = hDiff;
 
-            double hDiff = hMapped - hIndex;
-            double hWeightingFactor = 1 - hDiff;
-            double hWeightingFactor2nd = hDiff;
+        int index = (hIndex * this.sDivisions) + sIndex;
+        int index2nd = index + ((hIndex2nd - hIndex) * this.sDivisions);
 
-            int index = (hIndex * this.sDivisions) + sIndex;
-            int index2nd = index + ((hIndex2nd - hIndex) * this.sDivisions);
+        hShift = hWeightingFactor * profileHueSatMapData[index][0] + hWeightingFactor2nd * profileHueSatMapData[index2nd][0];
+        sScaleFactor = hWeightingFactor * profileHueSatMapData[index][1] + hWeightingFactor2nd * profileHueSatMapData[index2nd][1];
+        vScaleFactor = hWeightingFactor * profileHueSatMapData[index][2] + hWeightingFactor2nd * profileHueSatMapData[index2nd][2];
 
-            hShift = hWeightingFactor * profileHueSatMapData[index][0] + hWeightingFactor2nd * profileHueSatMapData[index2nd][0];
-            sScaleFactor = hWeightingFactor * profileHueSatMapData[index][1] + hWeightingFactor2nd * profileHueSatMapData[index2nd][1];
-            vScaleFactor = hWeightingFactor * profileHueSatMapData[index][2] + hWeightingFactor2nd * profileHueSatMapData[index2nd][2];
+        hShift *= HUE_FACTOR;
+        h += hShift;
 
-            hShift *= HUE_FACTOR;
-            h += hShift;
+        s = Math.min(s * sScaleFactor, 1);
+        v = Math.min(v * vScaleFactor, 1);
 
-            s = Math.min(s * sScaleFactor, 1);
-            v = Math.min(v * vScaleFactor, 1);
+        rgb[0] = h * 60.0;
+        rgb[1] = s;
+        rgb[2] = v;
+        ColorSpaceUtils.hsvToRGB(rgb, rgb);
+    }
 
-            double[] rgb = ColorSpaceUtils.hsvToRGB(new double[]{h * 60.0, s, v});
+    /**
+     * Perform HSV mapping. Correlates color channels, after this, they are no longer independent.
+     * Assumes ColorSpaceConversion is returning the samples in XYZD50 color space.     * 
+     * @param sampleR between 0 and 1
+     * @param sampleG between 0 and 1
+     * @param sampleB between 0 and 1
+     * @return processed samples between 0 and 1
+     */
+    public double[] process(double x, double y, double z) {
+        double r = XYZD50toRIMMRGB[0][0] * x + XYZD50toRIMMRGB[0][1] * y + XYZD50toRIMMRGB[0][2] * z;
+        double g = XYZD50toRIMMRGB[1][0] * x + XYZD50toRIMMRGB[1][1] * y + XYZD50toRIMMRGB[1][2] * z;
+        double b = XYZD50toRIMMRGB[2][0] * x + XYZD50toRIMMRGB[2][1] * y + XYZD50toRIMMRGB[2][2] * z;
 
+        if (vDivisions < 2) {
+            double[] rgb = new double[]{r, g, b};
+            mapHueSat(rgb);
             r = rgb[0];
             g = rgb[1];
             b = rgb[2];
@@ -0,0 +1,67 @@
+package de.unituebingen.dng.processor.postprocessor;
+
+import java.nio.ByteBuffer;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A function of samples in [0, 1], tabulated at {@link #SIZE} + 1 points and linearly interpolated between them. <br/>
+ * The points are spaced quadratically, i.e. the table is indexed by the square root of a sample, since the sRGB
+ * encoding, most tone curves and the hue/saturation maps of the {@link ColorLookupTable3D} change fastest close to
+ * black, where evenly spaced points would be much too coarse. <br/>
+ * It replaces the tone curve spline of the {@link ProfileToneCurveMapping} and the power function of the sRGB encoding
+ * of the {@link XYZD50ToSRGBMapping} in the fused kernel, so each of them costs a table lookup per sample. Samples
+ * outside of [0, 1] are passed to the function. The tables are immutable, so one table is shared by all threads, and
+ * the tables of tone curves are kept in a {@link LookupTableCache}.
+ */
+public final class LookupTable1D implements DoubleUnaryOperator {
+
+    /**
+     * The amount of intervals of a table. The error of the interpolation is below a tenth of a 16 bit step for the
+     * sRGB encoding.
+     */
+    public static final int SIZE = 4096;
+
+    private static final LookupTableCache<LookupTable1D> CACHE = new LookupTableCache<>();
+
+    private final double[] table = new double[SIZE + 1];
+    private final DoubleUnaryOperator function;
+
+    /**
+     * Tabulates the given function, which is not cached.
+     */
+    public LookupTable1D(DoubleUnaryOperator function) {
+        this.function = function;
+        for (int i = 0; i <= SIZE; i++) {
+            double root = i / (double) SIZE;
+            table[i] = function.applyAsDouble(root * root);
+        }
+    }
+
+    /**
+     * Returns the table of a function defined by the given data, from the cache if it has been tabulated before.
+     *
+     * @param operation The name of the operation, which distinguishes tables with the same data but another function
+     * @param data The data which the function is defined by, e.g. the points of a tone curve
+     * @param function The function
+     * @return The table
+     */
+    public static LookupTable1D getInstance(String operation, float[] data, DoubleUnaryOperator function) {
+        ByteBuffer key = ByteBuffer.allocate(4 * data.length);
+        for (float value : data) {
+            key.putFloat(value);
+        }
+        return CACHE.get(operation, key, () -> new LookupTable1D(function));
+    }
+
+    @Override
+    public double applyAsDouble(double sample) {
+        // also true for NaN
+        if (!(sample >= 0 && sample <= 1)) {
+            return function.applyAsDouble(sample);
+        }
+        double position = Math.sqrt(sample) * SIZE;
+        int index = Math.min((int) position, SIZE - 1);
+        double low = table[index];
+        return low + (position - index) * (table[index + 1] - low);
+    }
+}
@@ -0,0 +1,59 @@
+package de.unituebingen.dng.processor.postprocessor;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Caches lookup tables by a SHA-256 digest of the data they are computed from, e.g. the tone curve or the hue/saturation
+ * map of a camera profile, so the images of the same camera share a table instead of computing it again. <br/>
+ * The cache holds at most {@link #CAPACITY} tables and evicts the least recently used one. It may be used by several
+ * threads, the tables themselves have to be immutable.
+ *
+ * @param <T> The type of the tables
+ */
+final class LookupTableCache<T> {
+
+    static final int CAPACITY = 16;
+
+    private final Map<String, T> tables = new LinkedHashMap<>(CAPACITY, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    /**
+     * Returns the table of the given data, from the cache if it has been computed before.
+     *
+     * @param operation The name of the operation, which distinguishes tables with the same data but another mapping
+     * @param data      The data which the table is computed from, from its start to its position
+     * @param table     Computes the table if it is not cached
+     * @return The table
+     */
+    synchronized T get(String operation, ByteBuffer data, Supplier<T> table) {
+        String key = digest(operation, data);
+        T cached = tables.get(key);
+        if (cached == null) {
+            cached = table.get();
+            tables.put(key, cached);
+        }
+        return cached;
+    }
+
+    private static String digest(String operation, ByteBuffer data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(operation.getBytes());
+        digest.update(data.array(), 0, data.position());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
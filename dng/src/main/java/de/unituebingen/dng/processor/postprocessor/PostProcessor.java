@@ -4,20 +4,55 @@ import de.unituebingen.dng.processor.Processor;
 import de.unituebingen.dng.processor.log.Timer;
 import de.unituebingen.dng.reader.util.Math;
 import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.processor.util.PostProcessingPrecision;
+import de.unituebingen.dng.processor.util.TileScheduler;
 
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferUShort;
+import java.awt.Point;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.stream.IntStream;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
 
 public class PostProcessor implements Processor<BufferedImage> {
 
+    // the 8 bit samples of all 16 bit samples, truncated like ImageExporter#create8BitBufferedImage
+    private static final byte[] TO_8_BIT = new byte[65536];
+    // the thresholds of an 8x8 Bayer matrix in units of 1/65535 of an 8 bit step
+    private static final int[][] DITHER_THRESHOLDS = new int[8][8];
+
+    static {
+        for (int i = 0; i < TO_8_BIT.length; i++) {
+            TO_8_BIT[i] = (byte) ((i / 65535.0) * 255);
+        }
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int rank = 0;
+                // interleave the bits of x ^ y and y in reverse order, which yields the recursive Bayer pattern
+                for (int bit = 0; bit < 3; bit++) {
+                    rank = (rank << 2) | ((((x ^ y) >> bit) & 1) << 1) | ((y >> bit) & 1);
+                }
+                DITHER_THRESHOLDS[y][x] = (2 * rank + 1) * 65535 / 128;
+            }
+        }
+    }
+
     private List<PostProcessorOperation> operations;
 
     private AccelerationStrategy accelerationStrategy = AccelerationStrategy.NONE;
 
+    private boolean fusedKernel = true;
+
+    private PostProcessingPrecision precision = PostProcessingPrecision.DOUBLE;
+
+    private ForkJoinPool pool;
+
+    private int outputBitDepth = 16;
+
+    private boolean dithering;
+
     private Timer pTimer;
 
     public PostProcessor(Timer timer, PostProcessorOperation... operations) {
@@ -28,10 +63,9 @@ public class PostProcessor implements Processor<BufferedImage> {
     @Override
     public BufferedImage process(BufferedImage bufferedImage) {
 
-        short[] samples = ((DataBufferUShort) bufferedImage.getRaster().getDataBuffer()).getData();
-        int length = samples.length;
+        Frame frame = new Frame(bufferedImage);
         int BASE_SIZE;
-        if(accelerationStrategy == AccelerationStrategy.AUTO_BIG) {
+        if(accelerationStrategy == AccelerationStrategy.AUTO_BIG || accelerationStrategy == AccelerationStrategy.AUTO) {
             BASE_SIZE = 32;
         } else {
             try {
@@ -42,125 +76,147 @@ public class PostProcessor implements Processor<BufferedImage> {
             }
         }
         final int TILE_SIZE = BASE_SIZE * BASE_SIZE;
-        final int pixels = (length / 3);
-        final int num_tiles = (pixels / TILE_SIZE) + 1;
+        // the tiles are bands of whole rows, since each pixel is processed on its own
+        final int width = bufferedImage.getWidth();
+        final int height = bufferedImage.getHeight();
+        final int tileHeight = java.lang.Math.max(1, TILE_SIZE / width);
+        final int num_tiles = (height + tileHeight - 1) / tileHeight;
 
         String taskName = "Postprocessing";
         pTimer.startTask(taskName, num_tiles + " tiles of size " + TILE_SIZE);
+        PostProcessorKernel kernel = fusedKernel && precision == PostProcessingPrecision.DOUBLE
+                ? PostProcessorKernel.compile(operations) : null;
+        FixedPointKernel fixedPointKernel = fusedKernel && precision == PostProcessingPrecision.FIXED_POINT
+                ? FixedPointKernel.compile(operations) : null;
         switch (accelerationStrategy) {
             case AUTO_SMALL:
             case MULTITHREADING:
-                IntStream.range(0, pixels).parallel().forEach(i -> {
-                    double sampleR = (samples[i * 3] & 0xFFFF) / 65535.0;
-                    double sampleG = (samples[i * 3 + 1] & 0xFFFF) / 65535.0;
-                    double sampleB = (samples[i * 3 + 2] & 0xFFFF) / 65535.0;
-                    for (PostProcessorOperation operation : operations) {
-                        double[] processedSample = operation.process(sampleR, sampleG, sampleB);
-                        sampleR = processedSample[0];
-                        sampleG = processedSample[1];
-                        sampleB = processedSample[2];
-                    }
-                    samples[i * 3] = (short)Math.in(0, sampleR * 65535, 65535);
-                    samples[i * 3 + 1] = (short)Math.in(0, sampleG * 65535, 65535);
-                    samples[i * 3 + 2] = (short)Math.in(0, sampleB * 65535, 65535);
-                });
+                processRows(frame, 0, height, 1, true, kernel, fixedPointKernel);
                 break;
             case NONE:
-                for(int i = 0; i < pixels; i++) {
-                    double sampleR = (samples[i * 3] & 0xFFFF) / 65535.0;
-                    double sampleG = (samples[i * 3 + 1] & 0xFFFF) / 65535.0;
-                    double sampleB = (samples[i * 3 + 2] & 0xFFFF) / 65535.0;
-                    for (PostProcessorOperation operation : operations) {
-                        double[] processedSample = operation.process(sampleR, sampleG, sampleB);
-                        sampleR = processedSample[0];
-                        sampleG = processedSample[1];
-                        sampleB = processedSample[2];
-                    }
-                    samples[i * 3] = (short)Math.in(0, sampleR * 65535, 65535);
-                    samples[i * 3 + 1] = (short)Math.in(0, sampleG * 65535, 65535);
-                    samples[i * 3 + 2] = (short)Math.in(0, sampleB * 65535, 65535);
-                }
+                processBand(frame, 0, height, kernel, fixedPointKernel, new double[3]);
                 break;
             case CPU_TILING:
-                for(int tile = 0; tile < num_tiles; tile++) {
-                    for(int i = tile * TILE_SIZE; i < java.lang.Math.min(pixels, (tile + 1) * TILE_SIZE); i++) {
-                        double sampleR = (samples[i * 3] & 0xFFFF) / 65535.0;
-                        double sampleG = (samples[i * 3 + 1] & 0xFFFF) / 65535.0;
-                        double sampleB = (samples[i * 3 + 2] & 0xFFFF) / 65535.0;
-                        for (PostProcessorOperation operation : operations) {
-                            double[] processedSample = operation.process(sampleR, sampleG, sampleB);
-                            sampleR = processedSample[0];
-                            sampleG = processedSample[1];
-                            sampleB = processedSample[2];
-                        }
-                        samples[i * 3] = (short)Math.in(0, sampleR * 65535, 65535);
-                        samples[i * 3 + 1] = (short)Math.in(0, sampleG * 65535, 65535);
-                        samples[i * 3 + 2] = (short)Math.in(0, sampleB * 65535, 65535);
-                    }
-                }
+                processRows(frame, 0, height, tileHeight, false, kernel, fixedPointKernel);
                 break;
             case CPU_MT_TILING:
                 for(int tile = 0; tile < num_tiles; tile++) {
-                    IntStream.range(tile * TILE_SIZE, java.lang.Math.min(pixels, (tile + 1) * TILE_SIZE)).parallel().forEach(i -> {
-                        double sampleR = (samples[i * 3] & 0xFFFF) / 65535.0;
-                        double sampleG = (samples[i * 3 + 1] & 0xFFFF) / 65535.0;
-                        double sampleB = (samples[i * 3 + 2] & 0xFFFF) / 65535.0;
-                        for (PostProcessorOperation operation : operations) {
-                            double[] processedSample = operation.process(sampleR, sampleG, sampleB);
-                            sampleR = processedSample[0];
-                            sampleG = processedSample[1];
-                            sampleB = processedSample[2];
-                        }
-                        samples[i * 3] = (short)Math.in(0, sampleR * 65535, 65535);
-                        samples[i * 3 + 1] = (short)Math.in(0, sampleG * 65535, 65535);
-                        samples[i * 3 + 2] = (short)Math.in(0, sampleB * 65535, 65535);
-                    });
+                    processRows(frame, tile * tileHeight, java.lang.Math.min(height, (tile + 1) * tileHeight), 1, true, kernel, fixedPointKernel);
                 }
                 break;
+            // the parallel tiles already keep all threads busy, so they are not split any further
             case GPU_OPERATION_WISE:
             case GPU_TILE_WISE:
             case CPU_TILING_MT:
-                IntStream.range(0, num_tiles).parallel().forEach(tile -> {
-                    for(int i = tile * TILE_SIZE; i < java.lang.Math.min(pixels, (tile + 1) * TILE_SIZE); i++) {
-                        double sampleR = (samples[i * 3] & 0xFFFF) / 65535.0;
-                        double sampleG = (samples[i * 3 + 1] & 0xFFFF) / 65535.0;
-                        double sampleB = (samples[i * 3 + 2] & 0xFFFF) / 65535.0;
-                        for (PostProcessorOperation operation : operations) {
-                            double[] processedSample = operation.process(sampleR, sampleG, sampleB);
-                            sampleR = processedSample[0];
-                            sampleG = processedSample[1];
-                            sampleB = processedSample[2];
-                        }
-                        samples[i * 3] = (short)Math.in(0, sampleR * 65535, 65535);
-                        samples[i * 3 + 1] = (short)Math.in(0, sampleG * 65535, 65535);
-                        samples[i * 3 + 2] = (short)Math.in(0, sampleB * 65535, 65535);
-                    }
-                });
-                break;
+            case AUTO:
             case AUTO_BIG:
             case CPU_MT_TILING_MT:
-                IntStream.range(0, num_tiles).parallel().forEach(tile -> {
-                    IntStream.range(tile * TILE_SIZE, java.lang.Math.min(pixels, (tile + 1) * TILE_SIZE)).parallel().forEach(i -> {
-                        double sampleR = (samples[i * 3] & 0xFFFF) / 65535.0;
-                        double sampleG = (samples[i * 3 + 1] & 0xFFFF) / 65535.0;
-                        double sampleB = (samples[i * 3 + 2] & 0xFFFF) / 65535.0;
-                        for (PostProcessorOperation operation : operations) {
-                            double[] processedSample = operation.process(sampleR, sampleG, sampleB);
-                            sampleR = processedSample[0];
-                            sampleG = processedSample[1];
-                            sampleB = processedSample[2];
-                        }
-                        samples[i * 3] = (short)Math.in(0, sampleR * 65535, 65535);
-                        samples[i * 3 + 1] = (short)Math.in(0, sampleG * 65535, 65535);
-                        samples[i * 3 + 2] = (short)Math.in(0, sampleB * 65535, 65535);
-                    });
-                });
+                processRows(frame, 0, height, tileHeight, true, kernel, fixedPointKernel);
                 break;
 
         }
         pTimer.endTask(taskName);
 
-        return bufferedImage;
+        return frame.output != null ? frame.output : bufferedImage;
+    }
+
+    /**
+     * Processes the rows {@code [firstRow, endRow)} in tiles of whole rows.
+     *
+     * @param tileHeight The amount of rows of a tile
+     * @param parallel   Whether the tiles are processed in parallel
+     */
+    private void processRows(Frame frame, int firstRow, int endRow, int tileHeight, boolean parallel,
+                             PostProcessorKernel kernel, FixedPointKernel fixedPointKernel) {
+        TileScheduler tileScheduler = new TileScheduler(frame.width, tileHeight, 0);
+        tileScheduler.setParallel(parallel);
+        tileScheduler.setPool(pool);
+        tileScheduler.forEachTile(frame.width, endRow - firstRow, () -> new double[3], (tile, scratch) -> processBand(
+                frame, firstRow + tile.getY(), firstRow + tile.getY() + tile.getHeight(), kernel, fixedPointKernel,
+                scratch));
+    }
+
+    /**
+     * Processes the rows {@code [firstRow, endRow)} of the image and, for an 8 bit output, quantizes them while they
+     * are still in the cache.
+     */
+    private void processBand(Frame frame, int firstRow, int endRow, PostProcessorKernel kernel,
+                             FixedPointKernel fixedPointKernel, double[] scratch) {
+        if (frame.scanline == frame.width) {
+            // the rows are contiguous
+            int from = frame.origin + firstRow * frame.width;
+            processPixels(frame.samples, from, from + (endRow - firstRow) * frame.width, kernel, fixedPointKernel,
+                    scratch);
+        } else {
+            for (int y = firstRow; y < endRow; y++) {
+                int from = frame.origin + y * frame.scanline;
+                processPixels(frame.samples, from, from + frame.width, kernel, fixedPointKernel, scratch);
+            }
+        }
+        if (frame.output != null) {
+            for (int y = firstRow; y < endRow; y++) {
+                quantize(frame.samples, (frame.origin + y * frame.scanline) * 3, frame.outputSamples,
+                        y * frame.width * 3, frame.width, y);
+            }
+        }
+    }
+
+    /**
+     * Converts a row of 16 bit samples to 8 bit samples, see {@link #setOutputBitDepth(int)}.
+     */
+    private void quantize(short[] samples, int offset, byte[] output, int outputOffset, int width, int y) {
+        int length = width * 3;
+        if (!dithering) {
+            for (int i = 0; i < length; i++) {
+                output[outputOffset + i] = TO_8_BIT[samples[offset + i] & 0xFFFF];
+            }
+            return;
+        }
+        int[] thresholds = DITHER_THRESHOLDS[y & 7];
+        for (int x = 0; x < width; x++) {
+            // the threshold is added to the exact value x * 255 / 65535 before it is truncated
+            int threshold = thresholds[x & 7];
+            for (int c = 0; c < 3; c++) {
+                int i = x * 3 + c;
+                int value = ((samples[offset + i] & 0xFFFF) * 255 + threshold) / 65535;
+                output[outputOffset + i] = (byte) java.lang.Math.min(value, 255);
+            }
+        }
+    }
+
+    /**
+     * Applies the operations to consecutive pixels, either with one of the fused kernels or one operation after
+     * another.
+     *
+     * @param kernel           The compiled kernel or null
+     * @param fixedPointKernel The compiled fixed-point kernel or null. If both are null, the operations are applied
+     *                         one after another.
+     * @param scratch          A three element array which is used by the kernel to hold the samples of a pixel
+     */
+    private void processPixels(short[] samples, int from, int to, PostProcessorKernel kernel,
+                               FixedPointKernel fixedPointKernel, double[] scratch) {
+        if (fixedPointKernel != null) {
+            fixedPointKernel.process(samples, from, to);
+            return;
+        }
+        if (kernel != null) {
+            kernel.process(samples, from, to, scratch);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            double sampleR = (samples[i * 3] & 0xFFFF) / 65535.0;
+            double sampleG = (samples[i * 3 + 1] & 0xFFFF) / 65535.0;
+            double sampleB = (samples[i * 3 + 2] & 0xFFFF) / 65535.0;
+            for (PostProcessorOperation operation : operations) {
+                double[] processedSample = operation.process(sampleR, sampleG, sampleB);
+                sampleR = processedSample[0];
+                sampleG = processedSample[1];
+                sampleB = processedSample[2];
+            }
+            samples[i * 3] = (short)Math.in(0, sampleR * 65535, 65535);
+            samples[i * 3 + 1] = (short)Math.in(0, sampleG * 65535, 65535);
+            samples[i * 3 + 2] = (short)Math.in(0, sampleB * 65535, 65535);
+        }
     }
 
     public void addOperation(PostProcessorOperation op) {
@@ -170,4 +226,85 @@ public class PostProcessor implements Processor<BufferedImage> {
     public void setAccelerationStrategy(AccelerationStrategy accelerationStrategy) {
         this.accelerationStrategy = accelerationStrategy;
     }
+
+    /**
+     * Sets the pool which processes the pixels in parallel, or {@code null} for the common pool (default).
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Sets whether the operations are compiled into a {@link PostProcessorKernel} (default) or applied one after
+     * another, which allocates an array per operation and pixel.
+     */
+    public void setFusedKernel(boolean fusedKernel) {
+        this.fusedKernel = fusedKernel;
+    }
+
+    /**
+     * Sets the arithmetic of the fused kernel, {@link PostProcessingPrecision#DOUBLE} by default. Operations which are applied one
+     * after another always use double precision.
+     */
+    public void setPrecision(PostProcessingPrecision precision) {
+        this.precision = precision;
+    }
+
+    /**
+     * Sets the bit depth of the processed image, 16 (default) or 8. With 8 bits, {@link #process(BufferedImage)}
+     * returns a new image based on a {@link DataBufferByte} with the size of the given image, whose rows are written
+     * right after they have been processed. This replaces {@link de.unituebingen.imageprocessor.ImageExporter#create8BitBufferedImage(BufferedImage)},
+     * which converts the whole 16 bit image in a second pass and allocates an 8 bit copy of the uncropped image. The
+     * samples of the given image are overwritten in both cases.
+     */
+    public void setOutputBitDepth(int outputBitDepth) {
+        if (outputBitDepth != 8 && outputBitDepth != 16) {
+            throw new IllegalArgumentException("Only 8 or 16 bit output is supported, not " + outputBitDepth);
+        }
+        this.outputBitDepth = outputBitDepth;
+    }
+
+    /**
+     * Sets whether 8 bit samples are dithered with an 8x8 Bayer matrix instead of truncated (default), which avoids
+     * banding in smooth gradients. The mean of the dithered samples is the exact value of the 16 bit samples.
+     */
+    public void setDithering(boolean dithering) {
+        this.dithering = dithering;
+    }
+
+    /**
+     * The samples of the image to process and the 8 bit image to write to. The image may be a subimage of a larger
+     * raster, e.g. after cropping, whose rows are a scanline apart in the shared data buffer.
+     */
+    private final class Frame {
+
+        private final short[] samples;
+        private final int width;
+        // the pixel index of the top left pixel and the pixels from one row to the next
+        private final int origin;
+        private final int scanline;
+        private final BufferedImage output;
+        private final byte[] outputSamples;
+
+        private Frame(BufferedImage image) {
+            WritableRaster raster = image.getRaster();
+            ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            samples = ((DataBufferUShort) raster.getDataBuffer()).getData();
+            width = image.getWidth();
+            origin = sampleModel.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY()) / 3;
+            scanline = sampleModel.getScanlineStride() / 3;
+            if (outputBitDepth == 8) {
+                ColorSpace colorSpace = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+                ColorModel colorModel = new ComponentColorModel(colorSpace, false, false, ColorModel.OPAQUE,
+                        DataBuffer.TYPE_BYTE);
+                WritableRaster outputRaster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width,
+                        image.getHeight(), 3 * width, 3, new int[]{0, 1, 2}, new Point(0, 0));
+                output = new BufferedImage(colorModel, outputRaster, false, new Properties());
+                outputSamples = ((DataBufferByte) outputRaster.getDataBuffer()).getData();
+            } else {
+                output = null;
+                outputSamples = null;
+            }
+        }
+    }
 }
@@ -0,0 +1,198 @@
+package de.unituebingen.dng.processor.postprocessor;
+
+import de.unituebingen.dng.reader.util.Math;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A per-pixel kernel which applies a list of {@link PostProcessorOperation}s at once. <br/>
+ * The operations are compiled once per image into a list of stages (see {@link PostProcessorOperation#getKernelStages()}).
+ * Adjacent matrix stages, e.g. the color space transformation, the exposure correction and the conversion to RIMM RGB
+ * at the beginning of the HSV mapping, are multiplied into a single matrix. All stages work in place on a three
+ * element array, so no objects are allocated per pixel.
+ */
+public final class PostProcessorKernel {
+
+    /**
+     * A step of a kernel which transforms the three samples of a pixel in place.
+     */
+    public interface Stage {
+        void apply(double[] sample);
+    }
+
+    /**
+     * A stage which multiplies the samples of a pixel with a 3x3 matrix.
+     */
+    public static final class MatrixStage implements Stage {
+
+        private final double m00, m01, m02, m10, m11, m12, m20, m21, m22;
+
+        public MatrixStage(double[][] matrix) {
+            this(matrix[0][0], matrix[0][1], matrix[0][2],
+                    matrix[1][0], matrix[1][1], matrix[1][2],
+                    matrix[2][0], matrix[2][1], matrix[2][2]);
+        }
+
+        private MatrixStage(double m00, double m01, double m02, double m10, double m11, double m12,
+                            double m20, double m21, double m22) {
+            this.m00 = m00;
+            this.m01 = m01;
+            this.m02 = m02;
+            this.m10 = m10;
+            this.m11 = m11;
+            this.m12 = m12;
+            this.m20 = m20;
+            this.m21 = m21;
+            this.m22 = m22;
+        }
+
+        /**
+         * Creates a stage which multiplies all samples with the same factor.
+         */
+        public static MatrixStage scale(double factor) {
+            return new MatrixStage(factor, 0, 0, 0, factor, 0, 0, 0, factor);
+        }
+
+        @Override
+        public void apply(double[] sample) {
+            double r = sample[0];
+            double g = sample[1];
+            double b = sample[2];
+            sample[0] = m00 * r + m01 * g + m02 * b;
+            sample[1] = m10 * r + m11 * g + m12 * b;
+            sample[2] = m20 * r + m21 * g + m22 * b;
+        }
+
+        /**
+         * @return The matrix of this stage
+         */
+        double[][] getMatrix() {
+            return new double[][]{{m00, m01, m02}, {m10, m11, m12}, {m20, m21, m22}};
+        }
+
+        /**
+         * @return A stage which has the same effect as applying this stage and then the given one
+         */
+        MatrixStage followedBy(MatrixStage next) {
+            return new MatrixStage(
+                    next.m00 * m00 + next.m01 * m10 + next.m02 * m20,
+                    next.m00 * m01 + next.m01 * m11 + next.m02 * m21,
+                    next.m00 * m02 + next.m01 * m12 + next.m02 * m22,
+                    next.m10 * m00 + next.m11 * m10 + next.m12 * m20,
+                    next.m10 * m01 + next.m11 * m11 + next.m12 * m21,
+                    next.m10 * m02 + next.m11 * m12 + next.m12 * m22,
+                    next.m20 * m00 + next.m21 * m10 + next.m22 * m20,
+                    next.m20 * m01 + next.m21 * m11 + next.m22 * m21,
+                    next.m20 * m02 + next.m21 * m12 + next.m22 * m22);
+        }
+    }
+
+    /**
+     * A stage which applies the same curve to each sample of a pixel, e.g. a tone curve or a transfer function.
+     */
+    public static final class CurveStage implements Stage {
+
+        private final DoubleUnaryOperator curve;
+        private final boolean clamped;
+
+        /**
+         * @param curve   The curve
+         * @param clamped Whether the samples are clamped to [0, 1] before the curve is applied
+         */
+        public CurveStage(DoubleUnaryOperator curve, boolean clamped) {
+            this.curve = curve;
+            this.clamped = clamped;
+        }
+
+        @Override
+        public void apply(double[] sample) {
+            if (clamped) {
+                sample[0] = curve.applyAsDouble(Math.in(0, sample[0], 1));
+                sample[1] = curve.applyAsDouble(Math.in(0, sample[1], 1));
+                sample[2] = curve.applyAsDouble(Math.in(0, sample[2], 1));
+            } else {
+                sample[0] = curve.applyAsDouble(sample[0]);
+                sample[1] = curve.applyAsDouble(sample[1]);
+                sample[2] = curve.applyAsDouble(sample[2]);
+            }
+        }
+
+        DoubleUnaryOperator getCurve() {
+            return curve;
+        }
+    }
+
+    private final Stage[] stages;
+
+    private PostProcessorKernel(Stage[] stages) {
+        this.stages = stages;
+    }
+
+    /**
+     * Compiles the given operations into a kernel.
+     *
+     * @param operations The operations in the order in which they are applied
+     * @return The kernel
+     */
+    public static PostProcessorKernel compile(List<PostProcessorOperation> operations) {
+        List<Stage> stages = new ArrayList<>();
+        for (PostProcessorOperation operation : operations) {
+            for (Stage stage : operation.getKernelStages()) {
+                int last = stages.size() - 1;
+                if (stage instanceof MatrixStage && last >= 0 && stages.get(last) instanceof MatrixStage) {
+                    stages.set(last, ((MatrixStage) stages.get(last)).followedBy((MatrixStage) stage));
+                } else {
+                    stages.add(stage);
+                }
+            }
+        }
+        return new PostProcessorKernel(stages.toArray(new Stage[0]));
+    }
+
+    /**
+     * Applies the kernel to the samples of a pixel in place.
+     *
+     * @param sample The three samples of a pixel, scaled to [0, 1]
+     */
+    public void process(double[] sample) {
+        for (Stage stage : stages) {
+            stage.apply(sample);
+        }
+    }
+
+    /**
+     * Applies the kernel to consecutive pixels of an interleaved 16 bit RGB raster in place.
+     *
+     * @param samples The samples of the raster
+     * @param from    The index of the first pixel
+     * @param to      The index after the last pixel
+     * @param scratch A three element array which is used to hold the samples of a pixel
+     */
+    public void process(short[] samples, int from, int to, double[] scratch) {
+        for (int i = from; i < to; i++) {
+            scratch[0] = (samples[i * 3] & 0xFFFF) / 65535.0;
+            scratch[1] = (samples[i * 3 + 1] & 0xFFFF) / 65535.0;
+            scratch[2] = (samples[i * 3 + 2] & 0xFFFF) / 65535.0;
+            process(scratch);
+            samples[i * 3] = (short) Math.in(0, scratch[0] * 65535, 65535);
+            samples[i * 3 + 1] = (short) Math.in(0, scratch[1] * 65535, 65535);
+            samples[i * 3 + 2] = (short) Math.in(0, scratch[2] * 65535, 65535);
+        }
+    }
+
+    /**
+     * @return The stages after adjacent matrix stages have been collapsed
+     */
+    Stage[] getStages() {
+        return stages.clone();
+    }
+
+    /**
+     * @return The amount of stages after adjacent matrix stages have been collapsed
+     */
+    public int getStageCount() {
+        return stages.length;
+    }
+}
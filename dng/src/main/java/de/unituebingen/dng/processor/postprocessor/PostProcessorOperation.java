@@ -2,6 +2,8 @@ package de.unituebingen.dng.processor.postprocessor;
 
 import de.unituebingen.dng.processor.Operation;
 
+import java.util.List;
+
 public abstract class PostProcessorOperation extends Operation {
 
     public PostProcessorOperation(int width, int height) {
@@ -13,4 +15,21 @@ public abstract class PostProcessorOperation extends Operation {
     public abstract double[] process(double sampleR, double sampleG, double sampleB);
 
     public abstract String fragmentShader();
+
+    /**
+     * Returns the stages of this operation for the fused {@link PostProcessorKernel}. <br/>
+     * Operations should return linear parts as {@link PostProcessorKernel.MatrixStage}s, so they can be combined
+     * with the matrices of adjacent operations. The default implementation wraps
+     * {@link #process(double, double, double)}, which allocates an array per pixel.
+     *
+     * @return The stages in the order in which they are applied
+     */
+    public List<PostProcessorKernel.Stage> getKernelStages() {
+        return List.of(sample -> {
+            double[] processedSample = process(sample[0], sample[1], sample[2]);
+            sample[0] = processedSample[0];
+            sample[1] = processedSample[1];
+            sample[2] = processedSample[2];
+        });
+    }
 }
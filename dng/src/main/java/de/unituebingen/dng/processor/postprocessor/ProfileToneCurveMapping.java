@@ -4,14 +4,23 @@ import de.unituebingen.dng.reader.ImageFileDirectory;
 import org.apache.commons.math3.analysis.interpolation.SplineInterpolator;
 import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
 
+import java.util.List;
+
 public class ProfileToneCurveMapping extends PostProcessorOperation {
 
     private PolynomialSplineFunction toneCurveFunction;
+    private LookupTable1D toneCurveTable;
 
     public ProfileToneCurveMapping(int width, int height, ImageFileDirectory baselineIFD) {
+        this(width, height, baselineIFD.getProfileToneCurve());
+    }
+
+    /**
+     * @param profileToneCurve The input and output samples of the points of the curve, alternating
+     */
+    ProfileToneCurveMapping(int width, int height, float[] profileToneCurve) {
         super(width, height);
 
-        float[] profileToneCurve = baselineIFD.getProfileToneCurve();
         double[] toneCurveInput = new double[profileToneCurve.length / 2];
         double[] toneCurveOutput = new double[profileToneCurve.length / 2];
 
@@ -22,6 +31,8 @@ public class ProfileToneCurveMapping extends PostProcessorOperation {
 
         SplineInterpolator interpolator = new SplineInterpolator();
         toneCurveFunction = interpolator.interpolate(toneCurveInput, toneCurveOutput);
+        toneCurveTable = LookupTable1D.getInstance("ProfileToneCurveMapping", profileToneCurve,
+                toneCurveFunction::value);
     }
 
     @Override
@@ -33,6 +44,14 @@ public class ProfileToneCurveMapping extends PostProcessorOperation {
         return new int[]{(int) (r * 65535),(int) (g * 65535), (int) (b * 65535)};
     }
 
+    /**
+     * The kernel evaluates the tone curve by a table instead of the spline, see {@link LookupTable1D}.
+     */
+    @Override
+    public List<PostProcessorKernel.Stage> getKernelStages() {
+        return List.of(new PostProcessorKernel.CurveStage(toneCurveTable, false));
+    }
+
     /**
      * Perform profile tone curve mapping with a curve defined in the DNG.
      * @param sampleR between 0 and 1
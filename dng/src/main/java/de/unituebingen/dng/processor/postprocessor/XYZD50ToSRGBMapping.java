@@ -8,9 +8,13 @@ import de.unituebingen.opengl.TransformableOnGPU;
 
 import org.apache.commons.math3.linear.MatrixUtils;
 
+import java.util.List;
+
 public class XYZD50ToSRGBMapping extends PostProcessorOperation implements Processor<TransformableOnGPU> {
 
     private static final double GAMMA = 1 / 2.4;
+    // the sRGB encoding of the fused kernel, shared by all images and threads
+    private static final LookupTable1D ENCODING_TABLE = new LookupTable1D(XYZD50ToSRGBMapping::calcNonlinearValue);
     private double[][] sRGB_to_XYZD50 = DNGUtils.normalizeRows(MatrixUtils.inverse(ColorSpaceUtils.SRGB_TO_XYZD50)).getData();
 
     // private double[] gammaReverseLUT;
@@ -73,6 +77,16 @@ public class XYZD50ToSRGBMapping extends PostProcessorOperation implements Proce
         return new int[]{(int) (r * 65535), (int) (g * 65535), (int) (b * 65535)};
     }
 
+    /**
+     * The kernel looks up the sRGB encoding in a table instead of calling {@link java.lang.Math#pow(double, double)},
+     * see {@link LookupTable1D}.
+     */
+    @Override
+    public List<PostProcessorKernel.Stage> getKernelStages() {
+        return List.of(new PostProcessorKernel.MatrixStage(sRGB_to_XYZD50),
+                new PostProcessorKernel.CurveStage(ENCODING_TABLE, true));
+    }
+
     /**
      * Perform XYZD50 to sRGB mapping. Correlates color channels, after this, they are no longer independent.
      * @param sampleR between 0 and 1
@@ -92,7 +106,7 @@ public class XYZD50ToSRGBMapping extends PostProcessorOperation implements Proce
         return new double[]{r, g, b};
     }
 
-    private double calcNonlinearValue(double sample) {
+    private static double calcNonlinearValue(double sample) {
         return sample < 0.0031308 ? 12.92 * sample : 1.055 * java.lang.Math.pow(sample, GAMMA) - 0.055;
         // return sample < 0.0031308 ? 12.92 * sample : 1.055 * fastPow(sample, GAMMA) - 0.055;
         // return sample < 0.0031308 ? 12.92 * sample : reverseLookupGamma(sample);
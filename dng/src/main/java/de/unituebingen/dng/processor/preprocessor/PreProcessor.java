@@ -3,6 +3,7 @@ package de.unituebingen.dng.processor.preprocessor;
 import de.unituebingen.dng.processor.Processor;
 import de.unituebingen.dng.processor.log.Timer;
 import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.processor.util.TileScheduler;
 // import uk.ac.manchester.tornado.api.ImmutableTaskGraph;
 // import uk.ac.manchester.tornado.api.TaskGraph;
 // import uk.ac.manchester.tornado.api.TornadoExecutionPlan;
@@ -15,14 +16,22 @@ import java.awt.image.DataBufferUShort;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.stream.IntStream;
+import java.util.concurrent.ForkJoinPool;
 
 public class PreProcessor implements Processor<BufferedImage> {
 
+    // the amount of samples which are processed at once if the operations are not compiled
+    private static final int CHUNK_SIZE = 4096;
+
     private List<PreProcessorOperation> operations;
 
     private AccelerationStrategy accelerationStrategy = AccelerationStrategy.NONE;
 
+    private boolean compiledKernel = true;
+    private PreProcessorKernel kernel;
+
+    private ForkJoinPool pool;
+
     private Timer pTimer;
 
     public PreProcessor(Timer timer, PreProcessorOperation... operations) {
@@ -46,64 +55,42 @@ public class PreProcessor implements Processor<BufferedImage> {
             }
         }
         final int TILE_SIZE = BASE_SIZE * BASE_SIZE;
-        int num_tiles = (samples.length / TILE_SIZE) + 1; // safely assume we are not divisible by TILE_SIZE
+        // the tiles are bands of whole rows, since each sample is processed on its own
+        int width = bufferedImage.getWidth() * bufferedImage.getRaster().getNumBands();
+        TileScheduler tileScheduler = new TileScheduler(width, Math.max(1, TILE_SIZE / width), 0);
+        tileScheduler.setPool(pool);
+        int num_tiles = (bufferedImage.getHeight() + tileScheduler.getTileHeight() - 1) / tileScheduler.getTileHeight();
         String taskName = "Preprocessing";
         pTimer.startTask(taskName, num_tiles + " tiles of size " + TILE_SIZE);
+        PreProcessorKernel kernel = getKernel();
         switch(accelerationStrategy) {
+            // the parallel tiles already keep all threads busy, so they are not split any further
             case AUTO_SMALL:
             case CPU_TILING_MT:
-                IntStream.range(0, num_tiles).parallel().forEach(tile -> {
-                    for(int i = tile * TILE_SIZE; i < Math.min(samples.length, (tile + 1) * TILE_SIZE); i++) {
-                        for (PreProcessorOperation operation : operations) {
-                            samples[i] = (short) operation.process(samples[i] & 0xFFFF, i);
-                        }
-                    }
-                });
+            case CPU_MT_TILING_MT:
+                tileScheduler.forEachTile(width, bufferedImage.getHeight(), tile ->
+                        processSamples(samples, tile.getY() * width, (tile.getY() + tile.getHeight()) * width, 0, kernel));
                 break;
             case CPU_TILING:
-                for(int tile = 0; tile < num_tiles; tile++) {
-                    for(int i = tile * TILE_SIZE; i < Math.min(samples.length, (tile + 1) * TILE_SIZE); i++) {
-                        for (PreProcessorOperation operation : operations) {
-                            samples[i] = (short) operation.process(samples[i] & 0xFFFF, i);
-                        }
-                    }
-                }
+                tileScheduler.setParallel(false);
+                tileScheduler.forEachTile(width, bufferedImage.getHeight(), tile ->
+                        processSamples(samples, tile.getY() * width, (tile.getY() + tile.getHeight()) * width, 0, kernel));
                 break;
             case CPU_MT_TILING:
-                for(int tile = 0; tile < num_tiles; tile++) {
-                    IntStream.range(tile * TILE_SIZE, java.lang.Math.min(samples.length, (tile + 1) * TILE_SIZE)).parallel().forEach(i -> {
-                        for (PreProcessorOperation operation : operations) {
-                            samples[i] = (short) operation.process(samples[i] & 0xFFFF, i);
-                        }
-                    });
-                }
-                break;
-            case CPU_MT_TILING_MT:
-                IntStream.range(0, num_tiles).parallel().forEach(tile -> {
-                    IntStream.range(tile * TILE_SIZE, java.lang.Math.min(samples.length, (tile + 1) * TILE_SIZE)).parallel().forEach(i -> {
-                        for (PreProcessorOperation operation : operations) {
-                            samples[i] = (short) operation.process(samples[i] & 0xFFFF, i);
-                        }
-                    });
-                });
+                tileScheduler.setParallel(false);
+                tileScheduler.forEachTile(width, bufferedImage.getHeight(), tile ->
+                        processParallel(samples, tile.getY() * width, (tile.getY() + tile.getHeight()) * width, 0, kernel));
                 break;
             case GPU_OPERATION_WISE:
             case GPU_TILE_WISE:
                 System.out.println("Not yet implemented on GPU, defaulting to MULTITHREADING");
+            case AUTO:
             case AUTO_BIG:
             case MULTITHREADING:
-                IntStream.range(0, samples.length).parallel().forEach(i -> {
-                    for (PreProcessorOperation operation : operations) {
-                        samples[i] = (short) operation.process(samples[i] & 0xFFFF, i);
-                    }
-                });
+                processParallel(samples, 0, samples.length, 0, kernel);
                 break;
             case NONE:
-                for(int i = 0; i < samples.length; i++) {
-                    for (PreProcessorOperation operation : operations) {
-                        samples[i] = (short) operation.process(samples[i] & 0xFFFF, i);
-                    }
-                }
+                processSamples(samples, 0, samples.length, 0, kernel);
                 break;                
 
         }
@@ -112,12 +99,80 @@ public class PreProcessor implements Processor<BufferedImage> {
         return bufferedImage;
     }
 
+    /**
+     * Processes a part of the raw image, e.g. a band of the streaming pipeline. The sample {@code samples[i]} is
+     * processed as the sample with the index {@code i + indexOffset} of the whole image.
+     *
+     * @param samples     The samples to process in place
+     * @param from        The index of the first sample to process
+     * @param to          The index after the last sample to process
+     * @param indexOffset The index of {@code samples[0]} within the whole image
+     */
+    public void process(short[] samples, int from, int to, int indexOffset) {
+        PreProcessorKernel kernel = getKernel();
+        if (accelerationStrategy != AccelerationStrategy.NONE && accelerationStrategy != AccelerationStrategy.CPU_TILING) {
+            processParallel(samples, from, to, indexOffset, kernel);
+        } else {
+            processSamples(samples, from, to, indexOffset, kernel);
+        }
+    }
+
+    /**
+     * Processes the samples in parallel, in chunks of a row of the image if the operations are compiled.
+     */
+    private void processParallel(short[] samples, int from, int to, int indexOffset, PreProcessorKernel kernel) {
+        int chunkSize = kernel != null ? kernel.getImageWidth() : CHUNK_SIZE;
+        TileScheduler tileScheduler = new TileScheduler(chunkSize, 1, 0);
+        tileScheduler.setPool(pool);
+        tileScheduler.forEachTile(to - from, 1, chunk -> processSamples(samples, from + chunk.getX(),
+                from + chunk.getX() + chunk.getWidth(), indexOffset, kernel));
+    }
+
+    private void processSamples(short[] samples, int from, int to, int indexOffset, PreProcessorKernel kernel) {
+        if (kernel != null) {
+            kernel.process(samples, from, to, indexOffset);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            for (PreProcessorOperation operation : operations) {
+                samples[i] = (short) operation.process(samples[i] & 0xFFFF, i + indexOffset);
+            }
+        }
+    }
+
+    /**
+     * @return The kernel of the operations, which is compiled on first use, or {@code null}, if the operations are
+     * applied one after another
+     */
+    private PreProcessorKernel getKernel() {
+        if (compiledKernel && kernel == null) {
+            kernel = PreProcessorKernel.compile(operations);
+        }
+        return compiledKernel ? kernel : null;
+    }
+
     public void addOperation(PreProcessorOperation operation) {
         this.operations.add(operation);
+        this.kernel = null;
+    }
+
+    /**
+     * Sets whether the operations are compiled into per CFA phase lookup tables (default) or applied one after
+     * another to each sample.
+     */
+    public void setCompiledKernel(boolean compiledKernel) {
+        this.compiledKernel = compiledKernel;
     }
 
     public void setAccelerationStrategy(AccelerationStrategy accelerationStrategy) {
         this.accelerationStrategy = accelerationStrategy;
     }
 
+    /**
+     * Sets the pool which processes the samples in parallel, or {@code null} for the common pool (default).
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
 }
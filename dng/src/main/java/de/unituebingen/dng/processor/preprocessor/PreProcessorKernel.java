@@ -0,0 +1,221 @@
+package de.unituebingen.dng.processor.preprocessor;
+
+import de.unituebingen.dng.reader.ImageFileDirectory;
+
+import java.awt.Rectangle;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies a {@link RawMapping} and an optional {@link WhiteBalancing}, or a {@link WhiteBalancing} alone, to the raw
+ * samples at once. <br/>
+ * The mapping of a sample only depends on the CFA phase of its pixel, on whether the pixel lies within the active area
+ * and on the black level deltas of its row and column. Therefore the combined mapping of each CFA phase is precomputed
+ * into a 65536 entry lookup table once per image. If the image has black level deltas, the mapping within the active
+ * area varies from pixel to pixel, so only the black level of each CFA phase and row and the delta of each column are
+ * precomputed there.
+ * <p>
+ * The samples are processed row by row, so no coordinates have to be derived from the index of each sample. The
+ * samples of a LinearRaw image are interleaved, so there the phases are the samples of the pixels of the black level
+ * repeat pattern, and the channel of each phase is its sample.
+ */
+final class PreProcessorKernel {
+
+    private static final int LUT_SIZE = 65536;
+
+    private final RawMapping rawMapping;
+    private final WhiteBalancing whiteBalancing;
+
+    private final int imageWidth;
+    private final int samplesPerPixel;
+    private final int phaseRows;
+    private final int phaseColumns;
+
+    //the active area clipped to the image
+    private final int left;
+    private final int top;
+    private final int right;
+    private final int bottom;
+
+    //[phase row][phase column][sample]
+    private final short[][][] outsideLuts;
+    private final short[][][] insideLuts;
+
+    //only used if the image has black level deltas
+    private final double[] rowBlackLevels;
+    private final double[] columnBlackLevelDeltas;
+    private final int[][] channels;
+
+    private PreProcessorKernel(RawMapping rawMapping, WhiteBalancing whiteBalancing) {
+        this.rawMapping = rawMapping;
+        this.whiteBalancing = whiteBalancing;
+        ImageFileDirectory highResolutionIFD = rawMapping != null ? rawMapping.highResolutionIFD
+                : whiteBalancing.highResolutionIFD;
+        int pixelWidth = (int) highResolutionIFD.getImageWidth();
+        int imageLength = (int) highResolutionIFD.getImageLength();
+        this.samplesPerPixel = Math.max(1, highResolutionIFD.getSamplesPerPixel());
+        this.imageWidth = pixelWidth * samplesPerPixel;
+        if (samplesPerPixel > 1) {
+            this.phaseRows = rawMapping != null ? rawMapping.getBlackLevelRepeatRows() : 1;
+            this.phaseColumns = (rawMapping != null ? rawMapping.getBlackLevelRepeatColumns() : 1) * samplesPerPixel;
+        } else {
+            int[] cfaRepeatPatternDim = highResolutionIFD.getCFARepeatPatternDim();
+            this.phaseRows = cfaRepeatPatternDim != null ? cfaRepeatPatternDim[0] : 1;
+            this.phaseColumns = cfaRepeatPatternDim != null ? cfaRepeatPatternDim[1] : 1;
+        }
+
+        //without raw mapping, every pixel is mapped by the tables outside of the active area
+        Rectangle activeArea = (rawMapping != null ? rawMapping.getActiveArea() : new Rectangle())
+                .intersection(new Rectangle(0, 0, pixelWidth, imageLength));
+        this.left = Math.max(0, activeArea.x) * samplesPerPixel;
+        this.top = Math.max(0, activeArea.y);
+        this.right = Math.max(left, (activeArea.x + activeArea.width) * samplesPerPixel);
+        this.bottom = Math.max(top, activeArea.y + activeArea.height);
+
+        this.channels = new int[phaseRows][phaseColumns];
+        this.outsideLuts = new short[phaseRows][phaseColumns][];
+        this.insideLuts = new short[phaseRows][phaseColumns][];
+        boolean hasBlackLevelDeltas = rawMapping != null && rawMapping.hasBlackLevelDeltas();
+        //any position outside of the active area
+        double outsideBlackLevel = rawMapping != null ? rawMapping.calcBlackLevelSubtrahend(-1, -1) : 0;
+        Map<String, short[]> luts = new HashMap<>();
+        for (int phaseRow = 0; phaseRow < phaseRows; phaseRow++) {
+            for (int phaseColumn = 0; phaseColumn < phaseColumns; phaseColumn++) {
+                int plane = phaseColumn % samplesPerPixel;
+                int channel = samplesPerPixel > 1 ? plane
+                        : whiteBalancing != null ? whiteBalancing.getChannel(phaseColumn, phaseRow) : 0;
+                channels[phaseRow][phaseColumn] = channel;
+                outsideLuts[phaseRow][phaseColumn] = luts.computeIfAbsent(outsideBlackLevel + "/" + plane + "/"
+                        + channel, key -> createLut(outsideBlackLevel, plane, channel));
+                if (rawMapping == null) {
+                    insideLuts[phaseRow][phaseColumn] = outsideLuts[phaseRow][phaseColumn];
+                } else if (!hasBlackLevelDeltas) {
+                    double insideBlackLevel = rawMapping.getBlackLevel(phaseColumn / samplesPerPixel, phaseRow, plane);
+                    insideLuts[phaseRow][phaseColumn] = luts.computeIfAbsent(insideBlackLevel + "/" + plane + "/"
+                            + channel, key -> createLut(insideBlackLevel, plane, channel));
+                }
+            }
+        }
+
+        if (hasBlackLevelDeltas) {
+            rowBlackLevels = new double[imageLength * phaseColumns];
+            for (int y = top; y < bottom; y++) {
+                for (int phaseColumn = 0; phaseColumn < phaseColumns; phaseColumn++) {
+                    rowBlackLevels[y * phaseColumns + phaseColumn] = rawMapping.getBlackLevel(
+                            phaseColumn / samplesPerPixel, y, phaseColumn % samplesPerPixel)
+                            + rawMapping.getBlackLevelDeltaV(y);
+                }
+            }
+            columnBlackLevelDeltas = new double[imageWidth];
+            for (int x = left; x < right; x++) {
+                columnBlackLevelDeltas[x] = rawMapping.getBlackLevelDeltaH(x / samplesPerPixel);
+            }
+        } else {
+            rowBlackLevels = null;
+            columnBlackLevelDeltas = null;
+        }
+    }
+
+    /**
+     * Compiles the given operations into a kernel.
+     *
+     * @param operations The operations in the order in which they are applied
+     * @return The kernel or {@code null}, if the operations are neither a {@link RawMapping} which is optionally
+     * followed by a {@link WhiteBalancing} nor a {@link WhiteBalancing} alone
+     */
+    static PreProcessorKernel compile(List<PreProcessorOperation> operations) {
+        if (operations.size() == 1 && operations.get(0) instanceof WhiteBalancing) {
+            return new PreProcessorKernel(null, (WhiteBalancing) operations.get(0));
+        }
+        if (operations.isEmpty() || operations.size() > 2 || !(operations.get(0) instanceof RawMapping)) {
+            return null;
+        }
+        if (operations.size() == 2 && !(operations.get(1) instanceof WhiteBalancing)) {
+            return null;
+        }
+        return new PreProcessorKernel((RawMapping) operations.get(0),
+                operations.size() == 2 ? (WhiteBalancing) operations.get(1) : null);
+    }
+
+    private short[] createLut(double blackLevel, int plane, int channel) {
+        short[] lut = new short[LUT_SIZE];
+        for (int sample = 0; sample < LUT_SIZE; sample++) {
+            lut[sample] = (short) map(sample, blackLevel, plane, channel);
+        }
+        return lut;
+    }
+
+    private int map(int sample, double blackLevel, int plane, int channel) {
+        int mappedSample = rawMapping != null ? rawMapping.mapSample(sample, blackLevel, plane) : sample;
+        return whiteBalancing != null ? whiteBalancing.mapSample(mappedSample, channel) : mappedSample;
+    }
+
+    /**
+     * Processes a part of the raw image in place. The sample {@code samples[i]} is processed as the sample with the
+     * index {@code i + indexOffset} of the whole image.
+     *
+     * @param samples     The samples to process
+     * @param from        The index of the first sample to process
+     * @param to          The index after the last sample to process
+     * @param indexOffset The index of {@code samples[0]} within the whole image
+     */
+    void process(short[] samples, int from, int to, int indexOffset) {
+        int i = from;
+        while (i < to) {
+            int index = i + indexOffset;
+            int y = index / imageWidth;
+            int x = index - y * imageWidth;
+            int rowEnd = Math.min(to, i + imageWidth - x);
+            processRow(samples, i, rowEnd, x, y);
+            i = rowEnd;
+        }
+    }
+
+    private void processRow(short[] samples, int from, int to, int x, int y) {
+        int phaseRow = y % phaseRows;
+        int phaseColumn = x % phaseColumns;
+        if (y < top || y >= bottom) {
+            applyLuts(samples, from, to, outsideLuts[phaseRow], phaseColumn);
+            return;
+        }
+        int insideFrom = from + Math.max(0, Math.min(left - x, to - from));
+        int insideTo = from + Math.max(0, Math.min(right - x, to - from));
+        phaseColumn = applyLuts(samples, from, insideFrom, outsideLuts[phaseRow], phaseColumn);
+        if (rowBlackLevels == null) {
+            phaseColumn = applyLuts(samples, insideFrom, insideTo, insideLuts[phaseRow], phaseColumn);
+        } else {
+            int rowOffset = y * phaseColumns;
+            int[] rowChannels = channels[phaseRow];
+            for (int i = insideFrom, column = x + insideFrom - from; i < insideTo; i++, column++) {
+                double blackLevel = rowBlackLevels[rowOffset + phaseColumn] + columnBlackLevelDeltas[column];
+                samples[i] = (short) map(samples[i] & 0xFFFF, blackLevel, phaseColumn % samplesPerPixel,
+                        rowChannels[phaseColumn]);
+                if (++phaseColumn == phaseColumns) {
+                    phaseColumn = 0;
+                }
+            }
+        }
+        applyLuts(samples, insideTo, to, outsideLuts[phaseRow], phaseColumn);
+    }
+
+    /**
+     * @return The phase column of the sample at index {@code to}
+     */
+    private int applyLuts(short[] samples, int from, int to, short[][] luts, int phaseColumn) {
+        for (int i = from; i < to; i++) {
+            samples[i] = luts[phaseColumn][samples[i] & 0xFFFF];
+            if (++phaseColumn == phaseColumns) {
+                phaseColumn = 0;
+            }
+        }
+        return phaseColumn;
+    }
+
+    /**
+     * @return The amount of samples per row of the raw image
+     */
+    int getImageWidth() {
+        return imageWidth;
+    }
+}
@@ -1,13 +1,17 @@
 package de.unituebingen.dng.processor.preprocessor;
 
 import de.unituebingen.dng.processor.util.Lookup;
+import de.unituebingen.dng.reader.DNGTagConstants;
 import de.unituebingen.dng.reader.ImageFileDirectory;
 import de.unituebingen.dng.reader.util.Math;
 import de.unituebingen.dng.reader.util.Rational;
 import de.unituebingen.dng.reader.util.SignedRational;
 
+import java.awt.Rectangle;
+
 /**
- * Currently only SamplesPerPixel = 1 is supported (Linear DNG not supported!)
+ * Maps the raw samples to linear values between 0 and 65535. The samples of a LinearRaw image are interleaved, so its
+ * samples per pixel share the coordinates of their pixel, but each of them has its own black and white level.
  */
 public class RawMapping extends PreProcessorOperation {
 
@@ -19,6 +23,8 @@ public class RawMapping extends PreProcessorOperation {
     private SignedRational[] blackLevelDeltaV;
     private long[] whiteLevel;
     private int[] cfaRepeatPatternDim;
+    //the decoder scales floating point samples from [0, 1] to [0, 65535], so the black levels have to be scaled too
+    private double levelScale;
 
     private int imageWidth;
     private int imageLength;
@@ -31,7 +37,6 @@ public class RawMapping extends PreProcessorOperation {
 
     // private double scaleFactor;
 
-    private Lookup<Integer, Integer> linearizationTableLookup;
     private Lookup<Integer, Double> blackLevelDeltaHLookup;
     private Lookup<Integer, Double> blackLevelDeltaVLookup;
     private Lookup<Integer, Double> blackLevelLookup;
@@ -53,6 +58,12 @@ public class RawMapping extends PreProcessorOperation {
         this.imageLength = (int) highResolutionIFD.getImageLength();
         this.samplesPerPixel = highResolutionIFD.getSamplesPerPixel();
         this.cfaRepeatPatternDim = highResolutionIFD.getCFARepeatPatternDim();
+        this.levelScale = 1;
+        if (highResolutionIFD.getSampleFormat() == DNGTagConstants.SAMPLE_FORMAT__IEEE_FLOATING_POINT) {
+            //the decoder has scaled the samples from [0, WhiteLevel] to [0, 65535] already
+            this.levelScale = 65535 / highResolutionIFD.getFloatingPointWhiteLevel();
+            this.whiteLevel = new long[]{65535};
+        }
 
         startYCoordinate = activeArea == null ? 0 : (int) activeArea[0];
         startXCoordinate = activeArea == null ? 0 : (int) activeArea[1];
@@ -60,26 +71,20 @@ public class RawMapping extends PreProcessorOperation {
         width = activeArea == null ? imageWidth : (int) activeArea[3];
         samplesPerPixel = java.lang.Math.max(1, samplesPerPixel);
 
-        if (linearizationTable != null) {
-            linearizationTableLookup = (value -> value > linearizationTable.length ? linearizationTable[linearizationTable.length - 1] : linearizationTable[value]);
-        } else {
-            linearizationTableLookup = (value -> value);
-        }
-
         if (blackLevelDeltaV != null) {
-            blackLevelDeltaVLookup = (value -> blackLevelDeltaV[value].doubleValue());
+            blackLevelDeltaVLookup = (value -> blackLevelDeltaV[value].doubleValue() * levelScale);
         } else {
             blackLevelDeltaVLookup = (value -> 0D);
         }
 
         if (blackLevelDeltaH != null) {
-            blackLevelDeltaHLookup = (value -> blackLevelDeltaH[value].doubleValue());
+            blackLevelDeltaHLookup = (value -> blackLevelDeltaH[value].doubleValue() * levelScale);
         } else {
             blackLevelDeltaHLookup = (value -> 0D);
         }
 
         if (blackLevel != null) {
-            blackLevelLookup = (value -> blackLevel[value].doubleValue());
+            blackLevelLookup = (value -> blackLevel[value].doubleValue() * levelScale);
         } else {
             blackLevelLookup = (value -> 0D);
         }
@@ -87,29 +92,119 @@ public class RawMapping extends PreProcessorOperation {
 
     @Override
     public int process(int sample, int index) {
-        int x = getXByIndex(index);
-        int y = getYByIndex(index);
-        double linearizedSample = linearizationTableLookup.lookup(sample);
-        double blackLevelSubtrahend = calcBlackLevelSubtrahend(x, y);
+        int x = getXByIndex(index / samplesPerPixel);
+        int y = getYByIndex(index / samplesPerPixel);
+        int plane = index % samplesPerPixel;
+        return mapSample(sample, calcBlackLevelSubtrahend(x, y, plane), plane);
+    }
+
+    /**
+     * Linearizes a sample, subtracts the black level and scales it to the white level.
+     *
+     * @param sample                The raw sample
+     * @param blackLevelSubtrahend  The black level of the pixel, see {@link #calcBlackLevelSubtrahend(int, int)}
+     * @return The mapped sample between 0 and 65535
+     */
+    int mapSample(int sample, double blackLevelSubtrahend) {
+        return mapSample(sample, blackLevelSubtrahend, 0);
+    }
+
+    /**
+     * Linearizes a sample, subtracts the black level and scales it to the white level of its sample plane.
+     *
+     * @param sample                The raw sample
+     * @param blackLevelSubtrahend  The black level of the sample, see {@link #calcBlackLevelSubtrahend(int, int, int)}
+     * @param plane                 The index of the sample within its pixel
+     * @return The mapped sample between 0 and 65535
+     */
+    int mapSample(int sample, double blackLevelSubtrahend, int plane) {
+        double linearizedSample = linearize(sample);
         linearizedSample = linearizedSample - blackLevelSubtrahend;
-        linearizedSample = linearizedSample * (1.0 / (whiteLevel[0] - blackLevelSubtrahend)); //todo white level
+        long planeWhiteLevel = whiteLevel[java.lang.Math.min(plane, whiteLevel.length - 1)];
+        linearizedSample = linearizedSample * (1.0 / (planeWhiteLevel - blackLevelSubtrahend));
         return Math.in(0, (int) (linearizedSample * 65535), 65535);
     }
 
-    private double calcBlackLevelSubtrahend(int x, int y) {
-        double finalBlackLevel = blackLevelLookup.lookup(0);
+    private int linearize(int sample) {
+        if (linearizationTable == null) {
+            return sample;
+        }
+        return sample >= linearizationTable.length ? linearizationTable[linearizationTable.length - 1] : linearizationTable[sample];
+    }
+
+    double calcBlackLevelSubtrahend(int x, int y) {
+        return calcBlackLevelSubtrahend(x, y, 0);
+    }
+
+    double calcBlackLevelSubtrahend(int x, int y, int plane) {
         //origin of  BlackLevel is top-left corner of ActiveArea rectangle. See DNG Specification 1.5.0.0, page 26.
-        if (x >= startXCoordinate && y >= startYCoordinate && x < width && y < height) {
-            //TODO: Currenty only BlackLevelRepeatDim={1 1} and BlackLevelRepeatDim={2 2} are supported.
-            if (blackLevelRepeatDim != null && blackLevelRepeatDim[0] != 1) {
-                finalBlackLevel = blackLevelLookup.lookup(y % cfaRepeatPatternDim[0] * cfaRepeatPatternDim[1] + x % cfaRepeatPatternDim[1]);
-            }
-            int index = y - startYCoordinate;
-            finalBlackLevel += blackLevelDeltaVLookup.lookup(index);
-            index = x - startXCoordinate;
-            finalBlackLevel += blackLevelDeltaHLookup.lookup(index);
+        if (!isInActiveArea(x, y)) {
+            return blackLevelLookup.lookup(0);
         }
+        return getBlackLevel(x, y, plane) + getBlackLevelDeltaV(y) + getBlackLevelDeltaH(x);
+    }
+
+    boolean isInActiveArea(int x, int y) {
+        return x >= startXCoordinate && y >= startYCoordinate && x < width && y < height;
+    }
+
+    /**
+     * @return The black level of the CFA phase of the given pixel without the deltas of its row and column
+     */
+    double getBlackLevel(int x, int y) {
+        return getBlackLevel(x, y, 0);
+    }
+
+    /**
+     * @return The black level of the given sample plane of the given pixel without the deltas of its row and column
+     */
+    double getBlackLevel(int x, int y, int plane) {
+        if (samplesPerPixel > 1) {
+            //the black levels of a pixel are interleaved like its samples, see DNG Specification 1.5.0.0, page 26.
+            int repeatRows = getBlackLevelRepeatRows();
+            int repeatColumns = getBlackLevelRepeatColumns();
+            int blackLevelIndex = ((y % repeatRows) * repeatColumns + x % repeatColumns) * samplesPerPixel + plane;
+            return blackLevel != null && blackLevelIndex < blackLevel.length ? blackLevelLookup.lookup(blackLevelIndex)
+                    : blackLevelLookup.lookup(0);
+        }
+        //TODO: Currenty only BlackLevelRepeatDim={1 1} and BlackLevelRepeatDim={2 2} are supported.
+        if (blackLevelRepeatDim != null && blackLevelRepeatDim[0] != 1) {
+            return blackLevelLookup.lookup(y % cfaRepeatPatternDim[0] * cfaRepeatPatternDim[1] + x % cfaRepeatPatternDim[1]);
+        }
+        return blackLevelLookup.lookup(0);
+    }
+
+    int getBlackLevelRepeatRows() {
+        return blackLevelRepeatDim != null ? blackLevelRepeatDim[0] : 1;
+    }
+
+    int getBlackLevelRepeatColumns() {
+        return blackLevelRepeatDim != null ? blackLevelRepeatDim[1] : 1;
+    }
+
+    /**
+     * @return The amount of samples per pixel, which is 3 for LinearRaw images and 1 otherwise
+     */
+    int getSamplesPerPixel() {
+        return samplesPerPixel;
+    }
+
+    double getBlackLevelDeltaV(int y) {
+        return blackLevelDeltaVLookup.lookup(y - startYCoordinate);
+    }
+
+    double getBlackLevelDeltaH(int x) {
+        return blackLevelDeltaHLookup.lookup(x - startXCoordinate);
+    }
+
+    boolean hasBlackLevelDeltas() {
+        return blackLevelDeltaH != null || blackLevelDeltaV != null;
+    }
 
-        return finalBlackLevel;
+    /**
+     * @return The active area, relative to the image
+     */
+    Rectangle getActiveArea() {
+        return new Rectangle(startXCoordinate, startYCoordinate, width - startXCoordinate, height - startYCoordinate);
     }
 }
@@ -12,6 +12,7 @@ public class WhiteBalancing extends PreProcessorOperation {
     // private Rational[] asShotWhiteXY;
     private int[] cfaRepeatPatternDim;
     private CFAPattern cfaPattern;
+    private int samplesPerPixel;
 
     //TODO: assumes we are using RGB
     private double[] whiteBalanceFactors;
@@ -27,6 +28,7 @@ public class WhiteBalancing extends PreProcessorOperation {
         // this.asShotWhiteXY = baselineIFD.getAsShotWhiteXY();
         this.cfaRepeatPatternDim = highResolutionIFD.getCFARepeatPatternDim();
         this.cfaPattern = highResolutionIFD.getCFAPattern();
+        this.samplesPerPixel = java.lang.Math.max(1, highResolutionIFD.getSamplesPerPixel());
         this.whiteBalanceFactors = new double[]{1D, 1D, 1D};
 
         if (asShotNeutral == null) {
@@ -45,9 +47,23 @@ public class WhiteBalancing extends PreProcessorOperation {
 
     @Override
     public int process(int sample, int index) {
+        if (samplesPerPixel > 1) {
+            //the samples of a LinearRaw pixel are its channels already
+            return mapSample(sample, index % samplesPerPixel);
+        }
         int x = getXByIndex(index);
         int y = getYByIndex(index);
-        short channel = cfaPattern.getCfaPattern()[y % cfaRepeatPatternDim[0] * cfaRepeatPatternDim[1] + x % cfaRepeatPatternDim[1]];
+        return mapSample(sample, getChannel(x, y));
+    }
+
+    /**
+     * @return The color channel of the given pixel according to the CFA pattern
+     */
+    int getChannel(int x, int y) {
+        return cfaPattern.getCfaPattern()[y % cfaRepeatPatternDim[0] * cfaRepeatPatternDim[1] + x % cfaRepeatPatternDim[1]];
+    }
+
+    int mapSample(int sample, int channel) {
         return Math.in(0, (int) (whiteBalanceFactors[channel] * sample), 65535);
     }
 }
@@ -2,6 +2,7 @@ package de.unituebingen.dng.processor.util;
 
 public enum AccelerationStrategy {
     NONE("None"),
+    AUTO("Autotuned for this machine"),
     AUTO_SMALL("Optimal for small image"), // TODO: Unite
     AUTO_BIG("Optimal for big image"),     // TODO: Unite
     MULTITHREADING("Multithreading"),
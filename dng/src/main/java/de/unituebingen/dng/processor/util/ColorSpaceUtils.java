@@ -121,6 +121,18 @@ public class ColorSpaceUtils {
     }
 
     public static double[] rgbToHSV(double[] rgb) {
+        double[] hsv = new double[3];
+        rgbToHSV(rgb, hsv);
+        return hsv;
+    }
+
+    /**
+     * Converts RGB samples to HSV without allocating an array.
+     *
+     * @param rgb The RGB samples
+     * @param hsv The array to write the hue (in degrees), saturation and value to, may be the same as {@code rgb}
+     */
+    public static void rgbToHSV(double[] rgb, double[] hsv) {
         double r = rgb[0];
         double g = rgb[1];
         double b = rgb[2];
@@ -147,10 +159,24 @@ public class ColorSpaceUtils {
             s = maxMinDiff / max;
         }
 
-        return new double[]{h, s, v};
+        hsv[0] = h;
+        hsv[1] = s;
+        hsv[2] = v;
     }
 
     public static double[] hsvToRGB(double[] hsv) {
+        double[] rgb = new double[3];
+        hsvToRGB(hsv, rgb);
+        return rgb;
+    }
+
+    /**
+     * Converts HSV samples to RGB without allocating an array.
+     *
+     * @param hsv The hue (in degrees), saturation and value
+     * @param rgb The array to write the RGB samples to, may be the same as {@code hsv}
+     */
+    public static void hsvToRGB(double[] hsv, double[] rgb) {
         double h = hsv[0];
         double s = hsv[1];
         double v = hsv[2];
@@ -198,6 +224,8 @@ public class ColorSpaceUtils {
             b = v;
         }
 
-        return new double[]{r, g, b};
+        rgb[0] = r;
+        rgb[1] = g;
+        rgb[2] = b;
     }
 }
@@ -0,0 +1,16 @@
+package de.unituebingen.dng.processor.util;
+
+/**
+ * The arithmetic of the fused post-processing kernel.
+ */
+public enum PostProcessingPrecision {
+    /**
+     * Double precision floating point, see {@link de.unituebingen.dng.processor.postprocessor.PostProcessorKernel}
+     */
+    DOUBLE,
+    /**
+     * Q20 fixed-point integers, see {@link de.unituebingen.dng.processor.postprocessor.FixedPointKernel}. Faster, and
+     * within a few 16 bit steps of {@link #DOUBLE}.
+     */
+    FIXED_POINT
+}
@@ -0,0 +1,336 @@
+package de.unituebingen.dng.processor.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Splits an image into tiles and processes them with a kernel, either one after another or in parallel. <br/>
+ * The tiles are numbered row-major, so consecutive tiles lie next to each other in memory. Each tile can be extended
+ * by a halo of neighbouring pixels, which a kernel like demosaicing needs to compute the pixels at the border of the
+ * tile. The halo is clipped to the image. The last tiles of a row or column are smaller if the image size is not a
+ * multiple of the tile size. <br/>
+ * Parallel tiles are processed by a {@link ForkJoinPool}, the common pool unless another one is set. The range of
+ * tiles is split in halves recursively, so idle workers steal the remaining work from busy ones. A kernel can ask for
+ * a buffer, e.g. to extract a tile into. Buffers are reused by the following tiles, so there are at most as many
+ * buffers as tiles which are processed at the same time. <br/>
+ * A pool which the scheduler creates itself (see {@link #setParallelism(int)}) is shut down when it is replaced or the
+ * scheduler is closed, a pool which is set by the caller is left to the caller.
+ */
+public class TileScheduler implements AutoCloseable {
+
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int halo;
+
+    private boolean parallel = true;
+    private ForkJoinPool pool;
+    private boolean ownsPool;
+
+    /**
+     * @param tileWidth  The width of a tile without halo
+     * @param tileHeight The height of a tile without halo
+     * @param halo       The amount of pixels by which a tile is extended on each side
+     */
+    public TileScheduler(int tileWidth, int tileHeight, int halo) {
+        if (tileWidth < 1 || tileHeight < 1 || halo < 0) {
+            throw new IllegalArgumentException("Invalid tile size " + tileWidth + "x" + tileHeight + " or halo " + halo);
+        }
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.halo = halo;
+    }
+
+    /**
+     * Processes all tiles of an image.
+     *
+     * @param width  The width of the image
+     * @param height The height of the image
+     * @param kernel The kernel which is called for every tile
+     */
+    public void forEachTile(int width, int height, Consumer<Tile> kernel) {
+        forEachTile(width, height, () -> null, (tile, buffer) -> kernel.accept(tile));
+    }
+
+    /**
+     * Processes all tiles of an image with reusable buffers.
+     *
+     * @param width          The width of the image
+     * @param height         The height of the image
+     * @param bufferSupplier Creates a new buffer if no unused buffer is left
+     * @param kernel         The kernel which is called for every tile
+     * @param <B>            The type of the buffers
+     */
+    public <B> void forEachTile(int width, int height, Supplier<B> bufferSupplier, TileKernel<B> kernel) {
+        int columns = (width + tileWidth - 1) / tileWidth;
+        int rows = (height + tileHeight - 1) / tileHeight;
+        int tiles = columns * rows;
+        if (tiles == 0) {
+            return;
+        }
+        if (!parallel || tiles == 1) {
+            B buffer = bufferSupplier.get();
+            for (int i = 0; i < tiles; i++) {
+                kernel.process(createTile(i, columns, width, height), buffer);
+            }
+            return;
+        }
+        Job<B> job = new Job<>(this, columns, width, height, bufferSupplier, kernel);
+        (pool != null ? pool : ForkJoinPool.commonPool()).invoke(new TileTask<>(0, tiles, job));
+    }
+
+    private Tile createTile(int index, int columns, int width, int height) {
+        return createTile(index, columns, width, height, tileWidth, tileHeight, halo);
+    }
+
+    private static Tile createTile(int index, int columns, int width, int height, int tileWidth, int tileHeight,
+                                   int halo) {
+        int x = index % columns * tileWidth;
+        int y = index / columns * tileHeight;
+        int endX = Math.min(width, x + tileWidth);
+        int endY = Math.min(height, y + tileHeight);
+        int haloX = Math.max(0, x - halo);
+        int haloY = Math.max(0, y - halo);
+        return new Tile(index, x, y, endX - x, endY - y, haloX, haloY,
+                Math.min(width, endX + halo) - haloX, Math.min(height, endY + halo) - haloY);
+    }
+
+    /**
+     * Sets whether the tiles are processed in parallel (default) or one after another by the calling thread.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Sets the pool which processes parallel tiles, or {@code null} for the common pool (default). The pool is owned
+     * by the caller, who has to shut it down.
+     */
+    public void setPool(ForkJoinPool pool) {
+        releasePool();
+        this.pool = pool;
+    }
+
+    /**
+     * Processes parallel tiles with a pool of its own with the given amount of threads, or with the common pool if the
+     * parallelism is not positive. The own pool is kept as long as the parallelism does not change.
+     */
+    public void setParallelism(int parallelism) {
+        if (ownsPool && pool.getParallelism() == parallelism) {
+            return;
+        }
+        releasePool();
+        if (parallelism > 0) {
+            pool = new ForkJoinPool(parallelism);
+            ownsPool = true;
+        }
+    }
+
+    /**
+     * @return The pool which processes parallel tiles, or {@code null} for the common pool
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Shuts down the pool of its own, if any, and continues with the common pool.
+     */
+    @Override
+    public void close() {
+        releasePool();
+    }
+
+    private void releasePool() {
+        if (ownsPool) {
+            pool.shutdown();
+            ownsPool = false;
+        }
+        pool = null;
+    }
+
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    public int getHalo() {
+        return halo;
+    }
+
+    public interface TileKernel<B> {
+
+        /**
+         * @param tile   The tile to process
+         * @param buffer A buffer which no other tile uses at the same time
+         */
+        void process(Tile tile, B buffer);
+    }
+
+    /**
+     * The position of a tile within the image, without and with halo.
+     */
+    public static final class Tile {
+
+        private final int index;
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private final int haloX;
+        private final int haloY;
+        private final int haloWidth;
+        private final int haloHeight;
+
+        Tile(int index, int x, int y, int width, int height, int haloX, int haloY, int haloWidth, int haloHeight) {
+            this.index = index;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.haloX = haloX;
+            this.haloY = haloY;
+            this.haloWidth = haloWidth;
+            this.haloHeight = haloHeight;
+        }
+
+        /**
+         * Copies the samples of the tile including its halo row by row to the given array.
+         *
+         * @param samples    The samples of a single channel image
+         * @param imageWidth The width of the image
+         * @param target     The array of at least {@code haloWidth * haloHeight} samples to write to
+         */
+        public void extract(short[] samples, int imageWidth, int[] target) {
+            for (int row = 0; row < haloHeight; row++) {
+                int from = (haloY + row) * imageWidth + haloX;
+                int to = row * haloWidth;
+                for (int column = 0; column < haloWidth; column++) {
+                    target[to + column] = samples[from + column] & 0xFFFF;
+                }
+            }
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getHaloX() {
+            return haloX;
+        }
+
+        public int getHaloY() {
+            return haloY;
+        }
+
+        public int getHaloWidth() {
+            return haloWidth;
+        }
+
+        public int getHaloHeight() {
+            return haloHeight;
+        }
+
+        /**
+         * @return The amount of halo pixels left of the tile
+         */
+        public int getMarginLeft() {
+            return x - haloX;
+        }
+
+        /**
+         * @return The amount of halo pixels above the tile
+         */
+        public int getMarginTop() {
+            return y - haloY;
+        }
+    }
+
+    /**
+     * The state of one {@link #forEachTile(int, int, Supplier, TileKernel)} call, which all its tasks share.
+     */
+    private static final class Job<B> {
+
+        private final int tileWidth;
+        private final int tileHeight;
+        private final int halo;
+        private final int columns;
+        private final int width;
+        private final int height;
+        private final Queue<B> buffers = new ConcurrentLinkedQueue<>();
+        private final Supplier<B> bufferSupplier;
+        private final TileKernel<B> kernel;
+
+        Job(TileScheduler scheduler, int columns, int width, int height, Supplier<B> bufferSupplier,
+            TileKernel<B> kernel) {
+            this.tileWidth = scheduler.tileWidth;
+            this.tileHeight = scheduler.tileHeight;
+            this.halo = scheduler.halo;
+            this.columns = columns;
+            this.width = width;
+            this.height = height;
+            this.bufferSupplier = bufferSupplier;
+            this.kernel = kernel;
+        }
+
+        void process(int index) {
+            // a buffer is taken from and returned to the queue instead of being bound to the thread, since a worker
+            // which waits for nested parallel work may process another tile in between
+            B buffer = buffers.poll();
+            if (buffer == null) {
+                buffer = bufferSupplier.get();
+            }
+            kernel.process(createTile(index, columns, width, height, tileWidth, tileHeight, halo), buffer);
+            if (buffer != null) {
+                buffers.offer(buffer);
+            }
+        }
+    }
+
+    private static final class TileTask<B> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final transient Job<B> job;
+
+        TileTask(int from, int to, Job<B> job) {
+            this.from = from;
+            this.to = to;
+            this.job = job;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new TileTask<>(from, middle, job), new TileTask<>(middle, to, job));
+                return;
+            }
+            job.process(from);
+        }
+    }
+}
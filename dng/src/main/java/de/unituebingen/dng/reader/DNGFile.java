@@ -1,10 +1,13 @@
 package de.unituebingen.dng.reader;
 
+import de.unituebingen.dng.reader.compression.BaselineJPEGDecoder;
 import de.unituebingen.dng.reader.compression.CompressionDecoder;
 import de.unituebingen.dng.reader.compression.CompressionDecoderException;
+import de.unituebingen.dng.reader.compression.DeflateDecoder;
 import de.unituebingen.dng.reader.compression.LosslessJPEGDecoder;
 import de.unituebingen.dng.reader.compression.UncompressedDecoder;
 import de.unituebingen.dng.reader.io.DNGByteReader;
+import de.unituebingen.dng.reader.io.MappedDNGByteReader;
 import de.unituebingen.dng.reader.util.Rational;
 import de.unituebingen.dng.reader.util.SignedRational;
 import de.unituebingen.imageprocessor.ImageUtils;
@@ -12,9 +15,16 @@ import de.unituebingen.imageprocessor.ImageUtils;
 import javax.imageio.ImageIO;
 import java.awt.image.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * @author Eugen Ljavin
@@ -25,7 +35,15 @@ import java.util.List;
  * <ul>
  *     <li>Uncompressed</li>
  *     <li>Lossless JPEG (Huffman) compression</li>
+ *     <li>Baseline (lossy) JPEG compression</li>
+ *     <li>Deflate compression</li>
  * </ul>
+ * <p>
+ * By default the file is memory mapped (see {@link MappedDNGByteReader}), so strips and tiles are passed to the
+ * decoders without copying them. Files which cannot be mapped are read using a buffered {@link DNGByteReader}.
+ * <p>
+ * Strips and tiles are independent of each other, so they are decoded in parallel (see
+ * {@link #setDecodingThreads(int)}).
  * 
  * LEGAL NOTICE
  * 
@@ -36,13 +54,27 @@ public class DNGFile {
 
     private DNGByteReader reader;
     private ImageFileHeader imageFileHeader;
-    private CompressionDecoder decoder;
+    private int decodingThreads = Runtime.getRuntime().availableProcessors();
+    private boolean lazyValueLoading;
     private File file;
     private List<ImageFileDirectory> imageFileDirectories;
 
     public DNGFile(File file) throws IOException, DNGReadException {
+        this(file, MappedDNGByteReader.canMap(file));
+    }
+
+    /**
+     * Opens the given file.
+     *
+     * @param file         The dng file
+     * @param memoryMapped {@code true} if the file should be memory mapped, {@code false} if it should be read
+     *                     using a buffered reader
+     * @throws IOException      If the file cannot be opened
+     * @throws DNGReadException If the file header is invalid
+     */
+    public DNGFile(File file, boolean memoryMapped) throws IOException, DNGReadException {
         this.file = Objects.requireNonNull(file);
-        reader = new DNGByteReader(file);
+        reader = memoryMapped ? new MappedDNGByteReader(file) : new DNGByteReader(file);
         imageFileHeader = readImageFileHeader();
         reader.setByteOrder(imageFileHeader.getByteOrder());
     }
@@ -161,30 +193,130 @@ public class DNGFile {
     public int[] parseRasterOfImageFileDirectory(ImageFileDirectory imageFileDirectory) throws
             DNGReadException, CompressionDecoderException, EOFException {
         Objects.requireNonNull(imageFileDirectory);
-        if (!isPlanarConfigurationValid()) {
-            throw new DNGReadException("The PlanarConfiguration is currently not supported");
-        }
+        int rowLength = (int) imageFileDirectory.getImageWidth() * imageFileDirectory.getSamplesPerPixel();
+        short[] raster = new short[rowLength * (int) imageFileDirectory.getImageLength()];
+        parseRasterOfImageFileDirectory(imageFileDirectory, raster, 0, rowLength);
 
-        if (!isPhotometricInterpretationValid()) {
-            throw new DNGReadException("The PhotometricInterpretation is currently not supported");
+        int[] image = new int[raster.length];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = raster[i] & 0xFFFF;
         }
+        return image;
+    }
+
+    /**
+     * Reads the image raster of the given image file directory directly into the data buffer of a
+     * {@link DataBuffer#TYPE_USHORT} raster, see {@link #parseRasterOfImageFileDirectory(ImageFileDirectory, short[], int, int)}.
+     *
+     * @param imageFileDirectory The image file directory from which the image raster should be read
+     * @param dataBuffer         The data buffer to write the samples to
+     * @param scanlineStride     The distance between the first samples of two consecutive rows in the data buffer
+     * @throws CompressionDecoderException If something goes wrong during image decoding
+     * @throws DNGReadException            If something goes wrong during tiff parsing
+     * @throws EOFException                If the end of file has been reached
+     */
+    public void parseRasterOfImageFileDirectory(ImageFileDirectory imageFileDirectory, DataBufferUShort dataBuffer,
+                                                int scanlineStride)
+            throws DNGReadException, CompressionDecoderException, EOFException {
+        parseRasterOfImageFileDirectory(imageFileDirectory, dataBuffer.getData(), dataBuffer.getOffset(), scanlineStride);
+    }
+
+    /**
+     * Reads the image raster of the given image file directory directly into the given array. <br/>
+     * The samples are written as unsigned 16 bit values, the samples of a pixel are interleaved. Row {@code y} of the
+     * image starts at index {@code offset + y * scanlineStride}. No intermediate copy of the image is created.
+     *
+     * @param imageFileDirectory The image file directory from which the image raster should be read
+     * @param raster             The array to write the samples to
+     * @param offset             The index of the first sample of the image
+     * @param scanlineStride     The distance between the first samples of two consecutive rows in the array
+     * @throws CompressionDecoderException If something goes wrong during image decoding
+     * @throws DNGReadException            If something goes wrong during tiff parsing
+     * @throws EOFException                If the end of file has been reached
+     */
+    public void parseRasterOfImageFileDirectory(ImageFileDirectory imageFileDirectory, short[] raster, int offset,
+                                                int scanlineStride)
+            throws DNGReadException, CompressionDecoderException, EOFException {
+        Objects.requireNonNull(imageFileDirectory);
+        Objects.requireNonNull(raster);
+        validateImageFileDirectory(imageFileDirectory);
 
-        int compression = imageFileDirectory.getCompression();
         int imageWidth = (int) imageFileDirectory.getImageWidth();
         int imageLength = (int) imageFileDirectory.getImageLength();
         int samplesPerPixel = imageFileDirectory.getSamplesPerPixel();
-        int bitsPerSample = imageFileDirectory.getBitsPerSample()[0];
 
-        assignCompressionDecoder(compression, bitsPerSample);
+        if (scanlineStride < imageWidth * samplesPerPixel || offset < 0
+                || offset + (long) (imageLength - 1) * scanlineStride + imageWidth * samplesPerPixel > raster.length) {
+            throw new IllegalArgumentException("The raster is too small for the image.");
+        }
+
+        Supplier<CompressionDecoder> decoderFactory = getCompressionDecoderFactory(imageFileDirectory);
+        readRaster(imageFileDirectory, raster, offset, scanlineStride, 1, decoderFactory);
+    }
+
+    /**
+     * Opens a reader which reads the image raster of the given image file directory row by row, see
+     * {@link RasterRowReader}. Unlike {@link #parseRasterOfImageFileDirectory(ImageFileDirectory)} this does not need
+     * memory for the whole image.
+     *
+     * @param imageFileDirectory The image file directory from which the image raster should be read
+     * @return The reader
+     * @throws DNGReadException If something goes wrong during tiff parsing
+     * @throws EOFException     If the end of file has been reached
+     */
+    public RasterRowReader openRasterRowReader(ImageFileDirectory imageFileDirectory)
+            throws DNGReadException, EOFException {
+        Objects.requireNonNull(imageFileDirectory);
+        validateImageFileDirectory(imageFileDirectory);
+        return new RasterRowReader(this, imageFileDirectory, getCompressionDecoderFactory(imageFileDirectory));
+    }
+
+    /**
+     * Checks whether the raster of the given image file directory can be decoded, i.e. whether its samples are
+     * interleaved and its PhotometricInterpretation is 'Color Filter Array', 'RGB' or 'Linear RAW', or 'YCbCr' for JPEG
+     * compressed previews, which the decoder converts to RGB.
+     */
+    private static void validateImageFileDirectory(ImageFileDirectory imageFileDirectory) throws DNGReadException {
+        if (imageFileDirectory.getPlanarConfiguration() != DNGTagConstants.PLANAR_CONFIGURATION__CHUNKY) {
+            throw new DNGReadException("The PlanarConfiguration is currently not supported");
+        }
+        int compression = imageFileDirectory.getCompression();
+        switch (imageFileDirectory.getPhotometricInterpretation()) {
+            case DNGTagConstants.PHOTOMETRIC_INTERPRETATION__CFA:
+            case DNGTagConstants.PHOTOMETRIC_INTERPRETATION__RGB:
+            case DNGTagConstants.PHOTOMETRIC_INTERPRETATION__LINEAR_RAW:
+                return;
+            case DNGTagConstants.PHOTOMETRIC_INTERPRETATION__YCBCR:
+                if (compression == DNGTagConstants.COMPRESSION__JPEG_DCT_OR_LOSSLESS
+                        || compression == DNGTagConstants.COMPRESSION__JPEG_LOSSY) {
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        throw new DNGReadException("The PhotometricInterpretation is currently not supported");
+    }
+
+    /**
+     * Reads the strips or tiles of the given image file directory into the raster. <br/>
+     * If the decoders decode the segments at a reduced size ({@code scale} > 1, see {@link BaselineJPEGDecoder}), the
+     * raster holds the image at the reduced size.
+     */
+    private void readRaster(ImageFileDirectory imageFileDirectory, short[] raster, int offset, int scanlineStride,
+                            int scale, Supplier<CompressionDecoder> decoderFactory)
+            throws EOFException, CompressionDecoderException {
+        int imageWidth = (int) ((imageFileDirectory.getImageWidth() + scale - 1) / scale);
+        int imageLength = (int) ((imageFileDirectory.getImageLength() + scale - 1) / scale);
+        int samplesPerPixel = imageFileDirectory.getSamplesPerPixel();
 
-        int[] image = new int[imageWidth * imageLength * samplesPerPixel];
         if (imageFileDirectory.hasEntry(DNGTag.STRIP_OFFSETS)) {
-            image = parseStrippedImage(imageFileDirectory, image, imageLength);
+            parseStrippedImage(imageFileDirectory, raster, offset, scanlineStride, imageWidth, imageLength,
+                    samplesPerPixel, scale, decoderFactory);
         } else {
-            image = parseTiledImage(imageFileDirectory, image, imageWidth, imageLength);
+            parseTiledImage(imageFileDirectory, raster, offset, scanlineStride, imageWidth, imageLength,
+                    samplesPerPixel, scale, decoderFactory);
         }
-
-        return image;
     }
 
     public boolean isPhotometricInterpretationValid() throws EOFException, DNGReadException {
@@ -207,26 +339,148 @@ public class DNGFile {
     }
 
     /**
-     * This is only a workaround which allows to read thumbnail images for DNG files which are usually located in the
-     * first image file directory. The problem is, that thumbnails sometimes lossy JPEG encoded. Thats a compression
-     * method which we are currently not supporting. <br/>
-     * Since the Java TIFF readers is able to read the image of the first image file directory (which is a low resolution
-     * preview image for DNG files) we use the Java TIFF reader to read this image.
-     * <p>
-     * At some later point (when all respectively lossy JPEG decoding is implemented) the {@link DNGFile#parseRasterOfImageFileDirectory(ImageFileDirectory)}
-     * method should be able to read the thumbnail raster as well making this method obsolete and  deprecated.
+     * Reads the thumbnail image of the DNG file which is located in the first image file directory. <br/>
+     * Uncompressed and baseline JPEG compressed thumbnails are decoded directly from their strips or tiles. Other
+     * thumbnails are read using the Java TIFF reader as a fallback.
      *
      * @return The thumbnail raster as {@link BufferedImage}
      * @throws DNGReadException If something goes wrong during tiff parsing
      * @throws IOException      If the end of file has been reached
      */
     public BufferedImage getThumbnailImage() throws IOException, DNGReadException {
-        BufferedImage img = ImageIO.read(file);
+        ImageFileDirectory imageFileDirectory = get0thImageFileDirectory();
+        BufferedImage img = null;
+        if (isPreviewReadable(imageFileDirectory)) {
+            try {
+                img = readPreviewImage(imageFileDirectory, 1);
+            } catch (CompressionDecoderException e) {
+                //fall back to the Java TIFF reader
+            }
+        }
+        if (img == null) {
+            img = ImageIO.read(file);
+        }
+
+        int orientation = get0thImageFileDirectory().getOrientation();
+        return ImageUtils.rotate(img, ImageUtils.Orientation.getByTiffOrientation(orientation));
+    }
+
+    /**
+     * Returns the largest reduced resolution image file directory which contains an 8 bit RGB or YCbCr preview
+     * image that can be read by {@link #getPreviewImage(int)}.
+     *
+     * @return The image file directory of the preview or {@code null} if there is no such preview
+     * @throws DNGReadException If something goes wrong during tiff parsing
+     * @throws EOFException     If the end of file has been reached
+     */
+    public ImageFileDirectory getPreviewImageFileDirectory() throws EOFException, DNGReadException {
+        ImageFileDirectory preview = null;
+        for (ImageFileDirectory imageFileDirectory : getImageFileDirectories()) {
+            if (imageFileDirectory.hasEntry(DNGTag.NEW_SUBFILE_TYPE)
+                    && (long) imageFileDirectory.getIFDEntry(DNGTag.NEW_SUBFILE_TYPE).getValues() == DNGTagConstants.NEW_SUBFILE_TYPE__REDUCED_RESOLUTION
+                    && isPreviewReadable(imageFileDirectory)
+                    && (preview == null || imageFileDirectory.getImageWidth() > preview.getImageWidth())) {
+                preview = imageFileDirectory;
+            }
+        }
+        return preview;
+    }
+
+    /**
+     * Reads the largest preview image (see {@link #getPreviewImageFileDirectory()}) at a reduced size. <br/>
+     * JPEG compressed previews are decoded directly at the reduced size, which is much faster than decoding them at
+     * their full size (see {@link BaselineJPEGDecoder}).
+     *
+     * @param scale The denominator of the size of the returned image: 1, 2, 4 or 8
+     * @return The preview image, rotated according to the orientation of the DNG file
+     * @throws CompressionDecoderException If something goes wrong during image decoding
+     * @throws DNGReadException            If something goes wrong during tiff parsing or if there is no preview
+     * @throws EOFException                If the end of file has been reached
+     */
+    public BufferedImage getPreviewImage(int scale) throws EOFException, DNGReadException, CompressionDecoderException {
+        ImageFileDirectory imageFileDirectory = getPreviewImageFileDirectory();
+        if (imageFileDirectory == null) {
+            throw new DNGReadException("The DNG file does not contain a readable preview image");
+        }
+        BufferedImage img = readPreviewImage(imageFileDirectory, scale);
 
         int orientation = get0thImageFileDirectory().getOrientation();
         return ImageUtils.rotate(img, ImageUtils.Orientation.getByTiffOrientation(orientation));
     }
 
+    private boolean isPreviewReadable(ImageFileDirectory imageFileDirectory) throws EOFException {
+        int[] bitsPerSample = imageFileDirectory.getBitsPerSample();
+        int samplesPerPixel = imageFileDirectory.getSamplesPerPixel();
+        int photometricInterpretation = imageFileDirectory.getPhotometricInterpretation();
+        if (bitsPerSample == null || bitsPerSample[0] != 8 || (samplesPerPixel != 1 && samplesPerPixel != 3)
+                || imageFileDirectory.getPlanarConfiguration() != DNGTagConstants.PLANAR_CONFIGURATION__CHUNKY) {
+            return false;
+        }
+        switch (imageFileDirectory.getCompression()) {
+            case DNGTagConstants.COMPRESSION__UNCOMPRESSED:
+                return photometricInterpretation == DNGTagConstants.PHOTOMETRIC_INTERPRETATION__RGB
+                        || photometricInterpretation == DNGTagConstants.PHOTOMETRIC_INTERPRETATION__BLACK_IS_ZERO;
+            case DNGTagConstants.COMPRESSION__JPEG_DCT_OR_LOSSLESS:
+                return isBaselineJPEG(imageFileDirectory);
+            default:
+                return false;
+        }
+    }
+
+    private BufferedImage readPreviewImage(ImageFileDirectory imageFileDirectory, int scale)
+            throws EOFException, DNGReadException, CompressionDecoderException {
+        if (!isPreviewReadable(imageFileDirectory)) {
+            throw new DNGReadException("The preview image is currently not supported");
+        }
+        int samplesPerPixel = imageFileDirectory.getSamplesPerPixel();
+        int width = (int) imageFileDirectory.getImageWidth();
+        int length = (int) imageFileDirectory.getImageLength();
+        //uncompressed previews are read at their full size and subsampled
+        boolean jpeg = imageFileDirectory.getCompression() == DNGTagConstants.COMPRESSION__JPEG_DCT_OR_LOSSLESS;
+        int step = jpeg ? 1 : scale;
+        int rasterWidth = jpeg ? (width + scale - 1) / scale : width;
+        int rasterLength = jpeg ? (length + scale - 1) / scale : length;
+
+        short[] raster = new short[rasterWidth * rasterLength * samplesPerPixel];
+        if (jpeg) {
+            readRaster(imageFileDirectory, raster, 0, rasterWidth * samplesPerPixel, scale,
+                    () -> new BaselineJPEGDecoder(scale));
+        } else {
+            readRaster(imageFileDirectory, raster, 0, rasterWidth * samplesPerPixel, 1,
+                    getCompressionDecoderFactory(imageFileDirectory));
+        }
+
+        int imageWidth = (width + scale - 1) / scale;
+        int imageLength = (length + scale - 1) / scale;
+        int[] pixels = new int[imageWidth * imageLength];
+        for (int y = 0; y < imageLength; y++) {
+            int source = y * step * rasterWidth * samplesPerPixel;
+            for (int x = 0; x < imageWidth; x++, source += step * samplesPerPixel) {
+                int r = raster[source] & 0xFF;
+                int g = samplesPerPixel == 3 ? raster[source + 1] & 0xFF : r;
+                int b = samplesPerPixel == 3 ? raster[source + 2] & 0xFF : r;
+                pixels[y * imageWidth + x] = (r << 16) | (g << 8) | b;
+            }
+        }
+        BufferedImage img = new BufferedImage(imageWidth, imageLength, BufferedImage.TYPE_INT_RGB);
+        img.setRGB(0, 0, imageWidth, imageLength, pixels, 0, imageWidth);
+        return img;
+    }
+
+    /**
+     * Checks if the first strip or tile of the given image file directory is a baseline (lossy) JPEG image. Both
+     * lossless and baseline JPEG images use the compression {@link DNGTagConstants#COMPRESSION__JPEG_DCT_OR_LOSSLESS}.
+     */
+    private boolean isBaselineJPEG(ImageFileDirectory imageFileDirectory) throws EOFException {
+        boolean stripped = imageFileDirectory.hasEntry(DNGTag.STRIP_OFFSETS);
+        long[] offsets = stripped ? imageFileDirectory.getStripOffsets() : imageFileDirectory.getTileOffsets();
+        long[] byteCounts = stripped ? imageFileDirectory.getStripByteCounts() : imageFileDirectory.getTileByteCounts();
+        if (offsets == null || byteCounts == null || offsets.length == 0) {
+            return false;
+        }
+        return BaselineJPEGDecoder.isBaselineJPEG(reader.slice(offsets[0], (int) byteCounts[0]));
+    }
+
     public int[] getRAWImage() throws EOFException, DNGReadException, CompressionDecoderException {
         return parseRasterOfImageFileDirectory(getRAWImageFileDirectory());
     }
@@ -291,6 +545,11 @@ public class DNGFile {
                 Object value;
                 if ((long) fieldType.bytes * count > DNGConstants.IFD_ENTRY_FIELD_VALUE_OFFSET_SIZE) {
                     long valueOffset = reader.readUnsignedLong();
+                    if (lazyValueLoading) {
+                        //only remember where the values are, they are read on first access
+                        ifdEntries.put(tag, new ImageFileDirectoryEntry(tag, fieldType, count, valueOffset, this::readValuesAt));
+                        continue;
+                    }
                     long markedPosition = reader.markCurrentPosition();
                     reader.reset();
                     reader.skipNBytes(valueOffset);
@@ -315,6 +574,23 @@ public class DNGFile {
         return ifdEntries;
     }
 
+    /**
+     * Reads the values of a lazily loaded image file directory entry. The position of the reader is not changed.
+     */
+    private Object readValuesAt(DNGFieldType fieldType, long count, long valueOffset) throws EOFException, DNGReadException {
+        synchronized (reader) {
+            long markedPosition = reader.markCurrentPosition();
+            try {
+                reader.reset();
+                reader.skipNBytes(valueOffset);
+                return count == 1 ? reader.read(fieldType) : readValues(fieldType, count);
+            } finally {
+                reader.reset();
+                reader.skipNBytes(markedPosition);
+            }
+        }
+    }
+
     private Object readValues(DNGFieldType fieldType, long count) throws EOFException {
         Object value;
         if (fieldType == DNGFieldType.ASCII) {
@@ -393,20 +669,35 @@ public class DNGFile {
         return value;
     }
 
-    private void assignCompressionDecoder(int compression, int bitsPerSample) throws DNGReadException {
+    private Supplier<CompressionDecoder> getCompressionDecoderFactory(ImageFileDirectory imageFileDirectory)
+            throws DNGReadException, EOFException {
+        int compression = imageFileDirectory.getCompression();
+        int bitsPerSample = imageFileDirectory.getBitsPerSample()[0];
+        ByteOrder byteOrder = reader.getByteOrder();
         switch (compression) {
             case DNGTagConstants.COMPRESSION__UNCOMPRESSED:
-                decoder = new UncompressedDecoder(bitsPerSample, reader.getByteOrder());
-                break;
+                return () -> new UncompressedDecoder(bitsPerSample, byteOrder);
             case DNGTagConstants.COMPRESSION__JPEG_DCT_OR_LOSSLESS:
-                decoder = new LosslessJPEGDecoder();
-                break;
-            case DNGTagConstants.COMPRESSION__CCITT_1D:
+                //previews are usually baseline JPEG compressed, raw data is lossless JPEG compressed
+                return isBaselineJPEG(imageFileDirectory) ? BaselineJPEGDecoder::new : LosslessJPEGDecoder::new;
+            case DNGTagConstants.COMPRESSION__JPEG_LOSSY:
+                return BaselineJPEGDecoder::new;
             case DNGTagConstants.COMPRESSION__DEFLATE:
+                int sampleFormat = imageFileDirectory.getSampleFormat();
+                int predictor = imageFileDirectory.getPredictor();
+                int samplesPerPixel = Math.max(1, imageFileDirectory.getSamplesPerPixel());
+                if (!DeflateDecoder.isSupported(bitsPerSample, sampleFormat, predictor)) {
+                    throw new DNGReadException(String.format(
+                            "Deflate compressed %d bit samples of format %d with predictor %d are currently not supported",
+                            bitsPerSample, sampleFormat, predictor));
+                }
+                double whiteLevel = imageFileDirectory.getFloatingPointWhiteLevel();
+                return () -> new DeflateDecoder(bitsPerSample, sampleFormat, predictor, samplesPerPixel, byteOrder,
+                        whiteLevel);
+            case DNGTagConstants.COMPRESSION__CCITT_1D:
             case DNGTagConstants.COMPRESSION__GROUP_3_FAX:
             case DNGTagConstants.COMPRESSION__GROUP_4_FAX:
             case DNGTagConstants.COMPRESSION__JPEG:
-            case DNGTagConstants.COMPRESSION__JPEG_LOSSY:
             case DNGTagConstants.COMPRESSION__LZW:
             case DNGTagConstants.COMPRESSION__PACKBITS:
             default:
@@ -414,73 +705,175 @@ public class DNGFile {
         }
     }
 
-    private int[] parseStrippedImage(ImageFileDirectory ifd, int[] image, long imageLength) throws EOFException, CompressionDecoderException {
+    private void parseStrippedImage(ImageFileDirectory ifd, short[] raster, int offset, int scanlineStride,
+                                    int imageWidth, int imageLength, int samplesPerPixel, int scale,
+                                    Supplier<CompressionDecoder> decoderFactory)
+            throws EOFException, CompressionDecoderException {
         long[] stripOffsets = ifd.getStripOffsets();
         long[] stripByteCounts = ifd.getStripByteCounts();
-        // long rowsPerStrip = ifd.getRowsPerStrip();
-        // int stripsPerImage = (int) java.lang.Math.floor((imageLength + rowsPerStrip - 1) / (double) rowsPerStrip);
+        long rowsPerStrip = ifd.hasEntry(DNGTag.ROWS_PER_STRIP)
+                ? ((Number) ifd.getIFDEntry(DNGTag.ROWS_PER_STRIP).getValues()).longValue()
+                : ifd.getImageLength();
+        int stripLength = (int) ((Math.min(rowsPerStrip, ifd.getImageLength()) + scale - 1) / scale);
+        int rowLength = imageWidth * samplesPerPixel;
 
         //we assume that all values of bitsPerSample are equal since it is very uncommon that they differ
-        //currently only stripsPerImage = 1 is supported
-        for (int i = 0; i < stripOffsets.length; i++) {
-            long stripOffset = stripOffsets[i];
-            long stripByteCount = stripByteCounts[i];
-            reader.reset();
-            reader.skipNBytes(stripOffset);
-
-            byte[] strip = new byte[(int) stripByteCount];
-            reader.read(strip);
-            int[] decodedStrip = decoder.decode(strip);
-            int offset = i * decodedStrip.length;
-            int remainingSpace = image.length - offset;
-            System.arraycopy(decodedStrip, 0, image, offset, Math.min(remainingSpace, decodedStrip.length));
-        }
-
-        return image;
+        ByteBuffer[] strips = readSegments(stripOffsets, stripByteCounts);
+        decodeSegments(strips, decoderFactory, (stripNum, decoder, strip) -> {
+            int stripY = stripNum * stripLength;
+            int rows = Math.min(stripLength, imageLength - stripY);
+            if (rows > 0) {
+                decoder.decodeInto(strip, raster, offset + stripY * scanlineStride, scanlineStride, rowLength,
+                        rowLength, rows);
+            }
+        });
     }
 
-    private int[] parseTiledImage(ImageFileDirectory imageFileDirectory, int[] image, long imageWidth,
-                                  long imageLength)
+    private void parseTiledImage(ImageFileDirectory imageFileDirectory, short[] raster, int offset,
+                                 int scanlineStride, int imageWidth, int imageLength, int samplesPerPixel, int scale,
+                                 Supplier<CompressionDecoder> decoderFactory)
             throws EOFException, CompressionDecoderException {
-        long tileWidth = imageFileDirectory.getTileWidth();
-        long tileLength = imageFileDirectory.getTileLength();
+        //tile sizes are multiples of 16, so they can be divided by the scale
+        int tileWidth = (int) imageFileDirectory.getTileWidth() / scale;
+        int tileLength = (int) imageFileDirectory.getTileLength() / scale;
         long[] tileOffsets = imageFileDirectory.getTileOffsets();
         long[] tileByteCounts = imageFileDirectory.getTileByteCounts();
 
         //see TIFF 6 specification, page 67
-        int tilesAcross = (int) ((imageWidth + tileWidth - 1) / tileWidth);
-        int tilesDown = (int) ((imageLength + tileLength - 1) / tileLength);
-
-        int horizontalPadding = (int) ((tileWidth * tilesAcross) % imageWidth);
-        int verticalPadding = (int) ((tileLength * tilesDown) % imageLength);
-
-        for (int tileNum = 0; tileNum < tileOffsets.length; tileNum++) {
-            long tileOffset = tileOffsets[tileNum];
-            long tileByteCount = tileByteCounts[tileNum];
-            reader.reset();
-            reader.skipNBytes(tileOffset);
-
-            byte[] tile = new byte[(int) tileByteCount];
-            reader.read(tile);
-            int[] decodedTile = decoder.decode(tile);
-
-            int currentTileRow = tileNum / tilesAcross;
-            int offset = (int) (currentTileRow * tileWidth * tileLength * tilesAcross);
-            int tileNumInRow = (int) ((tileNum % tilesAcross) * tileWidth);
-            for (int j = 0; j < tileLength; j++) {
-                int currentRow = (int) (j + currentTileRow * tileLength);
-                if (currentRow >= (tilesDown * tileLength) - verticalPadding - 1) {
-                    break;
+        int tilesAcross = (imageWidth + tileWidth - 1) / tileWidth;
+
+        ByteBuffer[] tiles = readSegments(tileOffsets, tileByteCounts);
+        decodeSegments(tiles, decoderFactory, (tileNum, decoder, tile) -> {
+            int tileX = (tileNum % tilesAcross) * tileWidth;
+            int tileY = (tileNum / tilesAcross) * tileLength;
+            //tiles at the right and bottom border are padded, so only the part which lies within the image is written
+            int rows = Math.min(tileLength, imageLength - tileY);
+            int rowLength = Math.min(tileWidth, imageWidth - tileX) * samplesPerPixel;
+            if (rows > 0) {
+                decoder.decodeInto(tile, raster, offset + tileY * scanlineStride + tileX * samplesPerPixel,
+                        scanlineStride, tileWidth * samplesPerPixel, rowLength, rows);
+            }
+        });
+    }
+
+    ByteBuffer[] readSegments(long[] offsets, long[] byteCounts) throws EOFException {
+        ByteBuffer[] segments = new ByteBuffer[offsets.length];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = reader.slice(offsets[i], (int) byteCounts[i]);
+        }
+        return segments;
+    }
+
+    /**
+     * Decodes the given strips or tiles using up to {@link #decodingThreads} threads. Each thread uses its own
+     * decoder since the decoders are not thread safe.
+     */
+    void decodeSegments(ByteBuffer[] segments, Supplier<CompressionDecoder> decoderFactory,
+                                SegmentDecoder segmentDecoder) throws CompressionDecoderException {
+        int threads = Math.min(decodingThreads, segments.length);
+        if (threads <= 1) {
+            CompressionDecoder decoder = decoderFactory.get();
+            try {
+                for (int i = 0; i < segments.length; i++) {
+                    segmentDecoder.decode(i, decoder, segments[i]);
                 }
-                int startIndex = tileNumInRow + (int) (j * tileWidth * tilesAcross) + offset - (currentRow * horizontalPadding);
-                System.arraycopy(decodedTile, (int) (j * tileWidth), image, startIndex, (int) tileWidth);
+            } finally {
+                decoder.close();
             }
+            return;
         }
 
-        return image;
+        AtomicInteger nextSegment = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    CompressionDecoder decoder = decoderFactory.get();
+                    try {
+                        for (int i = nextSegment.getAndIncrement(); i < segments.length; i = nextSegment.getAndIncrement()) {
+                            segmentDecoder.decode(i, decoder, segments[i]);
+                        }
+                    } catch (RuntimeException | CompressionDecoderException e) {
+                        //let the other threads stop early
+                        nextSegment.set(segments.length);
+                        throw e;
+                    } finally {
+                        decoder.close();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompressionDecoderException("The decoding has been interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CompressionDecoderException) {
+                throw (CompressionDecoderException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CompressionDecoderException(String.valueOf(e.getCause()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sets the maximum amount of threads which are used to decode the strips or tiles of an image. <br/>
+     * By default, one thread per available processor is used. A value of 1 decodes all strips and tiles in the
+     * calling thread.
+     *
+     * @param decodingThreads The maximum amount of decoding threads
+     */
+    public void setDecodingThreads(int decodingThreads) {
+        if (decodingThreads < 1) {
+            throw new IllegalArgumentException("At least one decoding thread is required.");
+        }
+        this.decodingThreads = decodingThreads;
+    }
+
+    public int getDecodingThreads() {
+        return decodingThreads;
+    }
+
+    /**
+     * Enables or disables the lazy loading of image file directory entry values. <br/>
+     * If enabled, values which are not stored within the entry itself (e.g. strip offsets, opcode lists or profile
+     * tables) are read on first access of {@link ImageFileDirectoryEntry#getValues()} instead of while parsing the
+     * image file directory. This makes scanning the metadata of a file much cheaper. Note that lazily loaded values
+     * cannot be read after the file has been closed. <br/>
+     * This setting only affects image file directories which have not been read yet.
+     *
+     * @param lazyValueLoading {@code true} if values should be read on first access
+     */
+    public void setLazyValueLoading(boolean lazyValueLoading) {
+        this.lazyValueLoading = lazyValueLoading;
+    }
+
+    public boolean isLazyValueLoading() {
+        return lazyValueLoading;
     }
 
     public File getFile() {
         return file;
     }
+
+    /**
+     * Closes the underlying file. The image file directories which have already been read remain usable, except
+     * for values which are loaded lazily (see {@link #setLazyValueLoading(boolean)}) and have not been accessed yet.
+     *
+     * @throws IOException If the file cannot be closed
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    interface SegmentDecoder {
+        void decode(int index, CompressionDecoder decoder, ByteBuffer segment) throws CompressionDecoderException;
+    }
 }
@@ -40,6 +40,21 @@ public class DNGTagConstants {
     public static final int COMPRESSION__DEFLATE = 8;
     public static final int COMPRESSION__JPEG_LOSSY = 34892;
 
+    //Predictor
+    public static final int PREDICTOR__NONE = 1;
+    public static final int PREDICTOR__HORIZONTAL_DIFFERENCING = 2;
+    public static final int PREDICTOR__FLOATING_POINT = 3;
+    //Predictor defined in DNG
+    public static final int PREDICTOR__HORIZONTAL_DIFFERENCE_X2 = 34892;
+    public static final int PREDICTOR__HORIZONTAL_DIFFERENCE_X4 = 34893;
+    public static final int PREDICTOR__FLOATING_POINT_X2 = 34894;
+    public static final int PREDICTOR__FLOATING_POINT_X4 = 34895;
+
+    //SampleFormat
+    public static final int SAMPLE_FORMAT__UNSIGNED_INTEGER = 1;
+    public static final int SAMPLE_FORMAT__SIGNED_INTEGER = 2;
+    public static final int SAMPLE_FORMAT__IEEE_FLOATING_POINT = 3;
+
     //PlanarConfiguration
     public static final int PLANAR_CONFIGURATION__CHUNKY = 1;
     public static final int PLANAR_CONFIGURATION__PLANAR = 2;
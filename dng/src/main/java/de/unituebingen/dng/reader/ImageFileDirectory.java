@@ -108,6 +108,16 @@ public class ImageFileDirectory {
         return getShortValue(DNGTag.COMPRESSION);
     }
 
+    public int getPredictor() {
+        int predictor = getShortValue(DNGTag.PREDICTOR);
+        return predictor == -1 ? DNGTagConstants.PREDICTOR__NONE : predictor;
+    }
+
+    public int getSampleFormat() {
+        int[] sampleFormat = getShortArray(DNGTag.SAMPLE_FORMAT);
+        return sampleFormat == null ? DNGTagConstants.SAMPLE_FORMAT__UNSIGNED_INTEGER : sampleFormat[0];
+    }
+
     public long getTileWidth() {
         return getLongValue(DNGTag.TILE_WIDTH);
     }
@@ -181,6 +191,28 @@ public class ImageFileDirectory {
         return getLongArray(DNGTag.WHITE_LEVEL);
     }
 
+    /**
+     * @return The white level of an image with floating point samples, which may be stored as an integer or as a
+     * floating point number, 1.0 if it is absent
+     */
+    public double getFloatingPointWhiteLevel() {
+        if (!hasEntry(DNGTag.WHITE_LEVEL)) {
+            return 1;
+        }
+        Object values = getIFDEntry(DNGTag.WHITE_LEVEL).getValues();
+        if (values instanceof float[]) {
+            return ((float[]) values)[0];
+        }
+        if (values instanceof double[]) {
+            return ((double[]) values)[0];
+        }
+        if (values instanceof Number) {
+            return ((Number) values).doubleValue();
+        }
+        long[] whiteLevel = getWhiteLevel();
+        return whiteLevel == null ? 1 : whiteLevel[0];
+    }
+
     public long getRowsPerStrip() {
         return getLongValue(DNGTag.ROWS_PER_STRIP);
     }
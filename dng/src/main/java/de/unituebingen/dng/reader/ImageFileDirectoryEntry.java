@@ -3,12 +3,16 @@ package de.unituebingen.dng.reader;
 import de.unituebingen.dng.reader.util.Rational;
 import de.unituebingen.dng.reader.util.SignedRational;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Objects;
 
 /**
  * @author Eugen Ljavin
  * <p>
- * A class which represents an image file directory entry as specified in TIFF 6.0 specification.
+ * A class which represents an image file directory entry as specified in TIFF 6.0 specification. <br/>
+ * The values of an entry can be loaded lazily: In this case only the tag, field type, count and value offset are
+ * known after parsing the image file directory and the values are read by a {@link ValueReader} on first access.
  */
 public class ImageFileDirectoryEntry {
 
@@ -16,8 +20,10 @@ public class ImageFileDirectoryEntry {
     private int tagId;
     private DNGFieldType fieldType;
     private long count;
+    private long valueOffset = -1;
 
-    private Object values;
+    private volatile Object values;
+    private ValueReader valueReader;
 
     public ImageFileDirectoryEntry(int tag, DNGFieldType fieldType, long count, Object values) {
         this.tag = DNGTag.getById(tag);
@@ -27,10 +33,76 @@ public class ImageFileDirectoryEntry {
         this.tagId = tag;
     }
 
+    /**
+     * Creates an entry whose values are read on first access.
+     *
+     * @param tag         The tag of the entry
+     * @param fieldType   The field type of the values
+     * @param count       The amount of values
+     * @param valueOffset The file offset of the values
+     * @param valueReader The reader which is used to read the values
+     */
+    public ImageFileDirectoryEntry(int tag, DNGFieldType fieldType, long count, long valueOffset, ValueReader valueReader) {
+        this(tag, fieldType, count, null);
+        this.valueOffset = valueOffset;
+        this.valueReader = Objects.requireNonNull(valueReader);
+    }
+
+    /**
+     * Returns the values of this entry. If the values have not been loaded yet, they are read from the file.
+     *
+     * @return A single value if the count is 1, an array of values otherwise
+     * @throws UncheckedIOException  If the values cannot be read from the file
+     * @throws IllegalStateException If the values are invalid
+     */
     public Object getValues() {
+        Object values = this.values;
+        if (values == null && valueReader != null) {
+            values = loadValues();
+        }
+        return values;
+    }
+
+    private synchronized Object loadValues() {
+        if (values == null) {
+            try {
+                values = valueReader.read(fieldType, count, valueOffset);
+            } catch (IOException e) {
+                throw new UncheckedIOException("The values of tag " + tagId + " cannot be read.", e);
+            } catch (DNGReadException e) {
+                throw new IllegalStateException("The values of tag " + tagId + " are invalid: " + e.getMessage(), e);
+            }
+            valueReader = null;
+        }
         return values;
     }
 
+    /**
+     * Checks if the values of this entry have already been loaded.
+     *
+     * @return {@code true} if the values are available without reading the file, {@code false} if not
+     */
+    public boolean isLoaded() {
+        return values != null || valueReader == null;
+    }
+
+    public DNGFieldType getFieldType() {
+        return fieldType;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the file offset of the values of this entry.
+     *
+     * @return The offset of the values or -1 if the values are stored within the entry itself
+     */
+    public long getValueOffset() {
+        return valueOffset;
+    }
+
     public DNGTag getTag() {
         return tag;
     }
@@ -49,6 +121,8 @@ public class ImageFileDirectoryEntry {
     }
 
     public String valuesAsString() {
+        //make sure that lazily loaded values are available
+        getValues();
         StringBuilder stringBuilder = new StringBuilder();
         if (values instanceof String[]) {
             String[] values = (String[]) this.values;
@@ -108,4 +182,12 @@ public class ImageFileDirectoryEntry {
         }
         return stringBuilder.toString();
     }
+
+    /**
+     * Reads the values of an image file directory entry from the file.
+     */
+    @FunctionalInterface
+    public interface ValueReader {
+        Object read(DNGFieldType fieldType, long count, long valueOffset) throws IOException, DNGReadException;
+    }
 }
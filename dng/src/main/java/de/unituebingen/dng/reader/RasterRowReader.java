@@ -0,0 +1,143 @@
+package de.unituebingen.dng.reader;
+
+import de.unituebingen.dng.reader.compression.CompressionDecoder;
+import de.unituebingen.dng.reader.compression.CompressionDecoderException;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Reads the image raster of an image file directory row by row from top to bottom. <br/>
+ * Only the strip or the row of tiles which contains the requested rows is decoded at a time, so the memory which is
+ * needed to read the raster is bounded by the size of a strip respectively a row of tiles instead of the size of the
+ * image. The tiles of a row are decoded in parallel like in {@link DNGFile#parseRasterOfImageFileDirectory(ImageFileDirectory)}.
+ * <p>
+ * Use {@link DNGFile#openRasterRowReader(ImageFileDirectory)} to create a reader.
+ */
+public class RasterRowReader {
+
+    private final DNGFile dngFile;
+    private final Supplier<CompressionDecoder> decoderFactory;
+
+    private final int imageWidth;
+    private final int imageLength;
+    private final int samplesPerPixel;
+    private final int rowLength;
+    private final int segmentWidth;
+    private final int segmentLength;
+    private final int segmentsAcross;
+    private final long[] segmentOffsets;
+    private final long[] segmentByteCounts;
+
+    //the decoded strip or row of tiles
+    private short[] segmentRows;
+    private int decodedSegmentRow = -1;
+    private int nextRow;
+
+    RasterRowReader(DNGFile dngFile, ImageFileDirectory imageFileDirectory,
+                    Supplier<CompressionDecoder> decoderFactory) {
+        this.dngFile = dngFile;
+        this.decoderFactory = decoderFactory;
+        this.imageWidth = (int) imageFileDirectory.getImageWidth();
+        this.imageLength = (int) imageFileDirectory.getImageLength();
+        this.samplesPerPixel = imageFileDirectory.getSamplesPerPixel();
+        this.rowLength = imageWidth * samplesPerPixel;
+        if (!imageFileDirectory.hasEntry(DNGTag.STRIP_OFFSETS)) {
+            segmentWidth = (int) imageFileDirectory.getTileWidth();
+            segmentLength = (int) imageFileDirectory.getTileLength();
+            segmentOffsets = imageFileDirectory.getTileOffsets();
+            segmentByteCounts = imageFileDirectory.getTileByteCounts();
+            //see TIFF 6 specification, page 67
+            segmentsAcross = (imageWidth + segmentWidth - 1) / segmentWidth;
+        } else {
+            long rowsPerStrip = imageFileDirectory.hasEntry(DNGTag.ROWS_PER_STRIP)
+                    ? ((Number) imageFileDirectory.getIFDEntry(DNGTag.ROWS_PER_STRIP).getValues()).longValue()
+                    : imageLength;
+            segmentWidth = imageWidth;
+            segmentLength = (int) Math.min(rowsPerStrip, imageLength);
+            segmentOffsets = imageFileDirectory.getStripOffsets();
+            segmentByteCounts = imageFileDirectory.getStripByteCounts();
+            segmentsAcross = 1;
+        }
+    }
+
+    /**
+     * Reads the next rows of the image raster. The samples are written like in
+     * {@link DNGFile#parseRasterOfImageFileDirectory(ImageFileDirectory, short[], int, int)}.
+     *
+     * @param raster         The array to write the samples to
+     * @param offset         The index of the first sample of the first row
+     * @param scanlineStride The distance between the first samples of two consecutive rows in the array
+     * @param rows           The amount of rows to read
+     * @throws CompressionDecoderException If something goes wrong during image decoding
+     * @throws EOFException                If the end of file has been reached
+     */
+    public void readRows(short[] raster, int offset, int scanlineStride, int rows)
+            throws CompressionDecoderException, EOFException {
+        if (rows < 0 || nextRow + rows > imageLength) {
+            throw new IllegalArgumentException("The rows " + nextRow + " to " + (nextRow + rows)
+                    + " exceed the image length " + imageLength + ".");
+        }
+        for (int i = 0; i < rows; i++, nextRow++) {
+            int segmentRow = nextRow / segmentLength;
+            if (segmentRow != decodedSegmentRow) {
+                decodeSegmentRow(segmentRow);
+            }
+            System.arraycopy(segmentRows, (nextRow - segmentRow * segmentLength) * rowLength,
+                    raster, offset + i * scanlineStride, rowLength);
+        }
+    }
+
+    /**
+     * Skips the next rows of the image raster. Strips and tiles which only contain skipped rows are not decoded.
+     *
+     * @param rows The amount of rows to skip
+     */
+    public void skipRows(int rows) {
+        if (rows < 0 || nextRow + rows > imageLength) {
+            throw new IllegalArgumentException("The rows " + nextRow + " to " + (nextRow + rows)
+                    + " exceed the image length " + imageLength + ".");
+        }
+        nextRow += rows;
+    }
+
+    private void decodeSegmentRow(int segmentRow) throws CompressionDecoderException, EOFException {
+        int firstRow = segmentRow * segmentLength;
+        int rows = Math.min(segmentLength, imageLength - firstRow);
+        if (segmentRows == null) {
+            segmentRows = new short[segmentLength * rowLength];
+        }
+        int first = segmentRow * segmentsAcross;
+        ByteBuffer[] segments = dngFile.readSegments(Arrays.copyOfRange(segmentOffsets, first, first + segmentsAcross),
+                Arrays.copyOfRange(segmentByteCounts, first, first + segmentsAcross));
+        dngFile.decodeSegments(segments, decoderFactory, (segmentNum, decoder, segment) -> {
+            int segmentX = segmentNum * segmentWidth;
+            //tiles at the right border are padded, so only the part which lies within the image is written
+            int width = Math.min(segmentWidth, imageWidth - segmentX) * samplesPerPixel;
+            decoder.decodeInto(segment, segmentRows, segmentX * samplesPerPixel, rowLength,
+                    segmentWidth * samplesPerPixel, width, rows);
+        });
+        decodedSegmentRow = segmentRow;
+    }
+
+    /**
+     * @return The index of the row which is read next
+     */
+    public int getNextRow() {
+        return nextRow;
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageLength() {
+        return imageLength;
+    }
+
+    public int getSamplesPerPixel() {
+        return samplesPerPixel;
+    }
+}
@@ -0,0 +1,805 @@
+package de.unituebingen.dng.reader.compression;
+
+import de.unituebingen.dng.reader.io.BitReader;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A JPEG decoder for the baseline and extended sequential (8 bit, Huffman coded) DCT modes of operation as specified
+ * in the JPEG specification. It is used for the JPEG compressed preview images of DNG files and for lossy compressed
+ * DNG raw data. <br/>
+ * The image can be decoded at 1/2, 1/4 or 1/8 of its size. In this case only the low frequency coefficients of each
+ * block are transformed by a reduced 4x4 or 2x2 inverse DCT, at 1/8 of the size only the DC coefficient is used. <br/>
+ * Images with three components are converted from YCbCr to RGB unless they are marked as RGB images. Subsampled
+ * components are upsampled by replication. The decoded samples are interleaved and 8 bits wide. <br/>
+ * Progressive and arithmetic coded images are not supported.
+ */
+public class BaselineJPEGDecoder implements CompressionDecoder {
+
+    private static final int SOF0_MARKER = 0xFFC0;
+    private static final int SOF1_MARKER = 0xFFC1;
+    private static final int DHT_MARKER = 0xFFC4;
+    private static final int SOI_MARKER = 0xFFD8;
+    private static final int EOI_MARKER = 0xFFD9;
+    private static final int SOS_MARKER = 0xFFDA;
+    private static final int DQT_MARKER = 0xFFDB;
+    private static final int DRI_MARKER = 0xFFDD;
+    private static final int APP14_MARKER = 0xFFEE;
+
+    //the position of the coefficients of the zig-zag sequence in a block, see JPEG specification, page 30
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63,
+            //entries for run lengths beyond the end of a block of corrupt data
+            63, 63, 63, 63, 63, 63, 63, 63, 63, 63, 63, 63, 63, 63, 63, 63
+    };
+
+    //the scale factors of the AAN inverse DCT, see Arai, Agui and Nakajima, "A fast DCT-SQ scheme for images"
+    private static final float[] AAN_SCALE_FACTORS = new float[8];
+    //YCbCr to RGB conversion tables (16 bit fixed point), see JFIF specification
+    private static final int[] CR_TO_R = new int[256];
+    private static final int[] CB_TO_B = new int[256];
+    private static final int[] CR_TO_G = new int[256];
+    private static final int[] CB_TO_G = new int[256];
+
+    static {
+        AAN_SCALE_FACTORS[0] = 1;
+        for (int k = 1; k < 8; k++) {
+            AAN_SCALE_FACTORS[k] = (float) (Math.cos(k * Math.PI / 16) * Math.sqrt(2));
+        }
+        for (int i = 0; i < 256; i++) {
+            int x = i - 128;
+            CR_TO_R[i] = (int) Math.round(1.40200 * 65536 * x);
+            CB_TO_B[i] = (int) Math.round(1.77200 * 65536 * x);
+            CR_TO_G[i] = (int) Math.round(-0.71414 * 65536 * x);
+            CB_TO_G[i] = (int) Math.round(-0.34414 * 65536 * x) + 32768;
+        }
+    }
+
+    private final int scale;
+    private final int blockSize;
+    //the cosine table of the reduced inverse DCT, see #reducedIDCT
+    private final float[] reducedCosines;
+
+    private final int[][] quantizationTables = new int[4][];
+    private final JPEGHuffmanDecoder[] dcTables = new JPEGHuffmanDecoder[4];
+    private final JPEGHuffmanDecoder[] acTables = new JPEGHuffmanDecoder[4];
+    private int restartInterval;
+    private int adobeTransform = -1;
+
+    private int numOfLinesY;
+    private int numOfSamplesPerLineX;
+    private Component[] components;
+    private int maxHorizontalSampling;
+    private int maxVerticalSampling;
+    private int mcusPerLine;
+    private int mcusPerColumn;
+
+    //per block working memory, reused for all blocks
+    private final int[] coefficients = new int[64];
+    private final float[] workspace = new float[64];
+
+    /**
+     * Creates a decoder which decodes images at their full size.
+     */
+    public BaselineJPEGDecoder() {
+        this(1);
+    }
+
+    /**
+     * @param scale The denominator of the size at which images are decoded: 1, 2, 4 or 8
+     */
+    public BaselineJPEGDecoder(int scale) {
+        if (scale != 1 && scale != 2 && scale != 4 && scale != 8) {
+            throw new IllegalArgumentException("The scale has to be 1, 2, 4 or 8.");
+        }
+        this.scale = scale;
+        this.blockSize = 8 / scale;
+        this.reducedCosines = new float[blockSize * blockSize];
+        for (int x = 0; x < blockSize; x++) {
+            for (int u = 0; u < blockSize; u++) {
+                double c = u == 0 ? Math.sqrt(0.5) : 1;
+                reducedCosines[x * blockSize + u] = (float) (c * Math.cos((2 * x + 1) * u * Math.PI / (2 * blockSize)) / 2);
+            }
+        }
+    }
+
+    /**
+     * Checks if the given data is a JPEG image which can be decoded by this decoder, i.e. if its frame header is a
+     * baseline or an extended sequential Huffman coded DCT frame header.
+     *
+     * @param data The JPEG data
+     * @return {@code true} if the data can be decoded, {@code false} if not
+     */
+    public static boolean isBaselineJPEG(ByteBuffer data) {
+        ByteBuffer buffer = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if (buffer.remaining() < 4 || (buffer.getShort() & 0xFFFF) != SOI_MARKER) {
+            return false;
+        }
+        while (buffer.remaining() >= 4) {
+            int marker = buffer.getShort() & 0xFFFF;
+            int length = buffer.getShort() & 0xFFFF;
+            if (marker >= 0xFFC0 && marker <= 0xFFCF && marker != DHT_MARKER && marker != 0xFFC8 && marker != 0xFFCC) {
+                return marker == SOF0_MARKER || marker == SOF1_MARKER;
+            }
+            if (marker == SOS_MARKER || length < 2 || buffer.remaining() < length - 2) {
+                return false;
+            }
+            buffer.position(buffer.position() + length - 2);
+        }
+        return false;
+    }
+
+    /**
+     * @return The denominator of the size at which images are decoded
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    @Override
+    public int[] decode(byte[] data) throws CompressionDecoderException {
+        Objects.requireNonNull(data);
+        return decode(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Decodes the image. The returned samples are interleaved, their amount is the (scaled) width times the (scaled)
+     * height times the amount of components of the image.
+     */
+    @Override
+    public int[] decode(ByteBuffer data) throws CompressionDecoderException {
+        Objects.requireNonNull(data);
+        byte[][] planes = decodePlanes(data);
+        int width = scaledWidth();
+        int height = scaledHeight();
+        short[] decodedImg = new short[width * height * components.length];
+        writeSamples(planes, decodedImg, 0, width * components.length, width * components.length, height);
+
+        int[] image = new int[decodedImg.length];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = decodedImg[i];
+        }
+        return image;
+    }
+
+    /**
+     * Decodes the image into the raster. If the image is decoded at a reduced size, all dimensions refer to the
+     * reduced size. Rows of the image are {@code width * components} samples wide, so {@code segmentWidth} is not
+     * needed.
+     */
+    @Override
+    public void decodeInto(ByteBuffer data, short[] raster, int offset, int rowStride, int segmentWidth, int width,
+                           int rows) throws CompressionDecoderException {
+        Objects.requireNonNull(data);
+        byte[][] planes = decodePlanes(data);
+        width = Math.min(width, scaledWidth() * components.length);
+        rows = Math.min(rows, scaledHeight());
+        writeSamples(planes, raster, offset, rowStride, width, rows);
+    }
+
+    private int scaledWidth() {
+        return (numOfSamplesPerLineX + scale - 1) / scale;
+    }
+
+    private int scaledHeight() {
+        return (numOfLinesY + scale - 1) / scale;
+    }
+
+    /**
+     * Reads all markers and decodes all scans.
+     *
+     * @return The decoded (and possibly scaled) samples of each component, see {@link Component}
+     */
+    private byte[][] decodePlanes(ByteBuffer data) throws CompressionDecoderException {
+        ByteBuffer buffer = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+        components = null;
+        restartInterval = 0;
+        adobeTransform = -1;
+        try {
+            if ((buffer.getShort() & 0xFFFF) != SOI_MARKER) {
+                throw new CompressionDecoderException("An error occurred during JPEG decoding. The SOI marker is not set. " +
+                        "The data is probably not JPEG encoded");
+            }
+
+            byte[][] planes = null;
+            while (true) {
+                int marker = buffer.getShort() & 0xFFFF;
+                if (marker == EOI_MARKER) {
+                    break;
+                }
+                if (marker == 0xFFFF) {
+                    //fill byte before a marker
+                    buffer.position(buffer.position() - 1);
+                    continue;
+                }
+                int length = buffer.getShort() & 0xFFFF;
+                int end = buffer.position() + length - 2;
+                switch (marker) {
+                    case SOF0_MARKER:
+                    case SOF1_MARKER:
+                        readFrameHeader(buffer);
+                        planes = new byte[components.length][];
+                        for (int i = 0; i < components.length; i++) {
+                            planes[i] = new byte[components[i].planeWidth * components[i].planeHeight];
+                        }
+                        break;
+                    case DHT_MARKER:
+                        readHuffmanTables(buffer, end);
+                        break;
+                    case DQT_MARKER:
+                        readQuantizationTables(buffer, end);
+                        break;
+                    case DRI_MARKER:
+                        restartInterval = buffer.getShort() & 0xFFFF;
+                        break;
+                    case APP14_MARKER:
+                        //Adobe segment, the last byte is the color transform
+                        if (length >= 14 && buffer.get(buffer.position()) == 'A' && buffer.get(buffer.position() + 1) == 'd') {
+                            adobeTransform = buffer.get(end - 1) & 0xFF;
+                        }
+                        break;
+                    case SOS_MARKER:
+                        if (planes == null) {
+                            throw new CompressionDecoderException("An error occurred during JPEG decoding. The scan starts before the frame header.");
+                        }
+                        Component[] scanComponents = readScanHeader(buffer);
+                        end = decodeScan(buffer.position(end), scanComponents, planes);
+                        break;
+                    default:
+                        if (marker >= 0xFFC2 && marker <= 0xFFCF && marker != 0xFFC4 && marker != 0xFFC8 && marker != 0xFFCC) {
+                            throw new CompressionDecoderException(String.format(
+                                    "The JPEG mode of operation of frame header %X is currently not supported.", marker));
+                        }
+                        break;
+                }
+                buffer.position(end);
+                if (buffer.remaining() < 2) {
+                    break;
+                }
+            }
+            if (planes == null) {
+                throw new CompressionDecoderException("An error occurred during JPEG decoding. No frame header found.");
+            }
+            return planes;
+        } catch (RuntimeException e) {
+            //e.g. a BufferUnderflowException or IndexOutOfBoundsException for truncated or corrupt data
+            throw new CompressionDecoderException("An error occurred during JPEG decoding. The data is corrupt: " + e);
+        }
+    }
+
+    private void readFrameHeader(ByteBuffer buffer) throws CompressionDecoderException {
+        int precision = buffer.get() & 0xFF;
+        if (precision != 8) {
+            throw new CompressionDecoderException("Only 8 bit DCT based JPEG images are supported.");
+        }
+        numOfLinesY = buffer.getShort() & 0xFFFF;
+        numOfSamplesPerLineX = buffer.getShort() & 0xFFFF;
+        components = new Component[buffer.get() & 0xFF];
+        maxHorizontalSampling = 1;
+        maxVerticalSampling = 1;
+        for (int i = 0; i < components.length; i++) {
+            Component component = new Component();
+            component.id = buffer.get() & 0xFF;
+            int sampling = buffer.get() & 0xFF;
+            component.horizontalSampling = sampling >> 4;
+            component.verticalSampling = sampling & 0xF;
+            component.quantizationTable = buffer.get() & 0xFF;
+            if (component.horizontalSampling < 1 || component.verticalSampling < 1) {
+                throw new CompressionDecoderException("An error occurred during JPEG decoding. Invalid sampling factors.");
+            }
+            maxHorizontalSampling = Math.max(maxHorizontalSampling, component.horizontalSampling);
+            maxVerticalSampling = Math.max(maxVerticalSampling, component.verticalSampling);
+            components[i] = component;
+        }
+        if (numOfLinesY == 0) {
+            throw new CompressionDecoderException("JPEG images with a DNL marker are not supported.");
+        }
+
+        //see JPEG specification, page 27
+        mcusPerLine = (numOfSamplesPerLineX + 8 * maxHorizontalSampling - 1) / (8 * maxHorizontalSampling);
+        mcusPerColumn = (numOfLinesY + 8 * maxVerticalSampling - 1) / (8 * maxVerticalSampling);
+        for (Component component : components) {
+            if (maxHorizontalSampling % component.horizontalSampling != 0
+                    || maxVerticalSampling % component.verticalSampling != 0) {
+                throw new CompressionDecoderException("Only integral sampling factor ratios are supported.");
+            }
+            component.width = (numOfSamplesPerLineX * component.horizontalSampling + maxHorizontalSampling - 1) / maxHorizontalSampling;
+            component.height = (numOfLinesY * component.verticalSampling + maxVerticalSampling - 1) / maxVerticalSampling;
+            component.planeWidth = mcusPerLine * component.horizontalSampling * blockSize;
+            component.planeHeight = mcusPerColumn * component.verticalSampling * blockSize;
+        }
+    }
+
+    private void readHuffmanTables(ByteBuffer buffer, int end) {
+        //see JPEG specification, page 40
+        while (buffer.position() < end) {
+            int tableClassAndDestination = buffer.get() & 0xFF;
+            byte[] bits = new byte[16];
+            int amountHuffValues = 0;
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = buffer.get();
+                amountHuffValues += bits[i] & 0xFF;
+            }
+            byte[] huffValues = new byte[amountHuffValues];
+            buffer.get(huffValues);
+
+            JPEGHuffmanDecoder decoder = new JPEGHuffmanDecoder(bits, huffValues);
+            if ((tableClassAndDestination >> 4) == 0) {
+                dcTables[tableClassAndDestination & 3] = decoder;
+            } else {
+                acTables[tableClassAndDestination & 3] = decoder;
+            }
+        }
+    }
+
+    private void readQuantizationTables(ByteBuffer buffer, int end) {
+        //see JPEG specification, page 39
+        while (buffer.position() < end) {
+            int precisionAndDestination = buffer.get() & 0xFF;
+            //the table is stored in natural order
+            int[] table = new int[64];
+            for (int k = 0; k < 64; k++) {
+                table[ZIGZAG[k]] = (precisionAndDestination >> 4) == 0 ? buffer.get() & 0xFF : buffer.getShort() & 0xFFFF;
+            }
+            quantizationTables[precisionAndDestination & 3] = table;
+        }
+    }
+
+    private Component[] readScanHeader(ByteBuffer buffer) throws CompressionDecoderException {
+        //see JPEG specification, page 37
+        Component[] scanComponents = new Component[buffer.get() & 0xFF];
+        for (int i = 0; i < scanComponents.length; i++) {
+            int id = buffer.get() & 0xFF;
+            int tables = buffer.get() & 0xFF;
+            for (Component component : components) {
+                if (component.id == id) {
+                    scanComponents[i] = component;
+                }
+            }
+            Component component = scanComponents[i];
+            if (component == null) {
+                throw new CompressionDecoderException("An error occurred during JPEG decoding. Unknown scan component " + id);
+            }
+            component.dcTable = dcTables[tables >> 4];
+            component.acTable = acTables[tables & 3];
+            int[] quantizationTable = quantizationTables[component.quantizationTable];
+            if (component.dcTable == null || component.acTable == null || quantizationTable == null) {
+                throw new CompressionDecoderException("An error occurred during JPEG decoding. A table is missing.");
+            }
+            component.dequantization = dequantizationTable(quantizationTable);
+        }
+        //spectral selection and successive approximation are fixed for sequential images
+        buffer.position(buffer.position() + 3);
+        return scanComponents;
+    }
+
+    /**
+     * Returns the factors by which the coefficients are multiplied before the inverse DCT, in natural order. For the
+     * AAN inverse DCT the scale factors and the division by 8 are included.
+     */
+    private float[] dequantizationTable(int[] quantizationTable) {
+        float[] table = new float[64];
+        for (int i = 0; i < 64; i++) {
+            table[i] = quantizationTable[i];
+            if (scale == 1) {
+                table[i] *= AAN_SCALE_FACTORS[i >> 3] * AAN_SCALE_FACTORS[i & 7] / 8;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Decodes the entropy coded data of a scan, see JPEG specification, page 103ff.
+     *
+     * @return The position of the first byte after the entropy coded data
+     */
+    private int decodeScan(ByteBuffer buffer, Component[] scanComponents, byte[][] planes)
+            throws CompressionDecoderException {
+        BitReader bitReader = new BitReader(buffer, true);
+        int[] planeIndices = new int[scanComponents.length];
+        for (int i = 0; i < scanComponents.length; i++) {
+            planeIndices[i] = Arrays.asList(components).indexOf(scanComponents[i]);
+            scanComponents[i].dcPrediction = 0;
+        }
+
+        int mcus;
+        int mcusAcross;
+        if (scanComponents.length == 1) {
+            //a non interleaved scan consists of single blocks, see JPEG specification, page 25
+            Component component = scanComponents[0];
+            mcusAcross = (component.width + 7) / 8;
+            mcus = mcusAcross * ((component.height + 7) / 8);
+        } else {
+            mcusAcross = mcusPerLine;
+            mcus = mcusPerLine * mcusPerColumn;
+        }
+
+        try {
+            for (int mcu = 0; mcu < mcus; mcu++) {
+                if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                    bitReader.skipToNextMarker();
+                    for (Component component : scanComponents) {
+                        component.dcPrediction = 0;
+                    }
+                }
+                int mcuX = mcu % mcusAcross;
+                int mcuY = mcu / mcusAcross;
+                if (scanComponents.length == 1) {
+                    Component component = scanComponents[0];
+                    decodeBlock(bitReader, component, planes[planeIndices[0]], mcuX, mcuY);
+                } else {
+                    for (int i = 0; i < scanComponents.length; i++) {
+                        Component component = scanComponents[i];
+                        for (int v = 0; v < component.verticalSampling; v++) {
+                            for (int h = 0; h < component.horizontalSampling; h++) {
+                                decodeBlock(bitReader, component, planes[planeIndices[i]],
+                                        mcuX * component.horizontalSampling + h, mcuY * component.verticalSampling + v);
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            throw new CompressionDecoderException("The end of file has been reached unexpectedly.");
+        }
+
+        //continue at the first marker after the entropy coded data
+        return findMarker(buffer, buffer.position());
+    }
+
+    /**
+     * Returns the position of the first marker (other than a restart marker) at or after the given position.
+     */
+    private static int findMarker(ByteBuffer buffer, int position) {
+        for (int i = position; i + 1 < buffer.limit(); i++) {
+            if (buffer.get(i) == (byte) 0xFF) {
+                int markerByte = buffer.get(i + 1) & 0xFF;
+                if (markerByte != 0 && markerByte != 0xFF && (markerByte < 0xD0 || markerByte > 0xD7)) {
+                    return i;
+                }
+            }
+        }
+        return buffer.limit();
+    }
+
+    /**
+     * Decodes a single block and writes its inverse DCT to the plane of its component.
+     */
+    private void decodeBlock(BitReader bitReader, Component component, byte[] plane, int blockX, int blockY)
+            throws EOFException, CompressionDecoderException {
+        int[] coef = coefficients;
+        //DC coefficient, see JPEG specification, page 104
+        int category = component.dcTable.decode(bitReader);
+        component.dcPrediction += category == 0 ? 0 : bitReader.readSignedBits(category);
+        coef[0] = component.dcPrediction;
+
+        //AC coefficients, see JPEG specification, page 105f
+        JPEGHuffmanDecoder acTable = component.acTable;
+        boolean acCoefficients = false;
+        for (int k = 1; k < 64; k++) {
+            int runAndSize = acTable.decode(bitReader);
+            int size = runAndSize & 0xF;
+            int run = runAndSize >> 4;
+            if (size == 0) {
+                if (run != 15) {
+                    break;
+                }
+                k += 15;
+                continue;
+            }
+            k += run;
+            coef[ZIGZAG[k]] = bitReader.readSignedBits(size);
+            acCoefficients = true;
+        }
+
+        int destination = blockY * blockSize * component.planeWidth + blockX * blockSize;
+        if (scale == 8 || !acCoefficients) {
+            fillBlock(plane, destination, component.planeWidth, coef[0] * component.dequantization[0] * dcFactor());
+        } else if (scale == 1) {
+            fastIDCT(component.dequantization, plane, destination, component.planeWidth);
+        } else {
+            reducedIDCT(component.dequantization, plane, destination, component.planeWidth);
+        }
+        Arrays.fill(coef, 0);
+    }
+
+    /**
+     * Returns the factor by which the dequantized DC coefficient has to be multiplied to get the value of a block
+     * without AC coefficients.
+     */
+    private float dcFactor() {
+        //the AAN dequantization table already includes the division by 8
+        return scale == 1 ? 1 : 0.125f;
+    }
+
+    private void fillBlock(byte[] plane, int destination, int planeWidth, float value) {
+        byte sample = toSample(value);
+        for (int y = 0; y < blockSize; y++) {
+            int row = destination + y * planeWidth;
+            for (int x = 0; x < blockSize; x++) {
+                plane[row + x] = sample;
+            }
+        }
+    }
+
+    /**
+     * The floating point inverse DCT of Arai, Agui and Nakajima as implemented by the Independent JPEG Group (jidctflt.c).
+     */
+    private void fastIDCT(float[] dequantization, byte[] plane, int destination, int planeWidth) {
+        int[] coef = coefficients;
+        float[] ws = workspace;
+        //columns
+        for (int c = 0; c < 8; c++) {
+            if (coef[8 + c] == 0 && coef[16 + c] == 0 && coef[24 + c] == 0 && coef[32 + c] == 0
+                    && coef[40 + c] == 0 && coef[48 + c] == 0 && coef[56 + c] == 0) {
+                float dc = coef[c] * dequantization[c];
+                for (int r = 0; r < 64; r += 8) {
+                    ws[r + c] = dc;
+                }
+                continue;
+            }
+            //even part
+            float tmp0 = coef[c] * dequantization[c];
+            float tmp1 = coef[16 + c] * dequantization[16 + c];
+            float tmp2 = coef[32 + c] * dequantization[32 + c];
+            float tmp3 = coef[48 + c] * dequantization[48 + c];
+
+            float tmp10 = tmp0 + tmp2;
+            float tmp11 = tmp0 - tmp2;
+            float tmp13 = tmp1 + tmp3;
+            float tmp12 = (tmp1 - tmp3) * 1.414213562f - tmp13;
+
+            tmp0 = tmp10 + tmp13;
+            tmp3 = tmp10 - tmp13;
+            tmp1 = tmp11 + tmp12;
+            tmp2 = tmp11 - tmp12;
+
+            //odd part
+            float tmp4 = coef[8 + c] * dequantization[8 + c];
+            float tmp5 = coef[24 + c] * dequantization[24 + c];
+            float tmp6 = coef[40 + c] * dequantization[40 + c];
+            float tmp7 = coef[56 + c] * dequantization[56 + c];
+
+            float z13 = tmp6 + tmp5;
+            float z10 = tmp6 - tmp5;
+            float z11 = tmp4 + tmp7;
+            float z12 = tmp4 - tmp7;
+
+            tmp7 = z11 + z13;
+            tmp11 = (z11 - z13) * 1.414213562f;
+            float z5 = (z10 + z12) * 1.847759065f;
+            tmp10 = z5 - z12 * 1.082392200f;
+            tmp12 = z5 - z10 * 2.613125930f;
+
+            tmp6 = tmp12 - tmp7;
+            tmp5 = tmp11 - tmp6;
+            tmp4 = tmp10 - tmp5;
+
+            ws[c] = tmp0 + tmp7;
+            ws[56 + c] = tmp0 - tmp7;
+            ws[8 + c] = tmp1 + tmp6;
+            ws[48 + c] = tmp1 - tmp6;
+            ws[16 + c] = tmp2 + tmp5;
+            ws[40 + c] = tmp2 - tmp5;
+            ws[24 + c] = tmp3 + tmp4;
+            ws[32 + c] = tmp3 - tmp4;
+        }
+
+        //rows
+        for (int r = 0; r < 64; r += 8) {
+            float tmp10 = ws[r] + ws[r + 4];
+            float tmp11 = ws[r] - ws[r + 4];
+            float tmp13 = ws[r + 2] + ws[r + 6];
+            float tmp12 = (ws[r + 2] - ws[r + 6]) * 1.414213562f - tmp13;
+
+            float tmp0 = tmp10 + tmp13;
+            float tmp3 = tmp10 - tmp13;
+            float tmp1 = tmp11 + tmp12;
+            float tmp2 = tmp11 - tmp12;
+
+            float z13 = ws[r + 5] + ws[r + 3];
+            float z10 = ws[r + 5] - ws[r + 3];
+            float z11 = ws[r + 1] + ws[r + 7];
+            float z12 = ws[r + 1] - ws[r + 7];
+
+            float tmp7 = z11 + z13;
+            tmp11 = (z11 - z13) * 1.414213562f;
+            float z5 = (z10 + z12) * 1.847759065f;
+            tmp10 = z5 - z12 * 1.082392200f;
+            tmp12 = z5 - z10 * 2.613125930f;
+
+            float tmp6 = tmp12 - tmp7;
+            float tmp5 = tmp11 - tmp6;
+            float tmp4 = tmp10 - tmp5;
+
+            int row = destination + (r >> 3) * planeWidth;
+            plane[row] = toSample(tmp0 + tmp7);
+            plane[row + 7] = toSample(tmp0 - tmp7);
+            plane[row + 1] = toSample(tmp1 + tmp6);
+            plane[row + 6] = toSample(tmp1 - tmp6);
+            plane[row + 2] = toSample(tmp2 + tmp5);
+            plane[row + 5] = toSample(tmp2 - tmp5);
+            plane[row + 3] = toSample(tmp3 + tmp4);
+            plane[row + 4] = toSample(tmp3 - tmp4);
+        }
+    }
+
+    /**
+     * An inverse DCT of the low frequency {@code blockSize x blockSize} coefficients which samples the full inverse
+     * DCT at the centers of {@code scale x scale} areas of the block, so the result is the block at a reduced size.
+     * Since {@code cos((2 (n - 1 - x) + 1) u pi / 2n) = (-1)^u cos((2x + 1) u pi / 2n)}, the outputs x and
+     * {@code n - 1 - x} share the sums of the even and odd coefficients.
+     */
+    private void reducedIDCT(float[] dequantization, byte[] plane, int destination, int planeWidth) {
+        int[] coef = coefficients;
+        float[] ws = workspace;
+        float[] cos = reducedCosines;
+        if (blockSize == 2) {
+            float a = cos[0];
+            float b = cos[1];
+            float c00 = coef[0] * dequantization[0];
+            float c01 = coef[1] * dequantization[1];
+            float c10 = coef[8] * dequantization[8];
+            float c11 = coef[9] * dequantization[9];
+            //columns
+            float even0 = a * c00;
+            float odd0 = b * c10;
+            float even1 = a * c01;
+            float odd1 = b * c11;
+            float r00 = even0 + odd0;
+            float r10 = even0 - odd0;
+            float r01 = even1 + odd1;
+            float r11 = even1 - odd1;
+            //rows
+            plane[destination] = toSample(a * r00 + b * r01);
+            plane[destination + 1] = toSample(a * r00 - b * r01);
+            plane[destination + planeWidth] = toSample(a * r10 + b * r11);
+            plane[destination + planeWidth + 1] = toSample(a * r10 - b * r11);
+            return;
+        }
+
+        //4x4: cos[x * 4 + u]
+        float c00 = cos[0], c01 = cos[1], c02 = cos[2], c03 = cos[3];
+        float c10 = cos[4], c11 = cos[5], c12 = cos[6], c13 = cos[7];
+        //columns
+        for (int u = 0; u < 4; u++) {
+            float i0 = coef[u] * dequantization[u];
+            float i1 = coef[8 + u] * dequantization[8 + u];
+            float i2 = coef[16 + u] * dequantization[16 + u];
+            float i3 = coef[24 + u] * dequantization[24 + u];
+            float even0 = c00 * i0 + c02 * i2;
+            float odd0 = c01 * i1 + c03 * i3;
+            float even1 = c10 * i0 + c12 * i2;
+            float odd1 = c11 * i1 + c13 * i3;
+            ws[u] = even0 + odd0;
+            ws[12 + u] = even0 - odd0;
+            ws[4 + u] = even1 + odd1;
+            ws[8 + u] = even1 - odd1;
+        }
+        //rows
+        for (int y = 0; y < 4; y++) {
+            int row = destination + y * planeWidth;
+            int r = y * 4;
+            float even0 = c00 * ws[r] + c02 * ws[r + 2];
+            float odd0 = c01 * ws[r + 1] + c03 * ws[r + 3];
+            float even1 = c10 * ws[r] + c12 * ws[r + 2];
+            float odd1 = c11 * ws[r + 1] + c13 * ws[r + 3];
+            plane[row] = toSample(even0 + odd0);
+            plane[row + 3] = toSample(even0 - odd0);
+            plane[row + 1] = toSample(even1 + odd1);
+            plane[row + 2] = toSample(even1 - odd1);
+        }
+    }
+
+    /**
+     * Level shifts, rounds and clamps a value of the inverse DCT, see JPEG specification, page 26.
+     */
+    private static byte toSample(float value) {
+        int sample = (int) (value + 128.5f);
+        return (byte) (sample < 0 ? 0 : (sample > 255 ? 255 : sample));
+    }
+
+    /**
+     * Upsamples the components, converts the colors if necessary and writes the interleaved samples to the raster.
+     */
+    private void writeSamples(byte[][] planes, short[] raster, int offset, int rowStride, int width, int rows) {
+        int numOfComponents = components.length;
+        int pixels = (width + numOfComponents - 1) / numOfComponents;
+        boolean ycbcr = numOfComponents == 3 && isYCbCr() && width == pixels * 3;
+        //the column of each pixel in the plane of each component, so that no division is needed per pixel
+        int[][] columns = new int[numOfComponents][pixels];
+        int[] verticalFactors = new int[numOfComponents];
+        for (int i = 0; i < numOfComponents; i++) {
+            int horizontalFactor = maxHorizontalSampling / components[i].horizontalSampling;
+            for (int x = 0; x < pixels; x++) {
+                columns[i][x] = x / horizontalFactor;
+            }
+            verticalFactors[i] = maxVerticalSampling / components[i].verticalSampling;
+        }
+
+        for (int y = 0; y < rows; y++) {
+            int destination = offset + y * rowStride;
+            if (ycbcr) {
+                byte[] lumaPlane = planes[0];
+                byte[] cbPlane = planes[1];
+                byte[] crPlane = planes[2];
+                int[] lumaColumns = columns[0];
+                int[] cbColumns = columns[1];
+                int[] crColumns = columns[2];
+                int luma = (y / verticalFactors[0]) * components[0].planeWidth;
+                int cb = (y / verticalFactors[1]) * components[1].planeWidth;
+                int cr = (y / verticalFactors[2]) * components[2].planeWidth;
+                for (int x = 0, index = destination; x < pixels; x++, index += 3) {
+                    int yValue = lumaPlane[luma + lumaColumns[x]] & 0xFF;
+                    int cbValue = cbPlane[cb + cbColumns[x]] & 0xFF;
+                    int crValue = crPlane[cr + crColumns[x]] & 0xFF;
+                    raster[index] = clamp(yValue + (CR_TO_R[crValue] >> 16));
+                    raster[index + 1] = clamp(yValue + ((CB_TO_G[cbValue] + CR_TO_G[crValue]) >> 16));
+                    raster[index + 2] = clamp(yValue + (CB_TO_B[cbValue] >> 16));
+                }
+            } else if (numOfComponents == 3 && isYCbCr()) {
+                //the raster is not a multiple of whole pixels wide, which happens only for corrupt tiles
+                for (int x = 0; x < width; x++) {
+                    raster[destination + x] = 0;
+                }
+            } else {
+                for (int i = 0; i < numOfComponents; i++) {
+                    byte[] plane = planes[i];
+                    int[] planeColumns = columns[i];
+                    int source = (y / verticalFactors[i]) * components[i].planeWidth;
+                    for (int x = 0, index = destination + i; index < destination + width; x++, index += numOfComponents) {
+                        raster[index] = (short) (plane[source + planeColumns[x]] & 0xFF);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if an image with three components is YCbCr encoded, see the JFIF specification and the Adobe Photoshop
+     * JPEG specification (APP14 marker).
+     */
+    private boolean isYCbCr() {
+        if (adobeTransform != -1) {
+            return adobeTransform != 0;
+        }
+        return !(components[0].id == 'R' && components[1].id == 'G' && components[2].id == 'B');
+    }
+
+    private static short clamp(int value) {
+        return (short) (value < 0 ? 0 : (value > 255 ? 255 : value));
+    }
+
+    /**
+     * A component of the frame and its decoded samples. The plane of a component covers all of its blocks, including
+     * the blocks which lie outside of the image because of the MCU padding.
+     */
+    private static final class Component {
+        private int id;
+        private int horizontalSampling;
+        private int verticalSampling;
+        private int quantizationTable;
+        //the size of the component without padding, see JPEG specification, page 27
+        private int width;
+        private int height;
+        //the size of the (scaled) plane of the component
+        private int planeWidth;
+        private int planeHeight;
+
+        private JPEGHuffmanDecoder dcTable;
+        private JPEGHuffmanDecoder acTable;
+        private float[] dequantization;
+        private int dcPrediction;
+    }
+}
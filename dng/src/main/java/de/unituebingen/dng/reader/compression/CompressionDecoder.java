@@ -1,5 +1,7 @@
 package de.unituebingen.dng.reader.compression;
 
+import java.nio.ByteBuffer;
+
 /**
  * @author Eugen Ljavin
  *
@@ -15,4 +17,56 @@ public interface CompressionDecoder {
      * @throws CompressionDecoderException If something goes wrong during decoding
      */
     int[] decode(byte[] data) throws CompressionDecoderException;
+
+    /**
+     * Decodes the remaining bytes of the given buffer. <br/>
+     * The default implementation copies the bytes into an array. Decoders which are able to work on a
+     * {@link ByteBuffer} directly should override this method to avoid the copy.
+     *
+     * @param data The data which should be decoded
+     * @return The decoded data
+     * @throws CompressionDecoderException If something goes wrong during decoding
+     */
+    default int[] decode(ByteBuffer data) throws CompressionDecoderException {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return decode(bytes);
+    }
+
+    /**
+     * Decodes the remaining bytes of the given buffer directly into a raster of unsigned 16 bit samples. <br/>
+     * The decoded samples are treated as rows of {@code segmentWidth} samples (e.g. the width of a tile). The first
+     * {@code width} samples of each of the first {@code rows} rows are written to the raster, the remaining samples
+     * (e.g. the padding of a tile at the border of the image) are dropped. <br/>
+     * The default implementation decodes the data using {@link #decode(ByteBuffer)} and copies the samples.
+     * Decoders should override this method to avoid the intermediate array.
+     *
+     * @param data         The data which should be decoded
+     * @param raster       The raster to write the samples to
+     * @param offset       The index of the first sample of the first row in the raster
+     * @param rowStride    The distance between the first samples of two consecutive rows in the raster
+     * @param segmentWidth The amount of samples of each decoded row
+     * @param width        The amount of samples of each decoded row which are written to the raster
+     * @param rows         The amount of rows which are written to the raster
+     * @throws CompressionDecoderException If something goes wrong during decoding
+     */
+    default void decodeInto(ByteBuffer data, short[] raster, int offset, int rowStride, int segmentWidth, int width,
+                            int rows) throws CompressionDecoderException {
+        int[] decoded = decode(data);
+        for (int row = 0; row < rows; row++) {
+            int source = row * segmentWidth;
+            int destination = offset + row * rowStride;
+            int samples = Math.min(width, decoded.length - source);
+            for (int i = 0; i < samples; i++) {
+                raster[destination + i] = (short) decoded[source + i];
+            }
+        }
+    }
+
+    /**
+     * Releases the resources of this decoder (e.g. native memory). The decoder must not be used afterwards. <br/>
+     * The default implementation does nothing.
+     */
+    default void close() {
+    }
 }
@@ -0,0 +1,339 @@
+package de.unituebingen.dng.reader.compression;
+
+import de.unituebingen.dng.reader.DNGTagConstants;
+import de.unituebingen.dng.reader.util.Math;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A decoder for Deflate (zlib) compressed image data as used by floating point and HDR DNG files. <br/>
+ * Supported are unsigned integer samples with up to 16 bits and IEEE floating point samples with 16, 24 (as defined in
+ * the DNG specification) and 32 bits. Integer samples can be predicted by horizontal differencing (predictors 2, 34892
+ * and 34893), floating point samples by the floating point predictor of the Adobe Photoshop TIFF Technical Note 3
+ * (predictors 3, 34894 and 34895). <br/>
+ * Floating point samples are divided by the white level of the image, so that the range [0, WhiteLevel] is scaled to
+ * unsigned 16 bit samples. Floating point images may store values far above 1.0, which would be clipped otherwise;
+ * negative values are clipped to 0. <br/>
+ * The data is inflated in blocks of rows into a buffer which is reused for all segments decoded by this decoder. The
+ * {@link Inflater} is reused as well, so each thread should use its own decoder.
+ */
+public class DeflateDecoder implements CompressionDecoder {
+
+    private static final int MAX_SAMPLE = 65535;
+    //the amount of bytes which are inflated at once, calls of the inflater are expensive for small amounts of data
+    private static final int BLOCK_BYTES = 1 << 18;
+
+    private final int bitsPerSample;
+    private final int bytesPerSample;
+    private final int samplesPerPixel;
+    private final int predictor;
+    private final boolean floatingPoint;
+    private final ByteOrder byteOrder;
+    //the factor which maps floating point samples to 16 bit samples
+    private final float floatScale;
+
+    private final Inflater inflater = new Inflater();
+    private byte[] block = new byte[0];
+    private ByteBuffer blockBuffer = ByteBuffer.wrap(block);
+
+    /**
+     * Creates a decoder which scales floating point samples of [0, 1] to 16 bit samples.
+     *
+     * @param bitsPerSample   The amount of bits per sample
+     * @param sampleFormat    The SampleFormat of the image, see {@link DNGTagConstants}
+     * @param predictor       The Predictor of the image, see {@link DNGTagConstants}
+     * @param samplesPerPixel The amount of samples per pixel
+     * @param byteOrder       The byte order of the file
+     */
+    public DeflateDecoder(int bitsPerSample, int sampleFormat, int predictor, int samplesPerPixel, ByteOrder byteOrder) {
+        this(bitsPerSample, sampleFormat, predictor, samplesPerPixel, byteOrder, 1);
+    }
+
+    /**
+     * @param bitsPerSample   The amount of bits per sample
+     * @param sampleFormat    The SampleFormat of the image, see {@link DNGTagConstants}
+     * @param predictor       The Predictor of the image, see {@link DNGTagConstants}
+     * @param samplesPerPixel The amount of samples per pixel
+     * @param byteOrder       The byte order of the file
+     * @param whiteLevel      The floating point sample which is scaled to the largest 16 bit sample, see
+     *                        {@link de.unituebingen.dng.reader.ImageFileDirectory#getFloatingPointWhiteLevel()}
+     */
+    public DeflateDecoder(int bitsPerSample, int sampleFormat, int predictor, int samplesPerPixel, ByteOrder byteOrder,
+                          double whiteLevel) {
+        if (!isSupported(bitsPerSample, sampleFormat, predictor)) {
+            throw new IllegalArgumentException(String.format(
+                    "%d bit samples of format %d with predictor %d are not supported", bitsPerSample, sampleFormat, predictor));
+        }
+        this.bitsPerSample = bitsPerSample;
+        this.bytesPerSample = (bitsPerSample + 7) / 8;
+        this.samplesPerPixel = samplesPerPixel;
+        this.predictor = predictor;
+        this.floatingPoint = sampleFormat == DNGTagConstants.SAMPLE_FORMAT__IEEE_FLOATING_POINT;
+        this.byteOrder = byteOrder;
+        if (!(whiteLevel > 0) || Double.isInfinite(whiteLevel)) {
+            throw new IllegalArgumentException("The white level has to be positive, not " + whiteLevel);
+        }
+        this.floatScale = (float) (MAX_SAMPLE / whiteLevel);
+    }
+
+    /**
+     * Checks if this decoder is able to decode samples of the given type.
+     *
+     * @param bitsPerSample The amount of bits per sample
+     * @param sampleFormat  The SampleFormat of the image
+     * @param predictor     The Predictor of the image
+     * @return {@code true} if the samples can be decoded, {@code false} if not
+     */
+    public static boolean isSupported(int bitsPerSample, int sampleFormat, int predictor) {
+        switch (sampleFormat) {
+            case DNGTagConstants.SAMPLE_FORMAT__UNSIGNED_INTEGER:
+                switch (predictor) {
+                    case DNGTagConstants.PREDICTOR__NONE:
+                        return bitsPerSample >= 1 && bitsPerSample <= 16;
+                    case DNGTagConstants.PREDICTOR__HORIZONTAL_DIFFERENCING:
+                    case DNGTagConstants.PREDICTOR__HORIZONTAL_DIFFERENCE_X2:
+                    case DNGTagConstants.PREDICTOR__HORIZONTAL_DIFFERENCE_X4:
+                        return bitsPerSample == 8 || bitsPerSample == 16;
+                    default:
+                        return false;
+                }
+            case DNGTagConstants.SAMPLE_FORMAT__IEEE_FLOATING_POINT:
+                switch (predictor) {
+                    case DNGTagConstants.PREDICTOR__NONE:
+                    case DNGTagConstants.PREDICTOR__FLOATING_POINT:
+                    case DNGTagConstants.PREDICTOR__FLOATING_POINT_X2:
+                    case DNGTagConstants.PREDICTOR__FLOATING_POINT_X4:
+                        return bitsPerSample == 16 || bitsPerSample == 24 || bitsPerSample == 32;
+                    default:
+                        return false;
+                }
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public int[] decode(byte[] data) throws CompressionDecoderException {
+        Objects.requireNonNull(data);
+        return decode(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Decodes the given data as a single row, since the width of the rows is unknown. Therefore only data without a
+     * predictor can be decoded by this method, use {@link #decodeInto(ByteBuffer, short[], int, int, int, int, int)}
+     * otherwise.
+     */
+    @Override
+    public int[] decode(ByteBuffer data) throws CompressionDecoderException {
+        Objects.requireNonNull(data);
+        if (predictor != DNGTagConstants.PREDICTOR__NONE) {
+            throw new CompressionDecoderException("The width of the rows is required to decode predicted samples.");
+        }
+        inflater.reset();
+        inflater.setInput(data.duplicate());
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                ensureBlockCapacity((int) java.lang.Math.min(Integer.MAX_VALUE - 8, java.lang.Math.max(64, length * 2L)));
+                int inflated = inflater.inflate(block, length, block.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new CompressionDecoderException(e.getMessage());
+        }
+        blockBuffer.limit(length);
+        short[] samples = new short[(int) (length * 8L / bitsPerSample)];
+        convertRow(0, samples, 0, samples.length, samples.length);
+
+        int[] image = new int[samples.length];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = samples[i] & 0xFFFF;
+        }
+        return image;
+    }
+
+    @Override
+    public void decodeInto(ByteBuffer data, short[] raster, int offset, int rowStride, int segmentWidth, int width,
+                           int rows) throws CompressionDecoderException {
+        int rowBytes = (int) ((segmentWidth * (long) bitsPerSample + 7) / 8);
+        int blockRows = Math.in(1, BLOCK_BYTES / java.lang.Math.max(1, rowBytes), java.lang.Math.max(1, rows));
+        ensureBlockCapacity(blockRows * rowBytes);
+
+        inflater.reset();
+        inflater.setInput(data.duplicate());
+        for (int y = 0; y < rows; y += blockRows) {
+            int inflatedRows = java.lang.Math.min(blockRows, rows - y);
+            inflate(inflatedRows * rowBytes);
+            blockBuffer.limit(inflatedRows * rowBytes);
+            for (int i = 0; i < inflatedRows; i++) {
+                convertRow(i * rowBytes, raster, offset + (y + i) * rowStride, segmentWidth, width);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        inflater.end();
+    }
+
+    private void ensureBlockCapacity(int capacity) {
+        if (block.length < capacity) {
+            block = Arrays.copyOf(block, capacity);
+            blockBuffer = ByteBuffer.wrap(block);
+        }
+    }
+
+    private void inflate(int bytes) throws CompressionDecoderException {
+        try {
+            int length = 0;
+            while (length < bytes) {
+                int inflated = inflater.inflate(block, length, bytes - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new CompressionDecoderException("The end of the compressed data has been reached unexpectedly.");
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new CompressionDecoderException(e.getMessage());
+        }
+    }
+
+    /**
+     * Converts the inflated row of {@code segmentWidth} samples which starts at the given index of the block and writes
+     * the first {@code width} samples to the raster.
+     */
+    private void convertRow(int start, short[] raster, int destination, int segmentWidth, int width) {
+        if (floatingPoint) {
+            if (predictor == DNGTagConstants.PREDICTOR__NONE) {
+                convertFloatRow(start, raster, destination, width);
+            } else {
+                convertPredictedFloatRow(start, raster, destination, segmentWidth, width);
+            }
+            return;
+        }
+
+        if (bitsPerSample == 8) {
+            for (int i = 0; i < width; i++) {
+                raster[destination + i] = (short) (block[start + i] & 0xFF);
+            }
+        } else if (bitsPerSample == 16) {
+            blockBuffer.order(byteOrder).asShortBuffer().get(start >> 1, raster, destination, width);
+        } else {
+            PackedSampleUnpacker.unpack(blockBuffer, start * 8L, raster, destination, width, bitsPerSample, true);
+        }
+
+        if (predictor != DNGTagConstants.PREDICTOR__NONE) {
+            int stride = predictorStride();
+            int mask = (1 << bitsPerSample) - 1;
+            for (int i = destination + stride; i < destination + width; i++) {
+                raster[i] = (short) ((raster[i] + raster[i - stride]) & mask);
+            }
+        }
+    }
+
+    private void convertFloatRow(int start, short[] raster, int destination, int width) {
+        boolean bigEndian = byteOrder == ByteOrder.BIG_ENDIAN;
+        for (int i = 0; i < width; i++) {
+            int index = start + i * bytesPerSample;
+            int bits = 0;
+            for (int b = 0; b < bytesPerSample; b++) {
+                int value = block[bigEndian ? index + b : index + bytesPerSample - 1 - b] & 0xFF;
+                bits = (bits << 8) | value;
+            }
+            raster[destination + i] = toSample(bits);
+        }
+    }
+
+    /**
+     * Undoes the floating point predictor, see Adobe Photoshop TIFF Technical Note 3. The bytes of the row have been
+     * differenced and reordered, so that the row starts with the most significant bytes of all samples, followed by
+     * the second most significant bytes and so on.
+     */
+    private void convertPredictedFloatRow(int start, short[] raster, int destination, int segmentWidth, int width) {
+        int end = start + segmentWidth * bytesPerSample;
+        int stride = predictorStride();
+        for (int i = start + stride; i < end; i++) {
+            block[i] += block[i - stride];
+        }
+        for (int i = 0; i < width; i++) {
+            int bits = 0;
+            for (int b = 0, index = start + i; b < bytesPerSample; b++, index += segmentWidth) {
+                bits = (bits << 8) | (block[index] & 0xFF);
+            }
+            raster[destination + i] = toSample(bits);
+        }
+    }
+
+    private int predictorStride() {
+        switch (predictor) {
+            case DNGTagConstants.PREDICTOR__HORIZONTAL_DIFFERENCE_X2:
+            case DNGTagConstants.PREDICTOR__FLOATING_POINT_X2:
+                return 2 * samplesPerPixel;
+            case DNGTagConstants.PREDICTOR__HORIZONTAL_DIFFERENCE_X4:
+            case DNGTagConstants.PREDICTOR__FLOATING_POINT_X4:
+                return 4 * samplesPerPixel;
+            default:
+                return samplesPerPixel;
+        }
+    }
+
+    private short toSample(int bits) {
+        float value;
+        switch (bitsPerSample) {
+            case 16:
+                value = HalfFloatSamples.VALUES[bits];
+                break;
+            case 24:
+                value = toFloat(bits, 7, 16);
+                break;
+            default:
+                value = Float.intBitsToFloat(bits);
+                break;
+        }
+        //NaN is rounded to 0
+        return (short) Math.in(0, java.lang.Math.round(value * floatScale), MAX_SAMPLE);
+    }
+
+    /**
+     * Converts a floating point number with a sign bit and the given amount of exponent and mantissa bits to a 32 bit
+     * float.
+     */
+    static float toFloat(int bits, int exponentBits, int mantissaBits) {
+        int sign = (bits >>> (exponentBits + mantissaBits)) & 1;
+        int exponent = (bits >>> mantissaBits) & ((1 << exponentBits) - 1);
+        int mantissa = bits & ((1 << mantissaBits) - 1);
+        int bias = (1 << (exponentBits - 1)) - 1;
+        float value;
+        if (exponent == 0) {
+            //zero or subnormal
+            value = java.lang.Math.scalb((float) mantissa, 1 - bias - mantissaBits);
+        } else if (exponent == (1 << exponentBits) - 1) {
+            value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+        } else {
+            value = Float.intBitsToFloat(((exponent - bias + 127) << 23) | (mantissa << (23 - mantissaBits)));
+        }
+        return sign == 0 ? value : -value;
+    }
+
+    /**
+     * The values of all 16 bit floats, created on first use.
+     */
+    private static final class HalfFloatSamples {
+
+        private static final float[] VALUES = new float[1 << 16];
+
+        static {
+            for (int bits = 0; bits < VALUES.length; bits++) {
+                VALUES[bits] = toFloat(bits, 5, 10);
+            }
+        }
+    }
+}
@@ -3,8 +3,6 @@ package de.unituebingen.dng.reader.compression;
 import de.unituebingen.dng.reader.io.BitReader;
 
 import java.io.EOFException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -13,22 +11,36 @@ import java.util.Objects;
  * A Huffman Decoder as specified in the JPEG specification. <br/>
  * Currently this class is only used for lossless JPEG decoding mode. It might be that the class has to be
  * extended/adapted if you want to use it for other JPEG decoding modes. <br/>
- * See JPEG specification (page 40ff, 50ff, 132ff) for more informations.
+ * See JPEG specification (page 40ff, 50ff, 132ff) for more informations. <br/>
+ * Codes with a length of up to {@link #LOOKAHEAD_BITS} bits are decoded with a single table lookup, longer codes are
+ * decoded using the canonical code tables (see JPEG specification, page 107ff).
  */
 public class JPEGHuffmanDecoder {
 
+    /**
+     * The amount of bits which are looked up at once.
+     */
+    public static final int LOOKAHEAD_BITS = 9;
+    private static final int MAX_CODE_LENGTH = 16;
+
     private int[] huffSize;
     private int[] huffCodes;
     private byte[] huffValues;
     private byte[] bits;
 
-    private Map<Integer, Map<Integer, Integer>> huffmanDecoder = new HashMap<Integer, Map<Integer, Integer>>();
+    //(code length << 8) | huffman value for each possible lookahead, 0 if the code is longer than the lookahead
+    private short[] lookup = new short[1 << LOOKAHEAD_BITS];
+    //see JPEG specification, page 108
+    private int[] minCode = new int[MAX_CODE_LENGTH + 1];
+    private int[] maxCode = new int[MAX_CODE_LENGTH + 1];
+    private int[] valPtr = new int[MAX_CODE_LENGTH + 1];
 
     public JPEGHuffmanDecoder(byte[] bits, byte[] huffValues) {
         this.bits = Objects.requireNonNull(bits);
         this.huffValues = Objects.requireNonNull(huffValues);
         huffSize = generateHuffmanCodeSizes();
         huffCodes = generateHuffmanCodes();
+        generateDecoderTables();
     }
 
     /**
@@ -37,17 +49,28 @@ public class JPEGHuffmanDecoder {
      *
      * @param bitReader The BitBuffer which should be decoded.
      * @return The huffman value for the first matching huffman code.
+     * @throws EOFException                If the end of file has been reached unexpectedly
+     * @throws CompressionDecoderException If the next bits do not match any huffman code
      */
-    public int decode(BitReader bitReader) throws EOFException {
-        int length = 1;
-
-        int bit = bitReader.readBit();
-        Integer huffValue = getHuffValue(bit, length);
-        while (huffValue == null) {
-            bit = (bit << 1) | bitReader.readBit();
-            huffValue = getHuffValue(bit, ++length);
+    public int decode(BitReader bitReader) throws EOFException, CompressionDecoderException {
+        int entry = lookup[bitReader.peekBits(LOOKAHEAD_BITS)];
+        if (entry != 0) {
+            bitReader.skipBits(entry >> 8);
+            return entry & 0xff;
+        }
+        return decodeLongCode(bitReader);
+    }
+
+    private int decodeLongCode(BitReader bitReader) throws EOFException, CompressionDecoderException {
+        int code = bitReader.peekBits(MAX_CODE_LENGTH);
+        for (int length = LOOKAHEAD_BITS + 1; length <= MAX_CODE_LENGTH; length++) {
+            int prefix = code >>> (MAX_CODE_LENGTH - length);
+            if (prefix <= maxCode[length]) {
+                bitReader.skipBits(length);
+                return huffValues[valPtr[length] + prefix - minCode[length]] & 0xff;
+            }
         }
-        return huffValue;
+        throw new CompressionDecoderException("An error occurred during huffman decoding. No matching huffman code found.");
     }
 
     private int[] generateHuffmanCodeSizes() {
@@ -79,18 +102,10 @@ public class JPEGHuffmanDecoder {
 
         while (true) {
             do {
-                huffcode[k] = code;
-                Map<Integer, Integer> codes = huffmanDecoder.get(huffSize[k]);
-                if (codes == null) {
-                    codes = new HashMap<Integer, Integer>();
-                    huffmanDecoder.put(huffSize[k], codes);
-                }
-                codes.put(code++, (int) huffValues[k++]);
+                huffcode[k++] = code++;
             } while (huffSize[k] == si);
 
             if (huffSize[k] == 0) {
-                Map<Integer, Integer> codes = huffmanDecoder.get(huffSize[k - 1]);
-                codes.put(code, 0);
                 break;
             }
 
@@ -103,7 +118,27 @@ public class JPEGHuffmanDecoder {
         return huffcode;
     }
 
-    private Integer getHuffValue(int bit, int length) {
-        return huffmanDecoder.get(length) == null ? null : huffmanDecoder.get(length).get(bit);
+    private void generateDecoderTables() {
+        int k = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            int amountCodes = bits[length - 1] & 0xff;
+            if (amountCodes == 0) {
+                maxCode[length] = -1;
+                continue;
+            }
+            valPtr[length] = k;
+            minCode[length] = huffCodes[k];
+            k += amountCodes;
+            maxCode[length] = huffCodes[k - 1];
+        }
+
+        for (k = 0; k < huffValues.length && huffSize[k] <= LOOKAHEAD_BITS; k++) {
+            int shift = LOOKAHEAD_BITS - huffSize[k];
+            short entry = (short) ((huffSize[k] << 8) | (huffValues[k] & 0xff));
+            int first = huffCodes[k] << shift;
+            for (int i = 0; i < 1 << shift; i++) {
+                lookup[first + i] = entry;
+            }
+        }
     }
 }
@@ -33,12 +33,43 @@ public class LosslessJPEGDecoder implements CompressionDecoder {
 
     private JPEGHuffmanDecoder[] JPEGHuffmanDecoders;
     private int[] horizontalPredictor; //predictor of type 1, see JPEG specification, page 133
-    private int[] decodedImg;
 
     @Override
     public int[] decode(byte[] data) throws CompressionDecoderException {
         Objects.requireNonNull(data);
-        ByteBuffer buffer = ByteBuffer.wrap(data).order(byteOrder);
+        return decode(ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public int[] decode(ByteBuffer data) throws CompressionDecoderException {
+        Objects.requireNonNull(data);
+        ByteBuffer buffer = readHeader(data);
+        int lineWidth = numOfSamplesPerLineX * numOfImageCompInFrameFn;
+        short[] decodedImg = new short[numOfLinesY * lineWidth];
+        decodeScan(buffer, decodedImg, 0, lineWidth, lineWidth, lineWidth, numOfLinesY);
+
+        int[] image = new int[decodedImg.length];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = decodedImg[i] & 0xFFFF;
+        }
+        return image;
+    }
+
+    @Override
+    public void decodeInto(ByteBuffer data, short[] raster, int offset, int rowStride, int segmentWidth, int width,
+                           int rows) throws CompressionDecoderException {
+        Objects.requireNonNull(data);
+        ByteBuffer buffer = readHeader(data);
+        decodeScan(buffer, raster, offset, rowStride, segmentWidth, width, rows);
+    }
+
+    /**
+     * Reads all markers up to and including the start of scan marker.
+     *
+     * @return A buffer which is positioned at the first byte of the entropy coded data
+     */
+    private ByteBuffer readHeader(ByteBuffer data) throws CompressionDecoderException {
+        ByteBuffer buffer = data.duplicate().order(byteOrder);
 
         int startOfImage = buffer.getShort() & 0xFFFF;
         if (startOfImage != SOI_MARKER) {
@@ -60,7 +91,6 @@ public class LosslessJPEGDecoder implements CompressionDecoder {
                     numOfSamplesPerLineX = buffer.getShort() & 0xffff;
                     numOfImageCompInFrameFn = buffer.get() & 0xff;
 
-                    decodedImg = new int[numOfLinesY * numOfSamplesPerLineX * numOfImageCompInFrameFn];
                     horizontalPredictor = new int[numOfImageCompInFrameFn];
                     for (int i = 0; i < horizontalPredictor.length; i++) {
                         horizontalPredictor[i] = 1 << (precisionP - 1); //See JPEG Specification, page 133
@@ -111,25 +141,46 @@ public class LosslessJPEGDecoder implements CompressionDecoder {
             }
         }
 
+        return buffer;
+    }
+
+    /**
+     * Decodes the entropy coded data. The decoded samples are written in rows of {@code segmentWidth} samples, see
+     * {@link CompressionDecoder#decodeInto(ByteBuffer, short[], int, int, int, int, int)}.
+     */
+    private void decodeScan(ByteBuffer buffer, short[] raster, int offset, int rowStride, int segmentWidth, int width,
+                            int rows) throws CompressionDecoderException {
         BitReader bitReader = new BitReader(buffer, true);
-        int scan = 0;
-        for (int line = 0; line < numOfLinesY; line++) {
+        //the last decoded value of each component is the prediction for the next sample
+        int[] prediction = new int[numOfImageCompInFrameFn];
+        int row = 0;
+        int column = 0;
+        int destination = offset;
+        for (int line = 0; line < numOfLinesY && row < rows; line++) {
             for (int sample = 0; sample < numOfSamplesPerLineX; sample++) {
                 for (int comp = 0; comp < numOfImageCompInFrameFn; comp++) {
                     final JPEGHuffmanDecoder decoder = JPEGHuffmanDecoders[comp];
-                    int huffValue;
                     int diff;
                     try {
-                        huffValue = decoder.decode(bitReader);
-                        diff = bitReader.readSignedBits(huffValue);
+                        int huffValue = decoder.decode(bitReader);
+                        //a difference category of 16 has no additional bits, see JPEG specification, page 138
+                        diff = huffValue == 16 ? 32768 : bitReader.readSignedBits(huffValue);
                     } catch (EOFException e) {
                         throw new CompressionDecoderException("The end of file has been reached unexpectedly.");
                     }
-                    decodedImg[scan] = ((sample == 0) ? (horizontalPredictor[comp] += diff) : (decodedImg[scan - numOfImageCompInFrameFn] + diff));
-                    scan++;
+                    int value = (sample == 0) ? (horizontalPredictor[comp] += diff) : (prediction[comp] + diff);
+                    prediction[comp] = value;
+
+                    if (column < width && row < rows) {
+                        raster[destination + column] = (short) value;
+                    }
+                    if (++column == segmentWidth) {
+                        column = 0;
+                        row++;
+                        destination += rowStride;
+                    }
                 }
             }
         }
-        return decodedImg;
     }
 }
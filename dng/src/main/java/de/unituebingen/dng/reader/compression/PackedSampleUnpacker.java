@@ -0,0 +1,124 @@
+package de.unituebingen.dng.reader.compression;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Unpacks bit packed samples with up to 16 bits per sample. <br/>
+ * For the common bit depths 10, 12 and 14 four samples are packed into a group of 5, 6 or 7 bytes. These groups are
+ * read with a single 64 bit load and split into the samples with fixed shifts, so there are no branches per sample.
+ * All other bit depths and the samples which do not fill a whole group are extracted one by one.
+ * <p>
+ * Samples can be packed with the most significant bit first (big endian, as specified by TIFF/DNG) or with the least
+ * significant bit first (little endian).
+ */
+final class PackedSampleUnpacker {
+
+    private static final int SAMPLES_PER_GROUP = 4;
+
+    private PackedSampleUnpacker() {
+    }
+
+    /**
+     * Unpacks consecutive samples of a bit stream.
+     *
+     * @param data          The packed data
+     * @param firstBit      The position of the first bit of the first sample in the data
+     * @param raster        The raster to write the samples to
+     * @param destination   The index of the first sample in the raster
+     * @param samples       The amount of samples to unpack
+     * @param bitsPerSample The amount of bits per sample, at most 16
+     * @param msbFirst      {@code true} if the samples are packed with the most significant bit first
+     */
+    static void unpack(ByteBuffer data, long firstBit, short[] raster, int destination, int samples,
+                       int bitsPerSample, boolean msbFirst) {
+        int unpacked = 0;
+        if (bitsPerSample == 10 || bitsPerSample == 12 || bitsPerSample == 14) {
+            //extract single samples until a group starts at a byte boundary
+            while ((firstBit & 7) != 0 && unpacked < samples) {
+                raster[destination++] = (short) sampleAt(data, firstBit, bitsPerSample, msbFirst);
+                firstBit += bitsPerSample;
+                unpacked++;
+            }
+            int offset = (int) (firstBit >>> 3);
+            int groupBytes = bitsPerSample >> 1;
+            //only groups which can be loaded as a whole long without reading beyond the data, none if less than a
+            //long is left
+            int groups = Math.min((samples - unpacked) / SAMPLES_PER_GROUP,
+                    Math.max(0, Math.floorDiv(data.limit() - offset - Long.BYTES, groupBytes) + 1));
+            if (msbFirst) {
+                unpackGroupsMSBFirst(data.duplicate().order(ByteOrder.BIG_ENDIAN), offset, raster, destination, groups, bitsPerSample);
+            } else {
+                unpackGroupsLSBFirst(data.duplicate().order(ByteOrder.LITTLE_ENDIAN), offset, raster, destination, groups, bitsPerSample);
+            }
+            unpacked += groups * SAMPLES_PER_GROUP;
+            destination += groups * SAMPLES_PER_GROUP;
+            firstBit += (long) groups * SAMPLES_PER_GROUP * bitsPerSample;
+        }
+        for (; unpacked < samples; unpacked++) {
+            raster[destination++] = (short) sampleAt(data, firstBit, bitsPerSample, msbFirst);
+            firstBit += bitsPerSample;
+        }
+    }
+
+    private static void unpackGroupsMSBFirst(ByteBuffer data, int offset, short[] raster, int destination, int groups,
+                                             int bitsPerSample) {
+        final int groupBytes = bitsPerSample >> 1;
+        final int unusedBits = Long.SIZE - (groupBytes << 3);
+        final long mask = (1L << bitsPerSample) - 1;
+        final int shift1 = bitsPerSample;
+        final int shift2 = bitsPerSample << 1;
+        final int shift3 = shift1 + shift2;
+        for (int group = 0; group < groups; group++) {
+            long bits = data.getLong(offset) >>> unusedBits;
+            raster[destination] = (short) ((bits >>> shift3) & mask);
+            raster[destination + 1] = (short) ((bits >>> shift2) & mask);
+            raster[destination + 2] = (short) ((bits >>> shift1) & mask);
+            raster[destination + 3] = (short) (bits & mask);
+            offset += groupBytes;
+            destination += SAMPLES_PER_GROUP;
+        }
+    }
+
+    private static void unpackGroupsLSBFirst(ByteBuffer data, int offset, short[] raster, int destination, int groups,
+                                             int bitsPerSample) {
+        final int groupBytes = bitsPerSample >> 1;
+        final long mask = (1L << bitsPerSample) - 1;
+        final int shift1 = bitsPerSample;
+        final int shift2 = bitsPerSample << 1;
+        final int shift3 = shift1 + shift2;
+        for (int group = 0; group < groups; group++) {
+            long bits = data.getLong(offset);
+            raster[destination] = (short) (bits & mask);
+            raster[destination + 1] = (short) ((bits >>> shift1) & mask);
+            raster[destination + 2] = (short) ((bits >>> shift2) & mask);
+            raster[destination + 3] = (short) ((bits >>> shift3) & mask);
+            offset += groupBytes;
+            destination += SAMPLES_PER_GROUP;
+        }
+    }
+
+    /**
+     * Extracts a single sample. Missing bytes at the end of the data are treated as zero.
+     */
+    static int sampleAt(ByteBuffer data, long bit, int bitsPerSample, boolean msbFirst) {
+        int byteOffset = (int) (bit >>> 3);
+        int bitShift = (int) (bit & 7);
+        int mask = (1 << bitsPerSample) - 1;
+        //a sample with up to 16 bits covers at most 3 bytes
+        int b0 = byteAt(data, byteOffset);
+        int b1 = byteAt(data, byteOffset + 1);
+        int b2 = byteAt(data, byteOffset + 2);
+        if (msbFirst) {
+            int bits = (b0 << 16) | (b1 << 8) | b2;
+            return (bits >>> (24 - bitShift - bitsPerSample)) & mask;
+        } else {
+            int bits = b0 | (b1 << 8) | (b2 << 16);
+            return (bits >>> bitShift) & mask;
+        }
+    }
+
+    private static int byteAt(ByteBuffer data, int index) {
+        return index < data.limit() ? data.get(index) & 0xFF : 0;
+    }
+}
@@ -1,10 +1,12 @@
 package de.unituebingen.dng.reader.compression;
 
 import de.unituebingen.dng.reader.io.BitReader;
-import de.unituebingen.dng.reader.util.ByteUtil;
 
 import java.io.EOFException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.stream.IntStream;
 
 /**
  * @author Eugen Ljavin
@@ -13,20 +15,96 @@ import java.nio.ByteOrder;
  */
 public class UncompressedDecoder implements CompressionDecoder {
 
+    /**
+     * Segments with at least this amount of samples are unpacked by multiple threads.
+     */
+    private static final int PARALLEL_UNPACKING_THRESHOLD = 1 << 18;
+
     private int bitsPerSample;
     private ByteOrder byteOrder;
+    private boolean msbFirst;
 
+    /**
+     * Creates a decoder for samples which are packed with the most significant bit first, as required by the DNG
+     * specification.
+     */
     public UncompressedDecoder(int bitsPerSample, ByteOrder byteOrder) {
+        this(bitsPerSample, byteOrder, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * @param packingOrder The order of the bits of samples which are not a multiple of 8 bits wide.
+     *                     {@link ByteOrder#BIG_ENDIAN} if they are packed with the most significant bit first,
+     *                     {@link ByteOrder#LITTLE_ENDIAN} if they are packed with the least significant bit first.
+     */
+    public UncompressedDecoder(int bitsPerSample, ByteOrder byteOrder, ByteOrder packingOrder) {
         this.bitsPerSample = bitsPerSample;
         this.byteOrder = byteOrder;
+        this.msbFirst = packingOrder == ByteOrder.BIG_ENDIAN;
     }
 
     @Override
     public int[] decode(byte[] data) {
-        return readStrip(data, bitsPerSample);
+        return decode(ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public int[] decode(ByteBuffer data) {
+        return readStrip(data.slice().order(byteOrder), bitsPerSample);
+    }
+
+    @Override
+    public void decodeInto(ByteBuffer data, short[] raster, int offset, int rowStride, int segmentWidth, int width,
+                           int rows) throws CompressionDecoderException {
+        ByteBuffer strip = data.slice().order(byteOrder);
+        long availableSamples = strip.remaining() * 8L / bitsPerSample;
+        rows = (int) Math.min(rows, (availableSamples + segmentWidth - 1) / segmentWidth);
+        if (bitsPerSample == 16) {
+            ShortBuffer samples = strip.asShortBuffer();
+            for (int row = 0; row < rows; row++) {
+                int source = row * segmentWidth;
+                samples.get(source, raster, offset + row * rowStride, Math.min(width, samples.limit() - source));
+            }
+        } else if (bitsPerSample == 8) {
+            for (int row = 0; row < rows; row++) {
+                int source = row * segmentWidth;
+                int destination = offset + row * rowStride;
+                int samples = Math.min(width, strip.limit() - source);
+                for (int i = 0; i < samples; i++) {
+                    raster[destination + i] = (short) (strip.get(source + i) & 0xff);
+                }
+            }
+        } else if (bitsPerSample <= 16) {
+            IntStream rowStream = IntStream.range(0, rows);
+            if ((long) rows * width >= PARALLEL_UNPACKING_THRESHOLD) {
+                rowStream = rowStream.parallel();
+            }
+            rowStream.forEach(row -> {
+                long source = (long) row * segmentWidth;
+                int samples = (int) Math.min(width, availableSamples - source);
+                PackedSampleUnpacker.unpack(strip, source * bitsPerSample, raster, offset + row * rowStride, samples,
+                        bitsPerSample, msbFirst);
+            });
+        } else {
+            BitReader bitReader = new BitReader(strip);
+            try {
+                for (int row = 0; row < rows; row++) {
+                    int destination = offset + row * rowStride;
+                    int samples = (int) Math.min(segmentWidth, availableSamples - (long) row * segmentWidth);
+                    for (int i = 0; i < samples; i++) {
+                        int sample = bitReader.readUnsignedBits(bitsPerSample);
+                        if (i < width) {
+                            raster[destination + i] = (short) sample;
+                        }
+                    }
+                }
+            } catch (EOFException e) {
+                throw new CompressionDecoderException("The end of file has been reached unexpectedly.");
+            }
+        }
     }
 
-    private int[] readStrip(byte[] strip, int bitsPerSample) {
+    private int[] readStrip(ByteBuffer strip, int bitsPerSample) {
         int[] image;
         if (bitsPerSample == 8) {
             image = read8BitStrip(strip);
@@ -38,24 +116,32 @@ public class UncompressedDecoder implements CompressionDecoder {
         return image;
     }
 
-    private int[] read16BitStrip(byte[] strip) {
-        int[] image = new int[(strip.length / 2)];
-        for (int i = 0; i < strip.length; i = i + 2) {
-            image[i >> 1] = ByteUtil.toUnsignedShort(byteOrder, strip[i], strip[i + 1]);
+    private int[] read16BitStrip(ByteBuffer strip) {
+        int[] image = new int[(strip.remaining() / 2)];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = strip.getShort(i << 1) & 0xFFFF;
         }
         return image;
     }
 
-    private int[] read8BitStrip(byte[] strip) {
-        int[] decodedStrip = new int[strip.length];
-        for (int i = 0; i < strip.length; i++) {
-            decodedStrip[i] = strip[i] & 0xff;
+    private int[] read8BitStrip(ByteBuffer strip) {
+        int[] decodedStrip = new int[strip.remaining()];
+        for (int i = 0; i < decodedStrip.length; i++) {
+            decodedStrip[i] = strip.get(i) & 0xff;
         }
         return decodedStrip;
     }
 
-    private int[] readOtherBitStrip(byte[] strip, int bitsPerSample) {
-        int[] image = new int[(strip.length / bitsPerSample) * 8];
+    private int[] readOtherBitStrip(ByteBuffer strip, int bitsPerSample) {
+        int[] image = new int[(int) (strip.remaining() * 8L / bitsPerSample)];
+        if (bitsPerSample <= 16) {
+            short[] samples = new short[image.length];
+            PackedSampleUnpacker.unpack(strip, 0, samples, 0, samples.length, bitsPerSample, msbFirst);
+            for (int i = 0; i < image.length; i++) {
+                image[i] = samples[i] & 0xFFFF;
+            }
+            return image;
+        }
         BitReader bitReader = new BitReader(strip);
         for (int i = 0; i < image.length; i++) {
             try {
@@ -10,7 +10,7 @@ public class ScalesPerColumn extends ScaleDeltaPer {
         return scalesOrDeltas[index];
     }
 
-    public float[] getScalesor() {
+    public float[] getScales() {
         return scalesOrDeltas;
     }
 }
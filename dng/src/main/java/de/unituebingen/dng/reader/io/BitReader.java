@@ -4,24 +4,38 @@ import de.unituebingen.dng.reader.util.ByteUtil;
 
 import java.io.EOFException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Objects;
 
 /**
  * @author Eugel Ljavin
  * <p>
  * A class which allows you to read bits of an given byte array or {@link ByteBuffer}. <br/>
- * At some points the performance of this class could be improved e.g. by reading bytes instead of bits if you
- * want to reads n bits with n > 8.
+ * The bits are collected in a 64 bit buffer which is refilled with up to eight bytes at once, so multiple bits can
+ * be peeked at ({@link #peekBits(int)}) and consumed ({@link #skipBits(int)}) at once. If the end of the data is
+ * reached, the bit buffer is padded with zero bits which may be peeked at but not consumed.
  */
 public class BitReader {
 
-    //Currently only buffer size of 8 is supported.
-    private static final byte BUFFER_SIZE = 8;
+    /**
+     * The maximum amount of bits which can be peeked at or read at once.
+     */
+    public static final int MAX_BITS = 32;
 
-    private ByteBuffer buffer;
-    private byte bits;
+    private static final long LOW_BITS_OF_BYTES = 0x0101010101010101L;
+    private static final long HIGH_BITS_OF_BYTES = 0x8080808080808080L;
 
+    private ByteBuffer buffer;
     private int position;
+    private int limit;
+
+    //the lowest bitCount bits of bitBuffer are valid, the oldest bit is the most significant one
+    private long bitBuffer;
+    private int bitCount;
+    //amount of zero bits at the end of the bit buffer which have been added after the end of the data
+    private int paddingBits;
+    private boolean endOfData;
+
     private boolean skipZeroBytes;
 
     public BitReader(ByteBuffer byteBuffer) {
@@ -29,7 +43,10 @@ public class BitReader {
     }
 
     public BitReader(ByteBuffer byteBuffer, boolean skipZeroBytes) {
-        this.buffer = Objects.requireNonNull(byteBuffer);
+        //the bits are always read in big endian order, independent of the byte order of the given buffer
+        this.buffer = Objects.requireNonNull(byteBuffer).duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.position = byteBuffer.position();
+        this.limit = byteBuffer.limit();
         this.skipZeroBytes = skipZeroBytes;
     }
 
@@ -41,10 +58,46 @@ public class BitReader {
         this(ByteBuffer.wrap(Objects.requireNonNull(byteBuffer)), skipZeroBytes);
     }
 
+    /**
+     * If set, a zero byte following a 0xFF byte is skipped (byte stuffing, see JPEG specification page 91) and a
+     * 0xFF byte followed by any other byte is treated as a marker which ends the data.
+     *
+     * @param skip {@code true} if zero bytes should be skipped
+     */
     public void skipZeroBytes(boolean skip) {
         this.skipZeroBytes = skip;
     }
 
+    /**
+     * Returns the next n bits without consuming them. If the end of the data has been reached, the missing bits are
+     * zero.
+     *
+     * @param n The amount of bits, at most {@link #MAX_BITS}
+     * @return The next n bits as unsigned decimal representation
+     */
+    public int peekBits(int n) {
+        if (bitCount < n) {
+            fill();
+        }
+        return (int) ((bitBuffer >>> (bitCount - n)) & ((1L << n) - 1));
+    }
+
+    /**
+     * Consumes n bits.
+     *
+     * @param n The amount of bits, at most {@link #MAX_BITS}
+     * @throws EOFException If less than n bits are remaining
+     */
+    public void skipBits(int n) throws EOFException {
+        if (bitCount < n) {
+            fill();
+        }
+        if (bitCount - paddingBits < n) {
+            throw new EOFException();
+        }
+        bitCount -= n;
+    }
+
     /**
      * Reads a single bit. <br/>
      *
@@ -52,46 +105,22 @@ public class BitReader {
      * @throws EOFException If the end of file has been reached unexpectedly
      */
     public int readBit() throws EOFException {
-        if (position % BUFFER_SIZE == 0) {
-            if (!buffer.hasRemaining()) {
-                throw new EOFException();
-            }
-            bits = buffer.get();
-            if (skipZeroBytes && (bits & ByteUtil.UNSIGNED_BYTE_MASK) == ByteUtil.UNSIGNED_BYTE_MASK) {
-                buffer.position(buffer.position() + 1);
-            }
-        }
-        position++;
-        int bit = (bits & ByteUtil.UNSIGNED_BYTE_MASK) >> 7;
-        bits = (byte) (bits << 1);
-        return bit;
+        return readUnsignedBits(1);
     }
 
     /**
-     * Reads n bits at once and returns the unsigned decimal representation. <br/>
-     * TODO: Improve the performance of this method by reading (multiple) bytes if n >= 8
+     * Reads n bits at once and returns the unsigned decimal representation.
      *
-     * @param n The amount of bits which should be read
+     * @param n The amount of bits which should be read, at most {@link #MAX_BITS}
      * @return The read bits as unsigned decimal representation
      * @throws EOFException If the end of file has been reached unexpectedly
      */
     public int readUnsignedBits(int n) throws EOFException {
-        int bits = 0;
-
-        while (position + 1 % BUFFER_SIZE != 0 && n != 0) {
-            bits = (bits << 1) | readBit();
-            n--;
-        }
-        int bytes = n / BUFFER_SIZE;
-        int remainingBits = n % BUFFER_SIZE;
-        for (int i = 0; i < bytes; i++) {
-            bits = (bits << BUFFER_SIZE) | buffer.get() & 0xFF;
-            position += BUFFER_SIZE;
+        if (n == 0) {
+            return 0;
         }
-        for (int i = 0; i < remainingBits; i++) {
-            bits = (bits << 1) | readBit();
-        }
-
+        int bits = peekBits(n);
+        skipBits(n);
         return bits;
     }
 
@@ -110,4 +139,82 @@ public class BitReader {
 
         return bits;
     }
+
+    /**
+     * Discards all buffered bits and continues reading after the next marker, e.g. after a restart marker of a JPEG
+     * scan (see JPEG specification, page 33). Only markers which are followed by entropy coded data should be skipped
+     * this way.
+     *
+     * @return The skipped marker, or -1 if there is no marker left
+     */
+    public int skipToNextMarker() {
+        bitBuffer = 0;
+        bitCount = 0;
+        paddingBits = 0;
+        endOfData = false;
+        //buffered bytes never contain a marker, so the next marker is at or after the current position
+        for (int i = position; i + 1 < limit; i++) {
+            if (buffer.get(i) == (byte) 0xFF) {
+                int markerByte = buffer.get(i + 1) & ByteUtil.UNSIGNED_BYTE_MASK;
+                if (markerByte != 0 && markerByte != ByteUtil.UNSIGNED_BYTE_MASK) {
+                    position = i + 2;
+                    return 0xFF00 | markerByte;
+                }
+            }
+        }
+        position = limit;
+        return -1;
+    }
+
+    /**
+     * Fills the bit buffer with as many whole bytes as possible. If at least eight bytes are remaining and none of
+     * the needed bytes is 0xFF (which might start a stuffed byte or a marker), all bytes are added at once.
+     */
+    private void fill() {
+        if (!endOfData && limit - position >= 8) {
+            int bytes = (Long.SIZE - bitCount) >> 3;
+            long word = buffer.getLong(position);
+            long newBits = bytes == 8 ? word : word >>> (Long.SIZE - (bytes << 3));
+            if (!skipZeroBytes || !containsByte0xFF(newBits)) {
+                bitBuffer = bytes == 8 ? newBits : (bitBuffer << (bytes << 3)) | newBits;
+                bitCount += bytes << 3;
+                position += bytes;
+                return;
+            }
+        }
+        fillBytewise();
+    }
+
+    private void fillBytewise() {
+        while (bitCount <= Long.SIZE - 8) {
+            int nextByte = 0;
+            if (!endOfData && position < limit) {
+                nextByte = buffer.get(position++) & ByteUtil.UNSIGNED_BYTE_MASK;
+                if (skipZeroBytes && nextByte == ByteUtil.UNSIGNED_BYTE_MASK) {
+                    if (position < limit && buffer.get(position) == 0) {
+                        position++;
+                    } else {
+                        //a marker, leave it in the buffer
+                        position--;
+                        nextByte = 0;
+                        endOfData = true;
+                    }
+                }
+            } else {
+                endOfData = true;
+            }
+            if (endOfData) {
+                paddingBits += 8;
+            }
+            bitBuffer = (bitBuffer << 8) | nextByte;
+            bitCount += 8;
+        }
+    }
+
+    /**
+     * Checks if any byte of the given value is 0xFF, i.e. if any byte of the inverted value is zero.
+     */
+    private static boolean containsByte0xFF(long value) {
+        return ((~value - LOW_BITS_OF_BYTES) & value & HIGH_BITS_OF_BYTES) != 0;
+    }
 }
@@ -8,6 +8,7 @@ import de.unituebingen.dng.reader.util.Rational;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.Objects;
 
 /**
@@ -24,7 +25,7 @@ public class DNGByteReader {
     private long endPosition = -1;
     private int bufferSize;
 
-    private long position;
+    protected long position;
     private long markedPosition;
 
     private ByteOrder byteOrder;
@@ -89,6 +90,29 @@ public class DNGByteReader {
         return read(position++);
     }
 
+    /**
+     * Returns {@code length} bytes starting at the given offset as a {@link ByteBuffer} which is positioned at 0. <br/>
+     * This implementation copies the bytes into a new buffer. Subclasses which have direct access to the file
+     * content (e.g. {@link MappedDNGByteReader}) return a view without copying. <br/>
+     * The current position of the reader is not changed.
+     *
+     * @param offset The offset of the first byte
+     * @param length The number of bytes
+     * @return A buffer holding the requested bytes in big endian byte order
+     * @throws EOFException If the end of file has been reached unexpectedly
+     */
+    public ByteBuffer slice(long offset, int length) throws EOFException {
+        long currentPosition = position;
+        position = offset;
+        byte[] data = new byte[length];
+        try {
+            read(data);
+        } finally {
+            position = currentPosition;
+        }
+        return ByteBuffer.wrap(data);
+    }
+
     /**
      * Reads multiple bytes of data from this file into a given buffer.
      * The byte is returned as an short in the range -128 to 127. <br/>
@@ -243,6 +267,10 @@ public class DNGByteReader {
         randomAccessFile.close();
     }
 
+    protected FileChannel getChannel() {
+        return randomAccessFile.getChannel();
+    }
+
     public ByteOrder getByteOrder() {
         return byteOrder;
     }
@@ -0,0 +1,86 @@
+package de.unituebingen.dng.reader.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link DNGByteReader} which maps the whole file into memory using {@link FileChannel#map}. <br/>
+ * Single bytes are read directly from the mapped buffer, multiple bytes are copied in bulk and
+ * {@link #slice(long, int)} returns a view of the file without copying any data, so strips and tiles can be
+ * handed to the decoders as they are. <br/>
+ * Since a {@link java.nio.MappedByteBuffer} is indexed by int, only files smaller than 2 GiB can be mapped.
+ */
+public class MappedDNGByteReader extends DNGByteReader {
+
+    private final ByteBuffer mappedFile;
+
+    public MappedDNGByteReader(File file) throws IOException {
+        //the byte buffer of the super class is not used, so keep it as small as possible
+        super(file, 1);
+        FileChannel channel = getChannel();
+        if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException("Files larger than 2 GiB cannot be memory mapped.");
+        }
+        mappedFile = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    public MappedDNGByteReader(String name) throws IOException {
+        this(new File(name));
+    }
+
+    /**
+     * Checks if the given file can be memory mapped by this reader.
+     *
+     * @param file The file to check
+     * @return {@code true} if the file is small enough to be mapped, {@code false} if not
+     */
+    public static boolean canMap(File file) {
+        return file.length() <= Integer.MAX_VALUE;
+    }
+
+    @Override
+    public byte read(long position) throws EOFException {
+        if (position < 0 || position >= mappedFile.limit()) {
+            throw new EOFException("The end of file has been reached unexpectedly.");
+        }
+        return mappedFile.get((int) position);
+    }
+
+    /**
+     * Reads multiple bytes of data from this file into a given buffer by copying them in bulk.
+     *
+     * @param buffer The buffer to read into
+     * @return The number of bytes which were actually read
+     * @throws EOFException If the end of file has been reached unexpectedly
+     */
+    @Override
+    public int read(byte[] buffer) throws EOFException {
+        checkRange(position, buffer.length);
+        mappedFile.get((int) position, buffer);
+        position += buffer.length;
+        return buffer.length;
+    }
+
+    /**
+     * Returns a read-only view of {@code length} bytes starting at the given offset. No data is copied.
+     *
+     * @param offset The offset of the first byte
+     * @param length The number of bytes
+     * @return A view of the requested bytes in big endian byte order
+     * @throws EOFException If the requested range exceeds the end of the file
+     */
+    @Override
+    public ByteBuffer slice(long offset, int length) throws EOFException {
+        checkRange(offset, length);
+        return mappedFile.slice((int) offset, length).asReadOnlyBuffer();
+    }
+
+    private void checkRange(long offset, int length) throws EOFException {
+        if (offset < 0 || offset + length > mappedFile.limit()) {
+            throw new EOFException("The end of file has been reached unexpectedly.");
+        }
+    }
+}
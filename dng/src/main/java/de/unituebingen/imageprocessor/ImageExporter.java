@@ -19,16 +19,26 @@ public class ImageExporter {
     private static final String TIFF_EXTENSION = "tiff";
     private static final String JPG_EXTENSION = "jpg";
 
+    /**
+     * Writes an uncompressed TIFF file, with the {@link TIFFEncoder} if it supports the image.
+     */
     public static void saveAsTIFF(BufferedImage image, File file) throws IOException {
-        final ImageWriter writer = ImageIO.getImageWritersByFormatName(TIFF_EXTENSION).next();
-        writer.setOutput(new FileImageOutputStream(file));
-        writer.write(null, new IIOImage(image, null, null), null);
+        if (ParallelImageEncoder.isSupported(image)) {
+            new TIFFEncoder(file).encode(image);
+            return;
+        }
+        write(ImageIO.getImageWritersByFormatName(TIFF_EXTENSION).next(), image, file, null);
     }
 
+    /**
+     * Writes a PNG file, with the {@link PNGEncoder} if it supports the image.
+     */
     public static void saveAsPNG(BufferedImage image, File file) throws IOException {
-        final ImageWriter writer = ImageIO.getImageWritersByFormatName(PNG_EXTENSION).next();
-        writer.setOutput(new FileImageOutputStream(file));
-        writer.write(null, new IIOImage(image, null, null), null);
+        if (ParallelImageEncoder.isSupported(image)) {
+            new PNGEncoder(file).encode(image);
+            return;
+        }
+        write(ImageIO.getImageWritersByFormatName(PNG_EXTENSION).next(), image, file, null);
     }
 
     public static void saveAsJPEG(BufferedImage image, File file, float compression) throws IOException {
@@ -36,9 +46,18 @@ public class ImageExporter {
         jpegParams.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
         jpegParams.setCompressionQuality(compression);
 
-        final ImageWriter writer = ImageIO.getImageWritersByFormatName(JPG_EXTENSION).next();
-        writer.setOutput(new FileImageOutputStream(file));
-        writer.write(null, new IIOImage(image, null, null), jpegParams);
+        write(ImageIO.getImageWritersByFormatName(JPG_EXTENSION).next(), image, file, jpegParams);
+    }
+
+    // closes the file and releases the writer, so that long-running processes do not run out of file handles
+    private static void write(ImageWriter writer, BufferedImage image, File file, ImageWriteParam params)
+            throws IOException {
+        try (FileImageOutputStream out = new FileImageOutputStream(file)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), params);
+        } finally {
+            writer.dispose();
+        }
     }
 
     /**
@@ -0,0 +1,169 @@
+package de.unituebingen.imageprocessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes RGB images with 8 or 16 bits per sample as PNG files, see {@link ParallelImageEncoder}. <br/>
+ * Each row is filtered with the Paeth predictor. The filtered rows of each strip are deflated on their own and written
+ * as an IDAT chunk. Since all but the last strip are flushed to a byte boundary instead of finished, the chunks form a
+ * single zlib stream, whose Adler-32 checksum is combined from the checksums of the strips. A strip does not refer to
+ * the data of the previous strip, which costs a little compression for parallelism.
+ */
+public class PNGEncoder extends ParallelImageEncoder<ByteBuffer> {
+
+    private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int FILTER_PAETH = 4;
+    // the largest prime below 2^16, the modulus of Adler-32
+    private static final int ADLER_BASE = 65521;
+
+    private int adler32 = 1;
+
+    /**
+     * @param file The file to write, which is replaced if it exists
+     */
+    public PNGEncoder(File file) {
+        super(file);
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        write(ByteBuffer.wrap(SIGNATURE));
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(getWidth()).putInt(getHeight()).put((byte) getBitsPerSample()).put((byte) COLOR_TYPE_RGB);
+        // deflate, adaptive filtering, no interlacing
+        header.put((byte) 0).put((byte) 0).put((byte) 0);
+        write(chunk("IHDR", header.array(), 0, 13));
+        // the samples are sRGB, rendered perceptually
+        write(chunk("sRGB", new byte[]{0}, 0, 1));
+        // the zlib header: deflate with a 32K window and the level of the compression
+        int level = getCompressionLevel();
+        int levelFlags = level == Deflater.DEFAULT_COMPRESSION || level == 6 ? 2 : level < 2 ? 0 : level < 6 ? 1 : 3;
+        int header0 = 0x78;
+        int header1 = levelFlags << 6;
+        header1 += (31 - (header0 << 8 | header1) % 31) % 31;
+        write(chunk("IDAT", new byte[]{(byte) header0, (byte) header1}, 0, 2));
+    }
+
+    @Override
+    protected ByteBuffer encodeStrip(Strip strip) {
+        int bytesPerPixel = getBitsPerSample() / 8 * 3;
+        int rowBytes = getWidth() * bytesPerPixel;
+        byte[] filtered = new byte[strip.rows * (rowBytes + 1)];
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        // the last row of the previous strip, zeros above the first row of the image
+        toBytes(strip.samples, 0, previous);
+        for (int row = 0; row < strip.rows; row++) {
+            toBytes(strip.samples, row + 1, current);
+            int offset = row * (rowBytes + 1);
+            filtered[offset] = FILTER_PAETH;
+            for (int i = 0; i < rowBytes; i++) {
+                int left = i >= bytesPerPixel ? current[i - bytesPerPixel] & 0xFF : 0;
+                int up = previous[i] & 0xFF;
+                int upLeft = i >= bytesPerPixel ? previous[i - bytesPerPixel] & 0xFF : 0;
+                filtered[offset + 1 + i] = (byte) (current[i] - paeth(left, up, upLeft));
+            }
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        Adler32 checksum = new Adler32();
+        checksum.update(filtered);
+        ByteBuffer deflated = deflate(new Deflater(getCompressionLevel(), true), filtered, strip.last);
+        ByteBuffer chunk = chunk("IDAT", deflated.array(), 0, deflated.limit());
+        // the checksum and the length of the filtered data follow the chunk, they are not written
+        ByteBuffer result = ByteBuffer.allocate(chunk.remaining() + 12);
+        result.put(chunk).putInt((int) checksum.getValue()).putLong(filtered.length);
+        return result.flip();
+    }
+
+    @Override
+    protected void writeStrip(ByteBuffer encoded) throws IOException {
+        int chunkLength = encoded.limit() - 12;
+        adler32 = combineAdler32(adler32, encoded.getInt(chunkLength), encoded.getLong(chunkLength + 4));
+        write(encoded.limit(chunkLength));
+    }
+
+    @Override
+    protected void writeTrailer() throws IOException {
+        byte[] checksum = ByteBuffer.allocate(4).putInt(adler32).array();
+        write(chunk("IDAT", checksum, 0, 4));
+        write(chunk("IEND", new byte[0], 0, 0));
+    }
+
+    /**
+     * Converts a row of samples to big endian bytes.
+     */
+    private static void toBytes(Object samples, int row, byte[] bytes) {
+        if (samples instanceof byte[] byteSamples) {
+            System.arraycopy(byteSamples, row * bytes.length, bytes, 0, bytes.length);
+            return;
+        }
+        short[] shortSamples = (short[]) samples;
+        int offset = row * bytes.length / 2;
+        for (int i = 0; i < bytes.length / 2; i++) {
+            short sample = shortSamples[offset + i];
+            bytes[2 * i] = (byte) (sample >> 8);
+            bytes[2 * i + 1] = (byte) sample;
+        }
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+        int estimate = left + up - upLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceUp = Math.abs(estimate - up);
+        int distanceUpLeft = Math.abs(estimate - upLeft);
+        if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+            return left;
+        }
+        return distanceUp <= distanceUpLeft ? up : upLeft;
+    }
+
+    /**
+     * @return A chunk with its length, type, data and CRC
+     */
+    private static ByteBuffer chunk(String type, byte[] data, int offset, int length) {
+        ByteBuffer chunk = ByteBuffer.allocate(length + 12);
+        chunk.putInt(length).put(type.getBytes(StandardCharsets.US_ASCII)).put(data, offset, length);
+        CRC32 crc = new CRC32();
+        crc.update(chunk.array(), 4, length + 4);
+        chunk.putInt((int) crc.getValue());
+        return chunk.flip();
+    }
+
+    /**
+     * Returns the Adler-32 checksum of two concatenated blocks of data, like adler32_combine of zlib.
+     *
+     * @param adler1 The checksum of the first block
+     * @param adler2 The checksum of the second block
+     * @param length2 The length of the second block
+     */
+    static int combineAdler32(int adler1, int adler2, long length2) {
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = remainder * sum1 % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += (adler1 >>> 16) + (adler2 >>> 16) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= 2L * ADLER_BASE) {
+            sum2 -= 2L * ADLER_BASE;
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return (int) (sum1 | sum2 << 16);
+    }
+}
@@ -0,0 +1,399 @@
+package de.unituebingen.imageprocessor;
+
+import de.unituebingen.dng.processor.BandSink;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+/**
+ * The base of the {@link TIFFEncoder} and the {@link PNGEncoder}, which encode RGB images with 8 or 16 bits per
+ * sample. <br/>
+ * The rows of the image are collected into strips of {@link #setRowsPerStrip(int)} rows. The strips are compressed
+ * in parallel and written to the file in order through a {@link FileChannel}. At most twice as many strips as the pool
+ * has threads are held at the same time, so the memory which is needed does not depend on the image size. An encoder
+ * is a {@link BandSink}, so it can write the bands of the streaming pipeline as they are finished, see
+ * {@link de.unituebingen.dng.DNGProcessor#processStreaming(BandSink)}. {@link #encode(BufferedImage)} writes a whole
+ * image. <br/>
+ * An encoder writes one image, it cannot be reused.
+ *
+ * @param <S> The type of an encoded strip
+ */
+public abstract class ParallelImageEncoder<S> implements BandSink {
+
+    /**
+     * The default amount of rows of a strip.
+     */
+    public static final int DEFAULT_ROWS_PER_STRIP = 64;
+
+    private final File file;
+    private int rowsPerStrip = DEFAULT_ROWS_PER_STRIP;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private ForkJoinPool pool;
+
+    private FileChannel channel;
+    private int width;
+    private int height;
+    private int bitsPerSample;
+    // the next row of the image which is expected
+    private int nextRow;
+    private Strip strip;
+    private Object row;
+    private final ArrayDeque<CompletableFuture<S>> pending = new ArrayDeque<>();
+
+    /**
+     * @param file The file to write, which is replaced if it exists
+     */
+    protected ParallelImageEncoder(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns whether an image can be encoded, i.e. whether it has three RGB samples per pixel with 8 or 16 bits each.
+     */
+    public static boolean isSupported(BufferedImage image) {
+        ColorModel colorModel = image.getColorModel();
+        int transferType = image.getRaster().getTransferType();
+        return colorModel.getColorSpace().getType() == ColorSpace.TYPE_RGB && !colorModel.hasAlpha()
+                && image.getRaster().getNumDataElements() == 3
+                && (transferType == DataBuffer.TYPE_BYTE || transferType == DataBuffer.TYPE_USHORT);
+    }
+
+    /**
+     * Sets the amount of rows which are compressed together, {@link #DEFAULT_ROWS_PER_STRIP} by default. Larger strips
+     * compress a little better, smaller strips need less memory and keep more threads busy for small images.
+     */
+    public void setRowsPerStrip(int rowsPerStrip) {
+        if (rowsPerStrip < 1) {
+            throw new IllegalArgumentException("A strip needs at least one row.");
+        }
+        this.rowsPerStrip = rowsPerStrip;
+    }
+
+    /**
+     * Sets the level of the Deflate compression from 0 (none) to 9 (best), {@link Deflater#DEFAULT_COMPRESSION}
+     * by default.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel != Deflater.DEFAULT_COMPRESSION && (compressionLevel < 0 || compressionLevel > 9)) {
+            throw new IllegalArgumentException("The compression level has to be between 0 and 9, not "
+                    + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Sets the pool which compresses the strips, or {@code null} for the common pool (default).
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Writes a whole image.
+     *
+     * @param image An image which is {@link #isSupported(BufferedImage) supported}
+     * @throws IOException If the file cannot be written
+     */
+    public void encode(BufferedImage image) throws IOException {
+        start(image.getWidth(), image.getHeight());
+        writeBand(image, 0);
+        finish();
+    }
+
+    @Override
+    public void start(int width, int height) throws IOException {
+        if (channel != null) {
+            throw new IllegalStateException("An encoder writes one image only.");
+        }
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void writeBand(BufferedImage band, int y) throws IOException {
+        if (channel == null) {
+            throw new IllegalStateException("The encoder has not been started.");
+        }
+        if (!isSupported(band)) {
+            throw new IllegalArgumentException("Only RGB images with 8 or 16 bits per sample can be encoded.");
+        }
+        int bandBits = band.getRaster().getTransferType() == DataBuffer.TYPE_BYTE ? 8 : 16;
+        if (bitsPerSample == 0) {
+            bitsPerSample = bandBits;
+            try {
+                writeHeader();
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+        if (band.getWidth() != width || y != nextRow || y + band.getHeight() > height || bandBits != bitsPerSample) {
+            throw new IllegalArgumentException("Expected a band of " + width + " pixels and " + bitsPerSample
+                    + " bits per sample at row " + nextRow);
+        }
+        Raster raster = band.getRaster();
+        for (int bandRow = 0; bandRow < band.getHeight(); bandRow++) {
+            if (strip == null) {
+                strip = createStrip(null);
+            }
+            copyRow(raster, bandRow, strip.samples, (nextRow - strip.firstRow + 1) * width * 3);
+            nextRow++;
+            if (nextRow == strip.firstRow + strip.rows) {
+                // the next strip copies the last row before the encoding starts
+                Strip next = nextRow < height ? createStrip(strip) : null;
+                submit(strip);
+                strip = next;
+            }
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (channel == null) {
+            throw new IllegalStateException("The encoder has not been started.");
+        }
+        try {
+            if (nextRow != height) {
+                throw new IOException("Only " + nextRow + " of " + height + " rows have been written to " + file);
+            }
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            writeTrailer();
+        } finally {
+            abort();
+        }
+    }
+
+    /**
+     * Creates the strip which starts at the next row.
+     *
+     * @param previous The previous strip, whose last row is copied, or null
+     */
+    private Strip createStrip(Strip previous) {
+        int rows = Math.min(rowsPerStrip, height - nextRow);
+        int rowLength = width * 3;
+        Object samples = bitsPerSample == 8 ? new byte[(rows + 1) * rowLength] : new short[(rows + 1) * rowLength];
+        if (previous != null) {
+            System.arraycopy(previous.samples, previous.rows * rowLength, samples, 0, rowLength);
+        }
+        return new Strip(nextRow, rows, nextRow + rows == height, samples);
+    }
+
+    /**
+     * Copies a row of a band to the samples of a strip, as fast as possible for the interleaved rasters of the
+     * pipeline.
+     */
+    private void copyRow(Raster raster, int y, Object samples, int offset) {
+        SampleModel sampleModel = raster.getSampleModel();
+        if (sampleModel instanceof PixelInterleavedSampleModel interleaved && interleaved.getPixelStride() == 3
+                && interleaved.getBandOffsets()[0] == 0 && interleaved.getBandOffsets()[1] == 1
+                && interleaved.getBandOffsets()[2] == 2 && raster.getDataBuffer().getNumBanks() == 1) {
+            DataBuffer dataBuffer = raster.getDataBuffer();
+            int from = dataBuffer.getOffset() + interleaved.getOffset(-raster.getSampleModelTranslateX(),
+                    y - raster.getSampleModelTranslateY());
+            Object data = dataBuffer instanceof DataBufferByte bytes ? bytes.getData()
+                    : ((DataBufferUShort) dataBuffer).getData();
+            System.arraycopy(data, from, samples, offset, width * 3);
+            return;
+        }
+        row = raster.getDataElements(0, y, width, 1, row);
+        System.arraycopy(row, 0, samples, offset, width * 3);
+    }
+
+    private void submit(Strip strip) throws IOException {
+        pending.add(CompletableFuture.supplyAsync(() -> encodeStrip(strip),
+                pool != null ? pool : ForkJoinPool.commonPool()));
+        int maxPending = 2 * (pool != null ? pool.getParallelism() : ForkJoinPool.getCommonPoolParallelism());
+        while (!pending.isEmpty() && (pending.size() > maxPending || pending.peek().isDone())) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        S encoded;
+        try {
+            encoded = pending.poll().join();
+        } catch (CompletionException e) {
+            abort();
+            throw new IOException("A strip of " + file + " could not be encoded", e.getCause());
+        }
+        try {
+            writeStrip(encoded);
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+    }
+
+    private void abort() throws IOException {
+        pending.clear();
+        channel.close();
+    }
+
+    /**
+     * Writes the beginning of the file. Called when the first band arrives, since the bit depth is known then.
+     */
+    protected abstract void writeHeader() throws IOException;
+
+    /**
+     * Compresses a strip, called in parallel for several strips.
+     */
+    protected abstract S encodeStrip(Strip strip);
+
+    /**
+     * Writes an encoded strip, called for the strips in order.
+     */
+    protected abstract void writeStrip(S encoded) throws IOException;
+
+    /**
+     * Writes the end of the file after the last strip.
+     */
+    protected abstract void writeTrailer() throws IOException;
+
+    /**
+     * Writes the remaining bytes of a buffer at the end of the file.
+     *
+     * @return The position in the file at which the buffer was written
+     */
+    protected long write(ByteBuffer buffer) throws IOException {
+        long position = channel.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return position;
+    }
+
+    /**
+     * @return The size of the file written so far
+     */
+    protected long getPosition() throws IOException {
+        return channel.position();
+    }
+
+    /**
+     * Overwrites the bytes of a buffer at a position which has already been written, e.g. an offset in a header.
+     */
+    protected void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Deflates data completely.
+     *
+     * @param deflater The deflater, which is ended afterwards
+     * @param finish   Whether the stream is finished, otherwise it is flushed to a byte boundary, so that the data of
+     *                 another deflater can be appended
+     * @return The deflated data, from 0 to its limit
+     */
+    protected static ByteBuffer deflate(Deflater deflater, byte[] data, boolean finish) {
+        try {
+            deflater.setInput(data);
+            // enough for incompressible data most of the time
+            byte[] output = new byte[data.length + (data.length >> 6) + 64];
+            int length = 0;
+            if (finish) {
+                deflater.finish();
+            }
+            while (true) {
+                length += deflater.deflate(output, length, output.length - length,
+                        finish ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                // the data is deflated completely once the output is not full anymore
+                if (finish ? deflater.finished() : length < output.length) {
+                    break;
+                }
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+            }
+            return ByteBuffer.wrap(output, 0, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return The width of the image
+     */
+    protected int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The height of the image
+     */
+    protected int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return 8 or 16, the bits per sample of the image, or 0 before the first band
+     */
+    protected int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    /**
+     * @return The rows per strip
+     */
+    protected int getRowsPerStrip() {
+        return rowsPerStrip;
+    }
+
+    /**
+     * @return The level of the Deflate compression
+     */
+    protected int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * The interleaved RGB samples of consecutive rows of the image. The samples start with the last row of the previous
+     * strip, or a row of zeros for the first strip, which the PNG filters refer to. The samples must not be modified by
+     * {@link #encodeStrip(Strip)}.
+     */
+    protected static final class Strip {
+
+        /**
+         * The first row of the image in this strip
+         */
+        public final int firstRow;
+        /**
+         * The amount of rows, without the previous row
+         */
+        public final int rows;
+        /**
+         * Whether this is the last strip of the image
+         */
+        public final boolean last;
+        /**
+         * A byte[] or short[] with the samples of rows + 1 rows
+         */
+        public final Object samples;
+
+        private Strip(int firstRow, int rows, boolean last, Object samples) {
+            this.firstRow = firstRow;
+            this.rows = rows;
+            this.last = last;
+            this.samples = samples;
+        }
+    }
+}
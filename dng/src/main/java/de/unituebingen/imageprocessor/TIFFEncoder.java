@@ -0,0 +1,306 @@
+package de.unituebingen.imageprocessor;
+
+import de.unituebingen.dng.reader.DNGTag;
+import de.unituebingen.dng.reader.DNGTagConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes RGB images with 8 or 16 bits per sample as little endian baseline TIFF files, see
+ * {@link ParallelImageEncoder}. <br/>
+ * The strips are stored uncompressed (default) or compressed with Deflate or LZW. Compressed 8 bit samples are
+ * predicted by horizontal differencing, which stores the difference of each sample to the sample of the same color to
+ * its left. 16 bit samples are not predicted, since the TIFF reader of ImageIO does not support it for them.
+ * The image file directory follows the strips, since their offsets are not known before.
+ */
+public class TIFFEncoder extends ParallelImageEncoder<ByteBuffer> {
+
+    /**
+     * The compression of the strips.
+     */
+    public enum Compression {
+        NONE(DNGTagConstants.COMPRESSION__UNCOMPRESSED),
+        DEFLATE(DNGTagConstants.COMPRESSION__DEFLATE),
+        LZW(DNGTagConstants.COMPRESSION__LZW);
+
+        private final int tagValue;
+
+        Compression(int tagValue) {
+            this.tagValue = tagValue;
+        }
+    }
+
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_RATIONAL = 5;
+    // classic TIFF files address their contents with 32 bit offsets
+    private static final long MAX_OFFSET = 0xFFFFFFFFL;
+
+    private Compression compression = Compression.NONE;
+
+    private final List<Long> stripOffsets = new ArrayList<>();
+    private final List<Long> stripByteCounts = new ArrayList<>();
+
+    /**
+     * @param file The file to write, which is replaced if it exists
+     */
+    public TIFFEncoder(File file) {
+        super(file);
+    }
+
+    /**
+     * Sets the compression of the strips, {@link Compression#NONE} by default. The level of {@link Compression#DEFLATE}
+     * is set by {@link #setCompressionLevel(int)}.
+     */
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'I').put((byte) 'I').putShort((short) 42);
+        // the offset of the image file directory is written at the end
+        header.putInt(0);
+        write(header.flip());
+    }
+
+    @Override
+    protected ByteBuffer encodeStrip(Strip strip) {
+        boolean predict = isPredicted();
+        int rowLength = getWidth() * 3;
+        int from = rowLength;
+        int to = (strip.rows + 1) * rowLength;
+        byte[] data;
+        if (strip.samples instanceof byte[] samples) {
+            if (!predict) {
+                return ByteBuffer.wrap(samples, from, to - from).slice();
+            }
+            data = new byte[to - from];
+            for (int i = from; i < to; i++) {
+                data[i - from] = (byte) (i % rowLength < 3 ? samples[i] : samples[i] - samples[i - 3]);
+            }
+        } else {
+            short[] samples = (short[]) strip.samples;
+            data = new byte[(to - from) * 2];
+            for (int i = from; i < to; i++) {
+                data[(i - from) * 2] = (byte) samples[i];
+                data[(i - from) * 2 + 1] = (byte) (samples[i] >> 8);
+            }
+        }
+        switch (compression) {
+            case DEFLATE:
+                return deflate(new Deflater(getCompressionLevel()), data, true);
+            case LZW:
+                return LZWEncoder.encode(data);
+            default:
+                return ByteBuffer.wrap(data);
+        }
+    }
+
+    @Override
+    protected void writeStrip(ByteBuffer encoded) throws IOException {
+        long byteCount = encoded.remaining();
+        long offset = write(encoded);
+        if (offset + byteCount > MAX_OFFSET) {
+            throw new IOException("The image is too large for a TIFF file.");
+        }
+        stripOffsets.add(offset);
+        stripByteCounts.add(byteCount);
+    }
+
+    @Override
+    protected void writeTrailer() throws IOException {
+        int bitsPerSample = getBitsPerSample();
+        List<long[]> entries = new ArrayList<>();
+        entries.add(new long[]{DNGTag.IMAGE_WIDTH.getId(), TYPE_LONG, getWidth()});
+        entries.add(new long[]{DNGTag.IMAGE_LENGTH.getId(), TYPE_LONG, getHeight()});
+        entries.add(new long[]{DNGTag.BITS_PER_SAMPLE.getId(), TYPE_SHORT, bitsPerSample, bitsPerSample,
+                bitsPerSample});
+        entries.add(new long[]{DNGTag.COMPRESSION.getId(), TYPE_SHORT, compression.tagValue});
+        entries.add(new long[]{DNGTag.PHOTOMETRIC_INTERPRETATION.getId(), TYPE_SHORT,
+                DNGTagConstants.PHOTOMETRIC_INTERPRETATION__RGB});
+        entries.add(concat(new long[]{DNGTag.STRIP_OFFSETS.getId(), TYPE_LONG}, stripOffsets));
+        entries.add(new long[]{DNGTag.SAMPLES_PER_PIXEL.getId(), TYPE_SHORT, 3});
+        entries.add(new long[]{DNGTag.ROWS_PER_STRIP.getId(), TYPE_LONG, getRowsPerStrip()});
+        entries.add(concat(new long[]{DNGTag.STRIP_BYTE_COUNTS.getId(), TYPE_LONG}, stripByteCounts));
+        // 72 dpi
+        entries.add(new long[]{DNGTag.X_RESOLUTION.getId(), TYPE_RATIONAL, 72, 1});
+        entries.add(new long[]{DNGTag.Y_RESOLUTION.getId(), TYPE_RATIONAL, 72, 1});
+        entries.add(new long[]{DNGTag.PLANAR_CONFIGURATION.getId(), TYPE_SHORT, 1});
+        entries.add(new long[]{DNGTag.RESOLUTION_UNIT.getId(), TYPE_SHORT, 2});
+        if (isPredicted()) {
+            entries.add(new long[]{DNGTag.PREDICTOR.getId(), TYPE_SHORT,
+                    DNGTagConstants.PREDICTOR__HORIZONTAL_DIFFERENCING});
+        }
+        entries.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        // the directory starts at a word boundary, the values which do not fit into an entry follow it
+        long position = getPosition();
+        long directoryOffset = position + (position & 1);
+        if (directoryOffset + 6 + 12L * entries.size() + 8L * stripOffsets.size() * 2 + 32 > MAX_OFFSET) {
+            throw new IOException("The image is too large for a TIFF file.");
+        }
+        int valuesSize = 0;
+        for (long[] entry : entries) {
+            int size = valueSize(entry);
+            valuesSize += size > 4 ? size : 0;
+        }
+        ByteBuffer directory = ByteBuffer.allocate((int) (directoryOffset - position) + 6 + 12 * entries.size()
+                + valuesSize).order(ByteOrder.LITTLE_ENDIAN);
+        directory.position((int) (directoryOffset - position));
+        directory.putShort((short) entries.size());
+        int valueOffset = (int) directoryOffset + 6 + 12 * entries.size();
+        ByteBuffer values = directory.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        values.position(valueOffset - (int) position);
+        for (long[] entry : entries) {
+            int type = (int) entry[1];
+            int count = type == TYPE_RATIONAL ? (entry.length - 2) / 2 : entry.length - 2;
+            directory.putShort((short) entry[0]).putShort((short) type).putInt(count);
+            int size = valueSize(entry);
+            ByteBuffer target = size > 4 ? values : directory;
+            if (size > 4) {
+                directory.putInt(valueOffset);
+                valueOffset += size;
+            }
+            for (int i = 2; i < entry.length; i++) {
+                if (type == TYPE_SHORT) {
+                    target.putShort((short) entry[i]);
+                } else {
+                    target.putInt((int) entry[i]);
+                }
+            }
+            // values which fit into the entry are left aligned
+            for (int i = size; i < 4; i++) {
+                directory.put((byte) 0);
+            }
+        }
+        // no further image file directory
+        directory.putInt(0);
+        write(directory.clear());
+
+        ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt((int) directoryOffset);
+        write(header.flip(), 4);
+    }
+
+    private boolean isPredicted() {
+        return compression != Compression.NONE && getBitsPerSample() == 8;
+    }
+
+    private static int valueSize(long[] entry) {
+        return (entry.length - 2) * (entry[1] == TYPE_SHORT ? 2 : 4);
+    }
+
+    private static long[] concat(long[] entry, List<Long> values) {
+        long[] result = Arrays.copyOf(entry, entry.length + values.size());
+        for (int i = 0; i < values.size(); i++) {
+            result[entry.length + i] = values.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * The LZW compression of TIFF 6.0, section 13. Codes are written with the most significant bit first, and the code
+     * length grows one code earlier than the table does, like in libtiff.
+     */
+    static final class LZWEncoder {
+
+        private static final int CLEAR_CODE = 256;
+        private static final int END_OF_INFORMATION = 257;
+        private static final int FIRST_CODE = 258;
+        // the table is cleared before the codes would need more than 12 bits
+        private static final int MAX_CODE = 4094;
+        private static final int HASH_SIZE = 1 << 13;
+
+        private LZWEncoder() {
+        }
+
+        /**
+         * @return The compressed data, from 0 to its limit
+         */
+        static ByteBuffer encode(byte[] data) {
+            // each byte takes at most 12 bits, plus the clear codes
+            byte[] output = new byte[data.length * 3 / 2 + data.length / 2048 + 16];
+            // the strings of the table are keyed by their prefix code and their last byte
+            int[] keys = new int[HASH_SIZE];
+            short[] codes = new short[HASH_SIZE];
+            int length = 0;
+            long bits = 0;
+            int bitCount = 0;
+            int codeLength = 9;
+            int nextCode = FIRST_CODE;
+
+            bits = CLEAR_CODE;
+            bitCount = 9;
+            int prefix = data.length > 0 ? data[0] & 0xFF : -1;
+            for (int i = 1; i < data.length; i++) {
+                int value = data[i] & 0xFF;
+                int key = (prefix << 8 | value) + 1;
+                int slot = hash(key);
+                while (keys[slot] != 0 && keys[slot] != key) {
+                    slot = (slot + 1) & (HASH_SIZE - 1);
+                }
+                if (keys[slot] == key) {
+                    prefix = codes[slot];
+                    continue;
+                }
+                bits = bits << codeLength | prefix;
+                bitCount += codeLength;
+                while (bitCount >= 8) {
+                    bitCount -= 8;
+                    output[length++] = (byte) (bits >>> bitCount);
+                }
+                keys[slot] = key;
+                codes[slot] = (short) nextCode++;
+                if (nextCode == MAX_CODE) {
+                    bits = bits << codeLength | CLEAR_CODE;
+                    bitCount += codeLength;
+                    Arrays.fill(keys, 0);
+                    nextCode = FIRST_CODE;
+                    codeLength = 9;
+                } else if (nextCode > (1 << codeLength) - 1) {
+                    codeLength++;
+                }
+                prefix = value;
+            }
+            if (prefix >= 0) {
+                bits = bits << codeLength | prefix;
+                bitCount += codeLength;
+                while (bitCount >= 8) {
+                    bitCount -= 8;
+                    output[length++] = (byte) (bits >>> bitCount);
+                }
+                // the decoder adds a string for the last code as well, which may lengthen the codes
+                nextCode++;
+                if (nextCode == MAX_CODE) {
+                    bits = bits << codeLength | CLEAR_CODE;
+                    bitCount += codeLength;
+                    codeLength = 9;
+                } else if (nextCode > (1 << codeLength) - 1) {
+                    codeLength++;
+                }
+            }
+            bits = bits << codeLength | END_OF_INFORMATION;
+            bitCount += codeLength;
+            while (bitCount >= 8) {
+                bitCount -= 8;
+                output[length++] = (byte) (bits >>> bitCount);
+            }
+            if (bitCount > 0) {
+                output[length++] = (byte) (bits << (8 - bitCount));
+            }
+            return ByteBuffer.wrap(output, 0, length);
+        }
+
+        private static int hash(int key) {
+            return (key * 0x9E3779B1 >>> 19) & (HASH_SIZE - 1);
+        }
+    }
+}
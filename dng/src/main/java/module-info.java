@@ -5,11 +5,14 @@ module de.unituebingen.dng {
     requires org.slf4j.nop;
     requires commons.math3;
     requires tornado.api;
+    requires static jdk.incubator.vector;
     requires transitive java.desktop;
 
 
     exports de.unituebingen.dng;
     exports de.unituebingen.dng.reader;
+    exports de.unituebingen.dng.processor;
+    exports de.unituebingen.dng.processor.log;
     exports de.unituebingen.dng.processor.util;
     exports de.unituebingen.imageprocessor;
     exports de.unituebingen.dng.reader.compression;
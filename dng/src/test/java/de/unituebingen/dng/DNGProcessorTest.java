@@ -0,0 +1,190 @@
+package de.unituebingen.dng;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import de.unituebingen.dng.processor.BufferedImageBandSink;
+import de.unituebingen.dng.processor.demosaicingprocessor.DemosaicingProcessor.InterpolationMethod;
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.DNGReadException;
+import de.unituebingen.dng.reader.compression.CompressionDecoderException;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+public class DNGProcessorTest
+    extends TestCase
+{
+    private static final String PATH_TO_DNG_FILE = "src/test/resources/RAW-CANON-S30.dng";
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public DNGProcessorTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( DNGProcessorTest.class );
+    }
+
+    public void testStreamingMatchesProcess() throws IOException, DNGReadException, CompressionDecoderException
+    {
+        // an odd band height which is not a multiple of the tile height of the raw image
+        int bandHeight = 99;
+        for (InterpolationMethod interpolationMethod : InterpolationMethod.values()) {
+            DNGProcessor processor = new DNGProcessor(PATH_TO_DNG_FILE);
+            processor.setInterpolationMethod(interpolationMethod);
+            processor.setAccelerationStrategy(AccelerationStrategy.MULTITHREADING);
+            // the command line interface streams whenever it is supported
+            assertTrue(interpolationMethod.toString(), processor.isStreamingSupported());
+            BufferedImage expected = processor.process();
+
+            BufferedImageBandSink sink = new BufferedImageBandSink();
+            processor.processStreaming(sink, bandHeight);
+            BufferedImage streamed = sink.getImage();
+
+            assertEquals(expected.getWidth(), streamed.getWidth());
+            assertEquals(expected.getHeight(), streamed.getHeight());
+            int[] expectedSamples = expected.getData().getPixels(0, 0, expected.getWidth(), expected.getHeight(), (int[]) null);
+            int[] streamedSamples = streamed.getData().getPixels(0, 0, streamed.getWidth(), streamed.getHeight(), (int[]) null);
+            for (int i = 0; i < expectedSamples.length; i++) {
+                assertEquals(interpolationMethod + " differs at sample " + i, expectedSamples[i], streamedSamples[i]);
+            }
+        }
+    }
+
+    public void testLinearRawLossy() throws IOException, DNGReadException, CompressionDecoderException
+    {
+        int width = 40;
+        int height = 24;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 6) << 16 | (y * 10) << 8 | (x + y) * 3);
+            }
+        }
+        File file = File.createTempFile("linear-raw", ".dng");
+        file.deleteOnExit();
+        writeLossyLinearRawDNG(file, image);
+
+        DNGProcessor processor = new DNGProcessor(file);
+        assertFalse(processor.isStreamingSupported());
+        BufferedImage raw = processor.readRawImage();
+        assertEquals(3, raw.getRaster().getNumBands());
+        assertEquals(width, raw.getWidth());
+        assertEquals(height, raw.getHeight());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = image.getRGB(x, y);
+                for (int band = 0; band < 3; band++) {
+                    int expected = (rgb >> (16 - 8 * band)) & 0xFF;
+                    // the samples of the smooth gradient are changed only slightly by the lossy compression and the subsampling
+                    assertTrue("sample " + band + " at " + x + ", " + y,
+                            Math.abs(expected - raw.getRaster().getSample(x, y, band)) <= 16);
+                }
+            }
+        }
+
+        // the samples are not demosaiced, but mapped, cropped and post-processed like the ones of a CFA image
+        BufferedImage processed = processor.process();
+        assertEquals(3, processed.getRaster().getNumBands());
+        assertEquals(width, processed.getWidth());
+        assertEquals(height, processed.getHeight());
+        int[] darkest = processed.getRaster().getPixel(0, 0, (int[]) null);
+        int[] brightest = processed.getRaster().getPixel(width - 1, height - 1, (int[]) null);
+        for (int band = 0; band < 3; band++) {
+            assertTrue("sample " + band, brightest[band] > darkest[band]);
+        }
+    }
+
+    /**
+     * Writes a DNG file whose only IFD is a LinearRaw image with three samples per pixel, stored as a single lossy
+     * JPEG compressed strip, and the color tags which the processor needs.
+     */
+    private static void writeLossyLinearRawDNG(File file, BufferedImage image) throws IOException
+    {
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, "jpeg", jpeg));
+        // tag, type (1 = BYTE, 3 = SHORT, 4 = LONG, 5 = RATIONAL, 10 = SRATIONAL) and values, rationals as pairs
+        long[][] entries = {
+                {254, 4, 0},
+                {256, 4, image.getWidth()},
+                {257, 4, image.getHeight()},
+                {258, 3, 8, 8, 8},
+                {259, 3, 34892},
+                {262, 3, 34892},
+                // the strip offset is filled in below
+                {273, 4, 0},
+                {277, 3, 3},
+                {278, 4, image.getHeight()},
+                {279, 4, jpeg.size()},
+                {284, 3, 1},
+                {50706, 1, 1, 4, 0, 0},
+                {50717, 3, 255, 255, 255},
+                {50721, 10, 1, 1, 0, 1, 0, 1, 0, 1, 1, 1, 0, 1, 0, 1, 0, 1, 1, 1},
+                {50728, 5, 1, 1, 1, 1, 1, 1},
+                {50778, 3, 21},
+        };
+        int valuesOffset = 8 + 2 + 12 * entries.length + 4;
+        int valuesSize = 0;
+        for (long[] entry : entries) {
+            int size = valueSize(entry);
+            valuesSize += size > 4 ? size : 0;
+        }
+        int stripOffset = valuesOffset + valuesSize;
+        entries[6][2] = stripOffset;
+
+        ByteBuffer dng = ByteBuffer.allocate(stripOffset + jpeg.size()).order(ByteOrder.LITTLE_ENDIAN);
+        dng.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        dng.putShort((short) entries.length);
+        ByteBuffer values = dng.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        values.position(valuesOffset);
+        for (long[] entry : entries) {
+            int type = (int) entry[1];
+            int count = type == 5 || type == 10 ? (entry.length - 2) / 2 : entry.length - 2;
+            dng.putShort((short) entry[0]).putShort((short) type).putInt(count);
+            int size = valueSize(entry);
+            ByteBuffer target = dng;
+            if (size > 4) {
+                dng.putInt(values.position());
+                target = values;
+            }
+            for (int i = 2; i < entry.length; i++) {
+                if (type == 1) {
+                    target.put((byte) entry[i]);
+                } else if (type == 3) {
+                    target.putShort((short) entry[i]);
+                } else {
+                    target.putInt((int) entry[i]);
+                }
+            }
+            if (size < 4) {
+                target.put(new byte[4 - size]);
+            }
+        }
+        dng.putInt(0);
+        dng.position(stripOffset);
+        dng.put(jpeg.toByteArray());
+        Files.write(file.toPath(), dng.array());
+    }
+
+    private static int valueSize(long[] entry)
+    {
+        int type = (int) entry[1];
+        return (entry.length - 2) * (type == 1 ? 1 : type == 3 ? 2 : 4);
+    }
+}
@@ -0,0 +1,113 @@
+package de.unituebingen.dng.processor.demosaicingprocessor;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import de.unituebingen.dng.processor.demosaicingprocessor.DemosaicingProcessor.InterpolationMethod;
+import de.unituebingen.dng.processor.log.NopLogger;
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.dng.util.CFAPattern;
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Properties;
+
+public class AutotunerTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public AutotunerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( AutotunerTest.class );
+    }
+
+    public void testTunedConfigurationIsSaved() throws IOException
+    {
+        File profile = File.createTempFile("autotuner", ".properties");
+        profile.delete();
+        try {
+            Autotuner autotuner = new Autotuner(profile, "Test CPU (2 cores, 4 threads)", 300, 200);
+            Autotuner.Configuration configuration = autotuner.getConfiguration(InterpolationMethod.BILINEAR_MEAN);
+            assertNotNull(configuration);
+            AccelerationStrategy strategy = configuration.accelerationStrategy();
+            assertTrue(strategy.toString(), strategy != AccelerationStrategy.AUTO
+                    && strategy != AccelerationStrategy.AUTO_SMALL && strategy != AccelerationStrategy.AUTO_BIG
+                    && strategy != AccelerationStrategy.GPU_OPERATION_WISE
+                    && strategy != AccelerationStrategy.GPU_TILE_WISE);
+            assertTrue(profile.isFile());
+
+            Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(profile)) {
+                properties.load(in);
+            }
+            assertEquals(strategy + " " + configuration.tileSize(),
+                    properties.getProperty("Test CPU (2 cores, 4 threads).BILINEAR_MEAN"));
+            // another machine sharing the profile is tuned separately
+            new Autotuner(profile, "Other CPU", 300, 200).getConfiguration(InterpolationMethod.BILINEAR_MEAN);
+            properties = new Properties();
+            try (InputStream in = new FileInputStream(profile)) {
+                properties.load(in);
+            }
+            assertEquals(2, properties.size());
+        } finally {
+            profile.delete();
+        }
+    }
+
+    public void testSavedConfigurationIsUsed() throws IOException
+    {
+        File profile = File.createTempFile("autotuner", ".properties");
+        try {
+            Files.writeString(profile.toPath(), "Test\\ CPU.RCD=CPU_MT_TILING 512\n");
+            // the image is too small for any tiles, so a configuration with tiles can only come from the profile
+            Autotuner autotuner = new Autotuner(profile, "Test CPU", 64, 64);
+            assertEquals(new Autotuner.Configuration(AccelerationStrategy.CPU_MT_TILING, 512),
+                    autotuner.getConfiguration(InterpolationMethod.RCD));
+        } finally {
+            profile.delete();
+        }
+    }
+
+    public void testTileSizeKeepsResult()
+    {
+        // the tile sizes which the autotuner chooses from must not change the demosaiced image
+        int width = 301;
+        short[] samples = new short[width * 257];
+        java.util.Random random = new java.util.Random(3);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) random.nextInt(65536);
+        }
+        short[] expected = demosaic(AccelerationStrategy.NONE, 0, samples, width);
+        for (int tileSize : new int[]{64, 128, 256}) {
+            short[] actual = demosaic(AccelerationStrategy.CPU_TILING_MT, tileSize, samples, width);
+            assertTrue("tile size " + tileSize, java.util.Arrays.equals(expected, actual));
+        }
+    }
+
+    private static short[] demosaic(AccelerationStrategy strategy, int tileSize, short[] samples, int width)
+    {
+        int height = samples.length / width;
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferUShort(samples.clone(), samples.length),
+                width, height, width, 1, new int[]{0}, new java.awt.Point(0, 0));
+        ColorModel colorModel = new ComponentColorModel(java.awt.color.ColorSpace.getInstance(java.awt.color.ColorSpace.CS_GRAY),
+                false, false, ColorModel.OPAQUE, DataBuffer.TYPE_USHORT);
+        BufferedImage image = new BufferedImage(colorModel, raster, false, null);
+        DemosaicingProcessor demosaicingProcessor = new DemosaicingProcessor(InterpolationMethod.RCD, CFAPattern.RGGB,
+                strategy, tileSize, new NopLogger());
+        BufferedImage result = demosaicingProcessor.process(image);
+        return ((DataBufferUShort) result.getRaster().getDataBuffer()).getData();
+    }
+}
@@ -65,6 +65,100 @@ public class DemosaicingProcessorTest
         assertTrue(TestUtils.testProcessor(processor, "preprocessed-rggb.png", "bilinear-mean.png", false));
 
     }
+
+    public void testTilingMatchesWholeImage()
+    {
+        // the last column of tiles is narrower than the overlap
+        for (int width : new int[]{301, 2 * 108 + 4}) {
+            short[] samples = new short[width * 257];
+            java.util.Random random = new java.util.Random(42);
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (short) random.nextInt(65536);
+            }
+            for (InterpolationMethod method : new InterpolationMethod[]{InterpolationMethod.BILINEAR_MEAN,
+                    InterpolationMethod.MALVAR_HE_CUTLER, InterpolationMethod.PPG, InterpolationMethod.RCD}) {
+                short[] expected = demosaic(method, AccelerationStrategy.NONE, samples, width);
+                for (AccelerationStrategy strategy : new AccelerationStrategy[]{AccelerationStrategy.CPU_TILING,
+                        AccelerationStrategy.CPU_TILING_MT, AccelerationStrategy.CPU_MT_TILING,
+                        AccelerationStrategy.CPU_MT_TILING_MT}) {
+                    short[] actual = demosaic(method, strategy, samples, width);
+                    assertTrue(method + " " + strategy, java.util.Arrays.equals(expected, actual));
+                }
+            }
+        }
+    }
+
+    public void testPooledBuffersMatchFreshBuffers()
+    {
+        // tiles of several sizes reuse the working arrays of larger ones
+        int width = 301;
+        short[] samples = new short[width * 257];
+        java.util.Random random = new java.util.Random(7);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) random.nextInt(65536);
+        }
+        for (InterpolationMethod method : new InterpolationMethod[]{InterpolationMethod.RCD,
+                InterpolationMethod.DLMMSE_CODE, InterpolationMethod.DLMMSE_RCD_PAPER}) {
+            for (AccelerationStrategy strategy : new AccelerationStrategy[]{AccelerationStrategy.CPU_TILING,
+                    AccelerationStrategy.CPU_TILING_MT}) {
+                short[] expected = demosaic(method, strategy, samples, width, false);
+                short[] actual = demosaic(method, strategy, samples, width, true);
+                assertTrue(method + " " + strategy, java.util.Arrays.equals(expected, actual));
+            }
+        }
+    }
+
+    public void testSimdMatchesScalar()
+    {
+        // odd widths leave a partial vector at the end of each row
+        for (int width : new int[]{301, 2 * 108 + 4}) {
+            short[] samples = new short[width * 257];
+            java.util.Random random = new java.util.Random(11);
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (short) random.nextInt(65536);
+            }
+            for (CFAPattern cfaPattern : new CFAPattern[]{CFAPattern.RGGB, CFAPattern.BGGR, CFAPattern.GRBG,
+                    CFAPattern.GBRG}) {
+                for (InterpolationMethod method : new InterpolationMethod[]{InterpolationMethod.BILINEAR_MEAN_SIMD,
+                        InterpolationMethod.MALVAR_HE_CUTLER_SIMD, InterpolationMethod.RCD_SIMD}) {
+                    for (AccelerationStrategy strategy : new AccelerationStrategy[]{AccelerationStrategy.NONE,
+                            AccelerationStrategy.MULTITHREADING, AccelerationStrategy.CPU_TILING,
+                            AccelerationStrategy.CPU_TILING_MT}) {
+                        short[] expected = demosaic(method.getScalarMethod(), cfaPattern, strategy, samples, width, true);
+                        short[] actual = demosaic(method, cfaPattern, strategy, samples, width, true);
+                        assertTrue(method + " " + cfaPattern + " " + strategy + " " + width,
+                                java.util.Arrays.equals(expected, actual));
+                    }
+                }
+            }
+        }
+    }
+
+    private static short[] demosaic(InterpolationMethod method, AccelerationStrategy strategy, short[] samples, int width)
+    {
+        return demosaic(method, strategy, samples, width, true);
+    }
+
+    private static short[] demosaic(InterpolationMethod method, AccelerationStrategy strategy, short[] samples, int width,
+                                    boolean pooledBuffers)
+    {
+        return demosaic(method, CFAPattern.RGGB, strategy, samples, width, pooledBuffers);
+    }
+
+    private static short[] demosaic(InterpolationMethod method, CFAPattern cfaPattern, AccelerationStrategy strategy,
+                                    short[] samples, int width, boolean pooledBuffers)
+    {
+        int height = samples.length / width;
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferUShort(samples.clone(), samples.length),
+                width, height, width, 1, new int[]{0}, new java.awt.Point(0, 0));
+        ColorModel colorModel = new ComponentColorModel(java.awt.color.ColorSpace.getInstance(java.awt.color.ColorSpace.CS_GRAY),
+                false, false, ColorModel.OPAQUE, DataBuffer.TYPE_USHORT);
+        BufferedImage image = new BufferedImage(colorModel, raster, false, null);
+        DemosaicingProcessor demosaicingProcessor = new DemosaicingProcessor(method, cfaPattern, strategy, new NopLogger());
+        demosaicingProcessor.setPooledBuffers(pooledBuffers);
+        BufferedImage result = demosaicingProcessor.process(image);
+        return ((DataBufferUShort) result.getRaster().getDataBuffer()).getData();
+    }
 }
 
 
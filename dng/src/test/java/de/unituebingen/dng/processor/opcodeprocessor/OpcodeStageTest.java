@@ -0,0 +1,189 @@
+package de.unituebingen.dng.processor.opcodeprocessor;
+
+import de.unituebingen.dng.processor.log.NopLogger;
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.dng.opcode.Opcode;
+import de.unituebingen.dng.reader.dng.opcode.OpcodeFactory;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class OpcodeStageTest
+    extends TestCase
+{
+    private static final int WIDTH = 70;
+    private static final int HEIGHT = 150;
+    // the stage image, e.g. the active area
+    private static final Rectangle BOUNDS = new Rectangle(2, 3, 64, 140);
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public OpcodeStageTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( OpcodeStageTest.class );
+    }
+
+    public void testConstantGainMap()
+    {
+        short[] input = createSamples(1);
+        short[] samples = input.clone();
+        process(AccelerationStrategy.MULTITHREADING, 1, samples, createGainMap(2));
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int i = y * WIDTH + x;
+                int expected = BOUNDS.contains(x, y) ? Math.min(65535, (input[i] & 0xFFFF) * 2) : input[i] & 0xFFFF;
+                assertEquals(expected, samples[i] & 0xFFFF);
+            }
+        }
+    }
+
+    public void testMapTableAndDeltaPerRow()
+    {
+        short[] input = createSamples(1);
+        short[] samples = input.clone();
+        // inverts the samples of every second column of the rows [10, 20), then adds a delta per row
+        ByteBuffer mapTable = ByteBuffer.allocate(9 * 4 + 65536 * 2);
+        mapTable.putInt(10).putInt(0).putInt(20).putInt(64).putInt(0).putInt(1).putInt(1).putInt(2).putInt(65536);
+        for (int i = 0; i < 65536; i++) {
+            mapTable.putShort((short) (65535 - i));
+        }
+        ByteBuffer deltaPerRow = ByteBuffer.allocate(9 * 4 + 140 * 4);
+        deltaPerRow.putInt(0).putInt(0).putInt(140).putInt(64).putInt(0).putInt(1).putInt(1).putInt(1).putInt(140);
+        for (int i = 0; i < 140; i++) {
+            deltaPerRow.putFloat(i / 65535f);
+        }
+        process(AccelerationStrategy.MULTITHREADING, 1, samples, createOpcode(7, mapTable),
+                createOpcode(10, deltaPerRow));
+
+        for (int y = 0; y < BOUNDS.height; y++) {
+            for (int x = 0; x < BOUNDS.width; x++) {
+                int i = (y + BOUNDS.y) * WIDTH + x + BOUNDS.x;
+                int expected = input[i] & 0xFFFF;
+                if (y >= 10 && y < 20 && x % 2 == 0) {
+                    expected = 65535 - expected;
+                }
+                expected = Math.min(65535, expected + y);
+                assertEquals(expected, samples[i] & 0xFFFF);
+            }
+        }
+    }
+
+    public void testIdentityWarp()
+    {
+        short[] input = createSamples(3);
+        short[] samples = input.clone();
+        ByteBuffer warp = ByteBuffer.allocate(4 + 8 * 8);
+        warp.putInt(1).putDouble(1).putDouble(0).putDouble(0).putDouble(0).putDouble(0).putDouble(0)
+                .putDouble(0.5).putDouble(0.5);
+        process(AccelerationStrategy.MULTITHREADING, 3, samples, createOpcode(1, warp));
+        assertTrue(java.util.Arrays.equals(input, samples));
+    }
+
+    public void testFixBadPixelsList()
+    {
+        short[] samples = new short[WIDTH * HEIGHT];
+        java.util.Arrays.fill(samples, (short) 1000);
+        int badPixel = (BOUNDS.y + 7) * WIDTH + BOUNDS.x + 9;
+        samples[badPixel] = (short) 60000;
+        // the neighbours of the same color
+        samples[badPixel - 2 * WIDTH] = 1100;
+        samples[badPixel + 2 * WIDTH] = 1300;
+        ByteBuffer fixBadPixels = ByteBuffer.allocate(5 * 4);
+        fixBadPixels.putInt(0).putInt(1).putInt(0).putInt(7).putInt(9);
+        process(AccelerationStrategy.MULTITHREADING, 1, samples, createOpcode(5, fixBadPixels));
+        assertEquals(1100, samples[badPixel] & 0xFFFF);
+    }
+
+    public void testAccelerationStrategies()
+    {
+        ByteBuffer vignette = ByteBuffer.allocate(7 * 8);
+        vignette.putDouble(0.1).putDouble(-0.05).putDouble(0.02).putDouble(0).putDouble(0)
+                .putDouble(0.4).putDouble(0.6);
+        ByteBuffer warp = ByteBuffer.allocate(4 + 8 * 8);
+        warp.putInt(1).putDouble(0.98).putDouble(0.03).putDouble(-0.01).putDouble(0).putDouble(0.001)
+                .putDouble(-0.002).putDouble(0.5).putDouble(0.45);
+        // one set of coefficients per plane
+        ByteBuffer fisheye = ByteBuffer.allocate(4 + 3 * 4 * 8 + 2 * 8);
+        fisheye.putInt(3);
+        for (int i = 0; i < 3; i++) {
+            fisheye.putDouble(1 + i * 0.01).putDouble(0.1).putDouble(0).putDouble(0);
+        }
+        fisheye.putDouble(0.5).putDouble(0.5);
+        Opcode[] opcodes = {createGainMap(1.5), createOpcode(3, vignette), createOpcode(1, warp),
+                createOpcode(2, fisheye)};
+
+        short[] expected = createSamples(3);
+        process(AccelerationStrategy.NONE, 3, expected, opcodes);
+        assertFalse(java.util.Arrays.equals(createSamples(3), expected));
+        for (AccelerationStrategy strategy : new AccelerationStrategy[]{AccelerationStrategy.MULTITHREADING,
+                AccelerationStrategy.CPU_TILING_MT}) {
+            short[] samples = createSamples(3);
+            process(strategy, 3, samples, opcodes);
+            assertTrue(strategy.name(), java.util.Arrays.equals(expected, samples));
+        }
+    }
+
+    /**
+     * Creates a gain map of 3x4 points with the given gain, which covers the whole stage image.
+     */
+    private static Opcode createGainMap(double gain)
+    {
+        ByteBuffer gainMap = ByteBuffer.allocate(10 * 4 + 4 * 8 + 4 + 3 * 4 * 4);
+        gainMap.putInt(0).putInt(0).putInt(BOUNDS.height).putInt(BOUNDS.width).putInt(0).putInt(3).putInt(1)
+                .putInt(1).putInt(3).putInt(4);
+        gainMap.putDouble(0.5).putDouble(1 / 3.0).putDouble(0).putDouble(0).putInt(1);
+        for (int i = 0; i < 3 * 4; i++) {
+            gainMap.putFloat((float) gain);
+        }
+        return createOpcode(9, gainMap);
+    }
+
+    private static Opcode createOpcode(int id, ByteBuffer data)
+    {
+        return OpcodeFactory.getOpcodeByID(id, 0x01030000, 0, data.capacity(), data.array());
+    }
+
+    private static void process(AccelerationStrategy strategy, int bands, short[] samples, Opcode... opcodes)
+    {
+        OpcodeStage.create("OpcodeList", opcodes, BOUNDS, strategy, new NopLogger())
+                .process(createImage(samples, bands));
+    }
+
+    private static short[] createSamples(int bands)
+    {
+        Random random = new Random(42);
+        short[] samples = new short[WIDTH * HEIGHT * bands];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) random.nextInt(65536);
+        }
+        return samples;
+    }
+
+    private static BufferedImage createImage(short[] samples, int bands)
+    {
+        ColorSpace colorSpace = ColorSpace.getInstance(bands == 1 ? ColorSpace.CS_GRAY : ColorSpace.CS_sRGB);
+        ColorModel colorModel = new ComponentColorModel(colorSpace, false, false, ColorModel.OPAQUE,
+                DataBuffer.TYPE_USHORT);
+        int[] bandOffsets = bands == 1 ? new int[]{0} : new int[]{0, 1, 2};
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferUShort(samples, samples.length),
+                WIDTH, HEIGHT, WIDTH * bands, bands, bandOffsets, new Point(0, 0));
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+}
@@ -0,0 +1,166 @@
+package de.unituebingen.dng.processor.postprocessor;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import de.unituebingen.dng.processor.util.ColorSpaceUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class ColorLookupTable3DTest
+    extends TestCase
+{
+    // the mean CIE76 color difference between the exact mapping and a table, and the difference which 99% of the
+    // colors stay within. The largest differences are found where the saturation is clipped at the gamut boundary.
+    private static final double MEAN_DELTA_E_33 = 0.25;
+    private static final double P99_DELTA_E_33 = 1.5;
+    private static final double MEAN_DELTA_E_65 = 0.1;
+    private static final double P99_DELTA_E_65 = 0.8;
+
+    private static final int H_DIVISIONS = 90;
+    private static final int S_DIVISIONS = 30;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ColorLookupTable3DTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ColorLookupTable3DTest.class );
+    }
+
+    public void testHSVMappingDeltaE()
+    {
+        HSVMapping exact = new HSVMapping(1, 1, new long[]{H_DIVISIONS, S_DIVISIONS, 1}, createHueSatMap());
+        HSVMapping approximated = new HSVMapping(1, 1, new long[]{H_DIVISIONS, S_DIVISIONS, 1}, createHueSatMap());
+        approximated.setLookupTableSize(ColorLookupTable3D.DEFAULT_SIZE);
+        assertDeltaE(exact, approximated, MEAN_DELTA_E_33, P99_DELTA_E_33);
+    }
+
+    public void testProfileLookTableMappingDeltaE()
+    {
+        ProfileLookTableMapping exact = new ProfileLookTableMapping(1, 1, new long[]{H_DIVISIONS, S_DIVISIONS, 1},
+                createHueSatMap());
+        ProfileLookTableMapping approximated = new ProfileLookTableMapping(1, 1,
+                new long[]{H_DIVISIONS, S_DIVISIONS, 1}, createHueSatMap());
+        approximated.setLookupTableSize(65);
+        assertDeltaE(exact, approximated, MEAN_DELTA_E_65, P99_DELTA_E_65);
+    }
+
+    public void testTableIsCached()
+    {
+        HSVMapping first = new HSVMapping(1, 1, new long[]{H_DIVISIONS, S_DIVISIONS, 1}, createHueSatMap());
+        first.setLookupTableSize(17);
+        HSVMapping second = new HSVMapping(1, 1, new long[]{H_DIVISIONS, S_DIVISIONS, 1}, createHueSatMap());
+        second.setLookupTableSize(17);
+        assertSame(first.getKernelStages().get(1), second.getKernelStages().get(1));
+
+        // another map, size or operation gets another table
+        float[] otherMap = createHueSatMap();
+        otherMap[0] += 1;
+        HSVMapping other = new HSVMapping(1, 1, new long[]{H_DIVISIONS, S_DIVISIONS, 1}, otherMap);
+        other.setLookupTableSize(17);
+        assertNotSame(first.getKernelStages().get(1), other.getKernelStages().get(1));
+        first.setLookupTableSize(18);
+        assertNotSame(second.getKernelStages().get(1), first.getKernelStages().get(1));
+        ProfileLookTableMapping lookTable = new ProfileLookTableMapping(1, 1, new long[]{H_DIVISIONS, S_DIVISIONS, 1},
+                createHueSatMap());
+        lookTable.setLookupTableSize(17);
+        assertNotSame(second.getKernelStages().get(1), lookTable.getKernelStages().get(1));
+    }
+
+    private static void assertDeltaE(PostProcessorOperation exact, PostProcessorOperation approximated,
+                                     double meanDeltaE, double p99DeltaE)
+    {
+        PostProcessorKernel exactKernel = PostProcessorKernel.compile(List.of(exact));
+        PostProcessorKernel approximatedKernel = PostProcessorKernel.compile(List.of(approximated));
+        double[][] RIMMRGBtoXYZD50 = ColorSpaceUtils.RIMMRGBtoXYZD50.getData();
+        Random random = new Random(7);
+        int samples = 100000;
+        double[] deltaE = new double[samples];
+        double sum = 0;
+        double[] expected = new double[3];
+        double[] actual = new double[3];
+        for (int i = 0; i < samples; i++) {
+            // colors within the RIMM RGB gamut, where the table is used
+            double r = random.nextDouble();
+            double g = random.nextDouble();
+            double b = random.nextDouble();
+            for (int c = 0; c < 3; c++) {
+                expected[c] = RIMMRGBtoXYZD50[c][0] * r + RIMMRGBtoXYZD50[c][1] * g + RIMMRGBtoXYZD50[c][2] * b;
+                actual[c] = expected[c];
+            }
+            exactKernel.process(expected);
+            approximatedKernel.process(actual);
+            deltaE[i] = deltaE(expected, actual);
+            sum += deltaE[i];
+        }
+        Arrays.sort(deltaE);
+        double p99 = deltaE[samples * 99 / 100];
+        System.out.println(approximated.getClass().getSimpleName() + ": mean delta E " + sum / samples
+                + ", 99th percentile " + p99 + ", max " + deltaE[samples - 1]);
+        assertTrue("mean delta E " + sum / samples, sum / samples <= meanDeltaE);
+        assertTrue("99th percentile of delta E " + p99, p99 <= p99DeltaE);
+
+        // colors outside of the gamut are mapped exactly
+        double[] outside = {1.2, 0.3, 0.1};
+        expected = outside.clone();
+        exactKernel.process(expected);
+        approximatedKernel.process(outside);
+        assertEquals(0, deltaE(expected, outside), 1e-9);
+    }
+
+    /**
+     * @return A smooth hue/saturation map with hue shifts of up to 10 degrees and scale factors between 0.85 and 1.15
+     */
+    private static float[] createHueSatMap()
+    {
+        float[] data = new float[H_DIVISIONS * S_DIVISIONS * 3];
+        for (int h = 0; h < H_DIVISIONS; h++) {
+            double hue = 2 * Math.PI * h / H_DIVISIONS;
+            for (int s = 0; s < S_DIVISIONS; s++) {
+                double saturation = s / (S_DIVISIONS - 1.0);
+                int index = (h * S_DIVISIONS + s) * 3;
+                data[index] = (float) (10 * Math.sin(hue) * saturation);
+                data[index + 1] = (float) (1 + 0.15 * Math.cos(2 * hue) * saturation);
+                data[index + 2] = (float) (1 + 0.05 * Math.sin(hue + 1) * saturation);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * @return The CIE76 color difference of two XYZ D50 colors
+     */
+    private static double deltaE(double[] xyz1, double[] xyz2)
+    {
+        double[] lab1 = toLab(xyz1);
+        double[] lab2 = toLab(xyz2);
+        return Math.sqrt((lab1[0] - lab2[0]) * (lab1[0] - lab2[0]) + (lab1[1] - lab2[1]) * (lab1[1] - lab2[1])
+                + (lab1[2] - lab2[2]) * (lab1[2] - lab2[2]));
+    }
+
+    private static double[] toLab(double[] xyz)
+    {
+        double fx = f(xyz[0] / 0.9642);
+        double fy = f(xyz[1]);
+        double fz = f(xyz[2] / 0.8249);
+        return new double[]{116 * fy - 16, 500 * (fx - fy), 200 * (fy - fz)};
+    }
+
+    private static double f(double t)
+    {
+        return t > 216.0 / 24389 ? Math.cbrt(t) : (24389.0 / 27 * t + 16) / 116;
+    }
+}
@@ -0,0 +1,107 @@
+package de.unituebingen.dng.processor.postprocessor;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import de.unituebingen.dng.reader.DNGFile;
+import de.unituebingen.dng.reader.DNGReadException;
+import de.unituebingen.dng.reader.ImageFileDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+public class FixedPointKernelTest
+    extends TestCase
+{
+    // the largest difference between the fixed-point and the double precision kernel, in 16 bit steps
+    private static final int MAX_ERROR = 4;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public FixedPointKernelTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( FixedPointKernelTest.class );
+    }
+
+    public void testColorSpaceTransformation() throws IOException, DNGReadException
+    {
+        ImageFileDirectory ifd0 = new DNGFile(new File("src/test/resources/RAW-CANON-S30.dng")).get0thImageFileDirectory();
+        List<PostProcessorOperation> operations = List.of(new ColorSpaceTransformation(1, 1, ifd0),
+                new ExposureCorrection(1, 1, ifd0), new XYZD50ToSRGBMapping(1, 1));
+        assertEquals(2, FixedPointKernel.compile(operations).getStageCount());
+        assertMaxError(operations, 65535);
+    }
+
+    public void testToneCurve()
+    {
+        float[] toneCurve = new float[33 * 2];
+        for (int i = 0; i <= 32; i++) {
+            double x = i / 32.0;
+            toneCurve[i * 2] = (float) x;
+            toneCurve[i * 2 + 1] = (float) (0.5 * Math.sqrt(x) + 0.5 * x * x * (3 - 2 * x));
+        }
+        // the samples are XYZ D50, which the tone curve requires to be within [0, 1]
+        assertMaxError(List.of(new ProfileToneCurveMapping(1, 1, toneCurve), new XYZD50ToSRGBMapping(1, 1)), 65535);
+    }
+
+    public void testHSVMapping()
+    {
+        int hDivisions = 36;
+        int sDivisions = 2;
+        float[] hueSatMap = new float[hDivisions * sDivisions * 3];
+        for (int h = 0; h < hDivisions; h++) {
+            double hue = 2 * Math.PI * h / hDivisions;
+            for (int s = 0; s < sDivisions; s++) {
+                int index = (h * sDivisions + s) * 3;
+                hueSatMap[index] = (float) (5 * Math.sin(hue));
+                hueSatMap[index + 1] = (float) (1 + 0.1 * Math.cos(hue));
+                hueSatMap[index + 2] = 1;
+            }
+        }
+        // the hue/saturation mapping is applied in double precision between the fixed-point matrices
+        List<PostProcessorOperation> operations = List.of(
+                new HSVMapping(1, 1, new long[]{hDivisions, sDivisions, 1}, hueSatMap), new XYZD50ToSRGBMapping(1, 1));
+        assertEquals(4, FixedPointKernel.compile(operations).getStageCount());
+        assertMaxError(operations, 52000);
+    }
+
+    /**
+     * Compares the kernels on random samples up to the given maximum.
+     */
+    private static void assertMaxError(List<PostProcessorOperation> operations, int maxSample)
+    {
+        int pixels = 1 << 18;
+        short[] expected = new short[pixels * 3];
+        Random random = new Random(11);
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (short) random.nextInt(maxSample + 1);
+        }
+        short[] actual = expected.clone();
+        PostProcessorKernel.compile(operations).process(expected, 0, pixels, new double[3]);
+        FixedPointKernel.compile(operations).process(actual, 0, pixels);
+
+        int maxError = 0;
+        long sum = 0;
+        for (int i = 0; i < expected.length; i++) {
+            int error = Math.abs((expected[i] & 0xFFFF) - (actual[i] & 0xFFFF));
+            maxError = Math.max(maxError, error);
+            sum += error;
+        }
+        System.out.println("Fixed-point kernel: max error " + maxError + ", mean error "
+                + sum / (double) expected.length + " 16 bit steps");
+        assertTrue("max error " + maxError, maxError <= MAX_ERROR);
+    }
+}
@@ -0,0 +1,101 @@
+package de.unituebingen.dng.processor.postprocessor;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.List;
+
+public class LookupTable1DTest
+    extends TestCase
+{
+    // the largest difference between a table and the function it replaces, a tenth of a 16 bit step
+    private static final double MAX_ERROR = 0.1 / 65535;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public LookupTable1DTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( LookupTable1DTest.class );
+    }
+
+    public void testSRGBEncoding()
+    {
+        XYZD50ToSRGBMapping mapping = new XYZD50ToSRGBMapping(1, 1);
+        // only the encoding, the matrix is compared as part of the fused kernel elsewhere
+        PostProcessorKernel.Stage encoding = mapping.getKernelStages().get(1);
+        double maxError = 0;
+        double[] sample = new double[3];
+        for (int i = 0; i <= 1 << 20; i++) {
+            double value = i / (double) (1 << 20);
+            sample[0] = value;
+            sample[1] = value * value;
+            sample[2] = 1 - value;
+            double[] expected = sample.clone();
+            encoding.apply(sample);
+            for (int c = 0; c < 3; c++) {
+                double exact = expected[c] < 0.0031308 ? 12.92 * expected[c]
+                        : 1.055 * Math.pow(expected[c], 1 / 2.4) - 0.055;
+                maxError = Math.max(maxError, Math.abs(sample[c] - exact));
+            }
+        }
+        System.out.println("sRGB encoding: max error " + maxError * 65535 + " 16 bit steps");
+        assertTrue("max error " + maxError, maxError <= MAX_ERROR);
+    }
+
+    public void testToneCurve()
+    {
+        ProfileToneCurveMapping mapping = new ProfileToneCurveMapping(1, 1, createToneCurve());
+        PostProcessorKernel kernel = PostProcessorKernel.compile(List.of(mapping));
+        double maxError = 0;
+        double[] sample = new double[3];
+        for (int i = 0; i <= 1 << 20; i++) {
+            double value = i / (double) (1 << 20);
+            sample[0] = value;
+            sample[1] = value * value;
+            sample[2] = 1 - value;
+            double[] expected = mapping.process(sample[0], sample[1], sample[2]);
+            kernel.process(sample);
+            for (int c = 0; c < 3; c++) {
+                maxError = Math.max(maxError, Math.abs(sample[c] - expected[c]));
+            }
+        }
+        System.out.println("Tone curve: max error " + maxError * 65535 + " 16 bit steps");
+        assertTrue("max error " + maxError, maxError <= MAX_ERROR);
+    }
+
+    public void testTableIsCached()
+    {
+        float[] toneCurve = createToneCurve();
+        LookupTable1D table = LookupTable1D.getInstance("Test", toneCurve, x -> x);
+        assertSame(table, LookupTable1D.getInstance("Test", toneCurve.clone(), x -> x));
+        assertNotSame(table, LookupTable1D.getInstance("Other", toneCurve, x -> x));
+        toneCurve[3] += 0.01f;
+        assertNotSame(table, LookupTable1D.getInstance("Test", toneCurve, x -> x));
+    }
+
+    /**
+     * @return A tone curve which lifts the shadows and adds contrast, with 33 points
+     */
+    private static float[] createToneCurve()
+    {
+        float[] curve = new float[33 * 2];
+        for (int i = 0; i <= 32; i++) {
+            double x = i / 32.0;
+            curve[i * 2] = (float) x;
+            curve[i * 2 + 1] = (float) (0.5 * Math.sqrt(x) + 0.5 * x * x * (3 - 2 * x));
+        }
+        return curve;
+    }
+}
@@ -0,0 +1,55 @@
+package de.unituebingen.dng.processor.postprocessor;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.nio.ByteBuffer;
+
+public class LookupTableCacheTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public LookupTableCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( LookupTableCacheTest.class );
+    }
+
+    public void testKeyIsDataUpToPosition()
+    {
+        LookupTableCache<Object> cache = new LookupTableCache<>();
+        Object table = cache.get("Test", ByteBuffer.allocate(8).putInt(1), Object::new);
+        // the remaining bytes of the buffer are not part of the key
+        assertSame(table, cache.get("Test", ByteBuffer.allocate(4).putInt(1), Object::new));
+        assertNotSame(table, cache.get("Test", ByteBuffer.allocate(4).putInt(2), Object::new));
+        assertNotSame(table, cache.get("Other", ByteBuffer.allocate(4).putInt(1), Object::new));
+    }
+
+    public void testLeastRecentlyUsedIsEvicted()
+    {
+        LookupTableCache<Object> cache = new LookupTableCache<>();
+        Object first = cache.get("Test", ByteBuffer.allocate(4).putInt(0), Object::new);
+        Object second = cache.get("Test", ByteBuffer.allocate(4).putInt(1), Object::new);
+        for (int i = 2; i < LookupTableCache.CAPACITY; i++) {
+            cache.get("Test", ByteBuffer.allocate(4).putInt(i), Object::new);
+        }
+        // the first table is used again, so the second one is the least recently used
+        assertSame(first, cache.get("Test", ByteBuffer.allocate(4).putInt(0), Object::new));
+        cache.get("Test", ByteBuffer.allocate(4).putInt(LookupTableCache.CAPACITY), Object::new);
+
+        assertSame(first, cache.get("Test", ByteBuffer.allocate(4).putInt(0), Object::new));
+        assertNotSame(second, cache.get("Test", ByteBuffer.allocate(4).putInt(1), Object::new));
+    }
+}
@@ -11,9 +11,14 @@ import de.unituebingen.dng.reader.DNGFile;
 import de.unituebingen.dng.reader.DNGReadException;
 import de.unituebingen.dng.reader.ImageFileDirectory;
 import de.unituebingen.dng.reader.compression.CompressionDecoderException;
+import de.unituebingen.imageprocessor.ImageExporter;
 
+import java.awt.*;
+import java.awt.color.ColorSpace;
 import java.awt.image.*;
 import java.io.*;
+import java.util.List;
+import java.util.Random;
 
 public class PostProcessorTest
     extends TestCase
@@ -85,4 +90,137 @@ public class PostProcessorTest
         assertTrue(TestUtils.testProcessor(postProcessor, "rcd.png", "rcd-processed.png", false));
         
     }
+
+    public void testFusedKernel() throws IOException, DNGReadException
+    {
+        DNGFile dngFile = new DNGFile(new File("src/test/resources/RAW-CANON-S30.dng"));
+        ImageFileDirectory ifd0 = dngFile.get0thImageFileDirectory();
+        int width = 301;
+        int height = 97;
+
+        List<PostProcessorOperation> operations = List.of(new ColorSpaceTransformation(width, height, ifd0),
+                new ExposureCorrection(width, height, ifd0), new XYZD50ToSRGBMapping(width, height));
+        // the three matrices are collapsed into one, followed by the sRGB transfer function
+        assertEquals(2, PostProcessorKernel.compile(operations).getStageCount());
+
+        short[] samples = new short[width * height * 3];
+        Random random = new Random(42);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) random.nextInt(65536);
+        }
+        short[] expected = samples.clone();
+
+        PostProcessor chain = new PostProcessor(new NopLogger(), operations.toArray(new PostProcessorOperation[0]));
+        chain.setFusedKernel(false);
+        chain.process(createImage(expected, width, height));
+        PostProcessor fused = new PostProcessor(new NopLogger(), operations.toArray(new PostProcessorOperation[0]));
+        fused.setAccelerationStrategy(AccelerationStrategy.CPU_TILING_MT);
+        fused.process(createImage(samples, width, height));
+
+        // the collapsed matrix may round differently
+        for (int i = 0; i < samples.length; i++) {
+            assertTrue("sample " + i, Math.abs((samples[i] & 0xFFFF) - (expected[i] & 0xFFFF)) <= 1);
+        }
+    }
+
+    public void testCroppedImage() throws IOException, DNGReadException
+    {
+        int width = 301;
+        int height = 97;
+        short[] samples = createRandomSamples(width, height);
+        short[] expected = samples.clone();
+        PostProcessor postProcessor = createPostProcessor(width, height);
+        postProcessor.process(createImage(expected, width, height));
+
+        // only the pixels of the subimage are processed, also below the first width * height pixels of the buffer
+        Rectangle crop = new Rectangle(7, 3, 280, 90);
+        short[] original = samples.clone();
+        for (AccelerationStrategy strategy : new AccelerationStrategy[]{AccelerationStrategy.NONE,
+                AccelerationStrategy.CPU_TILING, AccelerationStrategy.MULTITHREADING}) {
+            short[] cropped = original.clone();
+            postProcessor.setAccelerationStrategy(strategy);
+            postProcessor.process(createImage(cropped, width, height).getSubimage(crop.x, crop.y, crop.width,
+                    crop.height));
+            for (int i = 0; i < cropped.length; i++) {
+                boolean inside = crop.contains(i / 3 % width, i / 3 / width);
+                assertEquals(strategy + " sample " + i, inside ? expected[i] : original[i], cropped[i]);
+            }
+        }
+    }
+
+    public void testEightBitOutput() throws IOException, DNGReadException
+    {
+        int width = 301;
+        int height = 97;
+        short[] samples = createRandomSamples(width, height);
+        BufferedImage image16 = createImage(samples.clone(), width, height).getSubimage(7, 3, 280, 90);
+        BufferedImage image8 = createImage(samples.clone(), width, height).getSubimage(7, 3, 280, 90);
+
+        PostProcessor postProcessor = createPostProcessor(width, height);
+        postProcessor.setAccelerationStrategy(AccelerationStrategy.CPU_TILING_MT);
+        BufferedImage expected = ImageExporter.create8BitBufferedImage(postProcessor.process(image16));
+        postProcessor.setOutputBitDepth(8);
+        BufferedImage actual = postProcessor.process(image8);
+
+        // the same samples as the conversion of the 16 bit image, in an image of the size of the subimage
+        assertEquals(DataBuffer.TYPE_BYTE, actual.getRaster().getTransferType());
+        assertEquals(280 * 90 * 3, ((DataBufferByte) actual.getRaster().getDataBuffer()).getData().length);
+        assertTrue(java.util.Arrays.equals(expected.getData().getPixels(0, 0, 280, 90, (int[]) null),
+                actual.getData().getPixels(0, 0, 280, 90, (int[]) null)));
+    }
+
+    public void testDithering() throws IOException, DNGReadException
+    {
+        int width = 256;
+        int height = 64;
+        // a smooth gradient, which bands without dithering
+        short[] samples = new short[width * height * 3];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (20000 + (i / 3 % width) * 8 + (i % 3) * 1000);
+        }
+        PostProcessor postProcessor = createPostProcessor(width, height);
+        short[] samples16 = samples.clone();
+        postProcessor.process(createImage(samples16, width, height));
+        postProcessor.setOutputBitDepth(8);
+        postProcessor.setDithering(true);
+        byte[] samples8 = ((DataBufferByte) postProcessor.process(createImage(samples.clone(), width, height))
+                .getRaster().getDataBuffer()).getData();
+
+        // each sample is one of the two 8 bit values next to the exact value, and the mean error vanishes
+        double error = 0;
+        for (int i = 0; i < samples8.length; i++) {
+            double exact = (samples16[i] & 0xFFFF) * 255 / 65535.0;
+            int dithered = samples8[i] & 0xFF;
+            assertTrue("sample " + i, dithered >= Math.floor(exact) && dithered <= Math.floor(exact) + 1);
+            error += dithered - exact;
+        }
+        assertEquals(0, error / samples8.length, 0.02);
+    }
+
+    private static PostProcessor createPostProcessor(int width, int height) throws IOException, DNGReadException
+    {
+        DNGFile dngFile = new DNGFile(new File("src/test/resources/RAW-CANON-S30.dng"));
+        ImageFileDirectory ifd0 = dngFile.get0thImageFileDirectory();
+        return new PostProcessor(new NopLogger(), new ColorSpaceTransformation(width, height, ifd0),
+                new ExposureCorrection(width, height, ifd0), new XYZD50ToSRGBMapping(width, height));
+    }
+
+    private static short[] createRandomSamples(int width, int height)
+    {
+        short[] samples = new short[width * height * 3];
+        Random random = new Random(42);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) random.nextInt(65536);
+        }
+        return samples;
+    }
+
+    private static BufferedImage createImage(short[] samples, int width, int height)
+    {
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+                ColorModel.OPAQUE, DataBuffer.TYPE_USHORT);
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferUShort(samples, samples.length),
+                width, height, width * 3, 3, new int[]{0, 1, 2}, new Point(0, 0));
+        return new BufferedImage(colorModel, raster, false, null);
+    }
 }
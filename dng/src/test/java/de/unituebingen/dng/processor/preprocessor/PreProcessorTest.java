@@ -0,0 +1,247 @@
+package de.unituebingen.dng.processor.preprocessor;
+
+import de.unituebingen.dng.processor.log.NopLogger;
+import de.unituebingen.dng.processor.util.AccelerationStrategy;
+import de.unituebingen.dng.reader.DNGFieldType;
+import de.unituebingen.dng.reader.DNGTag;
+import de.unituebingen.dng.reader.ImageFileDirectory;
+import de.unituebingen.dng.reader.ImageFileDirectoryEntry;
+import de.unituebingen.dng.reader.util.Rational;
+import de.unituebingen.dng.reader.util.SignedRational;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class PreProcessorTest
+    extends TestCase
+{
+    private static final int WIDTH = 67;
+    private static final int HEIGHT = 41;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public PreProcessorTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( PreProcessorTest.class );
+    }
+
+    public void testCompiledKernel()
+    {
+        assertKernelMatchesOperations(createIFD(false));
+    }
+
+    public void testCompiledKernelWithBlackLevelDeltas()
+    {
+        assertKernelMatchesOperations(createIFD(true));
+    }
+
+    public void testCompiledKernelOnLinearRaw()
+    {
+        assertKernelMatchesOperations(createLinearRawIFD(false));
+        assertKernelMatchesOperations(createLinearRawIFD(true));
+    }
+
+    public void testLinearRawLevelsPerSample()
+    {
+        ImageFileDirectory ifd = createLinearRawIFD(false);
+        // the pixel (5, 3) is the first one of the active area
+        int index = (3 * WIDTH + 5) * 3;
+        short[] samples = new short[WIDTH * HEIGHT * 3];
+        samples[index] = 1128;
+        samples[index + 1] = 2064;
+        samples[index + 2] = 1032;
+        createPreProcessor(ifd, true).process(createImage(samples, 3));
+        // (sample - black level) / (white level - black level), then white balanced
+        assertEquals((int) (1000.0 / 3000 * 65535) * 2, samples[index] & 0xFFFF, 2);
+        assertEquals((int) (2000.0 / 4000 * 65535), samples[index + 1] & 0xFFFF, 1);
+        assertEquals((int) (1000.0 / 2000 * 65535 * 1.5), samples[index + 2] & 0xFFFF, 2);
+    }
+
+    public void testCompiledKernelOnBands()
+    {
+        ImageFileDirectory ifd = createIFD(true);
+        short[] expected = createSamples();
+        short[] samples = expected.clone();
+        createPreProcessor(ifd, false).process(createImage(expected));
+
+        // process the image in bands which do not start at the beginning of a row, like the streaming pipeline
+        PreProcessor preProcessor = createPreProcessor(ifd, true);
+        preProcessor.setAccelerationStrategy(AccelerationStrategy.MULTITHREADING);
+        int bandLength = WIDTH * 5 + 3;
+        for (int from = 0; from < samples.length; from += bandLength) {
+            int to = Math.min(samples.length, from + bandLength);
+            short[] band = new short[to - from + 2];
+            System.arraycopy(samples, from, band, 2, to - from);
+            preProcessor.process(band, 2, band.length, from - 2);
+            System.arraycopy(band, 2, samples, from, to - from);
+        }
+        assertEquals(toList(expected), toList(samples));
+    }
+
+    public void testCompiledWhiteBalancing()
+    {
+        // the white balancing alone, as it is applied after the OpcodeList2
+        ImageFileDirectory ifd = createIFD(true);
+        short[] expected = createSamples();
+        PreProcessor operations = new PreProcessor(new NopLogger(), new WhiteBalancing(ifd, ifd));
+        operations.setCompiledKernel(false);
+        operations.process(createImage(expected));
+        short[] samples = createSamples();
+        new PreProcessor(new NopLogger(), new WhiteBalancing(ifd, ifd)).process(createImage(samples));
+        assertEquals(toList(expected), toList(samples));
+    }
+
+    private static void assertKernelMatchesOperations(ImageFileDirectory ifd)
+    {
+        int samplesPerPixel = ifd.getSamplesPerPixel();
+        short[] expected = createSamples(samplesPerPixel);
+        createPreProcessor(ifd, false).process(createImage(expected, samplesPerPixel));
+        for (AccelerationStrategy strategy : new AccelerationStrategy[]{AccelerationStrategy.NONE,
+                AccelerationStrategy.MULTITHREADING, AccelerationStrategy.CPU_TILING_MT}) {
+            short[] samples = createSamples(samplesPerPixel);
+            PreProcessor preProcessor = createPreProcessor(ifd, true);
+            preProcessor.setAccelerationStrategy(strategy);
+            preProcessor.process(createImage(samples, samplesPerPixel));
+            assertEquals(strategy.name(), toList(expected), toList(samples));
+        }
+    }
+
+    private static PreProcessor createPreProcessor(ImageFileDirectory ifd, boolean compiledKernel)
+    {
+        PreProcessor preProcessor = new PreProcessor(new NopLogger(), new RawMapping(ifd, ifd));
+        preProcessor.addOperation(new WhiteBalancing(ifd, ifd));
+        preProcessor.setCompiledKernel(compiledKernel);
+        return preProcessor;
+    }
+
+    /**
+     * Creates a raw image directory with an active area, a per CFA phase black level and a linearization table.
+     */
+    private static ImageFileDirectory createIFD(boolean blackLevelDeltas)
+    {
+        Map<Integer, ImageFileDirectoryEntry> entries = new HashMap<>();
+        put(entries, DNGTag.IMAGE_WIDTH, DNGFieldType.LONG, 1, (long) WIDTH);
+        put(entries, DNGTag.IMAGE_LENGTH, DNGFieldType.LONG, 1, (long) HEIGHT);
+        put(entries, DNGTag.SAMPLES_PER_PIXEL, DNGFieldType.SHORT, 1, 1);
+        put(entries, DNGTag.CFA_REPEAT_PATTERN_DIM, DNGFieldType.SHORT, 2, new int[]{2, 2});
+        put(entries, DNGTag.CFA_PATTERN, DNGFieldType.BYTE, 4, new short[]{0, 1, 1, 2});
+        put(entries, DNGTag.ACTIVE_AREA, DNGFieldType.LONG, 4, new long[]{3, 5, HEIGHT - 2, WIDTH - 4});
+        put(entries, DNGTag.BLACK_LEVEL_REPEAT_DIM, DNGFieldType.SHORT, 2, new int[]{2, 2});
+        put(entries, DNGTag.BLACK_LEVEL, DNGFieldType.RATIONAL, 4, new Rational[]{
+                new Rational(128), new Rational(257, 2), new Rational(130), new Rational(127)});
+        put(entries, DNGTag.WHITE_LEVEL, DNGFieldType.LONG, 1, 4000L);
+        put(entries, DNGTag.AS_SHOT_NEUTRAL, DNGFieldType.RATIONAL, 3, new Rational[]{
+                new Rational(1, 2), new Rational(1), new Rational(2, 3)});
+        int[] linearizationTable = new int[4096];
+        for (int i = 0; i < linearizationTable.length; i++) {
+            linearizationTable[i] = i + i * i / 8192;
+        }
+        put(entries, DNGTag.LINEARIZATION_TABLE, DNGFieldType.SHORT, linearizationTable.length, linearizationTable);
+        if (blackLevelDeltas) {
+            putBlackLevelDeltas(entries);
+        }
+        return new ImageFileDirectory(entries);
+    }
+
+    /**
+     * Creates a LinearRaw image directory with an active area and a black and white level per sample.
+     */
+    private static ImageFileDirectory createLinearRawIFD(boolean blackLevelDeltas)
+    {
+        Map<Integer, ImageFileDirectoryEntry> entries = new HashMap<>();
+        put(entries, DNGTag.IMAGE_WIDTH, DNGFieldType.LONG, 1, (long) WIDTH);
+        put(entries, DNGTag.IMAGE_LENGTH, DNGFieldType.LONG, 1, (long) HEIGHT);
+        put(entries, DNGTag.SAMPLES_PER_PIXEL, DNGFieldType.SHORT, 1, 3);
+        put(entries, DNGTag.ACTIVE_AREA, DNGFieldType.LONG, 4, new long[]{3, 5, HEIGHT - 2, WIDTH - 4});
+        put(entries, DNGTag.BLACK_LEVEL, DNGFieldType.RATIONAL, 3, new Rational[]{
+                new Rational(128), new Rational(64), new Rational(32)});
+        put(entries, DNGTag.WHITE_LEVEL, DNGFieldType.LONG, 3, new long[]{3128, 4064, 2032});
+        put(entries, DNGTag.AS_SHOT_NEUTRAL, DNGFieldType.RATIONAL, 3, new Rational[]{
+                new Rational(1, 2), new Rational(1), new Rational(2, 3)});
+        if (blackLevelDeltas) {
+            putBlackLevelDeltas(entries);
+        }
+        return new ImageFileDirectory(entries);
+    }
+
+    private static void putBlackLevelDeltas(Map<Integer, ImageFileDirectoryEntry> entries)
+    {
+        int width = WIDTH - 4 - 5;
+        int height = HEIGHT - 2 - 3;
+        SignedRational[] deltaH = new SignedRational[width];
+        for (int i = 0; i < width; i++) {
+            deltaH[i] = new SignedRational(i % 7 - 3, 4);
+        }
+        SignedRational[] deltaV = new SignedRational[height];
+        for (int i = 0; i < height; i++) {
+            deltaV[i] = new SignedRational(i % 5, 3);
+        }
+        put(entries, DNGTag.BLACK_LEVEL_DELTA_H, DNGFieldType.SRATIONAL, width, deltaH);
+        put(entries, DNGTag.BLACK_LEVEL_DELTA_V, DNGFieldType.SRATIONAL, height, deltaV);
+    }
+
+    private static void put(Map<Integer, ImageFileDirectoryEntry> entries, DNGTag tag, DNGFieldType fieldType,
+                            long count, Object values)
+    {
+        entries.put(tag.getId(), new ImageFileDirectoryEntry(tag.getId(), fieldType, count, values));
+    }
+
+    private static short[] createSamples()
+    {
+        return createSamples(1);
+    }
+
+    private static short[] createSamples(int samplesPerPixel)
+    {
+        // covers samples beyond the end of the linearization table
+        Random random = new Random(42);
+        short[] samples = new short[WIDTH * HEIGHT * samplesPerPixel];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (i % 3 == 0 ? random.nextInt(65536) : random.nextInt(4096));
+        }
+        return samples;
+    }
+
+    private static BufferedImage createImage(short[] samples)
+    {
+        return createImage(samples, 1);
+    }
+
+    private static BufferedImage createImage(short[] samples, int samplesPerPixel)
+    {
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(samplesPerPixel == 3
+                ? ColorSpace.CS_LINEAR_RGB : ColorSpace.CS_GRAY), false, false, ColorModel.OPAQUE,
+                DataBuffer.TYPE_USHORT);
+        int[] bandOffsets = samplesPerPixel == 3 ? new int[]{0, 1, 2} : new int[]{0};
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferUShort(samples, samples.length),
+                WIDTH, HEIGHT, WIDTH * samplesPerPixel, samplesPerPixel, bandOffsets, new Point(0, 0));
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    private static java.util.List<Short> toList(short[] samples)
+    {
+        java.util.List<Short> list = new java.util.ArrayList<>();
+        for (short sample : samples) {
+            list.add(sample);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,135 @@
+package de.unituebingen.dng.processor.util;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+public class TileSchedulerTest
+    extends TestCase
+{
+    private static final int WIDTH = 103;
+    private static final int HEIGHT = 58;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TileSchedulerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( TileSchedulerTest.class );
+    }
+
+    public void testTilesCoverImageOnce()
+    {
+        for (boolean parallel : new boolean[]{false, true}) {
+            TileScheduler tileScheduler = new TileScheduler(16, 12, 3);
+            tileScheduler.setParallel(parallel);
+            AtomicIntegerArray counts = new AtomicIntegerArray(WIDTH * HEIGHT);
+            tileScheduler.forEachTile(WIDTH, HEIGHT, tile -> {
+                assertEquals(Math.max(0, tile.getX() - 3), tile.getHaloX());
+                assertEquals(Math.max(0, tile.getY() - 3), tile.getHaloY());
+                assertEquals(Math.min(WIDTH, tile.getX() + tile.getWidth() + 3), tile.getHaloX() + tile.getHaloWidth());
+                assertEquals(Math.min(HEIGHT, tile.getY() + tile.getHeight() + 3), tile.getHaloY() + tile.getHaloHeight());
+                // row-major numbering
+                assertEquals(tile.getY() / 12 * 7 + tile.getX() / 16, tile.getIndex());
+                for (int y = tile.getY(); y < tile.getY() + tile.getHeight(); y++) {
+                    for (int x = tile.getX(); x < tile.getX() + tile.getWidth(); x++) {
+                        counts.incrementAndGet(y * WIDTH + x);
+                    }
+                }
+            });
+            for (int i = 0; i < counts.length(); i++) {
+                assertEquals(1, counts.get(i));
+            }
+        }
+    }
+
+    public void testExtract()
+    {
+        short[] samples = new short[WIDTH * HEIGHT];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (i * 7);
+        }
+        new TileScheduler(16, 12, 3).forEachTile(WIDTH, HEIGHT, tile -> {
+            int[] target = new int[tile.getHaloWidth() * tile.getHaloHeight()];
+            tile.extract(samples, WIDTH, target);
+            for (int y = 0; y < tile.getHaloHeight(); y++) {
+                for (int x = 0; x < tile.getHaloWidth(); x++) {
+                    int expected = samples[(tile.getHaloY() + y) * WIDTH + tile.getHaloX() + x] & 0xFFFF;
+                    assertEquals(expected, target[y * tile.getHaloWidth() + x]);
+                }
+            }
+        });
+    }
+
+    public void testBuffersAreNotShared()
+    {
+        Set<int[]> inUse = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        Set<int[]> created = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        TileScheduler tileScheduler = new TileScheduler(4, 4, 0);
+        tileScheduler.forEachTile(WIDTH, HEIGHT, () -> {
+            int[] buffer = new int[1];
+            created.add(buffer);
+            return buffer;
+        }, (tile, buffer) -> {
+            assertTrue(inUse.add(buffer));
+            // nested parallel work, during which the worker may process another tile
+            IntStream.range(0, 64).parallel().forEach(i -> buffer[0] += 0);
+            assertTrue(inUse.remove(buffer));
+        });
+        assertTrue(created.size() <= ForkJoinPool.getCommonPoolParallelism() + 1);
+    }
+
+    public void testExplicitPool()
+    {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        TileScheduler tileScheduler = new TileScheduler(8, 8, 0);
+        tileScheduler.setPool(pool);
+        tileScheduler.forEachTile(WIDTH, HEIGHT, tile -> threads.add(Thread.currentThread()));
+        pool.shutdown();
+        for (Thread thread : threads) {
+            assertTrue(thread instanceof ForkJoinWorkerThread);
+            assertSame(pool, ((ForkJoinWorkerThread) thread).getPool());
+        }
+    }
+
+    public void testOwnPoolIsShutDown()
+    {
+        TileScheduler tileScheduler = new TileScheduler(8, 8, 0);
+        tileScheduler.setParallelism(2);
+        ForkJoinPool first = tileScheduler.getPool();
+        tileScheduler.setParallelism(2);
+        assertSame(first, tileScheduler.getPool());
+
+        tileScheduler.setParallelism(3);
+        ForkJoinPool second = tileScheduler.getPool();
+        assertTrue(first.isShutdown());
+        assertEquals(3, second.getParallelism());
+
+        ForkJoinPool callerPool = new ForkJoinPool(2);
+        tileScheduler.setPool(callerPool);
+        assertTrue(second.isShutdown());
+        tileScheduler.close();
+        assertFalse(callerPool.isShutdown());
+        assertNull(tileScheduler.getPool());
+        callerPool.shutdown();
+    }
+}
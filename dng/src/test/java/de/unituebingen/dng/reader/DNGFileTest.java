@@ -0,0 +1,99 @@
+package de.unituebingen.dng.reader;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import de.unituebingen.dng.reader.compression.CompressionDecoderException;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.List;
+import java.util.Map;
+
+public class DNGFileTest
+    extends TestCase
+{
+    private static final String PATH_TO_DNG_FILE = "src/test/resources/RAW-CANON-S30.dng";
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public DNGFileTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( DNGFileTest.class );
+    }
+
+    public void testLazyValueLoading() throws IOException, DNGReadException, CompressionDecoderException
+    {
+        DNGFile eagerFile = new DNGFile(PATH_TO_DNG_FILE);
+        DNGFile lazyFile = new DNGFile(PATH_TO_DNG_FILE);
+        lazyFile.setLazyValueLoading(true);
+
+        List<ImageFileDirectory> eagerIFDs = eagerFile.getImageFileDirectories();
+        List<ImageFileDirectory> lazyIFDs = lazyFile.getImageFileDirectories();
+        assertEquals(eagerIFDs.size(), lazyIFDs.size());
+
+        boolean foundUnloadedEntry = false;
+        for (int i = 0; i < eagerIFDs.size(); i++) {
+            assertEquals(eagerIFDs.get(i).getType(), lazyIFDs.get(i).getType());
+            Map<Integer, ImageFileDirectoryEntry> eagerEntries = eagerIFDs.get(i).getImageFileDirectoryEntries();
+            Map<Integer, ImageFileDirectoryEntry> lazyEntries = lazyIFDs.get(i).getImageFileDirectoryEntries();
+            assertEquals(eagerEntries.keySet(), lazyEntries.keySet());
+            for (Integer tag : eagerEntries.keySet()) {
+                ImageFileDirectoryEntry lazyEntry = lazyEntries.get(tag);
+                foundUnloadedEntry |= !lazyEntry.isLoaded();
+                assertEquals(eagerEntries.get(tag).valuesAsString(), lazyEntry.valuesAsString());
+                assertTrue(lazyEntry.isLoaded());
+            }
+        }
+        assertTrue("no entry has been loaded lazily", foundUnloadedEntry);
+
+        int[] eagerImage = eagerFile.getRAWImage();
+        int[] lazyImage = lazyFile.getRAWImage();
+        assertEquals(eagerImage.length, lazyImage.length);
+        for (int i = 0; i < eagerImage.length; i++) {
+            assertEquals(eagerImage[i], lazyImage[i]);
+        }
+    }
+
+    public void testBackendsAndThreadsDecodeSameImage() throws IOException, DNGReadException, CompressionDecoderException
+    {
+        DNGFile mappedFile = new DNGFile(new File(PATH_TO_DNG_FILE), true);
+        DNGFile bufferedFile = new DNGFile(new File(PATH_TO_DNG_FILE), false);
+        bufferedFile.setDecodingThreads(1);
+
+        int[] mappedImage = mappedFile.getRAWImage();
+        int[] bufferedImage = bufferedFile.getRAWImage();
+        assertEquals(mappedImage.length, bufferedImage.length);
+        for (int i = 0; i < mappedImage.length; i++) {
+            assertEquals(mappedImage[i], bufferedImage[i]);
+        }
+        mappedFile.close();
+        bufferedFile.close();
+    }
+
+    public void testPreviewImage() throws IOException, DNGReadException, CompressionDecoderException
+    {
+        DNGFile dngFile = new DNGFile(PATH_TO_DNG_FILE);
+        ImageFileDirectory preview = dngFile.getPreviewImageFileDirectory();
+        assertNotNull(preview);
+
+        BufferedImage thumbnail = dngFile.getThumbnailImage();
+        assertTrue(thumbnail.getWidth() < preview.getImageWidth());
+        for (int scale : new int[]{1, 2, 4, 8}) {
+            BufferedImage image = dngFile.getPreviewImage(scale);
+            assertEquals((preview.getImageWidth() + scale - 1) / scale, image.getWidth());
+            assertEquals((preview.getImageLength() + scale - 1) / scale, image.getHeight());
+        }
+    }
+}
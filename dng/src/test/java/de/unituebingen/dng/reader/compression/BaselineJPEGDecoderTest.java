@@ -0,0 +1,162 @@
+package de.unituebingen.dng.reader.compression;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class BaselineJPEGDecoderTest
+    extends TestCase
+{
+    // not a multiple of the MCU size to cover the clipping of partial blocks
+    private static final int WIDTH = 203;
+    private static final int HEIGHT = 131;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public BaselineJPEGDecoderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( BaselineJPEGDecoderTest.class );
+    }
+
+    public void testDecodeColorImage() throws IOException, CompressionDecoderException
+    {
+        byte[] jpeg = encode(createImage(BufferedImage.TYPE_INT_RGB));
+        BufferedImage reference = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertTrue(BaselineJPEGDecoder.isBaselineJPEG(ByteBuffer.wrap(jpeg)));
+
+        int[] decoded = new BaselineJPEGDecoder().decode(jpeg);
+        assertEquals(WIDTH * HEIGHT * 3, decoded.length);
+        assertTrue(meanDifference(reference, decoded, 3, 1) < 1);
+    }
+
+    public void testDecodeGrayImage() throws IOException, CompressionDecoderException
+    {
+        byte[] jpeg = encode(createImage(BufferedImage.TYPE_BYTE_GRAY));
+        BufferedImage reference = ImageIO.read(new ByteArrayInputStream(jpeg));
+
+        int[] decoded = new BaselineJPEGDecoder().decode(jpeg);
+        assertEquals(WIDTH * HEIGHT, decoded.length);
+        assertTrue(meanDifference(reference, decoded, 1, 1) < 1);
+    }
+
+    public void testScaledDecoding() throws IOException, CompressionDecoderException
+    {
+        byte[] jpeg = encode(createImage(BufferedImage.TYPE_INT_RGB));
+        BufferedImage reference = ImageIO.read(new ByteArrayInputStream(jpeg));
+        for (int scale : new int[]{2, 4, 8}) {
+            int[] decoded = new BaselineJPEGDecoder(scale).decode(jpeg);
+            int width = (WIDTH + scale - 1) / scale;
+            int height = (HEIGHT + scale - 1) / scale;
+            assertEquals(width * height * 3, decoded.length);
+            assertTrue("scale " + scale, meanDifference(reference, decoded, 3, scale) < 3);
+        }
+    }
+
+    public void testDecodeIntoWritesTargetAreaOnly() throws IOException, CompressionDecoderException
+    {
+        byte[] jpeg = encode(createImage(BufferedImage.TYPE_INT_RGB));
+        int[] decoded = new BaselineJPEGDecoder().decode(jpeg);
+        int offset = 7;
+        int width = 50 * 3;
+        int rows = 20;
+        int stride = WIDTH * 3 + 11;
+        short[] raster = new short[offset + stride * (rows + 1)];
+        Arrays.fill(raster, (short) -1);
+        new BaselineJPEGDecoder().decodeInto(ByteBuffer.wrap(jpeg), raster, offset, stride, WIDTH * 3, width, rows);
+        for (int i = 0; i < raster.length; i++) {
+            int row = (i - offset) / stride;
+            int column = (i - offset) % stride;
+            if (i >= offset && column < width && row < rows) {
+                assertEquals(decoded[row * WIDTH * 3 + column], raster[i]);
+            } else {
+                assertEquals("sample outside of the target area has been written", -1, raster[i]);
+            }
+        }
+    }
+
+    public void testUnsupportedData()
+    {
+        byte[] data = new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xC2, 0, 0};
+        assertFalse(BaselineJPEGDecoder.isBaselineJPEG(ByteBuffer.wrap(data)));
+        try {
+            new BaselineJPEGDecoder().decode(data);
+            fail("progressive JPEG images are not supported");
+        } catch (CompressionDecoderException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Creates an image with smooth color gradients and some hard edges in the brightness. Hard edges in the chroma
+     * channels are avoided, since the chroma upsampling of the decoders differs.
+     */
+    private static BufferedImage createImage(int type)
+    {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int edge = ((x / 20 + y / 20) & 1) == 0 ? 0 : 80;
+                int r = x * 150 / WIDTH + edge;
+                int g = y * 150 / HEIGHT + edge;
+                int b = (x + y) * 150 / (WIDTH + HEIGHT) + edge;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, "jpeg", out));
+        return out.toByteArray();
+    }
+
+    /**
+     * Compares the decoded samples with the average of the corresponding {@code scale * scale} pixels of the
+     * reference image.
+     */
+    private static double meanDifference(BufferedImage reference, int[] decoded, int samplesPerPixel, int scale)
+    {
+        int width = (reference.getWidth() + scale - 1) / scale;
+        int height = (reference.getHeight() + scale - 1) / scale;
+        double sum = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int c = 0; c < samplesPerPixel; c++) {
+                    double average = 0;
+                    int n = 0;
+                    for (int yy = y * scale; yy < Math.min(reference.getHeight(), (y + 1) * scale); yy++) {
+                        for (int xx = x * scale; xx < Math.min(reference.getWidth(), (x + 1) * scale); xx++) {
+                            average += samplesPerPixel == 1
+                                    ? reference.getRaster().getSample(xx, yy, 0)
+                                    : (reference.getRGB(xx, yy) >> (16 - 8 * c)) & 0xFF;
+                            n++;
+                        }
+                    }
+                    sum += Math.abs(decoded[(y * width + x) * samplesPerPixel + c] - average / n);
+                }
+            }
+        }
+        return sum / (width * height * samplesPerPixel);
+    }
+}
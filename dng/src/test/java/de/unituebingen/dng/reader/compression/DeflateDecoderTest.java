@@ -0,0 +1,251 @@
+package de.unituebingen.dng.reader.compression;
+
+import de.unituebingen.dng.reader.DNGTagConstants;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+public class DeflateDecoderTest
+    extends TestCase
+{
+    // a padded tile of 3 rows with 10 pixels each, of which 7 pixels and 2 rows are written
+    private static final int SAMPLES_PER_PIXEL = 2;
+    private static final int SEGMENT_WIDTH = 10 * SAMPLES_PER_PIXEL;
+    private static final int WIDTH = 7 * SAMPLES_PER_PIXEL;
+    private static final int SEGMENT_ROWS = 3;
+    private static final int ROWS = 2;
+    private static final int ROW_STRIDE = WIDTH + 3;
+    private static final int OFFSET = 5;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public DeflateDecoderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( DeflateDecoderTest.class );
+    }
+
+    public void testHorizontalDifferencing() throws CompressionDecoderException
+    {
+        int[] predictors = {DNGTagConstants.PREDICTOR__NONE, DNGTagConstants.PREDICTOR__HORIZONTAL_DIFFERENCING,
+                DNGTagConstants.PREDICTOR__HORIZONTAL_DIFFERENCE_X2, DNGTagConstants.PREDICTOR__HORIZONTAL_DIFFERENCE_X4};
+        Random random = new Random(11);
+        for (int bitsPerSample : new int[]{8, 16}) {
+            for (ByteOrder byteOrder : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                for (int predictor : predictors) {
+                    int[] samples = new int[SEGMENT_WIDTH * SEGMENT_ROWS];
+                    for (int i = 0; i < samples.length; i++) {
+                        samples[i] = random.nextInt(1 << bitsPerSample);
+                    }
+                    int stride = stride(predictor);
+                    int mask = (1 << bitsPerSample) - 1;
+                    ByteBuffer data = ByteBuffer.allocate(samples.length * bitsPerSample / 8).order(byteOrder);
+                    for (int i = 0; i < samples.length; i++) {
+                        int x = i % SEGMENT_WIDTH;
+                        int value = predictor == DNGTagConstants.PREDICTOR__NONE || x < stride
+                                ? samples[i] : (samples[i] - samples[i - stride]) & mask;
+                        if (bitsPerSample == 8) {
+                            data.put((byte) value);
+                        } else {
+                            data.putShort((short) value);
+                        }
+                    }
+
+                    DeflateDecoder decoder = new DeflateDecoder(bitsPerSample,
+                            DNGTagConstants.SAMPLE_FORMAT__UNSIGNED_INTEGER, predictor, SAMPLES_PER_PIXEL, byteOrder);
+                    assertDecodedInto(samples, decoder, deflate(data.array()));
+                    decoder.close();
+                }
+            }
+        }
+    }
+
+    public void testFloatingPointPredictor() throws CompressionDecoderException
+    {
+        int[] predictors = {DNGTagConstants.PREDICTOR__NONE, DNGTagConstants.PREDICTOR__FLOATING_POINT,
+                DNGTagConstants.PREDICTOR__FLOATING_POINT_X2, DNGTagConstants.PREDICTOR__FLOATING_POINT_X4};
+        Random random = new Random(13);
+        for (int bitsPerSample : new int[]{16, 24, 32}) {
+            int bytesPerSample = bitsPerSample / 8;
+            for (ByteOrder byteOrder : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                for (int predictor : predictors) {
+                    // values of [0, 1] which are exactly representable by all float formats, and some out of range values
+                    float[] values = new float[SEGMENT_WIDTH * SEGMENT_ROWS];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = random.nextInt(1025) / 1024f;
+                    }
+                    values[0] = -0.5f;
+                    values[1] = 3f;
+                    int[] expected = new int[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        expected[i] = Math.max(0, Math.min(65535, Math.round(values[i] * 65535)));
+                    }
+
+                    byte[] data = new byte[values.length * bytesPerSample];
+                    for (int y = 0; y < SEGMENT_ROWS; y++) {
+                        byte[] row = new byte[SEGMENT_WIDTH * bytesPerSample];
+                        for (int x = 0; x < SEGMENT_WIDTH; x++) {
+                            int bits = encodeFloat(values[y * SEGMENT_WIDTH + x], bitsPerSample);
+                            for (int b = 0; b < bytesPerSample; b++) {
+                                // b = 0 is the most significant byte
+                                byte value = (byte) (bits >>> (8 * (bytesPerSample - 1 - b)));
+                                if (predictor == DNGTagConstants.PREDICTOR__NONE) {
+                                    int index = byteOrder == ByteOrder.BIG_ENDIAN ? b : bytesPerSample - 1 - b;
+                                    row[x * bytesPerSample + index] = value;
+                                } else {
+                                    row[b * SEGMENT_WIDTH + x] = value;
+                                }
+                            }
+                        }
+                        if (predictor != DNGTagConstants.PREDICTOR__NONE) {
+                            int stride = stride(predictor);
+                            for (int i = row.length - 1; i >= stride; i--) {
+                                row[i] -= row[i - stride];
+                            }
+                        }
+                        System.arraycopy(row, 0, data, y * row.length, row.length);
+                    }
+
+                    DeflateDecoder decoder = new DeflateDecoder(bitsPerSample,
+                            DNGTagConstants.SAMPLE_FORMAT__IEEE_FLOATING_POINT, predictor, SAMPLES_PER_PIXEL, byteOrder);
+                    assertDecodedInto(expected, decoder, deflate(data));
+                    decoder.close();
+                }
+            }
+        }
+    }
+
+    public void testWhiteLevel() throws CompressionDecoderException
+    {
+        // values above 1.0 are kept up to the white level instead of being clipped
+        float whiteLevel = 8;
+        for (int bitsPerSample : new int[]{16, 24, 32}) {
+            int bytesPerSample = bitsPerSample / 8;
+            float[] values = new float[SEGMENT_WIDTH * SEGMENT_ROWS];
+            int[] expected = new int[values.length];
+            ByteBuffer data = ByteBuffer.allocate(values.length * bytesPerSample);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = i / 4f;
+                expected[i] = Math.min(65535, Math.round(values[i] * (65535 / whiteLevel)));
+                int bits = encodeFloat(values[i], bitsPerSample);
+                for (int b = bytesPerSample - 1; b >= 0; b--) {
+                    data.put((byte) (bits >>> (8 * b)));
+                }
+            }
+            DeflateDecoder decoder = new DeflateDecoder(bitsPerSample, DNGTagConstants.SAMPLE_FORMAT__IEEE_FLOATING_POINT,
+                    DNGTagConstants.PREDICTOR__NONE, SAMPLES_PER_PIXEL, ByteOrder.BIG_ENDIAN, whiteLevel);
+            assertDecodedInto(expected, decoder, deflate(data.array()));
+            decoder.close();
+        }
+    }
+
+    public void testDecoderIsReusable() throws CompressionDecoderException
+    {
+        DeflateDecoder decoder = new DeflateDecoder(8, DNGTagConstants.SAMPLE_FORMAT__UNSIGNED_INTEGER,
+                DNGTagConstants.PREDICTOR__NONE, 1, ByteOrder.BIG_ENDIAN);
+        for (int n = 1; n < 4; n++) {
+            byte[] data = new byte[1000 * n];
+            Arrays.fill(data, (byte) n);
+            int[] decoded = decoder.decode(deflate(data));
+            assertEquals(data.length, decoded.length);
+            for (int sample : decoded) {
+                assertEquals(n, sample);
+            }
+        }
+        decoder.close();
+    }
+
+    public void testTruncatedData()
+    {
+        DeflateDecoder decoder = new DeflateDecoder(16, DNGTagConstants.SAMPLE_FORMAT__UNSIGNED_INTEGER,
+                DNGTagConstants.PREDICTOR__HORIZONTAL_DIFFERENCING, 1, ByteOrder.BIG_ENDIAN);
+        byte[] data = deflate(new byte[100]);
+        try {
+            decoder.decodeInto(ByteBuffer.wrap(data), new short[1000], 0, 100, 100, 100, 10);
+            fail("decoding more rows than the data contains must fail");
+        } catch (CompressionDecoderException e) {
+            // expected
+        }
+        decoder.close();
+    }
+
+    private static void assertDecodedInto(int[] expected, DeflateDecoder decoder, byte[] data)
+            throws CompressionDecoderException
+    {
+        short[] raster = new short[OFFSET + ROWS * ROW_STRIDE];
+        Arrays.fill(raster, (short) -1);
+        decoder.decodeInto(ByteBuffer.wrap(data), raster, OFFSET, ROW_STRIDE, SEGMENT_WIDTH, WIDTH, ROWS);
+        for (int i = 0; i < raster.length; i++) {
+            int row = (i - OFFSET) / ROW_STRIDE;
+            int column = (i - OFFSET) % ROW_STRIDE;
+            if (i >= OFFSET && column < WIDTH && row < ROWS) {
+                assertEquals(expected[row * SEGMENT_WIDTH + column], raster[i] & 0xFFFF);
+            } else {
+                assertEquals("sample outside of the target area has been written", -1, raster[i]);
+            }
+        }
+    }
+
+    private static int stride(int predictor)
+    {
+        switch (predictor) {
+            case DNGTagConstants.PREDICTOR__HORIZONTAL_DIFFERENCE_X2:
+            case DNGTagConstants.PREDICTOR__FLOATING_POINT_X2:
+                return 2 * SAMPLES_PER_PIXEL;
+            case DNGTagConstants.PREDICTOR__HORIZONTAL_DIFFERENCE_X4:
+            case DNGTagConstants.PREDICTOR__FLOATING_POINT_X4:
+                return 4 * SAMPLES_PER_PIXEL;
+            default:
+                return SAMPLES_PER_PIXEL;
+        }
+    }
+
+    /**
+     * Encodes a float which is exactly representable with the given amount of bits.
+     */
+    private static int encodeFloat(float value, int bitsPerSample)
+    {
+        int bits = Float.floatToIntBits(value);
+        if (bitsPerSample == 32 || value == 0) {
+            return bitsPerSample == 32 ? bits : 0;
+        }
+        int sign = bits >>> 31;
+        int exponent = ((bits >>> 23) & 0xFF) - 127;
+        int mantissa = bits & 0x7FFFFF;
+        if (bitsPerSample == 24) {
+            return (sign << 23) | ((exponent + 63) << 16) | (mantissa >>> 7);
+        }
+        return (sign << 15) | ((exponent + 15) << 10) | (mantissa >>> 13);
+    }
+
+    private static byte[] deflate(byte[] data)
+    {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,115 @@
+package de.unituebingen.dng.reader.compression;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import de.unituebingen.dng.reader.io.BitReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.util.Random;
+
+public class JPEGHuffmanDecoderTest
+    extends TestCase
+{
+    // one code of length 2, five codes of length 3 and one code for each length from 4 to 14,
+    // so short codes are decoded by the lookup table and long codes by the canonical code tables
+    private static final byte[] BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0};
+    private static final byte[] HUFF_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public JPEGHuffmanDecoderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( JPEGHuffmanDecoderTest.class );
+    }
+
+    public void testDecodeLosslessDifferences() throws EOFException, CompressionDecoderException
+    {
+        int[] codes = new int[HUFF_VALUES.length];
+        int[] lengths = new int[HUFF_VALUES.length];
+        int code = 0;
+        int k = 0;
+        for (int length = 1; length <= BITS.length; length++) {
+            for (int i = 0; i < BITS[length - 1]; i++) {
+                codes[k] = code++;
+                lengths[k++] = length;
+            }
+            code <<= 1;
+        }
+
+        Random random = new Random(42);
+        int[] categories = new int[10000];
+        int[] differences = new int[categories.length];
+        BitWriter writer = new BitWriter();
+        for (int i = 0; i < categories.length; i++) {
+            int category = random.nextInt(HUFF_VALUES.length);
+            int extraBits = category == 16 ? 0 : random.nextInt(1 << category);
+            categories[i] = category;
+            writer.write(codes[category], lengths[category]);
+            if (category == 16) {
+                differences[i] = 32768;
+            } else {
+                writer.write(extraBits, category);
+                differences[i] = category == 0 || (extraBits & (1 << (category - 1))) != 0
+                        ? extraBits
+                        : extraBits - ((1 << category) - 1);
+            }
+        }
+
+        JPEGHuffmanDecoder decoder = new JPEGHuffmanDecoder(BITS, HUFF_VALUES);
+        BitReader bitReader = new BitReader(writer.toByteArray(), true);
+        for (int i = 0; i < categories.length; i++) {
+            int category = decoder.decode(bitReader);
+            assertEquals(categories[i], category);
+            assertEquals(differences[i], category == 16 ? 32768 : bitReader.readSignedBits(category));
+        }
+    }
+
+    /**
+     * Writes bits in JPEG entropy coded segment format, i.e. 0xFF bytes are followed by a stuffed zero byte and the
+     * data is terminated by an EOI marker.
+     */
+    private static class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private long bits;
+        private int count;
+
+        void write(int value, int length) {
+            bits = (bits << length) | value;
+            count += length;
+            while (count >= 8) {
+                writeByte((int) (bits >>> (count - 8)) & 0xFF);
+                count -= 8;
+            }
+        }
+
+        byte[] toByteArray() {
+            if (count > 0) {
+                //pad with one bits
+                write((1 << (8 - count)) - 1, 8 - count);
+            }
+            out.write(0xFF);
+            out.write(0xD9);
+            return out.toByteArray();
+        }
+
+        private void writeByte(int b) {
+            out.write(b);
+            if (b == 0xFF) {
+                out.write(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package de.unituebingen.dng.reader.compression;
+
+import de.unituebingen.dng.reader.io.BitReader;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class PackedSampleUnpackerTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public PackedSampleUnpackerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( PackedSampleUnpackerTest.class );
+    }
+
+    public void testUnpackMSBFirst() throws EOFException
+    {
+        Random random = new Random(3);
+        byte[] data = new byte[301];
+        random.nextBytes(data);
+        for (int bitsPerSample : new int[]{9, 10, 12, 14, 16}) {
+            int totalSamples = (int) (data.length * 8L / bitsPerSample);
+            int[] expected = new int[totalSamples];
+            BitReader bitReader = new BitReader(data);
+            for (int i = 0; i < totalSamples; i++) {
+                expected[i] = bitReader.readUnsignedBits(bitsPerSample);
+            }
+            // start at every sample of the first group, so that unaligned starts and the end of the data are covered
+            for (int first = 0; first < 5; first++) {
+                short[] raster = new short[totalSamples];
+                PackedSampleUnpacker.unpack(ByteBuffer.wrap(data), (long) first * bitsPerSample, raster, first,
+                        totalSamples - first, bitsPerSample, true);
+                for (int i = first; i < totalSamples; i++) {
+                    assertEquals(bitsPerSample + " bit sample " + i, expected[i], raster[i] & 0xFFFF);
+                }
+            }
+        }
+    }
+
+    public void testUnpackLSBFirst()
+    {
+        Random random = new Random(5);
+        byte[] data = new byte[301];
+        random.nextBytes(data);
+        for (int bitsPerSample : new int[]{9, 10, 12, 14, 16}) {
+            int totalSamples = (int) (data.length * 8L / bitsPerSample);
+            for (int first = 0; first < 5; first++) {
+                short[] raster = new short[totalSamples];
+                PackedSampleUnpacker.unpack(ByteBuffer.wrap(data), (long) first * bitsPerSample, raster, first,
+                        totalSamples - first, bitsPerSample, false);
+                for (int i = first; i < totalSamples; i++) {
+                    assertEquals(bitsPerSample + " bit sample " + i, referenceLSBFirst(data, i, bitsPerSample),
+                            raster[i] & 0xFFFF);
+                }
+            }
+        }
+    }
+
+    public void testShortData()
+    {
+        Random random = new Random(7);
+        // rows shorter than a long, e.g. 4 samples of 10 bits, and tails of 5 to 7 bytes after whole groups
+        for (int length = 1; length <= 24; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            for (int bitsPerSample : new int[]{10, 12, 14}) {
+                int totalSamples = length * 8 / bitsPerSample;
+                for (int first = 0; first < Math.min(4, totalSamples); first++) {
+                    for (boolean msbFirst : new boolean[]{true, false}) {
+                        short[] raster = new short[totalSamples];
+                        PackedSampleUnpacker.unpack(ByteBuffer.wrap(data), (long) first * bitsPerSample, raster,
+                                first, totalSamples - first, bitsPerSample, msbFirst);
+                        for (int i = first; i < totalSamples; i++) {
+                            int expected = msbFirst ? referenceMSBFirst(data, i, bitsPerSample)
+                                    : referenceLSBFirst(data, i, bitsPerSample);
+                            assertEquals(length + " bytes, " + bitsPerSample + " bit sample " + i, expected,
+                                    raster[i] & 0xFFFF);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static int referenceMSBFirst(byte[] data, int index, int bitsPerSample)
+    {
+        int sample = 0;
+        for (int bit = 0; bit < bitsPerSample; bit++) {
+            long position = (long) index * bitsPerSample + bit;
+            sample = sample << 1 | ((data[(int) (position >> 3)] >> (7 - (int) (position & 7))) & 1);
+        }
+        return sample;
+    }
+
+    private static int referenceLSBFirst(byte[] data, int index, int bitsPerSample)
+    {
+        int sample = 0;
+        for (int bit = 0; bit < bitsPerSample; bit++) {
+            long position = (long) index * bitsPerSample + bit;
+            sample |= ((data[(int) (position >> 3)] >> (int) (position & 7)) & 1) << bit;
+        }
+        return sample;
+    }
+}
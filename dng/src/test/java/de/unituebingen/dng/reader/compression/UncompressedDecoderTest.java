@@ -0,0 +1,65 @@
+package de.unituebingen.dng.reader.compression;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+public class UncompressedDecoderTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public UncompressedDecoderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( UncompressedDecoderTest.class );
+    }
+
+    public void testDecodeIntoMatchesDecode() throws CompressionDecoderException
+    {
+        // a padded segment of 3 rows with 5 samples each, of which 4 samples and 2 rows are written
+        int segmentWidth = 5;
+        int width = 4;
+        int rows = 2;
+        int rowStride = 7;
+        int offset = 3;
+        for (int bitsPerSample : new int[]{8, 10, 12, 14, 16}) {
+            for (ByteOrder byteOrder : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                byte[] data = new byte[3 * segmentWidth * bitsPerSample / 8 + 1];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = (byte) (i * 37 + 11);
+                }
+                UncompressedDecoder decoder = new UncompressedDecoder(bitsPerSample, byteOrder);
+                int[] decoded = decoder.decode(data);
+
+                short[] raster = new short[offset + rows * rowStride];
+                Arrays.fill(raster, (short) -1);
+                decoder.decodeInto(ByteBuffer.wrap(data), raster, offset, rowStride, segmentWidth, width, rows);
+
+                for (int i = 0; i < raster.length; i++) {
+                    int row = (i - offset) / rowStride;
+                    int column = (i - offset) % rowStride;
+                    if (i >= offset && column < width && row < rows) {
+                        assertEquals(decoded[row * segmentWidth + column], raster[i] & 0xFFFF);
+                    } else {
+                        assertEquals("sample outside of the target area has been written", -1, raster[i]);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package de.unituebingen.dng.reader.io;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.EOFException;
+import java.util.Random;
+
+public class BitReaderTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public BitReaderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( BitReaderTest.class );
+    }
+
+    public void testReadUnsignedBits() throws EOFException
+    {
+        Random random = new Random(7);
+        byte[] data = new byte[1001];
+        random.nextBytes(data);
+
+        BitReader bitReader = new BitReader(data);
+        long bitPosition = 0;
+        while (true) {
+            int n = 1 + random.nextInt(BitReader.MAX_BITS - 1);
+            if (bitPosition + n > data.length * 8L) {
+                break;
+            }
+            assertEquals(referenceBits(data, bitPosition, n), bitReader.peekBits(n));
+            assertEquals(referenceBits(data, bitPosition, n), bitReader.readUnsignedBits(n));
+            bitPosition += n;
+        }
+
+        int remainingBits = (int) (data.length * 8L - bitPosition);
+        try {
+            bitReader.skipBits(remainingBits + 1);
+            fail("reading beyond the end of the data must fail");
+        } catch (EOFException e) {
+            // expected
+        }
+        bitReader.skipBits(remainingBits);
+    }
+
+    public void testSkipZeroBytes() throws EOFException
+    {
+        // 0xFF 0x00 is a stuffed 0xFF byte, 0xFF 0xD9 is a marker which ends the data
+        byte[] data = {0x12, (byte) 0xFF, 0x00, 0x34, 0x56, (byte) 0xFF, 0x00, (byte) 0xFF, 0x00, 0x78, 0x01, 0x02,
+                0x03, 0x04, (byte) 0xFF, (byte) 0xD9};
+        int[] expected = {0x12, 0xFF, 0x34, 0x56, 0xFF, 0xFF, 0x78, 0x01, 0x02, 0x03, 0x04};
+
+        BitReader bitReader = new BitReader(data, true);
+        for (int value : expected) {
+            assertEquals(value, bitReader.readUnsignedBits(8));
+        }
+        assertEquals(0, bitReader.peekBits(16));
+        try {
+            bitReader.skipBits(1);
+            fail("the marker must not be read as data");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    private static int referenceBits(byte[] data, long bitPosition, int n)
+    {
+        int bits = 0;
+        for (long i = bitPosition; i < bitPosition + n; i++) {
+            int bit = (data[(int) (i >> 3)] >> (7 - (int) (i & 7))) & 1;
+            bits = (bits << 1) | bit;
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,74 @@
+package de.unituebingen.imageprocessor;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+public class PNGEncoderTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public PNGEncoderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( PNGEncoderTest.class );
+    }
+
+    public void testCompressionLevels() throws IOException
+    {
+        for (int level : new int[]{0, 1, 6, 9}) {
+            for (int bitsPerSample : new int[]{8, 16}) {
+                BufferedImage image = TIFFEncoderTest.createImage(bitsPerSample, level == 1);
+                File file = File.createTempFile("encoder", ".png");
+                file.deleteOnExit();
+                PNGEncoder encoder = new PNGEncoder(file);
+                encoder.setCompressionLevel(level);
+                encoder.setRowsPerStrip(10);
+                TIFFEncoderTest.encodeInBands(encoder, image);
+                TIFFEncoderTest.assertPixelsEqual("level " + level + ", " + bitsPerSample + " bit", image,
+                        ImageIO.read(file));
+            }
+        }
+    }
+
+    public void testExporter() throws IOException
+    {
+        BufferedImage image = TIFFEncoderTest.createImage(8, false);
+        File file = File.createTempFile("exporter", ".png");
+        file.deleteOnExit();
+        ImageExporter.saveAsPNG(image, file);
+        TIFFEncoderTest.assertPixelsEqual("exporter", image, ImageIO.read(file));
+    }
+
+    public void testCombineAdler32()
+    {
+        byte[] data = new byte[100000];
+        new Random(5).nextBytes(data);
+        Adler32 whole = new Adler32();
+        whole.update(data);
+        Adler32 first = new Adler32();
+        first.update(data, 0, 12345);
+        Adler32 second = new Adler32();
+        second.update(data, 12345, data.length - 12345);
+        assertEquals((int) whole.getValue(), PNGEncoder.combineAdler32((int) first.getValue(),
+                (int) second.getValue(), data.length - 12345));
+    }
+}
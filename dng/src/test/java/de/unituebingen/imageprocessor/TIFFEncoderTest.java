@@ -0,0 +1,154 @@
+package de.unituebingen.imageprocessor;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TIFFEncoderTest
+    extends TestCase
+{
+    private static final int WIDTH = 157;
+    private static final int HEIGHT = 101;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TIFFEncoderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( TIFFEncoderTest.class );
+    }
+
+    public void testCompressions() throws IOException
+    {
+        for (TIFFEncoder.Compression compression : TIFFEncoder.Compression.values()) {
+            for (int bitsPerSample : new int[]{8, 16}) {
+                for (boolean noise : new boolean[]{false, true}) {
+                    BufferedImage image = createImage(bitsPerSample, noise);
+                    File file = File.createTempFile("encoder", ".tiff");
+                    file.deleteOnExit();
+                    TIFFEncoder encoder = new TIFFEncoder(file);
+                    encoder.setCompression(compression);
+                    encoder.setRowsPerStrip(16);
+                    encodeInBands(encoder, image);
+                    assertPixelsEqual(compression + " " + bitsPerSample + " bit", image, ImageIO.read(file));
+                }
+            }
+        }
+    }
+
+    public void testExporter() throws IOException
+    {
+        BufferedImage image = createImage(16, false);
+        File file = File.createTempFile("exporter", ".tiff");
+        file.deleteOnExit();
+        ImageExporter.saveAsTIFF(image, file);
+        assertPixelsEqual("exporter", image, ImageIO.read(file));
+    }
+
+    public void testBGRImage() throws IOException
+    {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        Random random = new Random(7);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        assertTrue(ParallelImageEncoder.isSupported(image));
+        File file = File.createTempFile("encoder", ".tiff");
+        file.deleteOnExit();
+        TIFFEncoder encoder = new TIFFEncoder(file);
+        encoder.setCompression(TIFFEncoder.Compression.LZW);
+        encoder.encode(image);
+        BufferedImage result = ImageIO.read(file);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(image.getRGB(x, y), result.getRGB(x, y));
+            }
+        }
+    }
+
+    public void testIncompleteImage() throws IOException
+    {
+        BufferedImage image = createImage(8, false);
+        File file = File.createTempFile("encoder", ".tiff");
+        file.deleteOnExit();
+        TIFFEncoder encoder = new TIFFEncoder(file);
+        encoder.start(WIDTH, HEIGHT + 1);
+        encoder.writeBand(image, 0);
+        try {
+            encoder.finish();
+            fail("the last row is missing");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    /**
+     * Writes an image in bands of different heights, which do not line up with the strips.
+     */
+    static void encodeInBands(ParallelImageEncoder<?> encoder, BufferedImage image) throws IOException
+    {
+        encoder.start(image.getWidth(), image.getHeight());
+        int y = 0;
+        for (int bandHeight = 1; y < image.getHeight(); bandHeight += 7) {
+            int rows = Math.min(bandHeight, image.getHeight() - y);
+            encoder.writeBand(image.getSubimage(0, y, image.getWidth(), rows), y);
+            y += rows;
+        }
+        encoder.finish();
+    }
+
+    /**
+     * @return A subimage of a larger image with a gradient, or with noise which LZW cannot compress
+     */
+    static BufferedImage createImage(int bitsPerSample, boolean noise)
+    {
+        int dataType = bitsPerSample == 8 ? DataBuffer.TYPE_BYTE : DataBuffer.TYPE_USHORT;
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+                ColorModel.OPAQUE, dataType);
+        WritableRaster raster = Raster.createInterleavedRaster(dataType, WIDTH + 5, HEIGHT + 3, 3, new Point(0, 0));
+        Random random = new Random(3);
+        int max = (1 << bitsPerSample) - 1;
+        for (int y = 0; y < raster.getHeight(); y++) {
+            for (int x = 0; x < raster.getWidth(); x++) {
+                for (int c = 0; c < 3; c++) {
+                    int value = noise ? random.nextInt(max + 1)
+                            : (x * 97 + y * 31 * (c + 1)) * max / 30000 + random.nextInt(3);
+                    raster.setSample(x, y, c, Math.min(value, max));
+                }
+            }
+        }
+        return new BufferedImage(colorModel, raster, false, null).getSubimage(3, 2, WIDTH, HEIGHT);
+    }
+
+    static void assertPixelsEqual(String message, BufferedImage expected, BufferedImage actual)
+    {
+        assertEquals(message, expected.getWidth(), actual.getWidth());
+        assertEquals(message, expected.getHeight(), actual.getHeight());
+        assertEquals(message, expected.getSampleModel().getSampleSize(0), actual.getSampleModel().getSampleSize(0));
+        int[] expectedPixels = expected.getData().getPixels(0, 0, expected.getWidth(), expected.getHeight(),
+                (int[]) null);
+        int[] actualPixels = actual.getData().getPixels(0, 0, actual.getWidth(), actual.getHeight(), (int[]) null);
+        assertTrue(message, Arrays.equals(expectedPixels, actualPixels));
+    }
+}
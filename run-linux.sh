@@ -7,4 +7,4 @@ HERE=${BASH_SOURCE%/*}
 
 test -f "$HERE/jeniffer2.jar" || (echo "Jeniffer2 was not properly unpacked. Deleting cache, please try again!" && rm -rf $HERE && exit 1)
 
-"$HERE/jre/bin/java" -jar "$HERE/jeniffer2.jar" "$@"
+"$HERE/jre/bin/java" --add-modules jdk.incubator.vector -jar "$HERE/jeniffer2.jar" "$@"
@@ -9,4 +9,4 @@ JAR=$DIR/jeniffer2.jar
 
 test -f "$JAR" || (echo "Jeniffer2 was not properly unpacked. Deleting cache, please try again!" && rm -rf $HERE && exit 1)
 
-exec "$JAVA" -jar "$JAR" "$@"
+exec "$JAVA" --add-modules jdk.incubator.vector -jar "$JAR" "$@"
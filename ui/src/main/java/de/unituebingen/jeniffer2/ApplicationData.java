@@ -60,6 +60,13 @@ public class ApplicationData {
     }
 
     private BufferedImage processImage(PipelineConfiguration config) throws IOException, DNGReadException, CompressionDecoderException, EOFException {
+        return processImage(config, 16);
+    }
+
+    /**
+     * @param outputBitDepth The bit depth of the processed image, see {@link DNGProcessor#setOutputBitDepth(int)}
+     */
+    private BufferedImage processImage(PipelineConfiguration config, int outputBitDepth) throws IOException, DNGReadException, CompressionDecoderException, EOFException {
         if (pipeline == null) {                
             pipeline = new DNGProcessor(tiffReader.getFile());
             pipeline.setLoggingMethod(LoggingMethod.CSV_AND_CONSOLE);
@@ -67,6 +74,7 @@ public class ApplicationData {
         pipeline.setInterpolationMethod(config.interpolationMethod());
         pipeline.setAccelerationStrategy(config.accelerationStrategy());
         pipeline.setSubstep(config.subStep());
+        pipeline.setOutputBitDepth(outputBitDepth);
         ImageFileDirectory baselineIFD = tiffReader.get0thImageFileDirectory();
         int orientation = baselineIFD.getOrientation();
         Orientation imageOrientation = ImageUtils.Orientation.getByTiffOrientation(orientation);
@@ -167,8 +175,8 @@ public class ApplicationData {
 
     public void saveAsJPEG(File file, float compression) throws IOException, DNGReadException, CompressionDecoderException, EOFException {
         // FXImage is 8 bit by default
-        // but exporter complains about colorspace
-        BufferedImage image = processImage(currentConfig);
-        ImageExporter.saveAsJPEG(ImageExporter.create8BitBufferedImage(image), file, compression);
+        // but exporter complains about colorspace, so the post-processing writes the 8 bit samples directly
+        BufferedImage image = processImage(currentConfig, 8);
+        ImageExporter.saveAsJPEG(image, file, compression);
     }
 }